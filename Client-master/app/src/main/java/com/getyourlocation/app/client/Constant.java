@@ -8,6 +8,7 @@ public class Constant {
     public static final String URL_API_UPLOAD = URL_CLOUD_SERVER + "/api/upload";
     public static final String URL_API_SHOP_LOCATION = URL_CLOUD_SERVER + "/api/shop-location";
     public static final String URL_API_POSITION = URL_CLOUD_SERVER + "/api/positioning";
+    public static final String URL_API_SESSIONS = URL_CLOUD_SERVER + "/api/sessions";
 
     public static final String FILENAME_MAP = "map.png";
 }
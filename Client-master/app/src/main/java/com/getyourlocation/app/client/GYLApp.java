@@ -2,12 +2,53 @@ package com.getyourlocation.app.client;
 
 import android.app.Application;
 
+import com.getyourlocation.app.client.upload.SessionUploader;
 
+import java.io.File;
+
+
+/**
+ * The application. Owns what must outlive the activities, such as the uploader of recorded
+ * sessions, which keeps uploading after the user leaves the activity that started it.
+ */
 public class GYLApp extends Application {
     private static final String TAG = "GYLApp";
 
+    private SessionUploader sessionUploader;
+    private boolean pendingUploadsResumed = false;
+
     @Override
     public void onCreate() {
         super.onCreate();
     }
+
+    /**
+     * Return the uploader of recorded sessions. Called on the main thread.
+     */
+    public SessionUploader getSessionUploader() {
+        if (sessionUploader == null) {
+            sessionUploader = new SessionUploader(Constant.URL_API_SESSIONS);
+        }
+        return sessionUploader;
+    }
+
+    /**
+     * Upload the sessions of a storage directory that a previous run did not finish. Only
+     * the first call of the process does anything, later sessions are uploaded as recorded.
+     */
+    public void resumePendingUploads(File storageDir) {
+        if (pendingUploadsResumed) {
+            return;
+        }
+        pendingUploadsResumed = true;
+        File[] sessions = storageDir.listFiles();
+        if (sessions == null) {
+            return;
+        }
+        for (File dir : sessions) {
+            if (dir.isDirectory() && SessionUploader.hasPendingUpload(dir)) {
+                getSessionUploader().upload(dir);
+            }
+        }
+    }
 }
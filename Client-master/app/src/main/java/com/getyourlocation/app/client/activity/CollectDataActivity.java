@@ -5,7 +5,6 @@ import android.content.DialogInterface;
 import android.graphics.ImageFormat;
 import android.graphics.Rect;
 import android.graphics.YuvImage;
-import android.hardware.Camera;
 import android.os.Bundle;
 import android.os.Environment;
 import android.os.Handler;
@@ -18,7 +17,21 @@ import android.widget.FrameLayout;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.getyourlocation.app.client.GYLApp;
 import com.getyourlocation.app.client.R;
+import com.getyourlocation.app.client.camera.CameraBackend;
+import com.getyourlocation.app.client.camera.CameraBackendFactory;
+import com.getyourlocation.app.client.camera.PreviewBufferPool;
+import com.getyourlocation.app.client.record.CaptureScheduler;
+import com.getyourlocation.app.client.record.FrameContainerWriter;
+import com.getyourlocation.app.client.record.FramePipeline;
+import com.getyourlocation.app.client.record.FrameQualityAnalyzer;
+import com.getyourlocation.app.client.record.H264Recorder;
+import com.getyourlocation.app.client.record.JpegQualityGovernor;
+import com.getyourlocation.app.client.record.RecordingSession;
+import com.getyourlocation.app.client.record.SensorLog;
+import com.getyourlocation.app.client.record.SensorLogWriter;
+import com.getyourlocation.app.client.upload.SessionUploader;
 import com.getyourlocation.app.client.util.CommonUtil;
 import com.getyourlocation.app.client.util.SensorUtil;
 import com.getyourlocation.app.client.widget.CameraPreview;
@@ -26,40 +39,87 @@ import com.getyourlocation.app.client.widget.MapDialog;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.FileWriter;
-import java.util.ArrayList;
-import java.util.List;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class CollectDataActivity extends AppCompatActivity {
     private static final String TAG = "CollectDataActivity";
     private static final String STORAGE_DIR = "GYL-Data";
-    private static final String FRAMES_DIR = "JPEGImages";
-    private static final String SENSOR_FILENAME = "sensor.txt";
+    private static final String FRAMES_FILENAME = "frames.gyc";
+    private static final String SENSOR_FILENAME = "sensor.bin";
     private static final String ANNOTATION_FILENAME = "annotation.txt";
+    private static final String VIDEO_FILENAME = "frames.mp4";
+    private static final String VIDEO_INDEX_FILENAME = "frames.idx";
+    private static final int VIDEO_FRAME_RATE = 30;
+    private static final float VIDEO_BITS_PER_PIXEL = 0.25f;
+    // Frames kept per second when the phone stands still and when it moves
+    private static final float CAPTURE_MIN_FPS = 2;
+    private static final float CAPTURE_MAX_FPS = VIDEO_FRAME_RATE;
+    private static final int FRAME_QUEUE_CAPACITY = 4;
+    private static final int ENCODER_COUNT = Runtime.getRuntime().availableProcessors();
+    // Every queued or encoding frame holds a buffer, plus one being delivered by the camera
+    private static final int PREVIEW_BUFFER_COUNT = FRAME_QUEUE_CAPACITY + ENCODER_COUNT + 1;
 
     private TextView infoTxt;
     private Button recordBtn;
     private MapDialog mapDialog;
 
-    private Camera camera;
+    private CameraBackend camera;
     private CameraPreview cameraPreview;
 
-    private File framesDir;
+    private File sessionDir;
     private SensorUtil sensorUtil;
-    private List<String> sensorData;
+    private SensorLogWriter sensorLog;
 
     private Handler handler;
     private Runnable timingRunnable;
 
-    private boolean isRecording = false;
+    private volatile boolean isRecording = false;
     private int seconds = 0;
-    private int frameCnt = 1;
 
     private boolean initCam = true;
 
-    private Camera.Parameters params;
-    private List<Float> focalLengthData;
+    private float focalLength;
+
+    private FramePipeline framePipeline;
+    private RecordingSession session;
+    private CaptureScheduler captureScheduler;
+    private JpegQualityGovernor qualityGovernor;
+    private FrameQualityAnalyzer qualityAnalyzer;
+    private final FrameQualityAnalyzer.Result frameQuality = new FrameQualityAnalyzer.Result();
+    private volatile int lowQualityCount = 0;
+    private int frameWidth;
+    private int frameHeight;
+    // Sensor values of the current frame, used on the camera thread
+    private final float[] frameOrientation = new float[3];
+    private final float[] frameAcceleration = new float[3];
+    private final float[] frameMagnetism = new float[3];
+    // Sensor values of the frame being logged, used on the writer thread
+    private final float[] logOrientation = new float[3];
+    private final float[] logAcceleration = new float[3];
+    private final float[] logMagnetism = new float[3];
+    private RecordMode recordMode = RecordMode.JPEG;
+    private H264Recorder h264Recorder;
+    private FrameContainerWriter frameContainer;
+    // Owned by the application, uploads go on after this activity is gone
+    private SessionUploader sessionUploader;
+    private SessionUploader.Listener uploadListener;
+    // Steps left before the last session can be uploaded: saving the frames and the annotation
+    private int pendingSessionSteps = 0;
+    // Session recorded until the activity paused, whose annotation is asked on resume
+    private File annotationPendingDir;
+
+    /**
+     * How recorded frames are stored.
+     */
+    private enum RecordMode {
+        /** Every frame encoded as a JPEG entry of the single frames.gyc container. */
+        JPEG,
+        /** A single H.264 video with a frame index. */
+        H264
+    }
+
 
 
     @Override
@@ -68,11 +128,11 @@ public class CollectDataActivity extends AppCompatActivity {
         setContentView(R.layout.activity_collect_data);
         initInfoTxt();
         initSensor();
-        initZoom();
         initTiming();
         initCamera();
         initMapDialog();
         initRecordBtn();
+        initUploader();
     }
 
     @Override
@@ -82,20 +142,37 @@ public class CollectDataActivity extends AppCompatActivity {
         if (initCam == false) {
             initCamera();
         }
+        if (annotationPendingDir != null) {
+            File dir = annotationPendingDir;
+            annotationPendingDir = null;
+            inputAnnotation(dir);
+        }
     }
 
     @Override
     protected void onPause() {
         super.onPause();
+        if (isRecording) {
+            // No dialog while pausing, the annotation is asked when the activity comes back
+            annotationPendingDir = endRecord(false);
+        }
         sensorUtil.unregister();
         releaseCamera();
         FrameLayout layout = (FrameLayout) findViewById(R.id.data_preview_layout);
         layout.removeAllViews();
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // Keep uploading, only stop reporting to this activity
+        if (sessionUploader.getListener() == uploadListener) {
+            sessionUploader.setListener(null);
+        }
+    }
+
     private void releaseCamera(){
         if (camera != null){
-            camera.setPreviewCallback(null);
             camera.release();
             camera = null;
             initCam = false;
@@ -107,14 +184,9 @@ public class CollectDataActivity extends AppCompatActivity {
     }
 
     private void initSensor() {
-        sensorData = new ArrayList<>();
         sensorUtil = SensorUtil.getInstance(this);
     }
 
-    private void initZoom() {
-        focalLengthData = new ArrayList<>();
-    }
-
     private void initTiming() {
         handler = new Handler();
         timingRunnable = new Runnable() {
@@ -127,36 +199,40 @@ public class CollectDataActivity extends AppCompatActivity {
     }
 
     private void initCamera() {
-        camera = Camera.open();
-
-        params = camera.getParameters();
-
         // 调整摄像头的角度
-        camera.setDisplayOrientation(90);
-        cameraPreview = new CameraPreview(this, camera, new Camera.PreviewCallback() {
+        final CameraBackend backend = CameraBackendFactory.create(this, 90);
+        camera = backend;
+        camera.open();
+        camera.setFrameListener(new CameraBackend.FrameListener() {
             @Override
-            public void onPreviewFrame(byte[] data, Camera camera) {
+            public void onFrame(byte[] data, long timestampNs) {
                 if (isRecording) {
-                    camera.cancelAutoFocus();
-                    Camera.Parameters parameters = camera.getParameters();
-                    if(parameters.getSupportedFocusModes().contains(Camera.Parameters.FOCUS_MODE_INFINITY)) {
-                        parameters.setFocusMode(Camera.Parameters.FOCUS_MODE_INFINITY);
-                        camera.setParameters(parameters);
+                    // Checked first, a sample arriving meanwhile only flags a near 0 angle
+                    boolean hasGyroscope = sensorUtil.hasGyroscopeSamples();
+                    double gyroAngle = sensorUtil.sampleAt(timestampNs,
+                            frameOrientation, frameAcceleration, frameMagnetism);
+                    if (!captureScheduler.shouldKeep(timestampNs, frameOrientation, frameAcceleration, gyroAngle)) {
+                        backend.releaseFrame(data);
+                        return;
                     }
-                    int mZoomMax = params.getMaxZoom();
-                    if (params.isSmoothZoomSupported()) {
-                        params.set("focal-length", Float.toString(mZoomMax));
-                        camera.setParameters(params);
+                    qualityAnalyzer.analyze(data, frameWidth, frameHeight, frameQuality);
+                    int qualityFlags = qualityAnalyzer.getFlags(frameQuality);
+                    if (qualityFlags != 0) {
+                        // Kept and flagged in the sensor log
+                        ++lowQualityCount;
                     }
-                    sensorData.add(sensorUtil.getSensorDataString());
-                    params = camera.getParameters();
                     // 焦距
-                    Log.i(TAG,mZoomMax + " focal length ");
-                    focalLengthData.add((float)mZoomMax);
-                    saveFrameToFile(data);
+                    int row = session.append(timestampNs, focalLength,
+                            frameOrientation, frameAcceleration, frameMagnetism, gyroAngle);
+                    session.setQuality(row, frameQuality.sharpness,
+                            hasGyroscope ? qualityFlags : qualityFlags | SensorLog.FLAG_NO_GYROSCOPE);
+                    framePipeline.submit(data, row);
+                } else {
+                    backend.releaseFrame(data);
                 }
             }
-        });
+        }, PREVIEW_BUFFER_COUNT);
+        cameraPreview = new CameraPreview(this, camera);
         FrameLayout layout = (FrameLayout) findViewById(R.id.data_preview_layout);
         layout.addView(cameraPreview);
         initCam = true;
@@ -176,16 +252,84 @@ public class CollectDataActivity extends AppCompatActivity {
                         startRecord();
                     }
                 } else {
-                    endRecord();
+                    endRecord(true);
                 }
             }
         });
+        recordBtn.setOnLongClickListener(new View.OnLongClickListener() {
+            @Override
+            public boolean onLongClick(View v) {
+                if (isRecording) {
+                    return false;
+                }
+                recordMode = recordMode == RecordMode.JPEG ? RecordMode.H264 : RecordMode.JPEG;
+                CommonUtil.showToast(CollectDataActivity.this, "Record mode: " + recordMode);
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Show the progress of the uploader and resume the uploads a previous run did not finish.
+     */
+    private void initUploader() {
+        final CharSequence title = getTitle();
+        GYLApp app = (GYLApp) getApplication();
+        sessionUploader = app.getSessionUploader();
+        uploadListener = new SessionUploader.Listener() {
+            @Override
+            public void onProgress(final File sessionDir, final long uploadedBytes, final long totalBytes) {
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        setTitle("Uploading " + sessionDir.getName() + " "
+                                + uploadedBytes * 100 / Math.max(1, totalBytes) + "%");
+                    }
+                });
+            }
+
+            @Override
+            public void onFinished(final File sessionDir) {
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        setTitle(title);
+                        CommonUtil.showToast(CollectDataActivity.this, "Uploaded " + sessionDir.getName());
+                    }
+                });
+            }
+
+            @Override
+            public void onFailed(final File sessionDir, IOException e) {
+                Log.e(TAG, "Upload of " + sessionDir + " failed", e);
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        setTitle(title);
+                        CommonUtil.showToast(CollectDataActivity.this, "Upload failed, will resume later");
+                    }
+                });
+            }
+        };
+        sessionUploader.setListener(uploadListener);
+        app.resumePendingUploads(new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_PICTURES),
+                STORAGE_DIR));
+    }
+
+    /**
+     * Called on the main thread when the frames or the annotation of a session are saved;
+     * uploads the session once both are.
+     */
+    private void onSessionStepDone(File dir) {
+        if (--pendingSessionSteps == 0) {
+            sessionUploader.upload(dir);
+        }
     }
 
     private boolean createStorageDir() {
-        framesDir = new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_PICTURES),
-                STORAGE_DIR + File.separator + CommonUtil.getTimestamp() + File.separator + FRAMES_DIR);
-        if (!framesDir.exists() && !framesDir.mkdirs()) {
+        sessionDir = new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_PICTURES),
+                STORAGE_DIR + File.separator + CommonUtil.getTimestamp());
+        if (!sessionDir.exists() && !sessionDir.mkdirs()) {
             CommonUtil.showToast(CollectDataActivity.this, "Failed to create storage directory");
             return false;
         } else {
@@ -193,45 +337,227 @@ public class CollectDataActivity extends AppCompatActivity {
         }
     }
 
-    private void saveFrameToFile(byte[] raw) {
-        Camera.Size size = cameraPreview.getPreviewSize();
-        YuvImage im = new YuvImage(raw, ImageFormat.NV21, size.width, size.height, null);
-        Rect r = new Rect(0, 0, size.width, size.height);
-        ByteArrayOutputStream jpegStream = new ByteArrayOutputStream();
-        im.compressToJpeg(r, CameraPreview.JPEG_QUALITY, jpegStream);
-        String filename = framesDir.getPath() + File.separator + frameCnt + ".jpg";
-        File frameFile = new File(filename);
-        try {
-            FileOutputStream fos = new FileOutputStream(frameFile);
-            fos.write(jpegStream.toByteArray());
-            fos.close();
-            jpegStream.close();
-            Log.d(TAG, "Frame " + frameCnt + " saved");
-            ++frameCnt;
-        } catch (Exception e) {
-            Log.e(TAG, "", e);
+    /**
+     * Create the pipeline which encodes frames to H.264 in background.
+     */
+    private FramePipeline createH264Pipeline() throws IOException {
+        int width = cameraPreview.getPreviewWidth();
+        int height = cameraPreview.getPreviewHeight();
+        int bitRate = (int) (width * height * VIDEO_FRAME_RATE * VIDEO_BITS_PER_PIXEL);
+        final H264Recorder recorder = new H264Recorder(new File(sessionDir, VIDEO_FILENAME),
+                new File(sessionDir, VIDEO_INDEX_FILENAME), width, height, VIDEO_FRAME_RATE, bitRate);
+        h264Recorder = recorder;
+        // Color conversion runs in parallel, the encoder itself is fed in order by the writer
+        return new FramePipeline(FRAME_QUEUE_CAPACITY, ENCODER_COUNT,
+                FramePipeline.OverflowPolicy.DROP_OLDEST, 1,
+                new FramePipeline.FrameEncoder() {
+                    @Override
+                    public byte[] encode(byte[] raw, int row) throws Exception {
+                        return recorder.convert(raw);
+                    }
+                },
+                new FramePipeline.FrameWriter() {
+                    @Override
+                    public void write(int frameNumber, byte[] yuv, int row) throws Exception {
+                        // 0-based row of the record written next, as read by SensorLogReader
+                        int sensorRow = sensorLog.getRecordCount();
+                        writeSensorLog(frameNumber, row);
+                        recorder.encode(yuv, frameNumber, session.getTimestampNs(row), sensorRow);
+                    }
+                });
+    }
+
+    /**
+     * Create the pipeline for the current record mode. In JPEG mode frames are encoded in
+     * background and saved in order.
+     */
+    private FramePipeline createFramePipeline() throws IOException {
+        if (recordMode == RecordMode.H264) {
+            FramePipeline pipeline = createH264Pipeline();
+            setRecycler(pipeline);
+            return pipeline;
         }
+        final int width = cameraPreview.getPreviewWidth();
+        final int height = cameraPreview.getPreviewHeight();
+        final FrameContainerWriter container = new FrameContainerWriter(new File(sessionDir, FRAMES_FILENAME));
+        frameContainer = container;
+        final JpegQualityGovernor governor = new JpegQualityGovernor(CAPTURE_MAX_FPS,
+                ENCODER_COUNT, FRAME_QUEUE_CAPACITY);
+        qualityGovernor = governor;
+        // The writer reports the queue of its own pipeline, which outlives the framePipeline field
+        final AtomicReference<FramePipeline> self = new AtomicReference<>();
+        FramePipeline pipeline = new FramePipeline(FRAME_QUEUE_CAPACITY, ENCODER_COUNT,
+                FramePipeline.OverflowPolicy.DROP_OLDEST, 1,
+                new FramePipeline.FrameEncoder() {
+                    @Override
+                    public byte[] encode(byte[] raw, int row) throws Exception {
+                        long start = System.nanoTime();
+                        int quality = governor.getQuality();
+                        YuvImage im = new YuvImage(raw, ImageFormat.NV21, width, height, null);
+                        Rect r = new Rect(0, 0, width, height);
+                        ByteArrayOutputStream jpegStream = new ByteArrayOutputStream();
+                        im.compressToJpeg(r, quality, jpegStream);
+                        session.setJpegQuality(row, quality);
+                        governor.onEncoded(System.nanoTime() - start);
+                        return jpegStream.toByteArray();
+                    }
+                },
+                new FramePipeline.FrameWriter() {
+                    @Override
+                    public void write(int frameNumber, byte[] jpeg, int row) throws Exception {
+                        long start = System.nanoTime();
+                        container.append(frameNumber, session.getTimestampNs(row), jpeg);
+                        governor.onWritten(jpeg.length, System.nanoTime() - start, self.get().getQueueSize());
+                        writeSensorLog(frameNumber, row);
+                    }
+                });
+        self.set(pipeline);
+        setRecycler(pipeline);
+        return pipeline;
+    }
+
+    private void setRecycler(FramePipeline pipeline) {
+        final CameraBackend backend = camera;
+        pipeline.setRecycler(new FramePipeline.FrameRecycler() {
+            @Override
+            public void recycle(byte[] frame) {
+                backend.releaseFrame(frame);
+            }
+        });
+    }
+
+    private void writeSensorLog(int frameNumber, int row) throws IOException {
+        session.setFrameNumber(row, frameNumber);
+        session.getSensors(row, logOrientation, logAcceleration, logMagnetism);
+        sensorLog.write(frameNumber, session.getTimestampNs(row), session.getFocalLength(row),
+                logOrientation, logAcceleration, logMagnetism, session.getGyroAngle(row),
+                session.getSharpness(row), session.getFlags(row), session.getJpegQuality(row));
     }
 
     private void startRecord() {
         seconds = 0;
-        frameCnt = 1;
-        handler.post(timingRunnable);
         sensorUtil.reset();
-        sensorData.clear();
+        camera.lockFocusAndZoom();
+        focalLength = camera.getFocalLength() * camera.getZoomRatio();
+        h264Recorder = null;
+        frameContainer = null;
+        qualityGovernor = null;
+        session = new RecordingSession();
+        captureScheduler = new CaptureScheduler(CAPTURE_MIN_FPS, CAPTURE_MAX_FPS);
+        qualityAnalyzer = new FrameQualityAnalyzer();
+        lowQualityCount = 0;
+        frameWidth = cameraPreview.getPreviewWidth();
+        frameHeight = cameraPreview.getPreviewHeight();
+        try {
+            sensorLog = new SensorLogWriter(new File(sessionDir, SENSOR_FILENAME));
+            framePipeline = createFramePipeline();
+        } catch (IOException e) {
+            Log.e(TAG, "", e);
+            CommonUtil.showToast(this, "Failed to start recording: " + e.getMessage());
+            camera.unlockFocusAndZoom();
+            return;
+        }
+        if (camera.getBufferPool() != null) {
+            camera.getBufferPool().resetStats();
+        }
+        handler.post(timingRunnable);
         isRecording = true;
     }
 
-    private void endRecord() {
+    /**
+     * Stop recording and save the queued frames in background.
+     *
+     * @param askAnnotation Show the annotation dialog now
+     * @return The directory of the session
+     */
+    private File endRecord(boolean askAnnotation) {
         handler.removeCallbacks(timingRunnable);
         recordBtn.setText("Start");
+        recordBtn.setEnabled(false);
         isRecording = false;
-        inputAnnotation();
-        saveSensorDataToFile();
-        infoTxt.setText("Frame count: " + (frameCnt - 1) + "\nData saved to " + framesDir.getParent());
+        if (camera != null) {
+            camera.unlockFocusAndZoom();
+        }
+        final File dir = sessionDir;
+        pendingSessionSteps = 2;
+        if (askAnnotation) {
+            inputAnnotation(dir);
+        }
+        final FramePipeline pipeline = framePipeline;
+        final RecordingSession frames = session;
+        final CaptureScheduler scheduler = captureScheduler;
+        final JpegQualityGovernor governor = qualityGovernor;
+        final H264Recorder recorder = h264Recorder;
+        final FrameContainerWriter container = frameContainer;
+        final SensorLogWriter log = sensorLog;
+        infoTxt.setText("Saving " + pipeline.getQueueSize() + " queued frames...");
+        pipeline.finish(new Runnable() {
+            @Override
+            public void run() {
+                if (recorder != null) {
+                    try {
+                        recorder.finish();
+                    } catch (Exception e) {
+                        Log.e(TAG, "", e);
+                    }
+                }
+                try {
+                    if (container != null) {
+                        container.close();
+                    }
+                    log.close();
+                    // Uploaded on the next start if the app dies before the annotation is saved
+                    SessionUploader.markPending(dir);
+                } catch (IOException e) {
+                    Log.e(TAG, "", e);
+                }
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        recordBtn.setEnabled(true);
+                        infoTxt.setText("Frame count: " + pipeline.getWrittenCount()
+                                + "\nKept: " + scheduler.getKeptCount()
+                                + " (first " + scheduler.getKeptFirstCount()
+                                + ", motion " + scheduler.getKeptByMotionCount()
+                                + ", min fps " + scheduler.getKeptByMinFpsCount()
+                                + "), skipped: " + scheduler.getSkippedCount()
+                                + "\nLow quality: " + lowQualityCount + " flagged"
+                                + getGovernorInfo(governor)
+                                + "\nDropped: " + pipeline.getDroppedCount()
+                                + " (oldest " + pipeline.getDroppedOldestCount()
+                                + ", newest " + pipeline.getDroppedNewestCount()
+                                + ", failed " + pipeline.getFailedCount() + ")"
+                                + getBufferPoolInfo()
+                                + "\nMetadata: " + frames.size() + " frames, "
+                                + frames.getMemoryFootprint() / 1024 + " KB"
+                                + "\nData saved to " + dir);
+                        onSessionStepDone(dir);
+                    }
+                });
+            }
+        });
+        return dir;
+    }
+
+    private String getGovernorInfo(JpegQualityGovernor governor) {
+        if (governor == null) {
+            return "";
+        }
+        return "\nJPEG quality: " + governor.getQuality()
+                + " (lowered " + governor.getLoweredCount() + ", raised " + governor.getRaisedCount()
+                + "), write " + governor.getWriteThroughput() / 1024 + " KB/s";
     }
 
-    private void inputAnnotation(){
+    private String getBufferPoolInfo() {
+        PreviewBufferPool pool = camera != null ? camera.getBufferPool() : null;
+        if (pool == null) {
+            return "";
+        }
+        return "\nBuffer starvation: " + pool.getStarvationCount() + " times, "
+                + pool.getStarvedTimeMs() + " ms";
+    }
+
+    private void inputAnnotation(final File dir){
         AlertDialog.Builder builder = new AlertDialog.Builder(CollectDataActivity.this);
         builder.setTitle("请输入注释");    //设置对话框标题
         final EditText edit = new EditText(CollectDataActivity.this);
@@ -239,7 +565,7 @@ public class CollectDataActivity extends AppCompatActivity {
         builder.setPositiveButton("确认", new DialogInterface.OnClickListener() {
             @Override
             public void onClick(DialogInterface dialog, int which) {
-                saveAnnotationToFile(edit.getText().toString());
+                saveAnnotationToFile(dir, edit.getText().toString());
             }
         });
         builder.setNegativeButton("取消", new DialogInterface.OnClickListener() {
@@ -251,28 +577,17 @@ public class CollectDataActivity extends AppCompatActivity {
         builder.setCancelable(true);    //设置按钮是否可以按返回键取消,false则不可以取消
         AlertDialog dialog = builder.create();  //创建对话框
         dialog.setCanceledOnTouchOutside(true); //设置弹出框失去焦点是否隐藏,出框失去焦点是否隐藏,即点击屏蔽其它地方是否隐藏
-        dialog.show();
-    }
-
-    private void saveSensorDataToFile() {
-        String filename = framesDir.getParent() + File.separator + SENSOR_FILENAME;
-        File sensorFile = new File(filename);
-        try {
-            FileWriter fos = new FileWriter(sensorFile);
-            fos.write("frame," +"focal-length,"+ sensorUtil.getDescription() + "\n");
-            for (int i = 0; i < sensorData.size(); ++i) {
-                fos.write(i + 1 + " : " + focalLengthData.get(i) + ";"+ sensorData.get(i));
-                Log.i("test"+i,i + 1 + " : " + sensorData.get(i));
-                fos.write("\n");
+        dialog.setOnDismissListener(new DialogInterface.OnDismissListener() {
+            @Override
+            public void onDismiss(DialogInterface dialog) {
+                onSessionStepDone(dir);
             }
-            fos.close();
-        } catch (Exception e) {
-            Log.e(TAG, "", e);
-        }
+        });
+        dialog.show();
     }
 
-    private void saveAnnotationToFile(String annotation) {
-        String filename = framesDir.getParent() + File.separator + ANNOTATION_FILENAME;
+    private void saveAnnotationToFile(File dir, String annotation) {
+        String filename = dir + File.separator + ANNOTATION_FILENAME;
         File sensorFile = new File(filename);
         try {
             FileWriter fos = new FileWriter(sensorFile);
@@ -2,12 +2,11 @@ package com.getyourlocation.app.client.activity;
 
 import android.content.Intent;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.Matrix;
-import android.hardware.Camera;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Environment;
+import android.os.Handler;
+import android.os.SystemClock;
 import android.support.v7.app.AppCompatActivity;
 import android.util.Log;
 import android.view.View;
@@ -20,12 +19,22 @@ import android.widget.TextView;
 
 import com.android.volley.Request;
 import com.android.volley.Response;
-import com.android.volley.error.AuthFailureError;
+import com.android.volley.error.ParseError;
 import com.android.volley.error.VolleyError;
-import com.android.volley.request.SimpleMultiPartRequest;
-import com.android.volley.request.StringRequest;
 import com.getyourlocation.app.client.Constant;
 import com.getyourlocation.app.client.R;
+import com.getyourlocation.app.client.camera.CameraBackend;
+import com.getyourlocation.app.client.camera.CameraBackendFactory;
+import com.getyourlocation.app.client.location.FeatureExtractor;
+import com.getyourlocation.app.client.location.ImageHash;
+import com.getyourlocation.app.client.location.ShopIndex;
+import com.getyourlocation.app.client.location.ShopLocationCache;
+import com.getyourlocation.app.client.location.TriangulationSolver;
+import com.getyourlocation.app.client.network.Position;
+import com.getyourlocation.app.client.network.ShopLocation;
+import com.getyourlocation.app.client.network.TypedMultiPartRequest;
+import com.getyourlocation.app.client.network.TypedRequest;
+import com.getyourlocation.app.client.util.BitmapDecoder;
 import com.getyourlocation.app.client.util.SensorUtil;
 import com.getyourlocation.app.client.util.CommonUtil;
 import com.getyourlocation.app.client.util.NetworkUtil;
@@ -33,45 +42,77 @@ import com.getyourlocation.app.client.util.NetworkUtil;
 import com.getyourlocation.app.client.widget.CameraPreview;
 import com.getyourlocation.app.client.widget.Index;
 
-import org.json.JSONObject;
-
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 
 public class PhotoActivity extends AppCompatActivity {
     private static final String TAG = "PhotoActivity";
     public final static int RES_POSITION = 1;
+    // Shop and user positions are pixels of the map image shown by MapView, y pointing down
+    private static final boolean MAP_Y_DOWN = true;
+    // Also ask the positioning API and log how far its result is from the one solved here
+    private static final boolean CROSS_CHECK_POSITION = false;
+    private static final String SHOP_CACHE_FILENAME = "shop-location.cache";
+    // Index of the shops of the map, in the files directory when the map is available offline
+    private static final String SHOP_INDEX_FILENAME = "shop-index.gyi";
+    // Time a photo may spend in the shop index before the server is asked instead
+    private static final long SHOP_INDEX_BUDGET_NS = 50000000L;
     private final int resizeWidth = 228;
     private final int resizeHeight = 128;
     private SensorUtil sensorUtil;
     private NetworkUtil networkUtil;
 
-    private Camera camera;
+    private CameraBackend camera;
     private CameraPreview cameraPreview;
     private ImageView[] mipmap = new ImageView[3];
     private TextView[] mipmap_info = new TextView[3];
     private Button captureBtn;
     private Button PositionBtn;
 
+    // Yaw angle of each shot, see SensorUtil.getYawAngle()
     private float[] sensorData = new float[3];
+    private final int[] shotOrder = new int[3];
     private File[] refPicture = new File[3];
+    private Bitmap[] thumbnails = new Bitmap[3];
+    private BitmapDecoder bitmapDecoder;
+    // Decodes and saves pictures so the main thread stays free for the preview
+    private ExecutorService pictureExecutor;
+    private Handler mainHandler;
+    private Future<?>[] pictureTasks = new Future<?>[3];
+    // Shops of recent photos, so that a retake of the same storefront needs no request
+    private ShopLocationCache shopCache;
+    // Recognizes shops without signal, null if the map has no index; used by the picture thread
+    private ShopIndex shopIndex;
+    private FeatureExtractor featureExtractor;
+    private long[] descriptors;
+    private final ShopIndex.Match shopMatch = new ShopIndex.Match();
 
     private float [][] imgLocation = new float[3][2];
     private boolean [] imgCapturedStatus = new boolean[3];
     private boolean [] imgUploadStatus = new boolean[3];
+    // Slots whose upload failed, their picture has to be taken again
+    private boolean [] imgUploadFailed = new boolean[3];
     private int imgCaptured;
     private int imgUpload;
     private float[] userLocation = new float[2];
+    private final double[] solvedLocation = new double[2];
     private boolean isView = true;
     private boolean initCam = false;
     private boolean isHelpShowed = false;
-    private boolean finishUpload = true;
+    // Slot the picture being taken goes to, -1 if none
+    private int pendingSlot = -1;
+    // Request of each slot, responses of older requests of a slot are ignored
+    private int nextRequestId = 0;
+    private int[] slotRequestIds = new int[3];
+    private Request<?>[] slotRequests = new Request<?>[3];
     private String Hint_start = "从右向左旋转手机拍照\n" +
             "旋转过程中传感器会记录旋转角度\n"+
             "拍满三张可以提交并定位\n" +
@@ -84,6 +125,17 @@ public class PhotoActivity extends AppCompatActivity {
         setContentView(R.layout.activity_photo);
         Index.initIndex();
         initData();
+        bitmapDecoder = new BitmapDecoder(resizeWidth, resizeHeight);
+        pictureExecutor = Executors.newSingleThreadExecutor();
+        mainHandler = new Handler();
+        shopCache = new ShopLocationCache(new File(getCacheDir(), SHOP_CACHE_FILENAME),
+                ShopLocationCache.DEFAULT_CAPACITY, ShopLocationCache.DEFAULT_THRESHOLD);
+        pictureExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                openShopIndex();
+            }
+        });
         initNetwork();
         initMipmap();
         initSensor();
@@ -114,6 +166,18 @@ public class PhotoActivity extends AppCompatActivity {
             @Override
             public void onClick(View v) {
                 if (!Index.Available()) {
+                    for (int i = 0; i < 3; ++i) {
+                        if (imgUploadFailed[i]) {
+                            CommonUtil.showToast(PhotoActivity.this, "第" + (i + 1) + "张图片上传失败，请长按图片重拍");
+                            return;
+                        }
+                    }
+                    for (boolean uploaded : imgUploadStatus) {
+                        if (!uploaded) {
+                            CommonUtil.showToast(PhotoActivity.this, "图片正在上传，请稍候");
+                            return;
+                        }
+                    }
                     float[] angles = sensorData.clone();
                     Arrays.sort(angles);
                     float alpha = angles[2]-angles[1];
@@ -126,11 +190,49 @@ public class PhotoActivity extends AppCompatActivity {
                     float y3 = imgLocation[2][1];
 //                   a test example
 //                    alpha = 45; beta = 45;x1 =-1;y1=0;x2=0;y2=-1;x3=1;y3=0;
-                    TrianglePosition(alpha, beta, x1, y1, x2, y2, x3, y3);
+                    if (solvePosition()) {
+                        Log.d(TAG, "Solved x:" + userLocation[0] + ",y:" + userLocation[1]);
+                        CommonUtil.showToast(PhotoActivity.this, "x:" + userLocation[0] + ",y:" + userLocation[1]);
+                        if (CROSS_CHECK_POSITION) {
+                            TrianglePosition(alpha, beta, x1, y1, x2, y2, x3, y3, true);
+                        }
+                        returnResult();
+                    } else {
+                        // Ambiguous on the phone, the server decides
+                        TrianglePosition(alpha, beta, x1, y1, x2, y2, x3, y3);
+                    }
                 }
             }
         });
     }
+
+    /**
+     * Solve the position from the shot angles on the phone.
+     *
+     * @return False if the shots do not determine a position, e.g. when the user stands on
+     *         the circle through the three shops
+     */
+    private boolean solvePosition() {
+        // Slots as shops 1 to 3 of the solver
+        if (!TriangulationSolver.orderShots(sensorData, MAP_Y_DOWN, shotOrder)) {
+            return false;
+        }
+        int first = shotOrder[0];
+        int middle = shotOrder[1];
+        int last = shotOrder[2];
+        int result = TriangulationSolver.solve(
+                Math.abs(sensorData[middle] - sensorData[first]), Math.abs(sensorData[last] - sensorData[middle]),
+                imgLocation[first][0], imgLocation[first][1],
+                imgLocation[middle][0], imgLocation[middle][1],
+                imgLocation[last][0], imgLocation[last][1], solvedLocation);
+        if (result != TriangulationSolver.OK) {
+            Log.d(TAG, "Cannot solve position on the phone: " + result);
+            return false;
+        }
+        userLocation[0] = (float) solvedLocation[0];
+        userLocation[1] = (float) solvedLocation[1];
+        return true;
+    }
     private void initHelpBtn(){
         final Button helpBtn = (Button) findViewById(R.id.button_help);
         final TextView helpText = (TextView) findViewById(R.id.infomation_help);
@@ -161,7 +263,7 @@ public class PhotoActivity extends AppCompatActivity {
                 ImageView mipmap1 = (ImageView) findViewById(R.id.mipmap1);
                 mipmap1.setVisibility(View.INVISIBLE);
                 mipmap_info[0].setVisibility(View.INVISIBLE);
-                Index.resetIndex(0);
+                resetSlot(0);
                 return true;
             }
         });
@@ -176,7 +278,7 @@ public class PhotoActivity extends AppCompatActivity {
                 ImageView mipmap2 = (ImageView) findViewById(R.id.mipmap2);
                 mipmap2.setVisibility(View.INVISIBLE);
                 mipmap_info[1].setVisibility(View.INVISIBLE);
-                Index.resetIndex(1);
+                resetSlot(1);
                 return true;
             }
         });
@@ -192,12 +294,30 @@ public class PhotoActivity extends AppCompatActivity {
                 ImageView mipmap3 = (ImageView) findViewById(R.id.mipmap3);
                 mipmap3.setVisibility(View.INVISIBLE);
                 mipmap_info[2].setVisibility(View.INVISIBLE);
-                Index.resetIndex(2);
+                resetSlot(2);
                 return true;
             }
         });
 
     }
+    /**
+     * Free a slot so that it is taken again, dropping the upload of its picture.
+     */
+    private void resetSlot(int slot) {
+        if (pictureTasks[slot] != null) {
+            pictureTasks[slot].cancel(false);
+            pictureTasks[slot] = null;
+        }
+        if (slotRequests[slot] != null) {
+            slotRequests[slot].cancel();
+            slotRequests[slot] = null;
+        }
+        slotRequestIds[slot] = 0;
+        imgUploadStatus[slot] = false;
+        imgUploadFailed[slot] = false;
+        Index.resetIndex(slot);
+    }
+
     private void initZoomBtn() {
         SeekBar seekBar = (SeekBar)findViewById(R.id.seekBar_zoom);
         seekBar.setOnSeekBarChangeListener(new OnSeekBarChangeListener() {
@@ -205,7 +325,7 @@ public class PhotoActivity extends AppCompatActivity {
 
             @Override
             public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
-                setSeekBarZoom(progress);
+                setSeekBarZoom((float) progress / seekBar.getMax());
             }
 
             @Override
@@ -238,6 +358,7 @@ public class PhotoActivity extends AppCompatActivity {
     protected void onPause() {
         super.onPause();
         sensorUtil.unregister();
+        cancelPictures();
         releaseCamera();
         FrameLayout layout = (FrameLayout) findViewById(R.id.mypreviewlayout);
         layout.removeAllViewsInLayout();
@@ -248,12 +369,33 @@ public class PhotoActivity extends AppCompatActivity {
         super.onStop();
         sensorUtil.unregister();
         releaseCamera();
+        Log.d(TAG, "Shop cache: " + shopCache.getHitCount() + " hits, " + shopCache.getMissCount() + " misses");
+        try {
+            shopCache.save();
+        } catch (IOException e) {
+            Log.e(TAG, "", e);
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // Nobody is left to show the shops of the reference photos
+        networkUtil.cancelAll(NetworkUtil.Lane.REFERENCE_UPLOAD);
+        // Queued after any picture still being processed, which uses the pooled bitmap
+        pictureExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                bitmapDecoder.release();
+                closeShopIndex();
+            }
+        });
+        pictureExecutor.shutdown();
     }
 
 
     private void releaseCamera(){
         if (camera != null){
-            camera.setPreviewCallback(null);
             camera.release();
             camera = null;
             initCam = false;
@@ -267,8 +409,9 @@ public class PhotoActivity extends AppCompatActivity {
     }
 
     private void initCamera() {
-        camera = Camera.open();
-        cameraPreview = new CameraPreview(this,camera,null);
+        camera = CameraBackendFactory.create(this, 0);
+        camera.open();
+        cameraPreview = new CameraPreview(this, camera);
         FrameLayout layout = (FrameLayout) findViewById(R.id.mypreviewlayout);
         layout.addView(cameraPreview);
         initCam = true;
@@ -279,96 +422,229 @@ public class PhotoActivity extends AppCompatActivity {
         captureBtn.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
+                // Earlier pictures may still be uploading, only the camera has to be free
                 if (isView == true) {
-                    if (finishUpload == true) {
-                        if (Index.Available() ) {
-                            finishUpload = false;
-                            isView = false;
-                            camera.takePicture(null, null, pictureCallBack);
-                        }
+                    if (Index.Available() ) {
+                        pendingSlot = Index.getAvailableIndex();
+                        isView = false;
+                        camera.takePicture(pictureCallBack);
                     }
                 }
             }
         });
     }
 
-    /**
-     *  处理图片
-     * @param bm 所要转换的bitmap
-     * @param newWidth 新的宽
-     * @param newHeight 新的高
-     * @return 指定宽高的bitmap
-     */
-    private static Bitmap resizeImg(Bitmap bm, int newWidth ,int newHeight){
-        // 获得图片的宽高
-        int width = bm.getWidth();
-        int height = bm.getHeight();
-        // 计算缩放比例
-        float scaleWidth = ((float) newWidth) / width;
-        float scaleHeight = ((float) newHeight) / height;
-        // 取得想要缩放的matrix参数
-        Matrix matrix = new Matrix();
-        matrix.postScale(scaleWidth, scaleHeight);
-        // 得到新的图片
-        Bitmap newbm = Bitmap.createBitmap(bm, 0, 0, width, height, matrix, true);
-        return newbm;
-    }
-
-    private Camera.PictureCallback pictureCallBack = new Camera.PictureCallback() {
+    private CameraBackend.PictureListener pictureCallBack = new CameraBackend.PictureListener() {
         @Override
-        public void onPictureTaken(byte[] data, Camera camera) {
-            File pictureFile = getOutputMediaFile(MEDIA_TYPE_IMAGE);
-            if (pictureFile == null){
-                Log.d(TAG, "Error creating media file, check storage permissions: " );
-                camera.startPreview();
-                isView = true;
+        public void onPictureTaken(final byte[] data) {
+            final int slot = pendingSlot;
+            pendingSlot = -1;
+            if (slot == -1) {
+                // The shot was cancelled by onPause
                 return;
             }
+            final int requestId = ++nextRequestId;
+            final long takenTime = SystemClock.elapsedRealtime();
+            // The angle of the shot, read before the phone moves on
+            sensorData[slot] = (float) sensorUtil.getYawAngle();
+            // The preview is already restarted, the next shot can be taken while this one is processed
+            isView = true;
+            slotRequestIds[slot] = requestId;
+            pictureTasks[slot] = pictureExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    processPicture(data, slot, requestId, takenTime);
+                }
+            });
+        }
+    };
+
+    /**
+     * Decode, scale and save a picture on the processing thread, then hand the thumbnail and
+     * the file to the main thread, which starts the upload unless the shop cache or the shop
+     * index already knows the shop.
+     */
+    private void processPicture(byte[] data, final int slot, final int requestId, final long takenTime) {
+        final long startTime = SystemClock.elapsedRealtime();
+        File pictureFile = getOutputMediaFile(MEDIA_TYPE_IMAGE, slot, requestId);
+        Bitmap pic = null;
+        long decodedTime = startTime;
+        long hash = 0;
+        boolean cached = false;
+        boolean recognized = false;
+        final float[] shop = new float[2];
+        try {
+            if (pictureFile == null) {
+                throw new IOException("Error creating media file, check storage permissions");
+            }
+            // Decoded subsampled, the full resolution picture is never in memory
+            pic = bitmapDecoder.decode(data);
+            if (pic == null) {
+                throw new IOException("Cannot decode picture");
+            }
+            decodedTime = SystemClock.elapsedRealtime();
+            int[] pixels = new int[pic.getWidth() * pic.getHeight()];
+            pic.getPixels(pixels, 0, pic.getWidth(), 0, 0, pic.getWidth(), pic.getHeight());
+            hash = ImageHash.compute(pixels, pic.getWidth(), pic.getHeight());
+            cached = shopCache.lookup(hash, shop);
+            if (!cached && shopIndex != null) {
+                recognized = recognizeShop(pixels, pic.getWidth(), pic.getHeight(), shop);
+                if (recognized) {
+                    shopCache.put(hash, shop[0], shop[1]);
+                }
+            }
+            FileOutputStream fos = new FileOutputStream(pictureFile);
             try {
-                FileOutputStream fos = new FileOutputStream(pictureFile);
-                Bitmap originPic = BitmapFactory.decodeByteArray(data, 0, data.length);
-//                Log.d(TAG, "originPic size: Height "+ originPic.getHeight() + ",Width "+originPic.getWidth());
-//                System.out.println( "originPic size: Height "+ originPic.getHeight() + ",Width "+originPic.getWidth());
-                Bitmap pic = resizeImg(originPic, resizeWidth, resizeHeight);
-//                Log.d(TAG, "newPic size: Height "+ pic.getHeight() + ",Width "+pic.getWidth());
-//                System.out.println( "newPic size: Height "+ pic.getHeight() + ",Width "+pic.getWidth());
                 pic.compress(Bitmap.CompressFormat.JPEG, 100, fos);
+            } finally {
                 fos.close();
-                mipmap[Index.getAvailableIndex()].setImageBitmap(pic);
-                mipmap[Index.getAvailableIndex()].setVisibility(View.VISIBLE);
-                sensorData[Index.getAvailableIndex()] = (float)sensorUtil.getLastGyroRotate();
-                refPicture[Index.getAvailableIndex()] = pictureFile;
-                uploadImage(refPicture[Index.getAvailableIndex()].getAbsolutePath());
-                System.out.println( "upload file:"+refPicture[Index.getAvailableIndex()].getAbsolutePath());
-                camera.startPreview();
-                isView = true;
-
-            } catch (FileNotFoundException e) {
-                Log.d(TAG, "File not found: " + e.getMessage());
-            } catch (IOException e) {
-                Log.d(TAG, "Error accessing file: " + e.getMessage());
             }
+        } catch (IOException | RuntimeException | OutOfMemoryError e) {
+            // Anything escaping here would leave the slot waiting for a result forever
+            Log.e(TAG, "Error processing picture", e);
+            if (pic != null) {
+                pic.recycle();
+            }
+            pic = null;
         }
-    };
-    public void setSeekBarZoom(int value){
-        try{
-            Camera.Parameters params = camera.getParameters();
-            params.setZoom(value);
-            camera.setParameters(params);
-            Log.d(TAG, "Is support Zoom " + params.isZoomSupported());
-        }catch (Exception e) {
-            e.printStackTrace();
+        final long savedTime = SystemClock.elapsedRealtime();
+        final Bitmap thumbnail = pic;
+        final File file = pictureFile;
+        final long decodeTime = decodedTime;
+        final long pictureHash = hash;
+        final boolean isCached = cached;
+        final boolean isRecognized = recognized;
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (slotRequestIds[slot] != requestId) {
+                    // The slot was reset or the shot cancelled by onPause
+                    if (thumbnail != null) {
+                        thumbnail.recycle();
+                    }
+                    return;
+                }
+                pictureTasks[slot] = null;
+                if (thumbnail == null) {
+                    CommonUtil.showToast(PhotoActivity.this, "图片保存失败，请重拍");
+                    slotRequestIds[slot] = 0;
+                    Index.resetIndex(slot);
+                    return;
+                }
+                Log.d(TAG, "Slot " + slot + ": queued " + (startTime - takenTime)
+                        + " ms, decode " + (decodeTime - startTime)
+                        + " ms, save " + (savedTime - decodeTime)
+                        + " ms, delivered " + (SystemClock.elapsedRealtime() - savedTime) + " ms");
+                mipmap[slot].setImageBitmap(thumbnail);
+                mipmap[slot].setVisibility(View.VISIBLE);
+                if (thumbnails[slot] != null) {
+                    thumbnails[slot].recycle();
+                }
+                thumbnails[slot] = thumbnail;
+                refPicture[slot] = file;
+                if (isCached) {
+                    Log.d(TAG, "Slot " + slot + " found in the shop cache");
+                    setSlotLocation(slot, shop[0], shop[1]);
+                    return;
+                }
+                if (isRecognized) {
+                    Log.d(TAG, "Slot " + slot + " recognized by the shop index");
+                    setSlotLocation(slot, shop[0], shop[1]);
+                    return;
+                }
+                uploadImage(slot, requestId, pictureHash, file.getAbsolutePath());
+                Log.d(TAG, "upload file:" + file.getAbsolutePath());
+            }
+        });
+    }
+
+    /**
+     * Map the shop index of the map if it was downloaded. Called on the picture thread.
+     */
+    private void openShopIndex() {
+        File file = new File(getFilesDir(), SHOP_INDEX_FILENAME);
+        if (!file.exists()) {
+            return;
+        }
+        try {
+            shopIndex = new ShopIndex(file);
+            featureExtractor = new FeatureExtractor();
+            descriptors = new long[featureExtractor.getMaxFeatures() * FeatureExtractor.DESCRIPTOR_LONGS];
+            Log.d(TAG, "Shop index: " + shopIndex.getShopCount() + " shops, "
+                    + shopIndex.getDescriptorCount() + " descriptors");
+        } catch (IOException e) {
+            // Every photo goes to the server as before
+            Log.e(TAG, "", e);
+        }
+    }
+
+    private void closeShopIndex() {
+        if (shopIndex == null) {
+            return;
+        }
+        try {
+            shopIndex.close();
+        } catch (IOException e) {
+            Log.e(TAG, "", e);
+        }
+        shopIndex = null;
+    }
+
+    /**
+     * Look a photo up in the shop index. Called on the picture thread.
+     *
+     * @param out Receives x and y of the shop
+     * @return True if the shop is recognized confidently, the server is asked otherwise
+     */
+    private boolean recognizeShop(int[] pixels, int width, int height, float[] out) {
+        long startTime = SystemClock.elapsedRealtime();
+        int count = featureExtractor.extract(pixels, width, height, descriptors);
+        boolean confident = shopIndex.query(descriptors, count, SHOP_INDEX_BUDGET_NS, shopMatch);
+        Log.d(TAG, "Shop index: shop " + shopMatch.shop + ", " + shopMatch.votes + " votes against "
+                + shopMatch.secondVotes + ", " + shopMatch.queried + "/" + count + " descriptors in "
+                + (SystemClock.elapsedRealtime() - startTime) + " ms");
+        if (!confident) {
+            return false;
+        }
+        out[0] = shopMatch.x;
+        out[1] = shopMatch.y;
+        return true;
+    }
+
+    /**
+     * Drop the shots being taken or processed, the camera is going away.
+     */
+    private void cancelPictures() {
+        if (pendingSlot != -1) {
+            Index.resetIndex(pendingSlot);
+            pendingSlot = -1;
+        }
+        for (int i = 0; i < pictureTasks.length; ++i) {
+            if (pictureTasks[i] != null) {
+                pictureTasks[i].cancel(false);
+                pictureTasks[i] = null;
+                slotRequestIds[i] = 0;
+                Index.resetIndex(i);
+            }
         }
+        isView = true;
+    }
+
+    public void setSeekBarZoom(float value){
+        camera.setZoom(value);
     }
 
     public static final int MEDIA_TYPE_IMAGE = 1;
     /** Create a file Uri for saving an image or video */
-    public static Uri getOutputMediaFileUri(int type) {
-        return Uri.fromFile(getOutputMediaFile(type));
+    public static Uri getOutputMediaFileUri(int type, int slot, int requestId) {
+        return Uri.fromFile(getOutputMediaFile(type, slot, requestId));
     }
 
-    /** Create a File for saving an image or video */
-    public static File getOutputMediaFile(int type) {
+    /**
+     * Create a File for saving an image or video. Each request gets its own file so that a
+     * retaken picture does not overwrite one still being uploaded.
+     */
+    public static File getOutputMediaFile(int type, int slot, int requestId) {
         // To be safe, you should check that the SDCard is mounted
         // using Environment.getExternalStorageState() before doing this.
 
@@ -390,7 +666,7 @@ public class PhotoActivity extends AppCompatActivity {
         File mediaFile;
         if (type == MEDIA_TYPE_IMAGE){
             mediaFile = new File(mediaStorageDir.getPath()+File.separator+"ref"+
-                    Index.getAvailableIndex()+".jpg");
+                    slot+"_"+requestId+".jpg");
         } else {
             return null;
         }
@@ -402,6 +678,7 @@ public class PhotoActivity extends AppCompatActivity {
         for (int i = 0; i < 3; i++) {
             imgCapturedStatus[i] = false;
             imgUploadStatus[i] = false;
+            imgUploadFailed[i] = false;
         }
         imgCaptured = 0;
         imgUpload = 0;
@@ -409,96 +686,132 @@ public class PhotoActivity extends AppCompatActivity {
         userLocation[1] = 0;
     }
 
-    /** upload single image */
-    private void uploadImage(final String imgFilename) {
+    /**
+     * Upload the picture of a slot. Several uploads may run at once; the response is
+     * matched to its slot by the request ID and dropped if the slot was reset since.
+     * Called on the main thread once the picture is saved.
+     */
+    private void uploadImage(final int i, final int requestId, final long hash, final String imgFilename) {
         if (imgFilename == null || imgFilename.isEmpty()) {
             CommonUtil.showToast(PhotoActivity.this, "imgFilename is not correct!");
+            Index.resetIndex(i);
             return;
         }
-        SimpleMultiPartRequest req = new SimpleMultiPartRequest(Request.Method.POST, Constant.URL_API_SHOP_LOCATION,
-                new Response.Listener<String>() {
+        final long startTime = System.currentTimeMillis();
+        TypedMultiPartRequest<ShopLocation> req = new TypedMultiPartRequest<>(Request.Method.POST,
+                Constant.URL_API_SHOP_LOCATION, ShopLocation.PARSER,
+                new Response.Listener<ShopLocation>() {
                     @Override
-                    public void onResponse(String response) {
-                        Log.d(TAG, response);
+                    public void onResponse(ShopLocation response) {
+                        Log.d(TAG, response.toString());
                     //    CommonUtil.showToast(PhotoActivity.this, "Upload succeed!");
-                        try {
-                            JSONObject jsonObj = new JSONObject(response);
-                            int i = Index.getAvailableIndex();
-                            double x = ((Number)jsonObj.get("x")).doubleValue();
-                            double y = ((Number)jsonObj.get("y")).doubleValue();
-                            imgLocation[i][0] = (float) x;
-                            imgLocation[i][1] =  (float)y;
-                            imgUploadStatus[i] = true;
-                            imgUpload++;
-                            String loc_info = String.format("%d,%d",(int)imgLocation[i][0],(int)imgLocation[i][1] );
-                            mipmap_info[i].setText(loc_info);
-                            mipmap_info[i].setVisibility(View.VISIBLE);
-                            CommonUtil.showToast(PhotoActivity.this, "目前相对旋转角度为："+ sensorData[Index.getAvailableIndex()]);
-                            finishUpload = true;
-                        } catch (Exception e) {
-                            Log.e(TAG, "", e);
-                            finishUpload = true;
+                        if (slotRequestIds[i] != requestId) {
+                            Log.d(TAG, "Ignore response of request " + requestId + " for slot " + i);
+                            return;
                         }
+                        slotRequests[i] = null;
+                        shopCache.put(hash, response.x, response.y);
+                        Log.d(TAG, "Slot " + i + " uploaded in " + (System.currentTimeMillis() - startTime) + " ms");
+                        setSlotLocation(i, response.x, response.y);
                     }
                 }, new Response.ErrorListener() {
             @Override
             public void onErrorResponse(VolleyError error) {
                 Log.e(TAG, "", error);
-                CommonUtil.showToast(PhotoActivity.this, "上传失败，请检查您的网络设置，错误代码：" + error.networkResponse.statusCode);
+                if (slotRequestIds[i] != requestId) {
+                    return;
+                }
+                slotRequests[i] = null;
+                showSlotFailed(i);
+                String code = error.networkResponse != null ? String.valueOf(error.networkResponse.statusCode) : "无";
+                CommonUtil.showToast(PhotoActivity.this, "上传失败，请长按图片重拍，错误代码：" + code);
 //                CommonUtil.showToast(PhotoActivity.this, "Upload failed! Code:" + error.networkResponse.statusCode);
-                finishUpload = true;
             }
         });
         req.addFile("img", imgFilename);
         Log.d(TAG, req.toString());
-        networkUtil.addReq(req);
+        slotRequests[i] = req;
+        mipmap_info[i].setText("上传中…");
+        mipmap_info[i].setVisibility(View.VISIBLE);
+        networkUtil.addReq(req, NetworkUtil.Lane.REFERENCE_UPLOAD);
+    }
+
+    /**
+     * Record the shop location of a slot, from the server, the shop cache or the shop index.
+     */
+    private void setSlotLocation(int i, float x, float y) {
+        imgLocation[i][0] = x;
+        imgLocation[i][1] = y;
+        imgUploadStatus[i] = true;
+        imgUploadFailed[i] = false;
+        imgUpload++;
+        String loc_info = String.format("%d,%d",(int)imgLocation[i][0],(int)imgLocation[i][1] );
+        mipmap_info[i].setText(loc_info);
+        mipmap_info[i].setVisibility(View.VISIBLE);
+        CommonUtil.showToast(PhotoActivity.this, "目前相对旋转角度为："+ sensorData[i]);
+    }
+
+    /**
+     * Show that the upload of a slot failed; long press the picture to take it again.
+     */
+    private void showSlotFailed(int i) {
+        imgUploadFailed[i] = true;
+        mipmap_info[i].setText("上传失败");
+        mipmap_info[i].setVisibility(View.VISIBLE);
     }
 
     public void TrianglePosition(final float alpha, final float beta, final float x1, final float y1,
                                  final float x2, final float y2, final float x3, final float y3) {
-        StringRequest req = new StringRequest(Request.Method.GET, Constant.URL_API_POSITION,
-                new Response.Listener<String>() {
+        TrianglePosition(alpha, beta, x1, y1, x2, y2, x3, y3, false);
+    }
+
+    /**
+     * Ask the positioning API for the position.
+     *
+     * @param crossCheck Only log the distance to the position already solved on the phone
+     */
+    public void TrianglePosition(final float alpha, final float beta, final float x1, final float y1,
+                                 final float x2, final float y2, final float x3, final float y3,
+                                 final boolean crossCheck) {
+        Map<String, String> params = new HashMap<>();
+        params.put("alpha", String.valueOf(alpha));
+        params.put("beta", String.valueOf(beta));
+        params.put("x1", String.valueOf(x1));
+        params.put("y1", String.valueOf(y1));
+        params.put("x2", String.valueOf(x2));
+        params.put("y2", String.valueOf(y2));
+        params.put("x3", String.valueOf(x3));
+        params.put("y3", String.valueOf(y3));
+        TypedRequest<Position> req = new TypedRequest<>(Request.Method.GET, Constant.URL_API_POSITION, params,
+                Position.PARSER, new Response.Listener<Position>() {
                     @Override
-                    public void onResponse(String response) {  // Called when server respond
-                        Log.d(TAG, response);
-                        try {
-                            JSONObject jsonObj = new JSONObject(response);
-                            double x = ((Number)jsonObj.get("x")).doubleValue();
-                            double y = ((Number)jsonObj.get("y")).doubleValue();
-                            userLocation[0] = (float)x;
-                            userLocation[1] = (float)y;
-//                            // uncompleted api test
-//                            userLocation[0] = (float)100;
-//                            userLocation[1] = (float)120;
-                            Log.d(TAG,  "x:" + x + ",y:" + y);
-                            CommonUtil.showToast(PhotoActivity.this, "x:" + x + ",y:" + y);
-                          //  Thread.currentThread().sleep(5000);
-                            returnResult();
-                        } catch (Exception e) {
-                            Log.e(TAG, "", e);
-                            CommonUtil.showToast(PhotoActivity.this, "提交失败，请检查您的网络");
+                    public void onResponse(Position response) {  // Called when server respond
+                        double x = response.x;
+                        double y = response.y;
+                        if (crossCheck) {
+                            Log.d(TAG, "Server x:" + x + ",y:" + y + ", off by "
+                                    + Math.hypot(x - solvedLocation[0], y - solvedLocation[1]));
+                            return;
                         }
+                        userLocation[0] = (float)x;
+                        userLocation[1] = (float)y;
+//                        // uncompleted api test
+//                        userLocation[0] = (float)100;
+//                        userLocation[1] = (float)120;
+                        Log.d(TAG,  "x:" + x + ",y:" + y);
+                        CommonUtil.showToast(PhotoActivity.this, "x:" + x + ",y:" + y);
+                      //  Thread.currentThread().sleep(5000);
+                        returnResult();
                     }
                 }, new Response.ErrorListener() {
             @Override
             public void onErrorResponse(VolleyError error) {
                 Log.e(TAG, "", error);
+                if (error instanceof ParseError && !crossCheck) {
+                    CommonUtil.showToast(PhotoActivity.this, "提交失败，请检查您的网络");
+                }
             }
-        }) {
-            @Override
-            protected Map<String, String> getParams() throws AuthFailureError {
-                Map<String, String> params = new HashMap<>();
-                params.put("alpha", String.valueOf(alpha));
-                params.put("beta", String.valueOf(beta));
-                params.put("x1", String.valueOf(x1));
-                params.put("y1", String.valueOf(y1));
-                params.put("x2", String.valueOf(x2));
-                params.put("y2", String.valueOf(y2));
-                params.put("x3", String.valueOf(x3));
-                params.put("y3", String.valueOf(y3));
-                return params;
-            }
-        };
-        networkUtil.addReq(req);
+        });
+        networkUtil.addReq(req, NetworkUtil.Lane.INTERACTIVE);
     }
 }
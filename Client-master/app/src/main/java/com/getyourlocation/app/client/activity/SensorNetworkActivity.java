@@ -18,21 +18,19 @@ import android.widget.TextView;
 
 import com.android.volley.Request;
 import com.android.volley.Response;
-import com.android.volley.error.AuthFailureError;
 import com.android.volley.error.VolleyError;
-import com.android.volley.request.SimpleMultiPartRequest;
-import com.android.volley.request.StringRequest;
-import com.android.volley.toolbox.ImageLoader;
 import com.getyourlocation.app.client.Constant;
 import com.getyourlocation.app.client.R;
+import com.getyourlocation.app.client.network.Answer;
+import com.getyourlocation.app.client.network.TypedMultiPartRequest;
+import com.getyourlocation.app.client.network.TypedRequest;
+import com.getyourlocation.app.client.network.UploadResult;
 import com.getyourlocation.app.client.util.CommonUtil;
+import com.getyourlocation.app.client.util.ImageCache;
 import com.getyourlocation.app.client.util.NetworkUtil;
 import com.getyourlocation.app.client.util.PermissionUtil;
 import com.getyourlocation.app.client.util.SensorUtil;
 
-import org.json.JSONArray;
-import org.json.JSONObject;
-
 import java.util.HashMap;
 import java.util.Map;
 
@@ -102,12 +100,13 @@ public class SensorNetworkActivity extends AppCompatActivity {
         });
         sensorUtil = SensorUtil.getInstance(this);
         sensorUtil.setOnSensorUpdatedListener(new SensorUtil.OnSensorUpdatedListener() {
+            private final float[] acceleration = new float[3];
+            private final float[] magnetism = new float[3];
+            private final float[] orientation = new float[3];
+
             @Override
             public void onUpdated() {
-                float[] acceleration = sensorUtil.getLastAcceleration();
-                float[] magnetism = sensorUtil.getLastMagnetism();
-                float[] orientation = sensorUtil.getLastOrientation();
-                double gyroRotate = sensorUtil.getLastGyroRotate();
+                double gyroRotate = sensorUtil.copySensorData(orientation, acceleration, magnetism);
                 sensorInfoTxt.setText(getString(R.string.sensor_data,
                         acceleration[0], acceleration[1], acceleration[2],
                         magnetism[0], magnetism[1], magnetism[2],
@@ -141,64 +140,42 @@ public class SensorNetworkActivity extends AppCompatActivity {
     }
 
     private void computeSum(final int x, final int y) {
-        StringRequest req = new StringRequest(Request.Method.GET, Constant.URL_API_SUM,
-                new Response.Listener<String>() {
+        Map<String, String> params = new HashMap<>();
+        params.put("x", String.valueOf(x));
+        params.put("y", String.valueOf(y));
+        TypedRequest<Answer> req = new TypedRequest<>(Request.Method.GET, Constant.URL_API_SUM, params, Answer.PARSER,
+                new Response.Listener<Answer>() {
                     @Override
-                    public void onResponse(String response) {  // Called when server respond
-                        Log.d(TAG, response);
-                        try {
-                            JSONObject jsonObj = new JSONObject(response);
-                            int ans = (int)jsonObj.get("ans");
-                            CommonUtil.showToast(SensorNetworkActivity.this, String.valueOf(ans));
-                        } catch (Exception e) {
-                            Log.e(TAG, "", e);
-                        }
+                    public void onResponse(Answer response) {  // Called when server respond
+                        Log.d(TAG, response.toString());
+                        CommonUtil.showToast(SensorNetworkActivity.this, String.valueOf(response.ans));
                     }
                 }, new Response.ErrorListener() {
                     @Override
                     public void onErrorResponse(VolleyError error) {
                         Log.e(TAG, "", error);
                     }
-                }) {
-            @Override
-            protected Map<String, String> getParams() throws AuthFailureError {
-                Map<String, String> params = new HashMap<>();
-                params.put("x", String.valueOf(x));
-                params.put("y", String.valueOf(y));
-                return params;
-            }
-        };
+                });
         networkUtil.addReq(req);
     }
 
     private void computeProduct(final int x, final int y) {
-        StringRequest req = new StringRequest(Request.Method.POST, Constant.URL_API_PRODUCT,
-                new Response.Listener<String>() {
+        Map<String, String> params = new HashMap<>();
+        params.put("x", String.valueOf(x));
+        params.put("y", String.valueOf(y));
+        TypedRequest<Answer> req = new TypedRequest<>(Request.Method.POST, Constant.URL_API_PRODUCT, params, Answer.PARSER,
+                new Response.Listener<Answer>() {
                     @Override
-                    public void onResponse(String response) {  // Called when server respond
-                        Log.d(TAG, response);
-                        try {
-                            JSONObject jsonObj = new JSONObject(response);
-                            int ans = (int)jsonObj.get("ans");
-                            CommonUtil.showToast(SensorNetworkActivity.this, String.valueOf(ans));
-                        } catch (Exception e) {
-                            Log.e(TAG, "", e);
-                        }
+                    public void onResponse(Answer response) {  // Called when server respond
+                        Log.d(TAG, response.toString());
+                        CommonUtil.showToast(SensorNetworkActivity.this, String.valueOf(response.ans));
                     }
                 }, new Response.ErrorListener() {
                     @Override
                     public void onErrorResponse(VolleyError error) {
                         Log.e(TAG, "", error);
                     }
-                }) {
-            @Override
-            protected Map<String, String> getParams() throws AuthFailureError {
-                Map<String, String> params = new HashMap<>();
-                params.put("x", String.valueOf(x));
-                params.put("y", String.valueOf(y));
-                return params;
-            }
-        };
+                });
         networkUtil.addReq(req);
     }
 
@@ -251,46 +228,44 @@ public class SensorNetworkActivity extends AppCompatActivity {
                     return;
                 }
                 permitUpload = false;
-                SimpleMultiPartRequest req = new SimpleMultiPartRequest(Request.Method.POST, Constant.URL_API_UPLOAD,
-                    new Response.Listener<String>() {
+                TypedMultiPartRequest<UploadResult> req = new TypedMultiPartRequest<>(Request.Method.POST,
+                    Constant.URL_API_UPLOAD, UploadResult.PARSER,
+                    new Response.Listener<UploadResult>() {
                         @Override
-                        public void onResponse(String response) {
-                            Log.d(TAG, response);
+                        public void onResponse(UploadResult response) {
+                            Log.d(TAG, response.toString());
                             CommonUtil.showToast(SensorNetworkActivity.this, "Upload succeed!");
-                            try {
-                                JSONObject jsonObj = new JSONObject(response);
-                                JSONArray jsonArr = jsonObj.getJSONArray("files");
-                                String uri = (String)jsonArr.get(0);
-                                showUploadedImg(Constant.URL_CLOUD_SERVER + uri);
-                            } catch (Exception e) {
-                                Log.e(TAG, "", e);
+                            if (!response.files.isEmpty()) {
+                                showUploadedImg(Constant.URL_CLOUD_SERVER + response.files.get(0));
                             }
                         }
                     }, new Response.ErrorListener() {
                         @Override
                         public void onErrorResponse(VolleyError error) {
                             Log.e(TAG, "", error);
-                            CommonUtil.showToast(SensorNetworkActivity.this,
-                                    "Upload failed! Code:" + error.networkResponse.statusCode);
+                            // A malformed response has no status code
+                            String code = error.networkResponse != null
+                                    ? String.valueOf(error.networkResponse.statusCode) : "none";
+                            CommonUtil.showToast(SensorNetworkActivity.this, "Upload failed! Code:" + code);
                         }
                     });
                 req.addFile("file", imgFilename);
                 req.addMultipartParam("ext", "text/plain", imgFilename.substring(imgFilename.indexOf(".") + 1));
-                networkUtil.addReq(req);
+                networkUtil.addReq(req, NetworkUtil.Lane.BULK);
             }
         });
     }
 
     private void showUploadedImg(String imgURI) {
-        networkUtil.fetchImage(imgURI, new ImageLoader.ImageListener() {
+        networkUtil.fetchImage(imgURI, new ImageCache.Listener() {
             @Override
-            public void onResponse(ImageLoader.ImageContainer response, boolean isImmediate) {
-                Bitmap bitmap = response.getBitmap();
+            public void onImage(Bitmap bitmap) {
                 resultImgView.setImageBitmap(bitmap);
+                Log.d(TAG, "Image cache: " + networkUtil.getImageCache().getStats());
             }
 
             @Override
-            public void onErrorResponse(VolleyError error) {
+            public void onError(VolleyError error) {
                 Log.e(TAG, "", error);
             }
         });
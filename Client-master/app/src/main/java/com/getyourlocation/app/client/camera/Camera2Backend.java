@@ -0,0 +1,588 @@
+package com.getyourlocation.app.client.camera;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CameraMetadata;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.Size;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+
+import com.getyourlocation.app.client.util.ImageUtil;
+import com.getyourlocation.app.client.widget.CameraPreview;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Camera backend built on the Camera2 API.
+ *
+ * Preview frames come from a YUV_420_888 ImageReader and carry the sensor timestamp of the
+ * frame. Stills use a separate JPEG ImageReader so the preview never stops.
+ *
+ * The capture session and the readers are only touched on the camera thread; calls from the
+ * main thread that use them are posted there.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class Camera2Backend implements CameraBackend {
+    private static final String TAG = "Camera2Backend";
+    private static final int MAX_FRAME_IMAGES = 3;
+    // How long the main thread waits for the camera thread to close the session
+    private static final long CLOSE_TIMEOUT_MS = 2000;
+    // How long release() waits for a pending openCamera() to complete
+    private static final long OPEN_TIMEOUT_MS = 2500;
+
+    private final CameraManager manager;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private HandlerThread cameraThread;
+    private Handler cameraHandler;
+
+    private String cameraId;
+    private CameraCharacteristics characteristics;
+    private volatile CameraDevice device;
+    // Counted down once openCamera() completes, whether it opened the device or not
+    private volatile CountDownLatch openResult;
+    // Set by release(), a device opened afterwards is closed at once
+    private volatile boolean released = false;
+    private volatile CameraCaptureSession session;
+    // Set on the main thread
+    private volatile Surface previewSurface;
+    // Used on the camera thread only
+    private ImageReader frameReader;
+    private ImageReader jpegReader;
+    // False if frame timestamps are not in the elapsedRealtimeNanos() base
+    private boolean realtimeTimestamps;
+
+    private Size previewSize;
+    private Rect activeArray;
+    private Rect cropRegion;
+    private float maxDigitalZoom = 1;
+    private volatile float zoomRatio = 1;
+    private volatile boolean focusLocked = false;
+
+    private FrameListener frameListener;
+    private PreviewBufferPool bufferPool;
+    private BlockingQueue<byte[]> freeBuffers;
+    private volatile PictureListener pictureListener;
+    // Restarts the repeating request with the current focus and zoom
+    private final Runnable repeatingRunnable = new Runnable() {
+        @Override
+        public void run() {
+            startRepeating();
+        }
+    };
+
+    /**
+     * Return true if the back camera supports more than the legacy hardware level.
+     */
+    public static boolean isSupported(Context context) {
+        try {
+            CameraManager manager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+            String id = findBackCamera(manager);
+            if (id == null) {
+                return false;
+            }
+            Integer level = manager.getCameraCharacteristics(id)
+                    .get(CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL);
+            return level != null && level != CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY;
+        } catch (Exception e) {
+            Log.e(TAG, "", e);
+            return false;
+        }
+    }
+
+    public Camera2Backend(Context context) {
+        manager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+    }
+
+    @Override
+    public void open() {
+        cameraThread = new HandlerThread(TAG);
+        cameraThread.start();
+        cameraHandler = new Handler(cameraThread.getLooper());
+        released = false;
+        final CountDownLatch result = new CountDownLatch(1);
+        openResult = result;
+        try {
+            cameraId = findBackCamera(manager);
+            characteristics = manager.getCameraCharacteristics(cameraId);
+            activeArray = characteristics.get(CameraCharacteristics.SENSOR_INFO_ACTIVE_ARRAY_SIZE);
+            cropRegion = activeArray;
+            Float maxZoom = characteristics.get(CameraCharacteristics.SCALER_AVAILABLE_MAX_DIGITAL_ZOOM);
+            maxDigitalZoom = maxZoom != null ? maxZoom : 1;
+            realtimeTimestamps = isRealtimeTimestampSource(characteristics);
+            manager.openCamera(cameraId, new CameraDevice.StateCallback() {
+                @Override
+                public void onOpened(CameraDevice camera) {
+                    result.countDown();
+                    if (released) {
+                        // release() gave up waiting, nothing else will close the device
+                        camera.close();
+                        Looper.myLooper().quitSafely();
+                        return;
+                    }
+                    device = camera;
+                    if (previewSurface != null) {
+                        createSession();
+                    }
+                }
+
+                @Override
+                public void onDisconnected(CameraDevice camera) {
+                    result.countDown();
+                    camera.close();
+                    device = null;
+                    quitIfReleased();
+                }
+
+                @Override
+                public void onError(CameraDevice camera, int error) {
+                    result.countDown();
+                    Log.e(TAG, "Camera error " + error);
+                    camera.close();
+                    device = null;
+                    quitIfReleased();
+                }
+            }, cameraHandler);
+        } catch (CameraAccessException | SecurityException e) {
+            result.countDown();
+            Log.e(TAG, "", e);
+        }
+    }
+
+    @Override
+    public void release() {
+        released = true;
+        if (bufferPool != null) {
+            bufferPool.close();
+        }
+        // A device still opening would be delivered after the camera thread quit and leak
+        boolean opened = awaitOpenResult();
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                closeSession();
+                if (device != null) {
+                    device.close();
+                    device = null;
+                }
+            }
+        });
+        if (cameraThread != null) {
+            if (opened) {
+                cameraThread.quitSafely();
+            } else {
+                Log.w(TAG, "Camera still opening, it is closed once opened");
+            }
+            cameraThread = null;
+        }
+    }
+
+    @Override
+    public void setFrameListener(FrameListener listener, int bufferCount) {
+        frameListener = listener;
+        bufferPool = listener != null ? new PreviewBufferPool(bufferCount) : null;
+        freeBuffers = listener != null ? new ArrayBlockingQueue<byte[]>(bufferCount) : null;
+    }
+
+    @Override
+    public void releaseFrame(byte[] nv21) {
+        if (bufferPool != null) {
+            bufferPool.release(nv21);
+        }
+    }
+
+    @Override
+    public PreviewBufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    @Override
+    public void choosePreviewSize(int viewWidth, int viewHeight) {
+        StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        Size[] sizes = frameListener != null
+                ? map.getOutputSizes(ImageFormat.YUV_420_888)
+                : map.getOutputSizes(SurfaceHolder.class);
+        int[] widths = new int[sizes.length];
+        int[] heights = new int[sizes.length];
+        for (int i = 0; i < sizes.length; ++i) {
+            widths[i] = sizes[i].getWidth();
+            heights[i] = sizes[i].getHeight();
+        }
+        int i = PreviewSizeSelector.chooseOptimal(widths, heights, viewWidth, viewHeight);
+        if (i >= 0) {
+            previewSize = sizes[i];
+        }
+    }
+
+    @Override
+    public int getPreviewWidth() {
+        return previewSize.getWidth();
+    }
+
+    @Override
+    public int getPreviewHeight() {
+        return previewSize.getHeight();
+    }
+
+    @Override
+    public void onSurfaceCreated(SurfaceHolder holder) {
+        // The session is created once the surface has the preview size
+        holder.setFixedSize(previewSize.getWidth(), previewSize.getHeight());
+    }
+
+    @Override
+    public void onSurfaceChanged(SurfaceHolder holder, int width, int height) {
+        if (width != previewSize.getWidth() || height != previewSize.getHeight()) {
+            return;
+        }
+        if (previewSurface == holder.getSurface() && session != null) {
+            return;
+        }
+        previewSurface = holder.getSurface();
+        cameraHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (device != null) {
+                    createSession();
+                }
+            }
+        });
+    }
+
+    @Override
+    public void onSurfaceDestroyed(SurfaceHolder holder) {
+        previewSurface = null;
+        // The session must stop drawing to the surface before this returns
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                closeSession();
+            }
+        });
+    }
+
+    @Override
+    public void setZoom(float fraction) {
+        if (focusLocked || activeArray == null) {
+            return;
+        }
+        zoomRatio = 1 + Math.max(0, Math.min(1, fraction)) * (maxDigitalZoom - 1);
+        int w = (int) (activeArray.width() / zoomRatio);
+        int h = (int) (activeArray.height() / zoomRatio);
+        int left = activeArray.left + (activeArray.width() - w) / 2;
+        int top = activeArray.top + (activeArray.height() - h) / 2;
+        cropRegion = new Rect(left, top, left + w, top + h);
+        cameraHandler.post(repeatingRunnable);
+    }
+
+    @Override
+    public void lockFocusAndZoom() {
+        focusLocked = true;
+        cameraHandler.post(repeatingRunnable);
+    }
+
+    @Override
+    public void unlockFocusAndZoom() {
+        focusLocked = false;
+        cameraHandler.post(repeatingRunnable);
+    }
+
+    @Override
+    public float getFocalLength() {
+        float[] focalLengths = characteristics.get(CameraCharacteristics.LENS_INFO_AVAILABLE_FOCAL_LENGTHS);
+        return focalLengths != null && focalLengths.length > 0 ? focalLengths[0] : 0;
+    }
+
+    @Override
+    public float getZoomRatio() {
+        return zoomRatio;
+    }
+
+    @Override
+    public void takePicture(final PictureListener listener) {
+        cameraHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                capturePicture(listener);
+            }
+        });
+    }
+
+    private void capturePicture(PictureListener listener) {
+        CameraCaptureSession s = session;
+        if (s == null) {
+            Log.e(TAG, "takePicture() called without a session");
+            return;
+        }
+        pictureListener = listener;
+        try {
+            CaptureRequest.Builder builder = device.createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE);
+            builder.addTarget(previewSurface);
+            builder.addTarget(jpegReader.getSurface());
+            builder.set(CaptureRequest.JPEG_QUALITY, (byte) CameraPreview.JPEG_QUALITY);
+            applyFocusAndZoom(builder);
+            s.capture(builder.build(), null, cameraHandler);
+        } catch (CameraAccessException | IllegalStateException e) {
+            Log.e(TAG, "", e);
+        }
+    }
+
+    private void createSession() {
+        closeSession();
+        if (previewSurface == null) {
+            return;
+        }
+        List<Surface> outputs = new ArrayList<>();
+        outputs.add(previewSurface);
+        if (frameListener != null) {
+            frameReader = ImageReader.newInstance(previewSize.getWidth(), previewSize.getHeight(),
+                    ImageFormat.YUV_420_888, MAX_FRAME_IMAGES);
+            frameReader.setOnImageAvailableListener(new ImageReader.OnImageAvailableListener() {
+                @Override
+                public void onImageAvailable(ImageReader reader) {
+                    onFrameAvailable(reader);
+                }
+            }, cameraHandler);
+            freeBuffers.clear();
+            bufferPool.allocate(new PreviewBufferPool.BufferSink() {
+                @Override
+                public void add(byte[] buffer) {
+                    freeBuffers.offer(buffer);
+                }
+            }, previewSize.getWidth() * previewSize.getHeight() * 3 / 2);
+            outputs.add(frameReader.getSurface());
+        }
+        Size jpegSize = getLargestJpegSize();
+        jpegReader = ImageReader.newInstance(jpegSize.getWidth(), jpegSize.getHeight(), ImageFormat.JPEG, 1);
+        jpegReader.setOnImageAvailableListener(new ImageReader.OnImageAvailableListener() {
+            @Override
+            public void onImageAvailable(ImageReader reader) {
+                onJpegAvailable(reader);
+            }
+        }, cameraHandler);
+        outputs.add(jpegReader.getSurface());
+        try {
+            device.createCaptureSession(outputs, new CameraCaptureSession.StateCallback() {
+                @Override
+                public void onConfigured(CameraCaptureSession s) {
+                    session = s;
+                    startRepeating();
+                }
+
+                @Override
+                public void onConfigureFailed(CameraCaptureSession s) {
+                    Log.e(TAG, "Failed to configure capture session");
+                }
+            }, cameraHandler);
+        } catch (CameraAccessException e) {
+            Log.e(TAG, "", e);
+        }
+    }
+
+    /**
+     * Wait until the pending openCamera(), if any, completes.
+     *
+     * @return False if it did not complete in {@link #OPEN_TIMEOUT_MS}
+     */
+    private boolean awaitOpenResult() {
+        CountDownLatch result = openResult;
+        if (result == null) {
+            return true;
+        }
+        try {
+            return result.await(OPEN_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Quit the camera thread from one of its callbacks once release() left it running.
+     */
+    private void quitIfReleased() {
+        if (released) {
+            Looper.myLooper().quitSafely();
+        }
+    }
+
+    /**
+     * Run a task on the camera thread and wait for it, at most {@link #CLOSE_TIMEOUT_MS}.
+     */
+    private void runOnCameraThread(final Runnable task) {
+        if (cameraHandler == null || Looper.myLooper() == cameraHandler.getLooper()) {
+            task.run();
+            return;
+        }
+        final CountDownLatch done = new CountDownLatch(1);
+        boolean posted = cameraHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } finally {
+                    done.countDown();
+                }
+            }
+        });
+        if (!posted) {
+            // The camera thread has quit, nothing else uses the session
+            task.run();
+            return;
+        }
+        try {
+            if (!done.await(CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                Log.w(TAG, "Camera thread did not answer in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void closeSession() {
+        if (session != null) {
+            session.close();
+            session = null;
+        }
+        if (frameReader != null) {
+            frameReader.close();
+            frameReader = null;
+        }
+        if (jpegReader != null) {
+            jpegReader.close();
+            jpegReader = null;
+        }
+    }
+
+    private void startRepeating() {
+        CameraCaptureSession s = session;
+        if (s == null) {
+            return;
+        }
+        try {
+            CaptureRequest.Builder builder = device.createCaptureRequest(frameListener != null
+                    ? CameraDevice.TEMPLATE_RECORD : CameraDevice.TEMPLATE_PREVIEW);
+            builder.addTarget(previewSurface);
+            if (frameReader != null) {
+                builder.addTarget(frameReader.getSurface());
+            }
+            applyFocusAndZoom(builder);
+            s.setRepeatingRequest(builder.build(), null, cameraHandler);
+        } catch (CameraAccessException | IllegalStateException e) {
+            Log.e(TAG, "", e);
+        }
+    }
+
+    private void applyFocusAndZoom(CaptureRequest.Builder builder) {
+        builder.set(CaptureRequest.SCALER_CROP_REGION, cropRegion);
+        Float minFocusDistance = characteristics.get(CameraCharacteristics.LENS_INFO_MINIMUM_FOCUS_DISTANCE);
+        boolean manualFocus = minFocusDistance != null && minFocusDistance > 0;
+        if (focusLocked && manualFocus) {
+            // Focus distance is in diopters, 0 is infinity
+            builder.set(CaptureRequest.CONTROL_AF_MODE, CameraMetadata.CONTROL_AF_MODE_OFF);
+            builder.set(CaptureRequest.LENS_FOCUS_DISTANCE, 0f);
+        } else if (manualFocus) {
+            builder.set(CaptureRequest.CONTROL_AF_MODE, CameraMetadata.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
+        }
+    }
+
+    private void onFrameAvailable(ImageReader reader) {
+        Image image = reader.acquireNextImage();
+        if (image == null) {
+            return;
+        }
+        byte[] buffer = freeBuffers.poll();
+        if (buffer == null) {
+            // Every buffer is owned by the listener, skip the frame
+            image.close();
+            return;
+        }
+        ImageUtil.copyToNv21(image, buffer, previewSize.getWidth(), previewSize.getHeight());
+        long timestampNs = image.getTimestamp();
+        if (!realtimeTimestamps) {
+            // In the System.nanoTime() base, which does not count deep sleep, unlike elapsedRealtimeNanos()
+            timestampNs += SystemClock.elapsedRealtimeNanos() - System.nanoTime();
+        }
+        image.close();
+        bufferPool.onDelivered(buffer);
+        frameListener.onFrame(buffer, timestampNs);
+    }
+
+    private void onJpegAvailable(ImageReader reader) {
+        Image image = reader.acquireNextImage();
+        if (image == null) {
+            return;
+        }
+        ByteBuffer buf = image.getPlanes()[0].getBuffer();
+        final byte[] jpeg = new byte[buf.remaining()];
+        buf.get(jpeg);
+        image.close();
+        final PictureListener listener = pictureListener;
+        pictureListener = null;
+        if (listener != null) {
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onPictureTaken(jpeg);
+                }
+            });
+        }
+    }
+
+    private Size getLargestJpegSize() {
+        StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        Size largest = null;
+        for (Size size : map.getOutputSizes(ImageFormat.JPEG)) {
+            if (largest == null || (long) size.getWidth() * size.getHeight()
+                    > (long) largest.getWidth() * largest.getHeight()) {
+                largest = size;
+            }
+        }
+        return largest;
+    }
+
+    /**
+     * Return true if the camera timestamps are in the SystemClock.elapsedRealtimeNanos() base.
+     * Before API 23, and for an UNKNOWN source, they are taken to be in the System.nanoTime() base.
+     */
+    private static boolean isRealtimeTimestampSource(CameraCharacteristics characteristics) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            return false;
+        }
+        Integer source = characteristics.get(CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE);
+        return source != null && source == CameraMetadata.SENSOR_INFO_TIMESTAMP_SOURCE_REALTIME;
+    }
+
+    private static String findBackCamera(CameraManager manager) throws CameraAccessException {
+        for (String id : manager.getCameraIdList()) {
+            Integer facing = manager.getCameraCharacteristics(id).get(CameraCharacteristics.LENS_FACING);
+            if (facing != null && facing == CameraCharacteristics.LENS_FACING_BACK) {
+                return id;
+            }
+        }
+        return null;
+    }
+}
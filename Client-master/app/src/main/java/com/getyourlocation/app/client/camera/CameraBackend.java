@@ -0,0 +1,114 @@
+package com.getyourlocation.app.client.camera;
+
+import android.view.SurfaceHolder;
+
+
+/**
+ * Camera used by the capture screens, independent of the camera API behind it.
+ *
+ * Preview frames are delivered as NV21 in buffers from a {@link PreviewBufferPool}, which
+ * must be given back with {@link #releaseFrame(byte[])}. Pictures are delivered as JPEG on
+ * the main thread.
+ */
+public interface CameraBackend {
+
+    /**
+     * Receive preview frames. Called on a camera thread.
+     */
+    interface FrameListener {
+        /**
+         * @param nv21 The frame, owned by the listener until passed to releaseFrame()
+         * @param timestampNs Capture time in the SystemClock.elapsedRealtimeNanos() base, converted
+         *                    by the backend when the camera clock has another base
+         */
+        void onFrame(byte[] nv21, long timestampNs);
+    }
+
+    /**
+     * Receive a still picture. Called on the main thread.
+     */
+    interface PictureListener {
+        void onPictureTaken(byte[] jpeg);
+    }
+
+    /**
+     * Open the camera. Must be called before anything else.
+     */
+    void open();
+
+    /**
+     * Close the camera. Frames still owned by listeners are dropped when released.
+     */
+    void release();
+
+    /**
+     * Set the listener receiving preview frames. Must be called before the preview starts.
+     *
+     * @param listener The listener, or null to not receive frames
+     * @param bufferCount Number of frame buffers
+     */
+    void setFrameListener(FrameListener listener, int bufferCount);
+
+    /**
+     * Give a frame back to the camera.
+     */
+    void releaseFrame(byte[] nv21);
+
+    /**
+     * Return the frame buffer pool, or null if no frame listener is set.
+     */
+    PreviewBufferPool getBufferPool();
+
+    /**
+     * Choose the preview size for a view of the given size.
+     */
+    void choosePreviewSize(int viewWidth, int viewHeight);
+
+    int getPreviewWidth();
+
+    int getPreviewHeight();
+
+    /**
+     * Called when the preview surface is created.
+     */
+    void onSurfaceCreated(SurfaceHolder holder);
+
+    /**
+     * Called when the preview surface changes format or size.
+     */
+    void onSurfaceChanged(SurfaceHolder holder, int width, int height);
+
+    /**
+     * Called when the preview surface is destroyed.
+     */
+    void onSurfaceDestroyed(SurfaceHolder holder);
+
+    /**
+     * Set the zoom.
+     *
+     * @param fraction From 0 for no zoom to 1 for maximum zoom
+     */
+    void setZoom(float fraction);
+
+    /**
+     * Lock focus at infinity and keep the current zoom until {@link #unlockFocusAndZoom()}.
+     */
+    void lockFocusAndZoom();
+
+    void unlockFocusAndZoom();
+
+    /**
+     * Return the physical focal length in millimeters.
+     */
+    float getFocalLength();
+
+    /**
+     * Return the current zoom ratio, 1 when not zoomed.
+     */
+    float getZoomRatio();
+
+    /**
+     * Take a still picture. The preview keeps running or is restarted by the backend.
+     */
+    void takePicture(PictureListener listener);
+}
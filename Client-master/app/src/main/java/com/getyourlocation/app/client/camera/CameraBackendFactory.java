@@ -0,0 +1,29 @@
+package com.getyourlocation.app.client.camera;
+
+import android.content.Context;
+import android.os.Build;
+import android.util.Log;
+
+
+/**
+ * Create the camera backend best suited to the device.
+ */
+public class CameraBackendFactory {
+    private static final String TAG = "CameraBackendFactory";
+
+    /**
+     * Return a Camera2 backend if the device supports it beyond the legacy level, otherwise
+     * a backend on the old Camera API.
+     *
+     * @param context The context
+     * @param legacyDisplayOrientation Preview rotation in degrees used by the old Camera API
+     */
+    public static CameraBackend create(Context context, int legacyDisplayOrientation) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP && Camera2Backend.isSupported(context)) {
+            Log.d(TAG, "Using Camera2 backend");
+            return new Camera2Backend(context);
+        }
+        Log.d(TAG, "Using legacy camera backend");
+        return new LegacyCameraBackend(legacyDisplayOrientation);
+    }
+}
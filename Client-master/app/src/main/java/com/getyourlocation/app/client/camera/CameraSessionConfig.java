@@ -0,0 +1,85 @@
+package com.getyourlocation.app.client.camera;
+
+import android.hardware.Camera;
+import android.util.Log;
+
+import java.util.List;
+
+
+/**
+ * Lock the camera focus and zoom for a recording session.
+ *
+ * Parameters are read and written once when recording starts and cached, so nothing has
+ * to be queried from the camera while frames are recorded.
+ */
+public class CameraSessionConfig {
+    private static final String TAG = "CameraSessionConfig";
+
+    private final Camera camera;
+    private Camera.Parameters params;
+    private String originalFocusMode;
+
+    /**
+     * Initialize.
+     *
+     * @param camera The opened camera
+     */
+    public CameraSessionConfig(Camera camera) {
+        this.camera = camera;
+    }
+
+    /**
+     * Lock the focus mode and the current zoom, then cache the resulting parameters.
+     */
+    public void lock() {
+        camera.cancelAutoFocus();
+        Camera.Parameters p = camera.getParameters();
+        originalFocusMode = p.getFocusMode();
+        String focusMode = getLockedFocusMode(p.getSupportedFocusModes());
+        if (focusMode != null) {
+            p.setFocusMode(focusMode);
+        }
+        if (p.isZoomSupported()) {
+            p.setZoom(p.getZoom());
+        }
+        camera.setParameters(p);
+        params = camera.getParameters();
+        Log.d(TAG, "Locked focus mode " + params.getFocusMode() + ", zoom " + params.getZoom());
+    }
+
+    /**
+     * Restore the focus mode used before {@link #lock()}.
+     */
+    public void unlock() {
+        if (params == null || originalFocusMode == null) {
+            return;
+        }
+        try {
+            params.setFocusMode(originalFocusMode);
+            camera.setParameters(params);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "", e);
+        }
+    }
+
+    /**
+     * Return the parameters cached by {@link #lock()}. The backend answers focal length and
+     * zoom queries from them while recording.
+     */
+    public Camera.Parameters getParameters() {
+        return params;
+    }
+
+    private static String getLockedFocusMode(List<String> supported) {
+        if (supported == null) {
+            return null;
+        }
+        if (supported.contains(Camera.Parameters.FOCUS_MODE_INFINITY)) {
+            return Camera.Parameters.FOCUS_MODE_INFINITY;
+        }
+        if (supported.contains(Camera.Parameters.FOCUS_MODE_FIXED)) {
+            return Camera.Parameters.FOCUS_MODE_FIXED;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,233 @@
+package com.getyourlocation.app.client.camera;
+
+import android.graphics.ImageFormat;
+import android.hardware.Camera;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.SurfaceHolder;
+
+import com.getyourlocation.app.client.widget.CameraPreview;
+
+import java.util.List;
+
+
+/**
+ * Camera backend built on the deprecated android.hardware.Camera API. Used on devices
+ * without a usable Camera2 implementation.
+ */
+@SuppressWarnings("deprecation")
+public class LegacyCameraBackend implements CameraBackend {
+    private static final String TAG = "LegacyCameraBackend";
+
+    private final int displayOrientation;
+    private Camera camera;
+    private Camera.Parameters cameraParams;
+    private Camera.Size previewSize;
+    private CameraSessionConfig sessionConfig;
+    private FrameListener frameListener;
+    private PreviewBufferPool bufferPool;
+
+    /**
+     * Initialize.
+     *
+     * @param displayOrientation Clockwise rotation of the preview in degrees
+     */
+    public LegacyCameraBackend(int displayOrientation) {
+        this.displayOrientation = displayOrientation;
+    }
+
+    @Override
+    public void open() {
+        camera = Camera.open();
+        camera.setDisplayOrientation(displayOrientation);
+        cameraParams = camera.getParameters();
+        sessionConfig = new CameraSessionConfig(camera);
+    }
+
+    @Override
+    public void release() {
+        if (camera == null) {
+            return;
+        }
+        if (bufferPool != null) {
+            bufferPool.close();
+        }
+        camera.setPreviewCallback(null);
+        camera.release();
+        camera = null;
+    }
+
+    @Override
+    public void setFrameListener(FrameListener listener, int bufferCount) {
+        frameListener = listener;
+        bufferPool = listener != null ? new PreviewBufferPool(bufferCount) : null;
+    }
+
+    @Override
+    public void releaseFrame(byte[] nv21) {
+        if (bufferPool != null) {
+            bufferPool.release(nv21);
+        }
+    }
+
+    @Override
+    public PreviewBufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    @Override
+    public void choosePreviewSize(int viewWidth, int viewHeight) {
+        List<Camera.Size> sizes = cameraParams.getSupportedPreviewSizes();
+        if (sizes == null) {
+            return;
+        }
+        int[] widths = new int[sizes.size()];
+        int[] heights = new int[sizes.size()];
+        for (int i = 0; i < sizes.size(); ++i) {
+            widths[i] = sizes.get(i).width;
+            heights[i] = sizes.get(i).height;
+        }
+        int i = PreviewSizeSelector.chooseOptimal(widths, heights, viewWidth, viewHeight);
+        if (i >= 0) {
+            previewSize = sizes.get(i);
+        }
+    }
+
+    @Override
+    public int getPreviewWidth() {
+        return previewSize.width;
+    }
+
+    @Override
+    public int getPreviewHeight() {
+        return previewSize.height;
+    }
+
+    @Override
+    public void onSurfaceCreated(SurfaceHolder holder) {
+        try {
+            cameraParams = camera.getParameters();
+            cameraParams.setJpegQuality(CameraPreview.JPEG_QUALITY);
+            cameraParams.setPreviewSize(previewSize.width, previewSize.height);
+            if (cameraParams.getSupportedFocusModes().contains(Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE)) {
+                cameraParams.setFocusMode(Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE);
+            } else {
+                cameraParams.setFocusMode(Camera.Parameters.FOCUS_MODE_AUTO);
+            }
+            camera.setParameters(cameraParams);
+            // The buffers are allocated once in onSurfaceChanged(), which always follows
+            camera.setPreviewDisplay(holder);
+            camera.startPreview();
+        } catch (Exception e) {
+            Log.e(TAG, "", e);
+        }
+    }
+
+    @Override
+    public void onSurfaceChanged(SurfaceHolder holder, int width, int height) {
+        if (holder.getSurface() == null || camera == null) {
+            // preview surface does not exist
+            return;
+        }
+
+        // stop preview before making changes
+        try {
+            camera.stopPreview();
+        } catch (Exception e) {
+            // ignore: tried to stop a non-existent preview
+        }
+
+        // start preview with new settings
+        try {
+            camera.setParameters(cameraParams);
+            registerPreviewCallback();
+            camera.setPreviewDisplay(holder);
+            camera.startPreview();
+        } catch (Exception e) {
+            Log.e(TAG, "", e);
+        }
+    }
+
+    @Override
+    public void onSurfaceDestroyed(SurfaceHolder holder) {
+        // The camera is released by its owner
+    }
+
+    @Override
+    public void setZoom(float fraction) {
+        try {
+            Camera.Parameters params = camera.getParameters();
+            if (params.isZoomSupported()) {
+                params.setZoom(Math.round(fraction * params.getMaxZoom()));
+                camera.setParameters(params);
+                cameraParams = params;
+            }
+            Log.d(TAG, "Is support Zoom " + params.isZoomSupported());
+        } catch (Exception e) {
+            Log.e(TAG, "", e);
+        }
+    }
+
+    @Override
+    public void lockFocusAndZoom() {
+        sessionConfig.lock();
+        cameraParams = sessionConfig.getParameters();
+    }
+
+    @Override
+    public void unlockFocusAndZoom() {
+        if (camera == null) {
+            return;
+        }
+        sessionConfig.unlock();
+        cameraParams = camera.getParameters();
+    }
+
+    @Override
+    public float getFocalLength() {
+        return cameraParams.getFocalLength();
+    }
+
+    @Override
+    public float getZoomRatio() {
+        if (!cameraParams.isZoomSupported()) {
+            return 1;
+        }
+        List<Integer> ratios = cameraParams.getZoomRatios();
+        int zoom = cameraParams.getZoom();
+        return ratios != null && zoom < ratios.size() ? ratios.get(zoom) / 100f : 1;
+    }
+
+    @Override
+    public void takePicture(final PictureListener listener) {
+        camera.takePicture(null, null, new Camera.PictureCallback() {
+            @Override
+            public void onPictureTaken(byte[] data, Camera camera) {
+                camera.startPreview();
+                listener.onPictureTaken(data);
+            }
+        });
+    }
+
+    private void registerPreviewCallback() {
+        if (frameListener == null) {
+            camera.setPreviewCallback(null);
+            return;
+        }
+        Camera.Size size = cameraParams.getPreviewSize();
+        int bitsPerPixel = ImageFormat.getBitsPerPixel(cameraParams.getPreviewFormat());
+        bufferPool.allocate(new PreviewBufferPool.BufferSink() {
+            @Override
+            public void add(byte[] buffer) {
+                camera.addCallbackBuffer(buffer);
+            }
+        }, size.width * size.height * bitsPerPixel / 8);
+        camera.setPreviewCallbackWithBuffer(new Camera.PreviewCallback() {
+            @Override
+            public void onPreviewFrame(byte[] data, Camera camera) {
+                bufferPool.onDelivered(data);
+                frameListener.onFrame(data, SystemClock.elapsedRealtimeNanos());
+            }
+        });
+    }
+}
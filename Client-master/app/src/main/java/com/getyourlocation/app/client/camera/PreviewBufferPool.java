@@ -0,0 +1,153 @@
+package com.getyourlocation.app.client.camera;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+
+/**
+ * Fixed set of preview buffers handed to the camera backend, so no byte array is allocated
+ * per frame.
+ *
+ * Every buffer delivered to the frame listener is owned by the consumer until it is passed
+ * to {@link #release(byte[])}. While all buffers are owned by consumers the pool is starved
+ * and the camera skips frames.
+ */
+public class PreviewBufferPool {
+    private static final String TAG = "PreviewBufferPool";
+
+    /**
+     * Receives the buffers which are free to be filled, e.g. Camera.addCallbackBuffer().
+     */
+    public interface BufferSink {
+        void add(byte[] buffer);
+    }
+
+    private final int bufferCount;
+    private BufferSink sink;
+    private byte[][] buffers = new byte[0][];
+    private int bufferSize = 0;
+    private int outstanding = 0;
+    private boolean closed = false;
+
+    private long deliveredCount = 0;
+    private long starvationCount = 0;
+    private long starvedSince = -1;
+    private long starvedTimeMs = 0;
+
+    /**
+     * Initialize.
+     *
+     * @param bufferCount Number of buffers to allocate
+     */
+    public PreviewBufferPool(int bufferCount) {
+        this.bufferCount = bufferCount;
+    }
+
+    /**
+     * Allocate buffers of the given size and give them all to the sink. Buffers from an
+     * earlier allocation which are still owned by consumers are dropped when released.
+     */
+    public synchronized void allocate(BufferSink sink, int bufferSize) {
+        this.sink = sink;
+        this.bufferSize = bufferSize;
+        buffers = new byte[bufferCount][];
+        for (int i = 0; i < bufferCount; ++i) {
+            buffers[i] = new byte[bufferSize];
+            sink.add(buffers[i]);
+        }
+        outstanding = 0;
+        starvedSince = -1;
+        closed = false;
+        Log.d(TAG, bufferCount + " buffers of " + bufferSize + " bytes allocated");
+    }
+
+    /**
+     * Mark a buffer as delivered to the frame listener.
+     */
+    public synchronized void onDelivered(byte[] buffer) {
+        if (!owns(buffer)) {
+            return;
+        }
+        ++deliveredCount;
+        if (++outstanding >= buffers.length && starvedSince < 0) {
+            ++starvationCount;
+            starvedSince = SystemClock.elapsedRealtime();
+        }
+    }
+
+    /**
+     * Give a buffer back to the sink. May be called from any thread.
+     */
+    public synchronized void release(byte[] buffer) {
+        if (buffer == null || !owns(buffer)) {
+            return;
+        }
+        --outstanding;
+        if (starvedSince >= 0) {
+            starvedTimeMs += SystemClock.elapsedRealtime() - starvedSince;
+            starvedSince = -1;
+        }
+        if (closed) {
+            return;
+        }
+        try {
+            sink.add(buffer);
+        } catch (RuntimeException e) {
+            // Camera already released
+            Log.w(TAG, "Failed to give back buffer", e);
+        }
+    }
+
+    /**
+     * Stop giving buffers back to the sink. Called before the camera is released.
+     */
+    public synchronized void close() {
+        closed = true;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public synchronized int getOutstandingCount() {
+        return outstanding;
+    }
+
+    public synchronized long getDeliveredCount() {
+        return deliveredCount;
+    }
+
+    /**
+     * Return how many times every buffer was owned by consumers.
+     */
+    public synchronized long getStarvationCount() {
+        return starvationCount;
+    }
+
+    /**
+     * Return the total time in milliseconds during which the camera had no free buffer.
+     */
+    public synchronized long getStarvedTimeMs() {
+        long res = starvedTimeMs;
+        if (starvedSince >= 0) {
+            res += SystemClock.elapsedRealtime() - starvedSince;
+        }
+        return res;
+    }
+
+    public synchronized void resetStats() {
+        deliveredCount = 0;
+        starvationCount = 0;
+        starvedTimeMs = 0;
+        starvedSince = outstanding >= buffers.length ? SystemClock.elapsedRealtime() : -1;
+    }
+
+    private boolean owns(byte[] buffer) {
+        for (byte[] b : buffers) {
+            if (b == buffer) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,49 @@
+package com.getyourlocation.app.client.camera;
+
+
+/**
+ * Choose the preview size which best fits a view.
+ */
+public class PreviewSizeSelector {
+    private static final String TAG = "PreviewSizeSelector";
+    private static final double ASPECT_TOLERANCE = 0.1;
+
+    /**
+     * Return the index of the size whose aspect ratio matches the view and whose height is
+     * the closest to the view height. If no aspect ratio matches, only the height is
+     * considered. Camera sizes are landscape while the view is portrait, so the ratio of the
+     * view is taken as height over width.
+     *
+     * @param widths Widths of the supported sizes
+     * @param heights Heights of the supported sizes
+     * @param w View width
+     * @param h View height
+     * @return The index of the chosen size, or -1 if there is no size
+     */
+    public static int chooseOptimal(int[] widths, int[] heights, int w, int h) {
+        double targetRatio = (double) h / w;
+        int targetHeight = h;
+        int optimal = -1;
+        double minDiff = Double.MAX_VALUE;
+
+        for (int i = 0; i < widths.length; ++i) {
+            double ratio = (double) widths[i] / heights[i];
+            if (Math.abs(ratio - targetRatio) > ASPECT_TOLERANCE) continue;
+            if (Math.abs(heights[i] - targetHeight) < minDiff) {
+                optimal = i;
+                minDiff = Math.abs(heights[i] - targetHeight);
+            }
+        }
+
+        if (optimal == -1) {
+            minDiff = Double.MAX_VALUE;
+            for (int i = 0; i < widths.length; ++i) {
+                if (Math.abs(heights[i] - targetHeight) < minDiff) {
+                    optimal = i;
+                    minDiff = Math.abs(heights[i] - targetHeight);
+                }
+            }
+        }
+        return optimal;
+    }
+}
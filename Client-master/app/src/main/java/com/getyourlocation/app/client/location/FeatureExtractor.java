@@ -0,0 +1,265 @@
+package com.getyourlocation.app.client.location;
+
+import java.util.Random;
+
+
+/**
+ * Local binary descriptors of the corners of a picture, to recognize storefronts on the phone
+ * with a {@link ShopIndex}.
+ *
+ * Corners are the local maxima of the Harris response, at most one per small cell so that
+ * they spread over the picture, and the strongest are kept. Each is described like BRIEF by
+ * 256 comparisons of smoothed gray levels at fixed random pairs of points around it, so two
+ * views of the same corner have descriptors at a small Hamming distance. The descriptors
+ * are not rotated, the phone is held upright when taking reference photos.
+ *
+ * Buffers are reused between calls, an extractor must not be shared between threads.
+ */
+public class FeatureExtractor {
+    private static final String TAG = "FeatureExtractor";
+    public static final int DESCRIPTOR_BITS = 256;
+    /** Longs per descriptor in the arrays filled by {@link #extract}. */
+    public static final int DESCRIPTOR_LONGS = DESCRIPTOR_BITS / 64;
+    public static final int DEFAULT_MAX_FEATURES = 128;
+
+    private static final int PATCH_RADIUS = 15;
+    private static final int SMOOTH_RADIUS = 2;
+    // Corners closer to the border have no full patch
+    private static final int BORDER = PATCH_RADIUS + SMOOTH_RADIUS + 1;
+    private static final int CELL = 8;
+    private static final float HARRIS_K = 0.04f;
+    // Responses below this fraction of the strongest one, or below the minimum, are no corners
+    private static final float RELATIVE_THRESHOLD = 0.01f;
+    private static final float MIN_RESPONSE = 1e5f;
+    // x1, y1, x2, y2 of each comparison, spread as a Gaussian around the corner
+    private static final int[] PATTERN = new int[DESCRIPTOR_BITS * 4];
+
+    static {
+        Random random = new Random(0x47594C);
+        double sigma = (2 * PATCH_RADIUS + 1) / 5.0;
+        for (int i = 0; i < PATTERN.length; ++i) {
+            int offset;
+            do {
+                offset = (int) Math.round(random.nextGaussian() * sigma);
+            } while (offset < -PATCH_RADIUS || offset > PATCH_RADIUS);
+            PATTERN[i] = offset;
+        }
+    }
+
+    private final int maxFeatures;
+    private int width;
+    private int height;
+    private int[] gray;
+    private int[] smoothed;
+    private long[] integral;
+    private int[] gxx;
+    private int[] gyy;
+    private int[] gxy;
+    private float[] response;
+    // Candidate corners, one per cell
+    private int[] corners;
+    private float[] cornerResponses;
+
+    public FeatureExtractor() {
+        this(DEFAULT_MAX_FEATURES);
+    }
+
+    /**
+     * @param maxFeatures Maximum number of descriptors returned per picture
+     */
+    public FeatureExtractor(int maxFeatures) {
+        if (maxFeatures <= 0) {
+            throw new IllegalArgumentException("Invalid feature count " + maxFeatures);
+        }
+        this.maxFeatures = maxFeatures;
+    }
+
+    public int getMaxFeatures() {
+        return maxFeatures;
+    }
+
+    /**
+     * Describe the strongest corners of an ARGB picture, as returned by Bitmap.getPixels().
+     *
+     * @param descriptors Receives {@link #DESCRIPTOR_LONGS} longs per corner, must hold
+     *                    {@link #getMaxFeatures()} descriptors
+     * @return The number of descriptors, 0 if the picture is too small or has no corners
+     */
+    public int extract(int[] argb, int width, int height, long[] descriptors) {
+        if (width <= 0 || height <= 0 || argb.length < width * height) {
+            throw new IllegalArgumentException("Invalid picture size " + width + "x" + height);
+        }
+        if (descriptors.length < maxFeatures * DESCRIPTOR_LONGS) {
+            throw new IllegalArgumentException("Descriptor array too small");
+        }
+        if (width <= 2 * BORDER || height <= 2 * BORDER) {
+            return 0;
+        }
+        allocate(width, height);
+        toGray(argb);
+        computeResponse();
+        int count = selectCorners();
+        smooth();
+        for (int i = 0; i < count; ++i) {
+            describe(corners[i], descriptors, i * DESCRIPTOR_LONGS);
+        }
+        return count;
+    }
+
+    private void allocate(int width, int height) {
+        if (width == this.width && height == this.height) {
+            return;
+        }
+        this.width = width;
+        this.height = height;
+        int size = width * height;
+        gray = new int[size];
+        smoothed = new int[size];
+        integral = new long[(width + 1) * (height + 1)];
+        gxx = new int[size];
+        gyy = new int[size];
+        gxy = new int[size];
+        response = new float[size];
+        int cells = ((width - 2 * BORDER + CELL - 1) / CELL) * ((height - 2 * BORDER + CELL - 1) / CELL);
+        corners = new int[cells];
+        cornerResponses = new float[cells];
+    }
+
+    private void toGray(int[] argb) {
+        for (int i = 0; i < width * height; ++i) {
+            int pixel = argb[i];
+            gray[i] = (((pixel >> 16) & 0xFF) * 299 + ((pixel >> 8) & 0xFF) * 587 + (pixel & 0xFF) * 114) / 1000;
+        }
+    }
+
+    /**
+     * Compute the Harris response inside the border from the gradients summed over 3x3.
+     */
+    private void computeResponse() {
+        for (int y = BORDER - 2; y < height - BORDER + 2; ++y) {
+            for (int x = BORDER - 2; x < width - BORDER + 2; ++x) {
+                int i = y * width + x;
+                int dx = gray[i + 1] - gray[i - 1];
+                int dy = gray[i + width] - gray[i - width];
+                gxx[i] = dx * dx;
+                gyy[i] = dy * dy;
+                gxy[i] = dx * dy;
+            }
+        }
+        for (int y = BORDER; y < height - BORDER; ++y) {
+            for (int x = BORDER; x < width - BORDER; ++x) {
+                float sxx = 0;
+                float syy = 0;
+                float sxy = 0;
+                for (int j = y - 1; j <= y + 1; ++j) {
+                    for (int i = j * width + x - 1; i <= j * width + x + 1; ++i) {
+                        sxx += gxx[i];
+                        syy += gyy[i];
+                        sxy += gxy[i];
+                    }
+                }
+                float trace = sxx + syy;
+                response[y * width + x] = sxx * syy - sxy * sxy - HARRIS_K * trace * trace;
+            }
+        }
+    }
+
+    /**
+     * Keep the strongest response of each cell, then the strongest cells.
+     *
+     * @return The number of corners, sorted by decreasing response
+     */
+    private int selectCorners() {
+        int count = 0;
+        float strongest = 0;
+        for (int cy = BORDER; cy < height - BORDER; cy += CELL) {
+            for (int cx = BORDER; cx < width - BORDER; cx += CELL) {
+                int best = -1;
+                float bestResponse = MIN_RESPONSE;
+                for (int y = cy; y < Math.min(cy + CELL, height - BORDER); ++y) {
+                    for (int x = cx; x < Math.min(cx + CELL, width - BORDER); ++x) {
+                        int i = y * width + x;
+                        if (response[i] > bestResponse) {
+                            best = i;
+                            bestResponse = response[i];
+                        }
+                    }
+                }
+                if (best != -1) {
+                    corners[count] = best;
+                    cornerResponses[count] = bestResponse;
+                    ++count;
+                    strongest = Math.max(strongest, bestResponse);
+                }
+            }
+        }
+        // Insertion sort, there are a few hundred cells at most
+        int kept = 0;
+        for (int i = 0; i < count; ++i) {
+            int corner = corners[i];
+            float value = cornerResponses[i];
+            if (value < RELATIVE_THRESHOLD * strongest) {
+                continue;
+            }
+            int j = kept;
+            while (j > 0 && cornerResponses[j - 1] < value) {
+                corners[j] = corners[j - 1];
+                cornerResponses[j] = cornerResponses[j - 1];
+                --j;
+            }
+            corners[j] = corner;
+            cornerResponses[j] = value;
+            ++kept;
+        }
+        return Math.min(kept, maxFeatures);
+    }
+
+    /**
+     * Average the gray levels over 5x5 with an integral image, so that single pixels of noise
+     * do not flip comparisons.
+     */
+    private void smooth() {
+        int stride = width + 1;
+        for (int y = 0; y < height; ++y) {
+            long row = 0;
+            for (int x = 0; x < width; ++x) {
+                row += gray[y * width + x];
+                integral[(y + 1) * stride + x + 1] = integral[y * stride + x + 1] + row;
+            }
+        }
+        int size = 2 * SMOOTH_RADIUS + 1;
+        for (int y = SMOOTH_RADIUS; y < height - SMOOTH_RADIUS; ++y) {
+            for (int x = SMOOTH_RADIUS; x < width - SMOOTH_RADIUS; ++x) {
+                int top = (y - SMOOTH_RADIUS) * stride + x - SMOOTH_RADIUS;
+                int bottom = top + size * stride;
+                long sum = integral[bottom + size] - integral[bottom] - integral[top + size] + integral[top];
+                smoothed[y * width + x] = (int) (sum / (size * size));
+            }
+        }
+    }
+
+    private void describe(int corner, long[] descriptors, int offset) {
+        for (int k = 0; k < DESCRIPTOR_LONGS; ++k) {
+            descriptors[offset + k] = 0;
+        }
+        for (int bit = 0; bit < DESCRIPTOR_BITS; ++bit) {
+            int p = bit * 4;
+            int a = smoothed[corner + PATTERN[p + 1] * width + PATTERN[p]];
+            int b = smoothed[corner + PATTERN[p + 3] * width + PATTERN[p + 2]];
+            if (a < b) {
+                descriptors[offset + (bit >> 6)] |= 1L << (bit & 63);
+            }
+        }
+    }
+
+    /**
+     * Return the number of differing bits of two descriptors.
+     */
+    public static int distance(long[] a, int offsetA, long[] b, int offsetB) {
+        int bits = 0;
+        for (int k = 0; k < DESCRIPTOR_LONGS; ++k) {
+            bits += Long.bitCount(a[offsetA + k] ^ b[offsetB + k]);
+        }
+        return bits;
+    }
+}
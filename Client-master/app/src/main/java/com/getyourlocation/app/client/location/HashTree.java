@@ -0,0 +1,130 @@
+package com.getyourlocation.app.client.location;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+
+/**
+ * BK-tree of 64-bit hashes for nearest neighbour lookups in Hamming distance.
+ *
+ * The children of a node are indexed by their distance to it, so by the triangle inequality
+ * a lookup within distance d only descends into the children at distance k - d to k + d of
+ * each visited node at distance k. Removed entries are only marked; the owner rebuilds the
+ * tree when they pile up, see {@link #getRemovedCount()}.
+ */
+public class HashTree {
+    private static final String TAG = "HashTree";
+    private static final int MAX_DISTANCE = 64;
+
+    private static class Node {
+        final long hash;
+        final int id;
+        boolean removed = false;
+        Node[] children;
+
+        Node(long hash, int id) {
+            this.hash = hash;
+            this.id = id;
+        }
+    }
+
+    private Node root;
+    private int size = 0;
+    private int removedCount = 0;
+    private final Deque<Node> pending = new ArrayDeque<>();
+
+    /**
+     * Add a hash with the ID of the entry it belongs to.
+     */
+    public void add(long hash, int id) {
+        Node node = new Node(hash, id);
+        ++size;
+        if (root == null) {
+            root = node;
+            return;
+        }
+        Node parent = root;
+        while (true) {
+            int d = ImageHash.distance(hash, parent.hash);
+            if (parent.children == null) {
+                parent.children = new Node[MAX_DISTANCE + 1];
+            }
+            Node child = parent.children[d];
+            if (child == null) {
+                parent.children[d] = node;
+                return;
+            }
+            parent = child;
+        }
+    }
+
+    /**
+     * Mark the entry of a hash as removed.
+     *
+     * @return False if there is no such entry
+     */
+    public boolean remove(long hash, int id) {
+        Node node = root;
+        while (node != null) {
+            if (node.hash == hash && node.id == id && !node.removed) {
+                node.removed = true;
+                --size;
+                ++removedCount;
+                return true;
+            }
+            node = node.children == null ? null : node.children[ImageHash.distance(hash, node.hash)];
+        }
+        return false;
+    }
+
+    /**
+     * Return the ID of the entry nearest to a hash within a distance, -1 if there is none.
+     * Not thread-safe, even for concurrent lookups.
+     */
+    public int findNearest(long hash, int maxDistance) {
+        int bestId = -1;
+        int bestDistance = maxDistance + 1;
+        pending.clear();
+        if (root != null) {
+            pending.push(root);
+        }
+        while (!pending.isEmpty()) {
+            Node node = pending.pop();
+            int d = ImageHash.distance(hash, node.hash);
+            if (d < bestDistance && !node.removed) {
+                bestDistance = d;
+                bestId = node.id;
+            }
+            if (node.children == null) {
+                continue;
+            }
+            // Only children within the best distance found so far can do better
+            int radius = bestDistance - 1;
+            int from = Math.max(0, d - radius);
+            int to = Math.min(MAX_DISTANCE, d + radius);
+            for (int k = from; k <= to; ++k) {
+                if (node.children[k] != null) {
+                    pending.push(node.children[k]);
+                }
+            }
+        }
+        return bestId;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Return the number of removed entries still held by the tree.
+     */
+    public int getRemovedCount() {
+        return removedCount;
+    }
+
+    public void clear() {
+        root = null;
+        size = 0;
+        removedCount = 0;
+    }
+}
@@ -0,0 +1,105 @@
+package com.getyourlocation.app.client.location;
+
+import java.util.Arrays;
+
+
+/**
+ * 64-bit perceptual hash of a picture, so that near-duplicate shots of the same storefront
+ * can be recognized without asking the server.
+ *
+ * The picture is reduced to 32x32 gray levels and transformed with a DCT; each bit tells
+ * whether one of the 8x8 lowest frequencies is above their median. Small changes of
+ * exposure, framing or noise flip few bits, so similar pictures have hashes at a small
+ * Hamming distance.
+ */
+public class ImageHash {
+    private static final String TAG = "ImageHash";
+    private static final int SIZE = 32;
+    private static final int FREQUENCIES = 8;
+    // COS[u][x] = cos((2x + 1) u pi / 2N)
+    private static final double[][] COS = new double[FREQUENCIES][SIZE];
+
+    static {
+        for (int u = 0; u < FREQUENCIES; ++u) {
+            for (int x = 0; x < SIZE; ++x) {
+                COS[u][x] = Math.cos((2 * x + 1) * u * Math.PI / (2 * SIZE));
+            }
+        }
+    }
+
+    /**
+     * Return the hash of an ARGB picture, as returned by Bitmap.getPixels().
+     */
+    public static long compute(int[] argb, int width, int height) {
+        if (width <= 0 || height <= 0 || argb.length < width * height) {
+            throw new IllegalArgumentException("Invalid picture size " + width + "x" + height);
+        }
+        double[] gray = new double[SIZE * SIZE];
+        reduce(argb, width, height, gray);
+
+        // Separable DCT of the lowest frequencies, rows then columns
+        double[] rows = new double[SIZE * FREQUENCIES];
+        for (int y = 0; y < SIZE; ++y) {
+            for (int u = 0; u < FREQUENCIES; ++u) {
+                double sum = 0;
+                for (int x = 0; x < SIZE; ++x) {
+                    sum += gray[y * SIZE + x] * COS[u][x];
+                }
+                rows[y * FREQUENCIES + u] = sum;
+            }
+        }
+        double[] dct = new double[FREQUENCIES * FREQUENCIES];
+        for (int v = 0; v < FREQUENCIES; ++v) {
+            for (int u = 0; u < FREQUENCIES; ++u) {
+                double sum = 0;
+                for (int y = 0; y < SIZE; ++y) {
+                    sum += rows[y * FREQUENCIES + u] * COS[v][y];
+                }
+                dct[v * FREQUENCIES + u] = sum;
+            }
+        }
+
+        // The median leaves out the DC term, which only reflects the mean brightness
+        double[] sorted = new double[dct.length - 1];
+        System.arraycopy(dct, 1, sorted, 0, sorted.length);
+        Arrays.sort(sorted);
+        double median = sorted[sorted.length / 2];
+        long hash = 0;
+        for (int i = 0; i < dct.length; ++i) {
+            if (dct[i] > median) {
+                hash |= 1L << i;
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Return the number of bits in which two hashes differ.
+     */
+    public static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+
+    /**
+     * Average the luma of the picture over a SIZE x SIZE grid of boxes.
+     */
+    private static void reduce(int[] argb, int width, int height, double[] gray) {
+        for (int gy = 0; gy < SIZE; ++gy) {
+            int y0 = gy * height / SIZE;
+            int y1 = Math.max(y0 + 1, (gy + 1) * height / SIZE);
+            for (int gx = 0; gx < SIZE; ++gx) {
+                int x0 = gx * width / SIZE;
+                int x1 = Math.max(x0 + 1, (gx + 1) * width / SIZE);
+                long sum = 0;
+                for (int y = y0; y < y1; ++y) {
+                    int row = y * width;
+                    for (int x = x0; x < x1; ++x) {
+                        int c = argb[row + x];
+                        sum += (((c >> 16) & 0xFF) * 299 + ((c >> 8) & 0xFF) * 587 + (c & 0xFF) * 114) / 1000;
+                    }
+                }
+                gray[gy * SIZE + gx] = (double) sum / ((y1 - y0) * (x1 - x0));
+            }
+        }
+    }
+}
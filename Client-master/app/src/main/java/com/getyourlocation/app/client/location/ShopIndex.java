@@ -0,0 +1,297 @@
+package com.getyourlocation.app.client.location;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+
+/**
+ * Recognize the shops of the map from the {@link FeatureExtractor} descriptors of a photo,
+ * without the shop-location API.
+ *
+ * The descriptors of the reference photos of every shop are stored in a file written by
+ * {@link ShopIndexBuilder} and memory mapped, so they are never copied to the heap. Opening
+ * the index reads every shop reference and bucket offset once to check it, on the picture
+ * thread, so that queries need no checks.
+ * Similar descriptors are found approximately by locality-sensitive hashing: each table
+ * buckets the descriptors by a few of their bits, and only the buckets of the query
+ * descriptor are compared. Each query descriptor close to one shop and clearly farther
+ * from the others votes for it; the shop with the most votes is the answer, which is
+ * confident when the votes are enough and well ahead of the runner-up.
+ *
+ * File layout (big endian): int magic "GYLR", int version, int shop count, int descriptor
+ * count, int table count, int key bits, table count * key bits bytes of bit positions padded
+ * to 8 bytes, float x and y of each shop, the descriptors of {@link FeatureExtractor#DESCRIPTOR_LONGS}
+ * longs, the int shop of each descriptor, then for each table the int offsets of its
+ * 2^key bits buckets plus the end, and the int descriptors of the buckets.
+ */
+public class ShopIndex implements Closeable {
+    private static final String TAG = "ShopIndex";
+    public static final int MAGIC = 0x47594C52;  // "GYLR"
+    public static final int VERSION = 1;
+    public static final int HEADER_LENGTH = 24;
+    public static final int MAX_KEY_BITS = 20;
+    /** Differing bits up to which two descriptors may show the same corner. */
+    public static final int MATCH_DISTANCE = 64;
+    /** Votes needed for a confident answer. */
+    public static final int MIN_VOTES = 8;
+    // A match must be this much closer than the closest descriptor of another shop
+    private static final float MATCH_RATIO = 0.8f;
+    // A confident shop has this many times the votes of the runner-up
+    private static final float VOTE_MARGIN = 2f;
+    // Query descriptors between two looks at the clock
+    private static final int BUDGET_CHECK_INTERVAL = 8;
+
+    /**
+     * Answer of a query, reused by the caller.
+     */
+    public static class Match {
+        /** The shop with the most votes, -1 if none. */
+        public int shop;
+        public float x;
+        public float y;
+        public int votes;
+        public int secondVotes;
+        /** Query descriptors looked up before the answer or the end of the budget. */
+        public int queried;
+        public long elapsedNs;
+
+        /**
+         * Return true if the shop can be trusted without asking the server.
+         */
+        public boolean isConfident() {
+            return shop != -1 && votes >= MIN_VOTES && votes >= VOTE_MARGIN * secondVotes;
+        }
+    }
+
+    private final RandomAccessFile file;
+    private final int shopCount;
+    private final int descriptorCount;
+    private final int tableCount;
+    private final int keyBits;
+    private final int[] bitPositions;
+    private final float[] shops;
+    private final LongBuffer descriptors;
+    private final IntBuffer owners;
+    private final IntBuffer[] offsets;
+    private final IntBuffer[] entries;
+    private final int[] votes;
+
+    /**
+     * Map an index file and check its structure.
+     */
+    public ShopIndex(File path) throws IOException {
+        file = new RandomAccessFile(path, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            long length = channel.size();
+            if (length < HEADER_LENGTH || length > Integer.MAX_VALUE) {
+                throw new IOException("Not a shop index: " + path);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("Not a shop index: " + path);
+            }
+            shopCount = buffer.getInt(8);
+            descriptorCount = buffer.getInt(12);
+            tableCount = buffer.getInt(16);
+            keyBits = buffer.getInt(20);
+            if (shopCount < 0 || descriptorCount < 0 || tableCount <= 0 || tableCount > 64
+                    || keyBits <= 0 || keyBits > MAX_KEY_BITS
+                    || length != getFileLength(shopCount, descriptorCount, tableCount, keyBits)) {
+                throw new IOException("Corrupted shop index: " + path);
+            }
+            int position = HEADER_LENGTH;
+            bitPositions = new int[tableCount * keyBits];
+            for (int i = 0; i < bitPositions.length; ++i) {
+                bitPositions[i] = buffer.get(position + i) & 0xFF;
+            }
+            position += pad(bitPositions.length);
+            shops = new float[shopCount * 2];
+            for (int i = 0; i < shops.length; ++i) {
+                shops[i] = buffer.getFloat(position + i * 4);
+            }
+            position += shopCount * 8;
+            descriptors = slice(buffer, position).asLongBuffer();
+            position += descriptorCount * FeatureExtractor.DESCRIPTOR_LONGS * 8;
+            owners = slice(buffer, position).asIntBuffer();
+            position += descriptorCount * 4;
+            int buckets = 1 << keyBits;
+            offsets = new IntBuffer[tableCount];
+            entries = new IntBuffer[tableCount];
+            for (int t = 0; t < tableCount; ++t) {
+                offsets[t] = slice(buffer, position).asIntBuffer();
+                position += (buckets + 1) * 4;
+                entries[t] = slice(buffer, position).asIntBuffer();
+                position += descriptorCount * 4;
+            }
+            checkTables(path);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+        votes = new int[shopCount];
+    }
+
+    public int getShopCount() {
+        return shopCount;
+    }
+
+    public int getDescriptorCount() {
+        return descriptorCount;
+    }
+
+    /**
+     * Find the shop shown by the descriptors of a photo. The query stops early, with the votes
+     * counted so far, once the budget is spent.
+     *
+     * @param query Descriptors of the photo, as filled by {@link FeatureExtractor#extract}
+     * @param count Number of descriptors
+     * @param budgetNs Time allowed for the query
+     * @param out Receives the answer
+     * @return True if the answer is confident
+     */
+    public synchronized boolean query(long[] query, int count, long budgetNs, Match out) {
+        long startTime = System.nanoTime();
+        for (int i = 0; i < shopCount; ++i) {
+            votes[i] = 0;
+        }
+        int queried = 0;
+        while (queried < count) {
+            if (queried % BUDGET_CHECK_INTERVAL == 0 && System.nanoTime() - startTime > budgetNs) {
+                break;
+            }
+            int shop = findShop(query, queried * FeatureExtractor.DESCRIPTOR_LONGS);
+            if (shop != -1) {
+                ++votes[shop];
+            }
+            ++queried;
+        }
+
+        out.shop = -1;
+        out.votes = 0;
+        out.secondVotes = 0;
+        for (int i = 0; i < shopCount; ++i) {
+            if (votes[i] > out.votes) {
+                out.secondVotes = out.votes;
+                out.votes = votes[i];
+                out.shop = i;
+            } else if (votes[i] > out.secondVotes) {
+                out.secondVotes = votes[i];
+            }
+        }
+        if (out.shop != -1) {
+            out.x = shops[out.shop * 2];
+            out.y = shops[out.shop * 2 + 1];
+        }
+        out.queried = queried;
+        out.elapsedNs = System.nanoTime() - startTime;
+        return out.isConfident();
+    }
+
+    /**
+     * Return the shop of the indexed descriptor matching a query descriptor, -1 if none.
+     */
+    private int findShop(long[] query, int offset) {
+        int bestDistance = FeatureExtractor.DESCRIPTOR_BITS + 1;
+        int bestShop = -1;
+        int otherDistance = FeatureExtractor.DESCRIPTOR_BITS + 1;
+        for (int t = 0; t < tableCount; ++t) {
+            int key = 0;
+            for (int k = 0; k < keyBits; ++k) {
+                int bit = bitPositions[t * keyBits + k];
+                key |= (int) ((query[offset + (bit >> 6)] >>> (bit & 63)) & 1) << k;
+            }
+            int end = offsets[t].get(key + 1);
+            for (int e = offsets[t].get(key); e < end; ++e) {
+                int id = entries[t].get(e);
+                int base = id * FeatureExtractor.DESCRIPTOR_LONGS;
+                int distance = 0;
+                for (int k = 0; k < FeatureExtractor.DESCRIPTOR_LONGS; ++k) {
+                    distance += Long.bitCount(query[offset + k] ^ descriptors.get(base + k));
+                }
+                int shop = owners.get(id);
+                if (distance < bestDistance) {
+                    if (shop != bestShop) {
+                        otherDistance = bestDistance;
+                        bestShop = shop;
+                    }
+                    bestDistance = distance;
+                } else if (distance < otherDistance && shop != bestShop) {
+                    otherDistance = distance;
+                }
+            }
+        }
+        if (bestDistance > MATCH_DISTANCE || bestDistance >= MATCH_RATIO * otherDistance) {
+            return -1;
+        }
+        return bestShop;
+    }
+
+    /**
+     * Check that every reference of the file is in range, so that queries cannot fail.
+     */
+    private void checkTables(File path) throws IOException {
+        for (int i = 0; i < descriptorCount; ++i) {
+            int shop = owners.get(i);
+            if (shop < 0 || shop >= shopCount) {
+                throw new IOException("Corrupted shop index: " + path);
+            }
+        }
+        for (int bit : bitPositions) {
+            if (bit >= FeatureExtractor.DESCRIPTOR_BITS) {
+                throw new IOException("Corrupted shop index: " + path);
+            }
+        }
+        int buckets = 1 << keyBits;
+        for (int t = 0; t < tableCount; ++t) {
+            if (offsets[t].get(0) != 0 || offsets[t].get(buckets) != descriptorCount) {
+                throw new IOException("Corrupted shop index: " + path);
+            }
+            for (int b = 0; b < buckets; ++b) {
+                if (offsets[t].get(b) > offsets[t].get(b + 1)) {
+                    throw new IOException("Corrupted shop index: " + path);
+                }
+            }
+            for (int e = 0; e < descriptorCount; ++e) {
+                int id = entries[t].get(e);
+                if (id < 0 || id >= descriptorCount) {
+                    throw new IOException("Corrupted shop index: " + path);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    /**
+     * Return the length of an index file.
+     */
+    static long getFileLength(int shopCount, int descriptorCount, int tableCount, int keyBits) {
+        return HEADER_LENGTH + pad(tableCount * keyBits) + shopCount * 8L
+                + descriptorCount * (FeatureExtractor.DESCRIPTOR_LONGS * 8L + 4)
+                + tableCount * (((1L << keyBits) + 1) * 4 + descriptorCount * 4L);
+    }
+
+    /**
+     * Round a length up to 8 bytes, so that the descriptors are aligned.
+     */
+    static int pad(int length) {
+        return (length + 7) & ~7;
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int position) {
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(position);
+        return duplicate.slice();
+    }
+}
@@ -0,0 +1,180 @@
+package com.getyourlocation.app.client.location;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+
+/**
+ * Write a {@link ShopIndex} file from the descriptors of the reference photos of each shop.
+ *
+ * The bits each hash table buckets by are drawn at random without repetition within a
+ * table, from a seed so that a map always gives the same file.
+ */
+public class ShopIndexBuilder {
+    private static final String TAG = "ShopIndexBuilder";
+    public static final int DEFAULT_TABLE_COUNT = 8;
+    public static final int DEFAULT_KEY_BITS = 12;
+
+    private final int tableCount;
+    private final int keyBits;
+    private final long seed;
+    private float[] shops = new float[32];
+    private int shopCount = 0;
+    private long[] descriptors = new long[1024 * FeatureExtractor.DESCRIPTOR_LONGS];
+    private int[] owners = new int[1024];
+    private int descriptorCount = 0;
+
+    public ShopIndexBuilder() {
+        this(DEFAULT_TABLE_COUNT, DEFAULT_KEY_BITS, 0);
+    }
+
+    /**
+     * @param tableCount Number of hash tables, more find more matches but take longer
+     * @param keyBits Bits per bucket key, more make smaller buckets but miss more matches
+     */
+    public ShopIndexBuilder(int tableCount, int keyBits, long seed) {
+        if (tableCount <= 0 || tableCount > 64 || keyBits <= 0 || keyBits > ShopIndex.MAX_KEY_BITS) {
+            throw new IllegalArgumentException("Invalid index settings");
+        }
+        this.tableCount = tableCount;
+        this.keyBits = keyBits;
+        this.seed = seed;
+    }
+
+    /**
+     * Add a shop of the map.
+     *
+     * @return The shop number returned by {@link ShopIndex.Match#shop}
+     */
+    public int addShop(float x, float y) {
+        if (shopCount * 2 == shops.length) {
+            shops = Arrays.copyOf(shops, shops.length * 2);
+        }
+        shops[shopCount * 2] = x;
+        shops[shopCount * 2 + 1] = y;
+        return shopCount++;
+    }
+
+    /**
+     * Add descriptors of a reference photo of a shop, as filled by {@link FeatureExtractor#extract}.
+     */
+    public void addDescriptors(int shop, long[] shopDescriptors, int count) {
+        if (shop < 0 || shop >= shopCount) {
+            throw new IllegalArgumentException("Unknown shop " + shop);
+        }
+        if (descriptorCount + count > owners.length) {
+            int capacity = Math.max(owners.length * 2, descriptorCount + count);
+            owners = Arrays.copyOf(owners, capacity);
+            descriptors = Arrays.copyOf(descriptors, capacity * FeatureExtractor.DESCRIPTOR_LONGS);
+        }
+        System.arraycopy(shopDescriptors, 0, descriptors, descriptorCount * FeatureExtractor.DESCRIPTOR_LONGS,
+                count * FeatureExtractor.DESCRIPTOR_LONGS);
+        Arrays.fill(owners, descriptorCount, descriptorCount + count, shop);
+        descriptorCount += count;
+    }
+
+    public int getShopCount() {
+        return shopCount;
+    }
+
+    public int getDescriptorCount() {
+        return descriptorCount;
+    }
+
+    /**
+     * Write the index, replacing the file only once it is complete.
+     */
+    public void write(File file) throws IOException {
+        int[] bitPositions = drawBitPositions();
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(ShopIndex.MAGIC);
+            out.writeInt(ShopIndex.VERSION);
+            out.writeInt(shopCount);
+            out.writeInt(descriptorCount);
+            out.writeInt(tableCount);
+            out.writeInt(keyBits);
+            for (int bit : bitPositions) {
+                out.writeByte(bit);
+            }
+            for (int i = bitPositions.length; i < ShopIndex.pad(bitPositions.length); ++i) {
+                out.writeByte(0);
+            }
+            for (int i = 0; i < shopCount * 2; ++i) {
+                out.writeFloat(shops[i]);
+            }
+            for (int i = 0; i < descriptorCount * FeatureExtractor.DESCRIPTOR_LONGS; ++i) {
+                out.writeLong(descriptors[i]);
+            }
+            for (int i = 0; i < descriptorCount; ++i) {
+                out.writeInt(owners[i]);
+            }
+            int[] offsets = new int[(1 << keyBits) + 1];
+            int[] entries = new int[descriptorCount];
+            for (int t = 0; t < tableCount; ++t) {
+                buildTable(bitPositions, t, offsets, entries);
+                for (int offset : offsets) {
+                    out.writeInt(offset);
+                }
+                for (int entry : entries) {
+                    out.writeInt(entry);
+                }
+            }
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Cannot replace " + file);
+        }
+    }
+
+    private int[] drawBitPositions() {
+        Random random = new Random(seed);
+        int[] bits = new int[FeatureExtractor.DESCRIPTOR_BITS];
+        int[] positions = new int[tableCount * keyBits];
+        for (int t = 0; t < tableCount; ++t) {
+            for (int i = 0; i < bits.length; ++i) {
+                bits[i] = i;
+            }
+            // Partial shuffle, the first key bits are the drawn ones
+            for (int k = 0; k < keyBits; ++k) {
+                int j = k + random.nextInt(bits.length - k);
+                int bit = bits[j];
+                bits[j] = bits[k];
+                bits[k] = bit;
+                positions[t * keyBits + k] = bit;
+            }
+        }
+        return positions;
+    }
+
+    /**
+     * Sort the descriptors by their key in one table, by counting.
+     */
+    private void buildTable(int[] bitPositions, int table, int[] offsets, int[] entries) {
+        int[] keys = new int[descriptorCount];
+        Arrays.fill(offsets, 0);
+        for (int i = 0; i < descriptorCount; ++i) {
+            int key = 0;
+            for (int k = 0; k < keyBits; ++k) {
+                int bit = bitPositions[table * keyBits + k];
+                key |= (int) ((descriptors[i * FeatureExtractor.DESCRIPTOR_LONGS + (bit >> 6)] >>> (bit & 63)) & 1) << k;
+            }
+            keys[i] = key;
+            ++offsets[key + 1];
+        }
+        for (int b = 1; b < offsets.length; ++b) {
+            offsets[b] += offsets[b - 1];
+        }
+        int[] next = Arrays.copyOf(offsets, offsets.length - 1);
+        for (int i = 0; i < descriptorCount; ++i) {
+            entries[next[keys[i]]++] = i;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package com.getyourlocation.app.client.location;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * Shop coordinates returned by the shop-location API, keyed by the {@link ImageHash} of the
+ * photo they were returned for.
+ *
+ * A photo whose hash is within the match threshold of a cached one resolves to the same shop
+ * without a request. The least recently used entries are evicted beyond the capacity. The
+ * cache is loaded from and saved to a file.
+ *
+ * File layout (big endian): int magic "GYLH", int version, int count, then count entries of
+ * long hash, float x, float y from the least to the most recently used.
+ */
+public class ShopLocationCache {
+    private static final String TAG = "ShopLocationCache";
+    public static final int MAGIC = 0x47594C48;  // "GYLH"
+    public static final int VERSION = 1;
+    public static final int DEFAULT_CAPACITY = 256;
+    /** Differing bits up to which two photos are taken to show the same shop. */
+    public static final int DEFAULT_THRESHOLD = 8;
+
+    private static class Entry {
+        final long hash;
+        float x;
+        float y;
+
+        Entry(long hash, float x, float y) {
+            this.hash = hash;
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    private final File file;
+    private final int capacity;
+    private volatile int threshold;
+    private final HashTree tree = new HashTree();
+    // Entries by ID, in access order
+    private final LinkedHashMap<Integer, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private int nextId = 0;
+    private boolean dirty = false;
+    private int hitCount = 0;
+    private int missCount = 0;
+
+    /**
+     * Create a cache and load the entries saved in a file, if any.
+     *
+     * @param file The file, or null to keep the cache in memory only
+     */
+    public ShopLocationCache(File file, int capacity, int threshold) {
+        if (capacity <= 0 || threshold < 0) {
+            throw new IllegalArgumentException("Invalid cache settings");
+        }
+        this.file = file;
+        this.capacity = capacity;
+        this.threshold = threshold;
+        if (file != null && file.exists()) {
+            try {
+                load();
+            } catch (IOException e) {
+                // A damaged cache is only a loss of time
+                clear();
+            }
+        }
+    }
+
+    public void setThreshold(int threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * Find the shop of a photo.
+     *
+     * @param hash Hash of the photo
+     * @param out Receives x and y of the shop
+     * @return True if a photo within the threshold is cached
+     */
+    public synchronized boolean lookup(long hash, float[] out) {
+        int id = tree.findNearest(hash, threshold);
+        Entry entry = id == -1 ? null : entries.get(id);
+        if (entry == null) {
+            ++missCount;
+            return false;
+        }
+        ++hitCount;
+        out[0] = entry.x;
+        out[1] = entry.y;
+        return true;
+    }
+
+    /**
+     * Cache the shop of a photo, evicting the least recently used entry if full.
+     */
+    public synchronized void put(long hash, float x, float y) {
+        int id = tree.findNearest(hash, 0);
+        Entry entry = id == -1 ? null : entries.get(id);
+        if (entry != null) {
+            entry.x = x;
+            entry.y = y;
+        } else {
+            add(hash, x, y);
+        }
+        dirty = true;
+    }
+
+    /**
+     * Write the entries to the file if they changed since loaded or saved.
+     */
+    public synchronized void save() throws IOException {
+        if (file == null || !dirty) {
+            return;
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (Entry entry : entries.values()) {
+                out.writeLong(entry.hash);
+                out.writeFloat(entry.x);
+                out.writeFloat(entry.y);
+            }
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Cannot replace " + file);
+        }
+        dirty = false;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        tree.clear();
+        dirty = true;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized int getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Return the fraction of lookups that hit, 0 before the first one.
+     */
+    public synchronized float getHitRate() {
+        int lookups = hitCount + missCount;
+        return lookups == 0 ? 0 : (float) hitCount / lookups;
+    }
+
+    private void add(long hash, float x, float y) {
+        int id = nextId++;
+        entries.put(id, new Entry(hash, x, y));
+        tree.add(hash, id);
+        if (entries.size() > capacity) {
+            Iterator<Map.Entry<Integer, Entry>> eldest = entries.entrySet().iterator();
+            Map.Entry<Integer, Entry> evicted = eldest.next();
+            eldest.remove();
+            tree.remove(evicted.getValue().hash, evicted.getKey());
+        }
+        if (tree.getRemovedCount() > capacity) {
+            rebuildTree();
+        }
+    }
+
+    private void rebuildTree() {
+        tree.clear();
+        for (Map.Entry<Integer, Entry> entry : entries.entrySet()) {
+            tree.add(entry.getValue().hash, entry.getKey());
+        }
+    }
+
+    private void load() throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a shop location cache: " + file);
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; ++i) {
+                add(in.readLong(), in.readFloat(), in.readFloat());
+            }
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.getyourlocation.app.client.location;
+
+
+/**
+ * Locate the user from the angles between three shops of known positions, the three-point
+ * resection problem solved by PhotoActivity.
+ *
+ * The user turns counterclockwise from shop 1 to shop 2 to shop 3, seen from above. The
+ * position is found in closed form with the ToTal algorithm (Pierlot and Van Droogenbroeck,
+ * 2014): the user is the intersection of the circles through each pair of shops from which
+ * the pair is seen under the measured angle. Nothing is allocated.
+ *
+ * There is no unique solution when the user stands on the circle through the three shops, or
+ * near it, where any small angle error moves the result far away; {@link #DEGENERATE} is
+ * returned then.
+ */
+public class TriangulationSolver {
+    private static final String TAG = "TriangulationSolver";
+    public static final int OK = 0;
+    /** The user is on or near the circle through the shops, the position is undetermined. */
+    public static final int DEGENERATE = 1;
+    /** The angles are out of range or two shops are at the same place. */
+    public static final int INVALID = 2;
+
+    // Stands for the cotangent of 0 and 180 degrees
+    private static final double COT_LIMIT = 1e8;
+    // Fraction of the radius of the circle through the shops within which the user is taken
+    // to be on it; small angle errors move the result far along the circle there
+    private static final double CIRCLE_MARGIN = 0.05;
+    // Size of the determinant relative to the circle centers below which it is zero
+    private static final double EPSILON = 1e-9;
+
+    /**
+     * Compute the position of the user.
+     *
+     * @param angle12 Angle in degrees the user turns counterclockwise from shop 1 to shop 2
+     * @param angle23 Angle in degrees the user turns counterclockwise from shop 2 to shop 3
+     * @param out Receives x and y of the user when {@link #OK} is returned
+     * @return {@link #OK}, {@link #DEGENERATE} or {@link #INVALID}
+     */
+    public static int solve(double angle12, double angle23, double x1, double y1,
+                            double x2, double y2, double x3, double y3, double[] out) {
+        if (!(angle12 > 0 && angle23 > 0 && angle12 + angle23 < 360)) {
+            return INVALID;
+        }
+        // Shops 1 and 3 relative to shop 2
+        double dx1 = x1 - x2;
+        double dy1 = y1 - y2;
+        double dx3 = x3 - x2;
+        double dy3 = y3 - y2;
+        double r1 = dx1 * dx1 + dy1 * dy1;
+        double r3 = dx3 * dx3 + dy3 * dy3;
+        if (r1 == 0 || r3 == 0 || (dx1 == dx3 && dy1 == dy3)) {
+            return INVALID;
+        }
+        double t12 = cot(angle12);
+        double t23 = cot(angle23);
+        double t31 = t12 + t23 == 0 ? COT_LIMIT : (1 - t12 * t23) / (t12 + t23);
+
+        // Centers of the three circles, up to a common factor
+        double cx12 = dx1 + t12 * dy1;
+        double cy12 = dy1 - t12 * dx1;
+        double cx23 = dx3 - t23 * dy3;
+        double cy23 = dy3 + t23 * dx3;
+        double cx31 = (dx3 + dx1) + t31 * (dy3 - dy1);
+        double cy31 = (dy3 + dy1) - t31 * (dx3 - dx1);
+        double k31 = dx1 * dx3 + dy1 * dy3 + t31 * (dx1 * dy3 - dx3 * dy1);
+
+        double d = (cx12 - cx23) * (cy23 - cy31) - (cy12 - cy23) * (cx23 - cx31);
+        // The centers coincide when the user is on the circle through the shops
+        double extent = Math.abs(cx12) + Math.abs(cy12) + Math.abs(cx23) + Math.abs(cy23)
+                + Math.abs(cx31) + Math.abs(cy31);
+        if (!(Math.abs(d) > EPSILON * extent * extent)) {
+            return DEGENERATE;
+        }
+        double px = k31 * (cy12 - cy23) / d;
+        double py = k31 * (cx23 - cx12) / d;
+        if (isNearCircle(px, py, dx1, dy1, r1, dx3, dy3, r3)) {
+            return DEGENERATE;
+        }
+        out[0] = x2 + px;
+        out[1] = y2 + py;
+        return OK;
+    }
+
+    /**
+     * Order three shots in the direction {@link #solve} expects.
+     *
+     * @param turnAngles Heading of each shot in degrees, growing when the user turns
+     *                   counterclockwise seen from above, see
+     *                   {@link com.getyourlocation.app.client.util.SensorUtil#getYawAngle()}
+     * @param yDown True if the shop coordinates are image pixels, whose y axis points down;
+     *              that frame is mirrored, so turning counterclockwise runs clockwise in it
+     * @param order Receives the indices of the shots to pass as shops 1, 2 and 3
+     * @return False if two shots have the same heading
+     */
+    public static boolean orderShots(float[] turnAngles, boolean yDown, int[] order) {
+        int first = 0;
+        int last = 0;
+        for (int i = 1; i < 3; ++i) {
+            if (turnAngles[i] < turnAngles[first]) {
+                first = i;
+            }
+            if (turnAngles[i] > turnAngles[last]) {
+                last = i;
+            }
+        }
+        int middle = 3 - first - last;
+        if (first == last || turnAngles[middle] == turnAngles[first] || turnAngles[middle] == turnAngles[last]) {
+            return false;
+        }
+        order[0] = yDown ? last : first;
+        order[1] = middle;
+        order[2] = yDown ? first : last;
+        return true;
+    }
+
+    /**
+     * Return true if a point is near the circle through the origin and two other points.
+     */
+    private static boolean isNearCircle(double px, double py, double dx1, double dy1, double r1,
+                                        double dx3, double dy3, double r3) {
+        double cross = 2 * (dx1 * dy3 - dy1 * dx3);
+        if (cross == 0) {
+            // The shops are on a line, there is no circle
+            return false;
+        }
+        double ux = (dy3 * r1 - dy1 * r3) / cross;
+        double uy = (dx1 * r3 - dx3 * r1) / cross;
+        double radius = Math.sqrt(ux * ux + uy * uy);
+        double distance = Math.sqrt((px - ux) * (px - ux) + (py - uy) * (py - uy));
+        return Math.abs(distance - radius) < CIRCLE_MARGIN * radius;
+    }
+
+    private static double cot(double degrees) {
+        double radians = Math.toRadians(degrees);
+        double sin = Math.sin(radians);
+        if (Math.abs(sin) < 1 / COT_LIMIT) {
+            return sin >= 0 ? COT_LIMIT : -COT_LIMIT;
+        }
+        return Math.cos(radians) / sin;
+    }
+}
@@ -0,0 +1,42 @@
+package com.getyourlocation.app.client.network;
+
+import java.io.IOException;
+
+
+/**
+ * Response of the sum and product APIs.
+ */
+public class Answer {
+    private static final String TAG = "Answer";
+
+    public static final ResponseParser<Answer> PARSER = new ResponseParser<Answer>() {
+        @Override
+        public Answer parse(JsonStreamReader reader) throws IOException {
+            Answer answer = null;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (reader.nextName().equals("ans")) {
+                    answer = new Answer(reader.nextInt());
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            if (answer == null) {
+                throw new IOException("Missing answer");
+            }
+            return answer;
+        }
+    };
+
+    public final int ans;
+
+    public Answer(int ans) {
+        this.ans = ans;
+    }
+
+    @Override
+    public String toString() {
+        return "ans:" + ans;
+    }
+}
@@ -0,0 +1,485 @@
+package com.getyourlocation.app.client.network;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+
+/**
+ * Pull parser of a UTF-8 JSON document, read token by token straight from the response bytes.
+ *
+ * The calls follow android.util.JsonReader: {@link #beginObject()}, {@link #nextName()},
+ * {@link #nextDouble()}, {@link #skipValue()} and so on. Unlike a JSONObject, the document
+ * is never turned into a String or a tree: numbers are parsed in place without allocation
+ * and unwanted values are skipped over. Not thread safe.
+ */
+public class JsonStreamReader {
+    private static final String TAG = "JsonStreamReader";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Kind of the next token.
+     */
+    public enum Token {
+        BEGIN_OBJECT,
+        END_OBJECT,
+        BEGIN_ARRAY,
+        END_ARRAY,
+        NAME,
+        STRING,
+        NUMBER,
+        BOOLEAN,
+        NULL,
+        END_DOCUMENT
+    }
+
+    // Scopes of the stack
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_OBJECT = 2;
+    private static final int NONEMPTY_OBJECT = 3;
+    // In an object, after a name and before its value
+    private static final int DANGLING_NAME = 4;
+    private static final int EMPTY_ARRAY = 5;
+    private static final int NONEMPTY_ARRAY = 6;
+
+    // Mantissas up to this many digits and these powers of ten are exact doubles, so their
+    // quotient or product is correctly rounded
+    private static final int MAX_EXACT_DIGITS = 15;
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; ++i) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private final byte[] data;
+    private final int end;
+    private int pos;
+    private int[] stack = new int[16];
+    private int depth = 1;
+    private Token peeked = null;
+
+    public JsonStreamReader(byte[] data) {
+        this(data, 0, data.length);
+    }
+
+    public JsonStreamReader(byte[] data, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > data.length) {
+            throw new IllegalArgumentException("Invalid range " + offset + "+" + length);
+        }
+        this.data = data;
+        this.pos = offset;
+        this.end = offset + length;
+        stack[0] = EMPTY_DOCUMENT;
+    }
+
+    /**
+     * Return the kind of the next token without consuming it.
+     */
+    public Token peek() throws IOException {
+        if (peeked != null) {
+            return peeked;
+        }
+        int scope = stack[depth - 1];
+        int c;
+        switch (scope) {
+            case EMPTY_ARRAY:
+            case NONEMPTY_ARRAY:
+                stack[depth - 1] = NONEMPTY_ARRAY;
+                c = nextNonWhitespace();
+                if (c == ']') {
+                    ++pos;
+                    return peeked = Token.END_ARRAY;
+                }
+                if (scope == NONEMPTY_ARRAY) {
+                    expect(',');
+                }
+                break;
+            case EMPTY_OBJECT:
+            case NONEMPTY_OBJECT:
+                stack[depth - 1] = DANGLING_NAME;
+                c = nextNonWhitespace();
+                if (c == '}') {
+                    ++pos;
+                    return peeked = Token.END_OBJECT;
+                }
+                if (scope == NONEMPTY_OBJECT) {
+                    expect(',');
+                    c = nextNonWhitespace();
+                }
+                if (c != '"') {
+                    throw syntaxError("Expected a name");
+                }
+                return peeked = Token.NAME;
+            case DANGLING_NAME:
+                stack[depth - 1] = NONEMPTY_OBJECT;
+                nextNonWhitespace();
+                expect(':');
+                break;
+            case EMPTY_DOCUMENT:
+                stack[depth - 1] = NONEMPTY_DOCUMENT;
+                break;
+            default:
+                if (nextNonWhitespace() != -1) {
+                    throw syntaxError("Expected the end of the document");
+                }
+                return peeked = Token.END_DOCUMENT;
+        }
+        c = nextNonWhitespace();
+        switch (c) {
+            case '{':
+                return peeked = Token.BEGIN_OBJECT;
+            case '[':
+                return peeked = Token.BEGIN_ARRAY;
+            case '"':
+                return peeked = Token.STRING;
+            case 't':
+            case 'f':
+                return peeked = Token.BOOLEAN;
+            case 'n':
+                return peeked = Token.NULL;
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    return peeked = Token.NUMBER;
+                }
+                throw syntaxError("Expected a value");
+        }
+    }
+
+    /**
+     * Return true if the current object or array has another element.
+     */
+    public boolean hasNext() throws IOException {
+        Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+    }
+
+    public void beginObject() throws IOException {
+        consume(Token.BEGIN_OBJECT);
+        ++pos;
+        push(EMPTY_OBJECT);
+    }
+
+    public void endObject() throws IOException {
+        consume(Token.END_OBJECT);
+        --depth;
+    }
+
+    public void beginArray() throws IOException {
+        consume(Token.BEGIN_ARRAY);
+        ++pos;
+        push(EMPTY_ARRAY);
+    }
+
+    public void endArray() throws IOException {
+        consume(Token.END_ARRAY);
+        --depth;
+    }
+
+    public String nextName() throws IOException {
+        consume(Token.NAME);
+        return readString();
+    }
+
+    /**
+     * Return the next string, or the text of the next number.
+     */
+    public String nextString() throws IOException {
+        if (peek() == Token.NUMBER) {
+            peeked = null;
+            int start = pos;
+            readNumber();
+            return new String(data, start, pos - start, UTF_8);
+        }
+        consume(Token.STRING);
+        return readString();
+    }
+
+    public double nextDouble() throws IOException {
+        consume(Token.NUMBER);
+        return readNumber();
+    }
+
+    /**
+     * Return the next number, which must be an int.
+     */
+    public int nextInt() throws IOException {
+        double value = nextDouble();
+        if ((int) value != value) {
+            throw syntaxError("Expected an int");
+        }
+        return (int) value;
+    }
+
+    public boolean nextBoolean() throws IOException {
+        consume(Token.BOOLEAN);
+        if (data[pos] == 't') {
+            skipLiteral("true");
+            return true;
+        }
+        skipLiteral("false");
+        return false;
+    }
+
+    public void nextNull() throws IOException {
+        consume(Token.NULL);
+        skipLiteral("null");
+    }
+
+    /**
+     * Skip the next value, with all its elements if it is an object or an array.
+     */
+    public void skipValue() throws IOException {
+        switch (peek()) {
+            case BEGIN_OBJECT:
+                beginObject();
+                while (hasNext()) {
+                    nextName();
+                    skipValue();
+                }
+                endObject();
+                break;
+            case BEGIN_ARRAY:
+                beginArray();
+                while (hasNext()) {
+                    skipValue();
+                }
+                endArray();
+                break;
+            case STRING:
+                peeked = null;
+                skipString();
+                break;
+            case NUMBER:
+                nextDouble();
+                break;
+            case BOOLEAN:
+                nextBoolean();
+                break;
+            case NULL:
+                nextNull();
+                break;
+            default:
+                throw syntaxError("Expected a value");
+        }
+    }
+
+    private void consume(Token expected) throws IOException {
+        Token token = peek();
+        if (token != expected) {
+            throw syntaxError("Expected " + expected + " but was " + token);
+        }
+        peeked = null;
+    }
+
+    private void push(int scope) {
+        if (depth == stack.length) {
+            int[] grown = new int[depth * 2];
+            System.arraycopy(stack, 0, grown, 0, depth);
+            stack = grown;
+        }
+        stack[depth++] = scope;
+    }
+
+    /**
+     * Skip whitespace and return the next byte without consuming it, -1 at the end.
+     */
+    private int nextNonWhitespace() {
+        while (pos < end) {
+            int c = data[pos];
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                return c;
+            }
+            ++pos;
+        }
+        return -1;
+    }
+
+    private void expect(char c) throws IOException {
+        if (pos >= end || data[pos] != c) {
+            throw syntaxError("Expected '" + c + "'");
+        }
+        ++pos;
+    }
+
+    /**
+     * Read the string whose opening quote is at the position.
+     */
+    private String readString() throws IOException {
+        int start = ++pos;
+        while (pos < end) {
+            byte b = data[pos];
+            if (b == '"') {
+                return new String(data, start, pos++ - start, UTF_8);
+            }
+            if (b == '\\') {
+                return readEscapedString(start);
+            }
+            ++pos;
+        }
+        throw syntaxError("Unterminated string");
+    }
+
+    private String readEscapedString(int start) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        int segment = start;
+        while (pos < end) {
+            byte b = data[pos];
+            if (b == '"') {
+                builder.append(new String(data, segment, pos++ - segment, UTF_8));
+                return builder.toString();
+            }
+            if (b != '\\') {
+                ++pos;
+                continue;
+            }
+            builder.append(new String(data, segment, pos - segment, UTF_8));
+            if (pos + 1 >= end) {
+                break;
+            }
+            byte escaped = data[pos + 1];
+            pos += 2;
+            switch (escaped) {
+                case '"':
+                case '\\':
+                case '/':
+                    builder.append((char) escaped);
+                    break;
+                case 'b':
+                    builder.append('\b');
+                    break;
+                case 'f':
+                    builder.append('\f');
+                    break;
+                case 'n':
+                    builder.append('\n');
+                    break;
+                case 'r':
+                    builder.append('\r');
+                    break;
+                case 't':
+                    builder.append('\t');
+                    break;
+                case 'u':
+                    if (pos + 4 > end) {
+                        throw syntaxError("Unterminated escape");
+                    }
+                    int code = 0;
+                    for (int i = 0; i < 4; ++i) {
+                        int digit = Character.digit(data[pos++], 16);
+                        if (digit < 0) {
+                            throw syntaxError("Invalid escape");
+                        }
+                        code = code * 16 + digit;
+                    }
+                    builder.append((char) code);
+                    break;
+                default:
+                    throw syntaxError("Invalid escape");
+            }
+            segment = pos;
+        }
+        throw syntaxError("Unterminated string");
+    }
+
+    private void skipString() throws IOException {
+        ++pos;
+        while (pos < end) {
+            byte b = data[pos++];
+            if (b == '"') {
+                return;
+            }
+            if (b == '\\') {
+                ++pos;
+            }
+        }
+        throw syntaxError("Unterminated string");
+    }
+
+    /**
+     * Parse the number at the position. Numbers of up to 15 digits with small exponents,
+     * which is all a coordinate needs, are converted exactly without allocating; the others
+     * go through Double.parseDouble().
+     */
+    private double readNumber() throws IOException {
+        int start = pos;
+        boolean negative = data[pos] == '-';
+        if (negative) {
+            ++pos;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        int integerDigits = scanDigits();
+        for (int i = pos - integerDigits; i < pos; ++i) {
+            if (digits > 0 || data[i] != '0') {
+                mantissa = mantissa * 10 + (data[i] - '0');
+                ++digits;
+            }
+        }
+        if (integerDigits == 0) {
+            throw syntaxError("Expected a digit");
+        }
+        if (pos < end && data[pos] == '.') {
+            ++pos;
+            int fractionDigits = scanDigits();
+            if (fractionDigits == 0) {
+                throw syntaxError("Expected a digit");
+            }
+            for (int i = pos - fractionDigits; i < pos; ++i) {
+                if (digits > 0 || data[i] != '0') {
+                    mantissa = mantissa * 10 + (data[i] - '0');
+                    ++digits;
+                }
+                --exponent;
+                if (digits > MAX_EXACT_DIGITS) {
+                    break;
+                }
+            }
+        }
+        if (pos < end && (data[pos] == 'e' || data[pos] == 'E')) {
+            ++pos;
+            boolean negativeExponent = false;
+            if (pos < end && (data[pos] == '+' || data[pos] == '-')) {
+                negativeExponent = data[pos++] == '-';
+            }
+            int exponentDigits = scanDigits();
+            if (exponentDigits == 0) {
+                throw syntaxError("Expected a digit");
+            }
+            int value = 0;
+            for (int i = pos - exponentDigits; i < pos && value < 10000; ++i) {
+                value = value * 10 + (data[i] - '0');
+            }
+            exponent += negativeExponent ? -value : value;
+        }
+        if (digits > MAX_EXACT_DIGITS || exponent < -22 || exponent > 22) {
+            return Double.parseDouble(new String(data, start, pos - start, UTF_8));
+        }
+        double value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+        return negative ? -value : value;
+    }
+
+    private int scanDigits() {
+        int start = pos;
+        while (pos < end && data[pos] >= '0' && data[pos] <= '9') {
+            ++pos;
+        }
+        return pos - start;
+    }
+
+    private void skipLiteral(String literal) throws IOException {
+        for (int i = 0; i < literal.length(); ++i) {
+            if (pos >= end || data[pos] != literal.charAt(i)) {
+                throw syntaxError("Expected " + literal);
+            }
+            ++pos;
+        }
+    }
+
+    private IOException syntaxError(String message) {
+        return new IOException(message + " at offset " + pos);
+    }
+}
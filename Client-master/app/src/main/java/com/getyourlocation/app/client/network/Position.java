@@ -0,0 +1,48 @@
+package com.getyourlocation.app.client.network;
+
+import java.io.IOException;
+
+
+/**
+ * Response of the positioning API: where the user is on the map.
+ */
+public class Position {
+    private static final String TAG = "Position";
+
+    public static final ResponseParser<Position> PARSER = new ResponseParser<Position>() {
+        @Override
+        public Position parse(JsonStreamReader reader) throws IOException {
+            double x = Double.NaN;
+            double y = Double.NaN;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (name.equals("x")) {
+                    x = reader.nextDouble();
+                } else if (name.equals("y")) {
+                    y = reader.nextDouble();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            if (Double.isNaN(x) || Double.isNaN(y)) {
+                throw new IOException("Missing position");
+            }
+            return new Position(x, y);
+        }
+    };
+
+    public final double x;
+    public final double y;
+
+    public Position(double x, double y) {
+        this.x = x;
+        this.y = y;
+    }
+
+    @Override
+    public String toString() {
+        return "x:" + x + ",y:" + y;
+    }
+}
@@ -0,0 +1,11 @@
+package com.getyourlocation.app.client.network;
+
+import java.io.IOException;
+
+
+/**
+ * Turn the JSON body of a response into a result object. Called on a network thread.
+ */
+public interface ResponseParser<T> {
+    T parse(JsonStreamReader reader) throws IOException;
+}
@@ -0,0 +1,48 @@
+package com.getyourlocation.app.client.network;
+
+import java.io.IOException;
+
+
+/**
+ * Response of the shop-location API: where the shop of a reference photo is on the map.
+ */
+public class ShopLocation {
+    private static final String TAG = "ShopLocation";
+
+    public static final ResponseParser<ShopLocation> PARSER = new ResponseParser<ShopLocation>() {
+        @Override
+        public ShopLocation parse(JsonStreamReader reader) throws IOException {
+            double x = Double.NaN;
+            double y = Double.NaN;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (name.equals("x")) {
+                    x = reader.nextDouble();
+                } else if (name.equals("y")) {
+                    y = reader.nextDouble();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            if (Double.isNaN(x) || Double.isNaN(y)) {
+                throw new IOException("Missing shop coordinates");
+            }
+            return new ShopLocation((float) x, (float) y);
+        }
+    };
+
+    public final float x;
+    public final float y;
+
+    public ShopLocation(float x, float y) {
+        this.x = x;
+        this.y = y;
+    }
+
+    @Override
+    public String toString() {
+        return "x:" + x + ",y:" + y;
+    }
+}
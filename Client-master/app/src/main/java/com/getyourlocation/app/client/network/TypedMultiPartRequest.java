@@ -0,0 +1,34 @@
+package com.getyourlocation.app.client.network;
+
+import com.android.volley.NetworkResponse;
+import com.android.volley.Response;
+import com.android.volley.request.MultiPartRequest;
+
+
+/**
+ * Multipart upload whose JSON response is parsed into a result object on the network thread,
+ * as {@link TypedRequest}.
+ */
+public class TypedMultiPartRequest<T> extends MultiPartRequest<T> {
+    private static final String TAG = "TypedMultiPartRequest";
+
+    private final ResponseParser<T> parser;
+    private final Response.Listener<T> listener;
+
+    public TypedMultiPartRequest(int method, String url, ResponseParser<T> parser,
+                                 Response.Listener<T> listener, Response.ErrorListener errorListener) {
+        super(method, url, listener, errorListener);
+        this.parser = parser;
+        this.listener = listener;
+    }
+
+    @Override
+    protected Response<T> parseNetworkResponse(NetworkResponse response) {
+        return TypedRequest.parse(parser, response);
+    }
+
+    @Override
+    protected void deliverResponse(T response) {
+        listener.onResponse(response);
+    }
+}
@@ -0,0 +1,87 @@
+package com.getyourlocation.app.client.network;
+
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.error.ParseError;
+import com.android.volley.toolbox.HttpHeaderParser;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.Map;
+
+
+/**
+ * Request whose JSON response is parsed into a result object on the network thread, so the
+ * listener gets the result ready to use on the main thread.
+ */
+public class TypedRequest<T> extends Request<T> {
+    private static final String PARAMS_ENCODING = "UTF-8";
+
+    private final Map<String, String> params;
+    private final ResponseParser<T> parser;
+    private final Response.Listener<T> listener;
+
+    /**
+     * @param params Parameters of the request, or null. Sent in the query string of GET
+     *               requests, which have no body, and as the form body otherwise
+     */
+    public TypedRequest(int method, String url, Map<String, String> params, ResponseParser<T> parser,
+                        Response.Listener<T> listener, Response.ErrorListener errorListener) {
+        super(method, method == Method.GET ? appendQuery(url, params) : url, errorListener);
+        this.params = params;
+        this.parser = parser;
+        this.listener = listener;
+    }
+
+    @Override
+    protected Map<String, String> getParams() {
+        return params;
+    }
+
+    @Override
+    protected Response<T> parseNetworkResponse(NetworkResponse response) {
+        return parse(parser, response);
+    }
+
+    @Override
+    protected void deliverResponse(T response) {
+        listener.onResponse(response);
+    }
+
+    /**
+     * Return the URL with the parameters appended to its query string.
+     */
+    static String appendQuery(String url, Map<String, String> params) {
+        if (params == null || params.isEmpty()) {
+            return url;
+        }
+        StringBuilder builder = new StringBuilder(url);
+        char separator = url.indexOf('?') < 0 ? '?' : '&';
+        try {
+            for (Map.Entry<String, String> entry : params.entrySet()) {
+                builder.append(separator)
+                        .append(URLEncoder.encode(entry.getKey(), PARAMS_ENCODING))
+                        .append('=')
+                        .append(URLEncoder.encode(entry.getValue(), PARAMS_ENCODING));
+                separator = '&';
+            }
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException("Encoding not supported: " + PARAMS_ENCODING, e);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Parse a response with a parser, as a Volley response.
+     */
+    static <T> Response<T> parse(ResponseParser<T> parser, NetworkResponse response) {
+        try {
+            T result = parser.parse(new JsonStreamReader(response.data));
+            return Response.success(result, HttpHeaderParser.parseCacheHeaders(response));
+        } catch (IOException | RuntimeException e) {
+            return Response.error(new ParseError(e));
+        }
+    }
+}
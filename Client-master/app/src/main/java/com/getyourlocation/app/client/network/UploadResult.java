@@ -0,0 +1,50 @@
+package com.getyourlocation.app.client.network;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * Response of the upload API: the paths of the uploaded files on the server.
+ */
+public class UploadResult {
+    private static final String TAG = "UploadResult";
+
+    public static final ResponseParser<UploadResult> PARSER = new ResponseParser<UploadResult>() {
+        @Override
+        public UploadResult parse(JsonStreamReader reader) throws IOException {
+            List<String> files = null;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (reader.nextName().equals("files")) {
+                    files = new ArrayList<>();
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        files.add(reader.nextString());
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            if (files == null) {
+                throw new IOException("Missing files");
+            }
+            return new UploadResult(files);
+        }
+    };
+
+    public final List<String> files;
+
+    public UploadResult(List<String> files) {
+        this.files = Collections.unmodifiableList(files);
+    }
+
+    @Override
+    public String toString() {
+        return "files:" + files;
+    }
+}
@@ -0,0 +1,150 @@
+package com.getyourlocation.app.client.record;
+
+
+/**
+ * Decide which preview frames to record from the motion of the phone.
+ *
+ * A frame is kept when the phone rotated or its acceleration changed enough since the last
+ * kept frame, but never more often than the maximum frame rate and never less often than
+ * the minimum one, so a still phone records slowly and a moving phone at full rate.
+ * The decision only needs the sensor values, so it is made before any image work.
+ */
+public class CaptureScheduler {
+    private static final String TAG = "CaptureScheduler";
+    private static final double NS_PER_SECOND = 1e9;
+    public static final float DEFAULT_ROTATION_THRESHOLD_DEG = 2f;
+    public static final float DEFAULT_ACCELERATION_THRESHOLD = 0.5f;
+
+    private final long minIntervalNs;
+    private final long maxIntervalNs;
+    private final float rotationThresholdDeg;
+    private final float accelerationThreshold;
+
+    private boolean hasKept = false;
+    private long lastTimestampNs;
+    private final float[] lastOrientation = new float[3];
+    private final float[] lastAcceleration = new float[3];
+    private double lastGyroAngle;
+
+    private volatile int keptFirst = 0;
+    private volatile int keptByMotion = 0;
+    private volatile int keptByMinFps = 0;
+    private volatile int skipped = 0;
+
+    /**
+     * @param minFps Frames kept per second when the phone does not move, 0 for none
+     * @param maxFps Frames kept per second at most
+     */
+    public CaptureScheduler(float minFps, float maxFps) {
+        this(minFps, maxFps, DEFAULT_ROTATION_THRESHOLD_DEG, DEFAULT_ACCELERATION_THRESHOLD);
+    }
+
+    /**
+     * @param minFps Frames kept per second when the phone does not move, 0 for none
+     * @param maxFps Frames kept per second at most
+     * @param rotationThresholdDeg Rotation in degrees since the last kept frame that keeps a frame
+     * @param accelerationThreshold Change of acceleration in m/s^2 that keeps a frame
+     */
+    public CaptureScheduler(float minFps, float maxFps, float rotationThresholdDeg, float accelerationThreshold) {
+        if (maxFps <= 0 || minFps < 0 || minFps > maxFps) {
+            throw new IllegalArgumentException("Invalid frame rates " + minFps + " to " + maxFps);
+        }
+        this.minIntervalNs = (long) (NS_PER_SECOND / maxFps);
+        this.maxIntervalNs = minFps == 0 ? Long.MAX_VALUE : (long) (NS_PER_SECOND / minFps);
+        this.rotationThresholdDeg = rotationThresholdDeg;
+        this.accelerationThreshold = accelerationThreshold;
+    }
+
+    /**
+     * Decide whether to keep a frame. Must be called from one thread, in capture order.
+     *
+     * @param timestampNs Capture time of the frame in nanoseconds
+     * @param orientation Orientation in degrees
+     * @param acceleration Acceleration
+     * @param gyroAngle Rotation integrated from the gyroscope, in degrees
+     * @return True if the frame should be recorded
+     */
+    public boolean shouldKeep(long timestampNs, float[] orientation, float[] acceleration, double gyroAngle) {
+        if (!hasKept) {
+            keep(timestampNs, orientation, acceleration, gyroAngle);
+            keptFirst = 1;
+            return true;
+        }
+        long elapsed = timestampNs - lastTimestampNs;
+        if (elapsed < minIntervalNs) {
+            ++skipped;
+            return false;
+        }
+        if (elapsed >= maxIntervalNs) {
+            keep(timestampNs, orientation, acceleration, gyroAngle);
+            ++keptByMinFps;
+            return true;
+        }
+        if (getRotation(orientation, gyroAngle) >= rotationThresholdDeg
+                || getAccelerationChange(acceleration) >= accelerationThreshold) {
+            keep(timestampNs, orientation, acceleration, gyroAngle);
+            ++keptByMotion;
+            return true;
+        }
+        ++skipped;
+        return false;
+    }
+
+    public int getKeptCount() {
+        return keptFirst + keptByMotion + keptByMinFps;
+    }
+
+    /**
+     * Return 1 once the first frame, which is always kept, was seen.
+     */
+    public int getKeptFirstCount() {
+        return keptFirst;
+    }
+
+    /**
+     * Return the number of frames kept because the phone moved.
+     */
+    public int getKeptByMotionCount() {
+        return keptByMotion;
+    }
+
+    /**
+     * Return the number of frames kept only to honor the minimum frame rate.
+     */
+    public int getKeptByMinFpsCount() {
+        return keptByMinFps;
+    }
+
+    public int getSkippedCount() {
+        return skipped;
+    }
+
+    /**
+     * Return the largest rotation in degrees since the last kept frame.
+     */
+    private float getRotation(float[] orientation, double gyroAngle) {
+        float rotation = (float) Math.abs(gyroAngle - lastGyroAngle);
+        for (int i = 0; i < 3; ++i) {
+            float diff = Math.abs(orientation[i] - lastOrientation[i]) % 360;
+            rotation = Math.max(rotation, diff > 180 ? 360 - diff : diff);
+        }
+        return rotation;
+    }
+
+    private float getAccelerationChange(float[] acceleration) {
+        float sum = 0;
+        for (int i = 0; i < 3; ++i) {
+            float diff = acceleration[i] - lastAcceleration[i];
+            sum += diff * diff;
+        }
+        return (float) Math.sqrt(sum);
+    }
+
+    private void keep(long timestampNs, float[] orientation, float[] acceleration, double gyroAngle) {
+        hasKept = true;
+        lastTimestampNs = timestampNs;
+        System.arraycopy(orientation, 0, lastOrientation, 0, 3);
+        System.arraycopy(acceleration, 0, lastAcceleration, 0, 3);
+        lastGyroAngle = gyroAngle;
+    }
+}
@@ -0,0 +1,46 @@
+package com.getyourlocation.app.client.record;
+
+
+/**
+ * Single-file container for the encoded frames of a session, replacing one file per frame.
+ *
+ * File layout (big endian):
+ * <pre>
+ * int    magic "GYLC"
+ * int    version
+ * int    header length in bytes, records start right after
+ * int    reserved, 0
+ * records, each:
+ *   int    record magic "GYLF"
+ *   int    frame number
+ *   long   timestamp in nanoseconds
+ *   int    payload length
+ *   int    CRC32 of the payload
+ *   payload
+ * index, one entry per record:
+ *   int    frame number
+ *   long   payload offset in the file
+ *   int    payload length
+ *   long   timestamp in nanoseconds
+ *   int    CRC32 of the payload
+ * footer:
+ *   long   index offset
+ *   int    entry count
+ *   int    CRC32 of the index
+ *   int    footer magic "GYLX"
+ * </pre>
+ * The index and footer are written when the recording ends. Each record repeats what its
+ * index entry holds, so the index of a container cut short by a crash can be rebuilt by
+ * walking the records.
+ */
+public class FrameContainer {
+    private static final String TAG = "FrameContainer";
+    public static final int MAGIC = 0x47594C43;  // "GYLC"
+    public static final int VERSION = 1;
+    public static final int HEADER_LENGTH = 16;
+    public static final int RECORD_MAGIC = 0x47594C46;  // "GYLF"
+    public static final int RECORD_HEADER_LENGTH = 24;
+    public static final int INDEX_ENTRY_LENGTH = 28;
+    public static final int FOOTER_MAGIC = 0x47594C58;  // "GYLX"
+    public static final int FOOTER_LENGTH = 20;
+}
@@ -0,0 +1,62 @@
+package com.getyourlocation.app.client.record;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+
+/**
+ * Write the frames of a {@link FrameContainer} as the JPEGImages/N.jpg files of older sessions.
+ * Can be run on a computer: {@code java FrameContainerExploder frames.gyc JPEGImages}
+ */
+public class FrameContainerExploder {
+    private static final String TAG = "FrameContainerExploder";
+
+    /**
+     * Write every frame whose checksum matches to dir/N.jpg.
+     *
+     * @return The number of corrupted frames that were skipped
+     */
+    public static int explode(File container, File dir) throws IOException {
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Failed to create " + dir);
+        }
+        FrameContainerReader reader = new FrameContainerReader(container);
+        int skipped = 0;
+        try {
+            for (int i = 0; i < reader.getFrameCount(); ++i) {
+                if (!reader.verify(i)) {
+                    ++skipped;
+                    continue;
+                }
+                ByteBuffer payload = reader.getPayload(i);
+                FileOutputStream out = new FileOutputStream(new File(dir, reader.getFrameNumber(i) + ".jpg"));
+                try {
+                    FileChannel channel = out.getChannel();
+                    while (payload.hasRemaining()) {
+                        channel.write(payload);
+                    }
+                } finally {
+                    out.close();
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return skipped;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: FrameContainerExploder <frames.gyc> <JPEGImages>");
+            System.exit(1);
+        }
+        int skipped = explode(new File(args[0]), new File(args[1]));
+        if (skipped > 0) {
+            System.err.println(skipped + " corrupted frames skipped");
+            System.exit(2);
+        }
+    }
+}
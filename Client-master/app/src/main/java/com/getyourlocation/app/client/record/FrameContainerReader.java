@@ -0,0 +1,264 @@
+package com.getyourlocation.app.client.record;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+
+/**
+ * Random access to the frames of a {@link FrameContainer} file through a memory mapping.
+ *
+ * If the file has no valid index, e.g. because the recording was interrupted, the index is
+ * rebuilt from the records and {@link #isComplete()} returns false.
+ */
+public class FrameContainerReader implements Closeable {
+    private static final String TAG = "FrameContainerReader";
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long length;
+    // The whole file, or null if it is too large for one mapping
+    private final MappedByteBuffer buffer;
+    private final boolean complete;
+
+    private int count;
+    private int[] frames;
+    private long[] offsets;
+    private int[] lengths;
+    private long[] timestamps;
+    private int[] checksums;
+
+    /**
+     * Open a container and load its index.
+     */
+    public FrameContainerReader(File path) throws IOException {
+        file = new RandomAccessFile(path, "r");
+        try {
+            channel = file.getChannel();
+            length = channel.size();
+            buffer = length <= Integer.MAX_VALUE ? channel.map(FileChannel.MapMode.READ_ONLY, 0, length) : null;
+            ByteBuffer header = length < FrameContainer.HEADER_LENGTH ? null : read(0, FrameContainer.HEADER_LENGTH);
+            if (header == null || header.getInt(0) != FrameContainer.MAGIC) {
+                throw new IOException("Not a frame container: " + path);
+            }
+            complete = loadIndex(header.getInt(8)) || recoverIndex(header.getInt(8));
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Return true if the container was closed properly and its index is intact.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    public int getFrameCount() {
+        return count;
+    }
+
+    public int getFrameNumber(int i) {
+        checkIndex(i);
+        return frames[i];
+    }
+
+    public long getTimestampNs(int i) {
+        checkIndex(i);
+        return timestamps[i];
+    }
+
+    public int getPayloadLength(int i) {
+        checkIndex(i);
+        return lengths[i];
+    }
+
+    /**
+     * Return the position of a frame number, or -1 if it is not in the container.
+     */
+    public int indexOf(int frame) {
+        int lo = 0;
+        int hi = count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (frames[mid] < frame) {
+                lo = mid + 1;
+            } else if (frames[mid] > frame) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Return a read-only view of the payload of a frame, backed by the file.
+     */
+    public ByteBuffer getPayload(int i) throws IOException {
+        checkIndex(i);
+        return read(offsets[i], lengths[i]);
+    }
+
+    /**
+     * Copy the payload of a frame into a new array.
+     */
+    public byte[] readPayload(int i) throws IOException {
+        ByteBuffer payload = getPayload(i);
+        byte[] data = new byte[payload.remaining()];
+        payload.get(data);
+        return data;
+    }
+
+    /**
+     * Return true if the payload of a frame matches its checksum.
+     */
+    public boolean verify(int i) throws IOException {
+        ByteBuffer payload = getPayload(i);
+        return crc(payload) == checksums[i];
+    }
+
+    /**
+     * Check every frame and return the number of corrupted ones.
+     */
+    public int verifyAll() throws IOException {
+        int bad = 0;
+        for (int i = 0; i < count; ++i) {
+            if (!verify(i)) {
+                ++bad;
+            }
+        }
+        return bad;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    /**
+     * Load the index written by {@link FrameContainerWriter#close()}.
+     *
+     * @return False if there is no valid index
+     */
+    private boolean loadIndex(int headerLength) throws IOException {
+        if (length < headerLength + FrameContainer.FOOTER_LENGTH) {
+            return false;
+        }
+        ByteBuffer footer = read(length - FrameContainer.FOOTER_LENGTH, FrameContainer.FOOTER_LENGTH);
+        long indexOffset = footer.getLong(0);
+        int entryCount = footer.getInt(8);
+        int indexCrc = footer.getInt(12);
+        if (footer.getInt(16) != FrameContainer.FOOTER_MAGIC || entryCount < 0 || indexOffset < headerLength
+                || indexOffset + (long) entryCount * FrameContainer.INDEX_ENTRY_LENGTH
+                != length - FrameContainer.FOOTER_LENGTH) {
+            return false;
+        }
+        ByteBuffer index = read(indexOffset, entryCount * FrameContainer.INDEX_ENTRY_LENGTH);
+        if (crc(index.duplicate()) != indexCrc) {
+            return false;
+        }
+        allocate(entryCount);
+        for (int i = 0; i < entryCount; ++i) {
+            frames[i] = index.getInt();
+            offsets[i] = index.getLong();
+            lengths[i] = index.getInt();
+            timestamps[i] = index.getLong();
+            checksums[i] = index.getInt();
+            if (offsets[i] < headerLength || offsets[i] + lengths[i] > indexOffset) {
+                return false;
+            }
+        }
+        count = entryCount;
+        return true;
+    }
+
+    /**
+     * Rebuild the index by walking the records up to the first incomplete one.
+     *
+     * @return Always false, the container is not complete
+     */
+    private boolean recoverIndex(int headerLength) throws IOException {
+        allocate(1024);
+        count = 0;
+        long position = headerLength;
+        while (position + FrameContainer.RECORD_HEADER_LENGTH <= length) {
+            ByteBuffer record = read(position, FrameContainer.RECORD_HEADER_LENGTH);
+            int payloadLength = record.getInt(16);
+            long payloadOffset = position + FrameContainer.RECORD_HEADER_LENGTH;
+            if (record.getInt(0) != FrameContainer.RECORD_MAGIC || payloadLength < 0
+                    || payloadOffset + payloadLength > length) {
+                break;
+            }
+            if (count == frames.length) {
+                grow();
+            }
+            frames[count] = record.getInt(4);
+            timestamps[count] = record.getLong(8);
+            lengths[count] = payloadLength;
+            checksums[count] = record.getInt(20);
+            offsets[count] = payloadOffset;
+            ++count;
+            position = payloadOffset + payloadLength;
+        }
+        return false;
+    }
+
+    private void allocate(int capacity) {
+        frames = new int[capacity];
+        offsets = new long[capacity];
+        lengths = new int[capacity];
+        timestamps = new long[capacity];
+        checksums = new int[capacity];
+    }
+
+    private void grow() {
+        int[] oldFrames = frames;
+        long[] oldOffsets = offsets;
+        int[] oldLengths = lengths;
+        long[] oldTimestamps = timestamps;
+        int[] oldChecksums = checksums;
+        allocate(frames.length * 2);
+        System.arraycopy(oldFrames, 0, frames, 0, count);
+        System.arraycopy(oldOffsets, 0, offsets, 0, count);
+        System.arraycopy(oldLengths, 0, lengths, 0, count);
+        System.arraycopy(oldTimestamps, 0, timestamps, 0, count);
+        System.arraycopy(oldChecksums, 0, checksums, 0, count);
+    }
+
+    /**
+     * Return a read-only view of a region of the file.
+     */
+    private ByteBuffer read(long offset, int size) throws IOException {
+        if (buffer != null) {
+            ByteBuffer view = buffer.duplicate();
+            view.position((int) offset);
+            view.limit((int) offset + size);
+            return view.slice();
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+    }
+
+    private static int crc(ByteBuffer data) {
+        CRC32 crc = new CRC32();
+        byte[] chunk = new byte[8192];
+        while (data.hasRemaining()) {
+            int n = Math.min(chunk.length, data.remaining());
+            data.get(chunk, 0, n);
+            crc.update(chunk, 0, n);
+        }
+        return (int) crc.getValue();
+    }
+
+    private void checkIndex(int i) {
+        if (i < 0 || i >= count) {
+            throw new IndexOutOfBoundsException("Frame " + i + " of " + count);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.getyourlocation.app.client.record;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+
+/**
+ * Append frames to a {@link FrameContainer} file. Not thread-safe; frames are written from
+ * the pipeline writer thread.
+ *
+ * Records are buffered, so the frames of the last buffer are lost if the app is killed; the
+ * index of the rest is recovered by {@link FrameContainerReader}.
+ */
+public class FrameContainerWriter {
+    private static final String TAG = "FrameContainerWriter";
+    private static final int INITIAL_CAPACITY = 1024;
+    // Several frames per write, rather than a header and a payload write per frame
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final FileOutputStream file;
+    private final BufferedOutputStream out;
+    private final ByteBuffer recordHeader = ByteBuffer.allocate(FrameContainer.RECORD_HEADER_LENGTH);
+    private final CRC32 crc = new CRC32();
+    private long position;
+    private boolean closed = false;
+
+    // Index entries, written out by close()
+    private int count = 0;
+    private int[] frames = new int[INITIAL_CAPACITY];
+    private long[] offsets = new long[INITIAL_CAPACITY];
+    private int[] lengths = new int[INITIAL_CAPACITY];
+    private long[] timestamps = new long[INITIAL_CAPACITY];
+    private int[] checksums = new int[INITIAL_CAPACITY];
+
+    /**
+     * Create the file and write its header.
+     */
+    public FrameContainerWriter(File path) throws IOException {
+        file = new FileOutputStream(path);
+        out = new BufferedOutputStream(file, BUFFER_SIZE);
+        ByteBuffer header = ByteBuffer.allocate(FrameContainer.HEADER_LENGTH);
+        header.putInt(FrameContainer.MAGIC);
+        header.putInt(FrameContainer.VERSION);
+        header.putInt(FrameContainer.HEADER_LENGTH);
+        header.putInt(0);
+        out.write(header.array());
+        position = FrameContainer.HEADER_LENGTH;
+    }
+
+    /**
+     * Append a frame.
+     *
+     * @param frame Frame number
+     * @param timestampNs Capture time in nanoseconds
+     * @param payload The encoded frame
+     */
+    public void append(int frame, long timestampNs, byte[] payload) throws IOException {
+        if (closed) {
+            throw new IOException("Frame container is closed");
+        }
+        crc.reset();
+        crc.update(payload, 0, payload.length);
+        int checksum = (int) crc.getValue();
+        recordHeader.clear();
+        recordHeader.putInt(FrameContainer.RECORD_MAGIC);
+        recordHeader.putInt(frame);
+        recordHeader.putLong(timestampNs);
+        recordHeader.putInt(payload.length);
+        recordHeader.putInt(checksum);
+        out.write(recordHeader.array());
+        out.write(payload);
+        if (count == frames.length) {
+            grow();
+        }
+        frames[count] = frame;
+        offsets[count] = position + FrameContainer.RECORD_HEADER_LENGTH;
+        lengths[count] = payload.length;
+        timestamps[count] = timestampNs;
+        checksums[count] = checksum;
+        ++count;
+        position += FrameContainer.RECORD_HEADER_LENGTH + payload.length;
+    }
+
+    public int getFrameCount() {
+        return count;
+    }
+
+    /**
+     * Return the bytes appended so far, including the buffered ones.
+     */
+    public long getLength() {
+        return position;
+    }
+
+    /**
+     * Write the index and the footer, then close the file.
+     */
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            ByteBuffer index = ByteBuffer.allocate(count * FrameContainer.INDEX_ENTRY_LENGTH);
+            for (int i = 0; i < count; ++i) {
+                index.putInt(frames[i]);
+                index.putLong(offsets[i]);
+                index.putInt(lengths[i]);
+                index.putLong(timestamps[i]);
+                index.putInt(checksums[i]);
+            }
+            out.write(index.array());
+            crc.reset();
+            crc.update(index.array(), 0, index.capacity());
+            ByteBuffer footer = ByteBuffer.allocate(FrameContainer.FOOTER_LENGTH);
+            footer.putLong(position);
+            footer.putInt(count);
+            footer.putInt((int) crc.getValue());
+            footer.putInt(FrameContainer.FOOTER_MAGIC);
+            out.write(footer.array());
+            out.flush();
+            file.getFD().sync();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void grow() {
+        int capacity = frames.length * 2;
+        int[] newFrames = new int[capacity];
+        long[] newOffsets = new long[capacity];
+        int[] newLengths = new int[capacity];
+        long[] newTimestamps = new long[capacity];
+        int[] newChecksums = new int[capacity];
+        System.arraycopy(frames, 0, newFrames, 0, count);
+        System.arraycopy(offsets, 0, newOffsets, 0, count);
+        System.arraycopy(lengths, 0, newLengths, 0, count);
+        System.arraycopy(timestamps, 0, newTimestamps, 0, count);
+        System.arraycopy(checksums, 0, newChecksums, 0, count);
+        frames = newFrames;
+        offsets = newOffsets;
+        lengths = newLengths;
+        timestamps = newTimestamps;
+        checksums = newChecksums;
+    }
+}
@@ -0,0 +1,166 @@
+package com.getyourlocation.app.client.record;
+
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.graphics.YuvImage;
+import android.media.Image;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.os.Build;
+
+import com.getyourlocation.app.client.util.ImageUtil;
+import com.getyourlocation.app.client.util.YuvUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+
+/**
+ * Pull single frames back out of a video recorded by {@link H264Recorder}.
+ */
+public class FrameExtractor {
+    private static final String TAG = "FrameExtractor";
+    private static final long DEQUEUE_TIMEOUT_US = 10000;
+
+    private final File videoFile;
+    private final FrameIndex index;
+
+    /**
+     * Initialize.
+     *
+     * @param videoFile The recorded MP4 file
+     * @param indexFile Its sidecar index
+     */
+    public FrameExtractor(File videoFile, File indexFile) throws IOException {
+        this.videoFile = videoFile;
+        this.index = FrameIndex.load(indexFile);
+    }
+
+    public FrameIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Decode a frame and write it as a JPEG.
+     *
+     * @param frameNumber Number of the frame
+     * @param quality JPEG quality
+     * @param out Receives the JPEG
+     */
+    public void extractJpeg(int frameNumber, int quality, OutputStream out) throws IOException {
+        int width = index.getWidth();
+        int height = index.getHeight();
+        byte[] nv21 = extractNv21(frameNumber);
+        YuvImage im = new YuvImage(nv21, ImageFormat.NV21, width, height, null);
+        if (!im.compressToJpeg(new Rect(0, 0, width, height), quality, out)) {
+            throw new IOException("Failed to compress frame " + frameNumber);
+        }
+    }
+
+    /**
+     * Decode a frame to NV21.
+     */
+    public byte[] extractNv21(int frameNumber) throws IOException {
+        int i = index.indexOf(frameNumber);
+        if (i < 0) {
+            throw new IOException("Frame " + frameNumber + " is not in the index");
+        }
+        long targetUs = index.getPresentationTimeUs(i);
+        MediaExtractor extractor = new MediaExtractor();
+        MediaCodec decoder = null;
+        try {
+            extractor.setDataSource(videoFile.getPath());
+            MediaFormat format = selectVideoTrack(extractor);
+            decoder = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+            decoder.configure(format, null, null, 0);
+            decoder.start();
+            extractor.seekTo(targetUs, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+            return decodeUntil(extractor, decoder, targetUs);
+        } finally {
+            if (decoder != null) {
+                decoder.stop();
+                decoder.release();
+            }
+            extractor.release();
+        }
+    }
+
+    private static MediaFormat selectVideoTrack(MediaExtractor extractor) throws IOException {
+        for (int i = 0; i < extractor.getTrackCount(); ++i) {
+            MediaFormat format = extractor.getTrackFormat(i);
+            if (format.getString(MediaFormat.KEY_MIME).startsWith("video/")) {
+                extractor.selectTrack(i);
+                return format;
+            }
+        }
+        throw new IOException("No video track");
+    }
+
+    private byte[] decodeUntil(MediaExtractor extractor, MediaCodec decoder, long targetUs) throws IOException {
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        ByteBuffer[] inBuffers = decoder.getInputBuffers();
+        ByteBuffer[] outBuffers = decoder.getOutputBuffers();
+        boolean inputDone = false;
+        while (true) {
+            if (!inputDone) {
+                int inIndex = decoder.dequeueInputBuffer(DEQUEUE_TIMEOUT_US);
+                if (inIndex >= 0) {
+                    int size = extractor.readSampleData(inBuffers[inIndex], 0);
+                    if (size < 0) {
+                        decoder.queueInputBuffer(inIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                        inputDone = true;
+                    } else {
+                        decoder.queueInputBuffer(inIndex, 0, size, extractor.getSampleTime(), 0);
+                        extractor.advance();
+                    }
+                }
+            }
+            int outIndex = decoder.dequeueOutputBuffer(info, DEQUEUE_TIMEOUT_US);
+            if (outIndex == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
+                outBuffers = decoder.getOutputBuffers();
+            } else if (outIndex >= 0) {
+                if (info.size > 0 && info.presentationTimeUs >= targetUs) {
+                    byte[] nv21 = copyToNv21(decoder, outIndex, outBuffers[outIndex], info);
+                    decoder.releaseOutputBuffer(outIndex, false);
+                    return nv21;
+                }
+                decoder.releaseOutputBuffer(outIndex, false);
+                if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                    throw new IOException("Frame at " + targetUs + " us not found");
+                }
+            }
+        }
+    }
+
+    private byte[] copyToNv21(MediaCodec decoder, int outIndex, ByteBuffer buffer, MediaCodec.BufferInfo info)
+            throws IOException {
+        int width = index.getWidth();
+        int height = index.getHeight();
+        byte[] nv21 = new byte[YuvUtil.getFrameSize(width, height)];
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            Image image = decoder.getOutputImage(outIndex);
+            if (image != null) {
+                ImageUtil.copyToNv21(image, nv21, width, height);
+                image.close();
+                return nv21;
+            }
+        }
+        // Before Lollipop only the standard layouts without row padding are handled
+        int colorFormat = decoder.getOutputFormat().getInteger(MediaFormat.KEY_COLOR_FORMAT);
+        byte[] raw = new byte[nv21.length];
+        buffer.position(info.offset);
+        buffer.get(raw, 0, Math.min(raw.length, info.size));
+        if (colorFormat == MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar) {
+            YuvUtil.nv12ToNv21(raw, nv21, width, height);
+        } else if (colorFormat == MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Planar) {
+            YuvUtil.i420ToNv21(raw, nv21, width, height);
+        } else {
+            throw new IOException("Unsupported decoder color format " + colorFormat);
+        }
+        return nv21;
+    }
+}
@@ -0,0 +1,129 @@
+package com.getyourlocation.app.client.record;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+
+/**
+ * Sidecar index of a recorded video, mapping each frame number to the presentation
+ * timestamp of its sample and to its row in the sensor log.
+ *
+ * File layout (big endian): magic "GYLI", int version, int width, int height, followed by
+ * one 16 byte record per frame: int frame number, long presentation time in
+ * microseconds, int sensor row.
+ */
+public class FrameIndex {
+    private static final String TAG = "FrameIndex";
+    public static final int MAGIC = 0x47594C49;  // "GYLI"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 16;
+    public static final int RECORD_SIZE = 16;
+
+    private final int width;
+    private final int height;
+    private final int[] frameNumbers;
+    private final long[] presentationTimesUs;
+    private final int[] sensorRows;
+
+    private FrameIndex(int width, int height, int[] frameNumbers, long[] presentationTimesUs, int[] sensorRows) {
+        this.width = width;
+        this.height = height;
+        this.frameNumbers = frameNumbers;
+        this.presentationTimesUs = presentationTimesUs;
+        this.sensorRows = sensorRows;
+    }
+
+    /**
+     * Load an index file.
+     */
+    public static FrameIndex load(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a frame index: " + file);
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported frame index version " + version);
+            }
+            int width = in.readInt();
+            int height = in.readInt();
+            int count = (int) ((file.length() - HEADER_SIZE) / RECORD_SIZE);
+            int[] frameNumbers = new int[count];
+            long[] times = new long[count];
+            int[] rows = new int[count];
+            for (int i = 0; i < count; ++i) {
+                frameNumbers[i] = in.readInt();
+                times[i] = in.readLong();
+                rows[i] = in.readInt();
+            }
+            return new FrameIndex(width, height, frameNumbers, times, rows);
+        } finally {
+            in.close();
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int size() {
+        return frameNumbers.length;
+    }
+
+    /**
+     * Return the position of a frame in the index, or -1 if the frame is not recorded.
+     */
+    public int indexOf(int frameNumber) {
+        int i = Arrays.binarySearch(frameNumbers, frameNumber);
+        return i >= 0 ? i : -1;
+    }
+
+    public int getFrameNumber(int i) {
+        return frameNumbers[i];
+    }
+
+    public long getPresentationTimeUs(int i) {
+        return presentationTimesUs[i];
+    }
+
+    public int getSensorRow(int i) {
+        return sensorRows[i];
+    }
+
+    /**
+     * Append records to an index file. Frames must be added in increasing frame number.
+     */
+    public static class Writer {
+        private final DataOutputStream out;
+
+        public Writer(File file, int width, int height) throws IOException {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(width);
+            out.writeInt(height);
+        }
+
+        public void add(int frameNumber, long presentationTimeUs, int sensorRow) throws IOException {
+            out.writeInt(frameNumber);
+            out.writeLong(presentationTimeUs);
+            out.writeInt(sensorRow);
+        }
+
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package com.getyourlocation.app.client.record;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Capture pipeline for recorded preview frames.
+ *
+ * Frames submitted from the preview callback go into a bounded queue, are encoded by a pool
+ * of worker threads and handed to a single writer thread which writes them in submission
+ * order, so the frame numbers stay consecutive even though encoding runs in parallel.
+ * Each frame carries an int, e.g. its row in the recording session, passed through to the
+ * encoder and the writer without boxing.
+ */
+public class FramePipeline {
+    private static final String TAG = "FramePipeline";
+    private static final long POLL_TIMEOUT_MS = 50;
+
+    /**
+     * What to do when a frame is submitted while the queue is full.
+     */
+    public enum OverflowPolicy {
+        /** Wait until an encoder takes a frame from the queue. */
+        BLOCK,
+        /** Drop the oldest queued frame to make room. */
+        DROP_OLDEST,
+        /** Drop the submitted frame. */
+        DROP_NEWEST
+    }
+
+    /**
+     * Turn a raw frame into the bytes to be written. Called on encoder threads.
+     */
+    public interface FrameEncoder {
+        byte[] encode(byte[] frame, int row) throws Exception;
+    }
+
+    /**
+     * Persist an encoded frame. Called on the writer thread, in frame order.
+     */
+    public interface FrameWriter {
+        void write(int frameNumber, byte[] payload, int row) throws Exception;
+    }
+
+    /**
+     * Take back a raw frame array once the pipeline no longer uses it.
+     */
+    public interface FrameRecycler {
+        void recycle(byte[] frame);
+    }
+
+    private static class Frame {
+        final int seq;
+        final byte[] data;
+        final int row;
+        byte[] payload;
+
+        Frame(int seq, byte[] data, int row) {
+            this.seq = seq;
+            this.data = data;
+            this.row = row;
+        }
+    }
+
+    private final OverflowPolicy policy;
+    private final FrameEncoder encoder;
+    private final FrameWriter writer;
+    private final int firstFrameNumber;
+
+    private final BlockingQueue<Frame> inputQueue;
+    private final BlockingQueue<Frame> doneQueue = new LinkedBlockingQueue<>();
+    private final ExecutorService encoderPool;
+    private final ExecutorService writerThread;
+    private final Object submitLock = new Object();
+
+    private final AtomicInteger nextSeq = new AtomicInteger(0);
+    private final AtomicLong droppedOldest = new AtomicLong(0);
+    private final AtomicLong droppedNewest = new AtomicLong(0);
+    private final AtomicLong failed = new AtomicLong(0);
+    private final AtomicInteger written = new AtomicInteger(0);
+
+    private volatile boolean closed = false;
+    private volatile Runnable onFinished;
+    private volatile FrameRecycler recycler;
+
+    /**
+     * Initialize and start the encoder and writer threads.
+     *
+     * @param queueCapacity Maximum number of frames waiting to be encoded
+     * @param encoderCount Number of encoder threads, or 0 to use the number of cores
+     * @param policy What to do when the queue is full
+     * @param firstFrameNumber Number given to the first written frame
+     * @param encoder Encodes raw frames
+     * @param writer Writes encoded frames
+     */
+    public FramePipeline(int queueCapacity, int encoderCount, OverflowPolicy policy, int firstFrameNumber,
+                         FrameEncoder encoder, FrameWriter writer) {
+        if (encoderCount <= 0) {
+            encoderCount = Runtime.getRuntime().availableProcessors();
+        }
+        this.policy = policy;
+        this.encoder = encoder;
+        this.writer = writer;
+        this.firstFrameNumber = firstFrameNumber;
+        inputQueue = new ArrayBlockingQueue<>(queueCapacity);
+        encoderPool = Executors.newFixedThreadPool(encoderCount);
+        for (int i = 0; i < encoderCount; ++i) {
+            encoderPool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    runEncoder();
+                }
+            });
+        }
+        encoderPool.shutdown();
+        writerThread = Executors.newSingleThreadExecutor();
+        writerThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                runWriter();
+            }
+        });
+        writerThread.shutdown();
+    }
+
+    /**
+     * Set the recycler which takes back raw frames after they are encoded or dropped.
+     */
+    public void setRecycler(FrameRecycler recycler) {
+        this.recycler = recycler;
+    }
+
+    /**
+     * Queue a frame for encoding. The frame array must not be modified afterwards. It is
+     * given to the recycler, if any, once encoded or dropped, including when this returns false.
+     *
+     * @return False if the frame was dropped or the pipeline is finished
+     */
+    public boolean submit(byte[] frame, int row) {
+        synchronized (submitLock) {
+            if (closed) {
+                recycle(frame);
+                return false;
+            }
+            Frame f = new Frame(nextSeq.get(), frame, row);
+            switch (policy) {
+                case BLOCK:
+                    try {
+                        inputQueue.put(f);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        recycle(frame);
+                        return false;
+                    }
+                    break;
+                case DROP_OLDEST:
+                    while (!inputQueue.offer(f)) {
+                        Frame oldest = inputQueue.poll();
+                        if (oldest != null) {
+                            droppedOldest.incrementAndGet();
+                            recycle(oldest.data);
+                            doneQueue.add(oldest);
+                        }
+                    }
+                    break;
+                case DROP_NEWEST:
+                    if (!inputQueue.offer(f)) {
+                        droppedNewest.incrementAndGet();
+                        recycle(frame);
+                        return false;
+                    }
+                    break;
+            }
+            nextSeq.incrementAndGet();
+            return true;
+        }
+    }
+
+    /**
+     * Stop accepting frames and let the queued ones be written.
+     *
+     * @param onFinished Called on the writer thread once every queued frame is written, may be null
+     */
+    public void finish(Runnable onFinished) {
+        this.onFinished = onFinished;
+        synchronized (submitLock) {
+            closed = true;
+        }
+    }
+
+    /**
+     * Block until the writer thread has finished, or the timeout elapses.
+     */
+    public boolean awaitFinished(long timeout, TimeUnit unit) throws InterruptedException {
+        return writerThread.awaitTermination(timeout, unit);
+    }
+
+    public int getQueueSize() {
+        return inputQueue.size();
+    }
+
+    public int getSubmittedCount() {
+        return nextSeq.get();
+    }
+
+    public int getWrittenCount() {
+        return written.get();
+    }
+
+    public long getDroppedOldestCount() {
+        return droppedOldest.get();
+    }
+
+    public long getDroppedNewestCount() {
+        return droppedNewest.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * Return the number of frames that were not written for any reason.
+     */
+    public long getDroppedCount() {
+        return droppedOldest.get() + droppedNewest.get() + failed.get();
+    }
+
+    private void runEncoder() {
+        while (true) {
+            Frame f;
+            try {
+                f = inputQueue.poll(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (f == null) {
+                if (closed && inputQueue.isEmpty()) {
+                    return;
+                }
+                continue;
+            }
+            try {
+                f.payload = encoder.encode(f.data, f.row);
+            } catch (Throwable t) {
+                // Even an OutOfMemoryError only loses this frame, the thread keeps encoding
+                failed.incrementAndGet();
+                f.payload = null;
+            } finally {
+                // The writer waits for every frame in order, so it must always get this one
+                recycle(f.data);
+                doneQueue.add(f);
+            }
+        }
+    }
+
+    private void recycle(byte[] frame) {
+        FrameRecycler r = recycler;
+        if (r != null) {
+            r.recycle(frame);
+        }
+    }
+
+    private void runWriter() {
+        Map<Integer, Frame> pending = new HashMap<>();
+        int expected = 0;
+        while (!closed || expected < nextSeq.get()) {
+            Frame f;
+            try {
+                f = doneQueue.poll(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (f == null) {
+                continue;
+            }
+            pending.put(f.seq, f);
+            while ((f = pending.remove(expected)) != null) {
+                ++expected;
+                if (f.payload == null) {
+                    continue;
+                }
+                try {
+                    writer.write(firstFrameNumber + written.get(), f.payload, f.row);
+                    written.incrementAndGet();
+                } catch (Throwable t) {
+                    // Keep writing so onFinished still runs
+                    failed.incrementAndGet();
+                }
+            }
+        }
+        Runnable callback = onFinished;
+        if (callback != null) {
+            callback.run();
+        }
+    }
+}
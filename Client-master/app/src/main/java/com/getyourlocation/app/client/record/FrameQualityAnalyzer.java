@@ -0,0 +1,169 @@
+package com.getyourlocation.app.client.record;
+
+
+/**
+ * Score the sharpness and exposure of a preview frame from its NV21 luma plane.
+ *
+ * Only every step-th pixel of every step-th row is sampled. Sharpness is the variance of the
+ * Laplacian at the sampled pixels, computed with their direct neighbors so the score does not
+ * depend on the step. Exposure comes from a histogram of the sampled luma. The analysis stops
+ * when it runs out of its time budget, and the step grows or shrinks after each frame to keep
+ * the work within the budget.
+ */
+public class FrameQualityAnalyzer {
+    public static final int HISTOGRAM_BINS = 32;
+    public static final long DEFAULT_BUDGET_NS = 2000000L;
+    public static final float DEFAULT_MIN_SHARPNESS = 50f;
+    public static final float DEFAULT_MAX_CLIPPED_FRACTION = 0.5f;
+    private static final int DARK_LUMA = 16;
+    private static final int BRIGHT_LUMA = 240;
+    private static final int MIN_STEP = 2;
+    private static final int MAX_STEP = 32;
+    // Rows between two looks at the clock
+    private static final int CLOCK_ROWS = 8;
+
+    /**
+     * Scores of one frame, reused between frames.
+     */
+    public static class Result {
+        /** Variance of the Laplacian of the luma. */
+        public float sharpness;
+        public float meanLuma;
+        /** Fractions of the samples almost black and almost white. */
+        public float darkFraction;
+        public float brightFraction;
+        public final int[] histogram = new int[HISTOGRAM_BINS];
+        public int sampleCount;
+        public int step;
+        /** False if the budget ran out before the whole frame was sampled. */
+        public boolean complete;
+        public long elapsedNs;
+    }
+
+    private final long budgetNs;
+    private final float minSharpness;
+    private final float maxClippedFraction;
+    private int step = 4;
+    private volatile int analyzedCount = 0;
+    private volatile int overBudgetCount = 0;
+
+    public FrameQualityAnalyzer() {
+        this(DEFAULT_BUDGET_NS, DEFAULT_MIN_SHARPNESS, DEFAULT_MAX_CLIPPED_FRACTION);
+    }
+
+    /**
+     * @param budgetNs Time allowed per frame in nanoseconds
+     * @param minSharpness Sharpness under which a frame is blurry
+     * @param maxClippedFraction Fraction of black or white samples above which a frame is badly exposed
+     */
+    public FrameQualityAnalyzer(long budgetNs, float minSharpness, float maxClippedFraction) {
+        this.budgetNs = budgetNs;
+        this.minSharpness = minSharpness;
+        this.maxClippedFraction = maxClippedFraction;
+    }
+
+    /**
+     * Analyze a frame. Must be called from one thread at a time.
+     *
+     * @param nv21 The frame, only its first width * height bytes are read
+     * @param width Frame width
+     * @param height Frame height
+     * @param result Receives the scores
+     */
+    public void analyze(byte[] nv21, int width, int height, Result result) {
+        long start = System.nanoTime();
+        int s = step;
+        int[] histogram = result.histogram;
+        for (int i = 0; i < HISTOGRAM_BINS; ++i) {
+            histogram[i] = 0;
+        }
+        long lapSum = 0;
+        long lapSqSum = 0;
+        long lumaSum = 0;
+        int dark = 0;
+        int bright = 0;
+        int n = 0;
+        boolean complete = true;
+        int rows = 0;
+        for (int y = 1; y < height - 1; y += s) {
+            int row = y * width;
+            for (int x = 1; x < width - 1; x += s) {
+                int p = row + x;
+                int c = nv21[p] & 0xFF;
+                int lap = 4 * c - (nv21[p - 1] & 0xFF) - (nv21[p + 1] & 0xFF)
+                        - (nv21[p - width] & 0xFF) - (nv21[p + width] & 0xFF);
+                lapSum += lap;
+                lapSqSum += lap * lap;
+                lumaSum += c;
+                ++histogram[c * HISTOGRAM_BINS >> 8];
+                if (c < DARK_LUMA) {
+                    ++dark;
+                } else if (c >= BRIGHT_LUMA) {
+                    ++bright;
+                }
+                ++n;
+            }
+            if (++rows % CLOCK_ROWS == 0 && System.nanoTime() - start > budgetNs) {
+                complete = false;
+                break;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        if (n > 0) {
+            double mean = (double) lapSum / n;
+            result.sharpness = (float) ((double) lapSqSum / n - mean * mean);
+            result.meanLuma = (float) lumaSum / n;
+            result.darkFraction = (float) dark / n;
+            result.brightFraction = (float) bright / n;
+        } else {
+            result.sharpness = 0;
+            result.meanLuma = 0;
+            result.darkFraction = 0;
+            result.brightFraction = 0;
+        }
+        result.sampleCount = n;
+        result.step = s;
+        result.complete = complete;
+        result.elapsedNs = elapsed;
+        ++analyzedCount;
+        if (!complete || elapsed > budgetNs * 3 / 4) {
+            if (!complete) {
+                ++overBudgetCount;
+            }
+            step = Math.min(s * 2, MAX_STEP);
+        } else if (elapsed < budgetNs / 4) {
+            step = Math.max(s / 2, MIN_STEP);
+        }
+    }
+
+    /**
+     * Return the {@link SensorLog} quality flags of an analyzed frame, 0 if it looks fine.
+     */
+    public int getFlags(Result result) {
+        if (result.sampleCount == 0) {
+            return 0;
+        }
+        int flags = 0;
+        if (result.sharpness < minSharpness) {
+            flags |= SensorLog.FLAG_BLURRY;
+        }
+        if (result.darkFraction > maxClippedFraction) {
+            flags |= SensorLog.FLAG_UNDEREXPOSED;
+        }
+        if (result.brightFraction > maxClippedFraction) {
+            flags |= SensorLog.FLAG_OVEREXPOSED;
+        }
+        return flags;
+    }
+
+    public int getAnalyzedCount() {
+        return analyzedCount;
+    }
+
+    /**
+     * Return the number of frames whose analysis ran out of time.
+     */
+    public int getOverBudgetCount() {
+        return overBudgetCount;
+    }
+}
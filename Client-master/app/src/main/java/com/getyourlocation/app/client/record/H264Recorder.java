@@ -0,0 +1,192 @@
+package com.getyourlocation.app.client.record;
+
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.util.Log;
+
+import com.getyourlocation.app.client.util.YuvUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+
+/**
+ * Encode NV21 preview frames to an H.264 MP4 file with the hardware encoder, and write a
+ * {@link FrameIndex} next to it.
+ *
+ * Frames are first converted to the encoder's color layout with {@link #convert(byte[])},
+ * which may run on any thread, then queued in order from a single thread.
+ */
+public class H264Recorder {
+    private static final String TAG = "H264Recorder";
+    private static final String MIME_TYPE = "video/avc";
+    private static final int I_FRAME_INTERVAL_S = 1;
+    private static final long DEQUEUE_TIMEOUT_US = 10000;
+
+    private final int width;
+    private final int height;
+    private final MediaCodec codec;
+    private final int colorFormat;
+    private final MediaMuxer muxer;
+    private final FrameIndex.Writer indexWriter;
+    private final MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
+
+    private int trackIndex = -1;
+    private boolean muxerStarted = false;
+    private long firstTimestampNs = -1;
+
+    /**
+     * Create and start the encoder.
+     *
+     * @param videoFile The MP4 file to create
+     * @param indexFile The sidecar index file to create
+     * @param width Frame width
+     * @param height Frame height
+     * @param frameRate Expected frame rate
+     * @param bitRate Target bit rate in bits per second
+     */
+    public H264Recorder(File videoFile, File indexFile, int width, int height, int frameRate, int bitRate)
+            throws IOException {
+        this.width = width;
+        this.height = height;
+        MediaCodecInfo codecInfo = selectCodec();
+        if (codecInfo == null) {
+            throw new IOException("No H.264 encoder available");
+        }
+        colorFormat = selectColorFormat(codecInfo);
+        if (colorFormat == 0) {
+            throw new IOException("No supported color format for " + codecInfo.getName());
+        }
+        MediaFormat format = MediaFormat.createVideoFormat(MIME_TYPE, width, height);
+        format.setInteger(MediaFormat.KEY_COLOR_FORMAT, colorFormat);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, bitRate);
+        format.setInteger(MediaFormat.KEY_FRAME_RATE, frameRate);
+        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, I_FRAME_INTERVAL_S);
+        codec = MediaCodec.createByCodecName(codecInfo.getName());
+        codec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        codec.start();
+        muxer = new MediaMuxer(videoFile.getPath(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+        indexWriter = new FrameIndex.Writer(indexFile, width, height);
+        Log.d(TAG, "Encoder " + codecInfo.getName() + " started, color format " + colorFormat);
+    }
+
+    /**
+     * Return a copy of an NV21 frame in the color layout of the encoder. Thread safe.
+     */
+    public byte[] convert(byte[] nv21) {
+        byte[] converted = new byte[YuvUtil.getFrameSize(width, height)];
+        if (colorFormat == MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar) {
+            YuvUtil.nv21ToNv12(nv21, converted, width, height);
+        } else {
+            YuvUtil.nv21ToI420(nv21, converted, width, height);
+        }
+        return converted;
+    }
+
+    /**
+     * Encode a frame.
+     *
+     * @param converted The frame returned by {@link #convert(byte[])}
+     * @param frameNumber Number of the frame
+     * @param timestampNs Capture time of the frame in nanoseconds
+     * @param sensorRow Row of the frame in the sensor log
+     */
+    public void encode(byte[] converted, int frameNumber, long timestampNs, int sensorRow) throws IOException {
+        if (firstTimestampNs < 0) {
+            firstTimestampNs = timestampNs;
+        }
+        long ptsUs = (timestampNs - firstTimestampNs) / 1000;
+        int inIndex = codec.dequeueInputBuffer(-1);
+        ByteBuffer inBuffer = codec.getInputBuffers()[inIndex];
+        inBuffer.clear();
+        inBuffer.put(converted);
+        codec.queueInputBuffer(inIndex, 0, converted.length, ptsUs, 0);
+        indexWriter.add(frameNumber, ptsUs, sensorRow);
+        drain(false);
+    }
+
+    /**
+     * Flush the encoder and close the video and index files.
+     */
+    public void finish() throws IOException {
+        try {
+            int inIndex = codec.dequeueInputBuffer(-1);
+            codec.queueInputBuffer(inIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+            drain(true);
+        } finally {
+            codec.stop();
+            codec.release();
+            if (muxerStarted) {
+                muxer.stop();
+            }
+            muxer.release();
+            indexWriter.close();
+        }
+    }
+
+    private void drain(boolean endOfStream) {
+        ByteBuffer[] outBuffers = codec.getOutputBuffers();
+        while (true) {
+            int outIndex = codec.dequeueOutputBuffer(bufferInfo, endOfStream ? DEQUEUE_TIMEOUT_US : 0);
+            if (outIndex == MediaCodec.INFO_TRY_AGAIN_LATER) {
+                if (!endOfStream) {
+                    return;
+                }
+            } else if (outIndex == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
+                outBuffers = codec.getOutputBuffers();
+            } else if (outIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                trackIndex = muxer.addTrack(codec.getOutputFormat());
+                muxer.start();
+                muxerStarted = true;
+            } else if (outIndex >= 0) {
+                ByteBuffer outBuffer = outBuffers[outIndex];
+                if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+                    // Codec config is passed to the muxer with the output format
+                    bufferInfo.size = 0;
+                }
+                if (bufferInfo.size > 0 && muxerStarted) {
+                    outBuffer.position(bufferInfo.offset);
+                    outBuffer.limit(bufferInfo.offset + bufferInfo.size);
+                    muxer.writeSampleData(trackIndex, outBuffer, bufferInfo);
+                }
+                codec.releaseOutputBuffer(outIndex, false);
+                if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private static MediaCodecInfo selectCodec() {
+        for (int i = 0; i < MediaCodecList.getCodecCount(); ++i) {
+            MediaCodecInfo info = MediaCodecList.getCodecInfoAt(i);
+            if (!info.isEncoder()) {
+                continue;
+            }
+            for (String type : info.getSupportedTypes()) {
+                if (type.equalsIgnoreCase(MIME_TYPE)) {
+                    return info;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static int selectColorFormat(MediaCodecInfo info) {
+        int[] formats = info.getCapabilitiesForType(MIME_TYPE).colorFormats;
+        int res = 0;
+        for (int format : formats) {
+            if (format == MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar) {
+                return format;
+            }
+            if (format == MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Planar) {
+                res = format;
+            }
+        }
+        return res;
+    }
+}
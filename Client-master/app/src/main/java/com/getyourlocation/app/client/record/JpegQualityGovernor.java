@@ -0,0 +1,144 @@
+package com.getyourlocation.app.client.record;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Adapt the JPEG quality of recorded frames to what the phone can encode and store.
+ *
+ * Encoders report how long each frame took and the writer reports each write and the queue
+ * depth. Every {@link #WINDOW} written frames the averages are compared with the time between
+ * two frames: if the encoders, the storage or the queue fall behind, the quality goes one
+ * level down; after {@link #CALM_WINDOWS} windows with clear headroom it goes one level up.
+ */
+public class JpegQualityGovernor {
+    private static final String TAG = "JpegQualityGovernor";
+    public static final int[] DEFAULT_LEVELS = {100, 95, 90, 85, 80, 70, 60, 50};
+    public static final int WINDOW = 15;
+    public static final int CALM_WINDOWS = 3;
+    private static final double NS_PER_SECOND = 1e9;
+    // Fractions of the frame interval above which a stage is too slow, below which it is idle
+    private static final double BUSY_LOAD = 0.9;
+    private static final double IDLE_LOAD = 0.5;
+
+    private final int[] levels;
+    private final long frameIntervalNs;
+    private final int encoderCount;
+    private final int queueCapacity;
+    private volatile int level = 0;
+
+    private final AtomicLong encodeNs = new AtomicLong();
+    private final AtomicInteger encodeCount = new AtomicInteger();
+    // Only touched on the writer thread
+    private long writeNs = 0;
+    private long writeBytes = 0;
+    private long queueDepthSum = 0;
+    private int writeCount = 0;
+    private int calmWindows = 0;
+
+    private volatile long lastThroughput = 0;
+    private volatile int loweredCount = 0;
+    private volatile int raisedCount = 0;
+
+    /**
+     * @param targetFps Frames per second the pipeline should sustain
+     * @param encoderCount Number of encoder threads
+     * @param queueCapacity Capacity of the encoding queue
+     */
+    public JpegQualityGovernor(float targetFps, int encoderCount, int queueCapacity) {
+        this(DEFAULT_LEVELS, targetFps, encoderCount, queueCapacity);
+    }
+
+    /**
+     * @param levels Qualities from the highest to the lowest, recording starts at the first
+     * @param targetFps Frames per second the pipeline should sustain
+     * @param encoderCount Number of encoder threads
+     * @param queueCapacity Capacity of the encoding queue
+     */
+    public JpegQualityGovernor(int[] levels, float targetFps, int encoderCount, int queueCapacity) {
+        if (levels.length == 0 || targetFps <= 0 || encoderCount <= 0) {
+            throw new IllegalArgumentException("Invalid governor settings");
+        }
+        this.levels = levels.clone();
+        this.frameIntervalNs = (long) (NS_PER_SECOND / targetFps);
+        this.encoderCount = encoderCount;
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Return the quality to encode the next frame with.
+     */
+    public int getQuality() {
+        return levels[level];
+    }
+
+    /**
+     * Report the encoding time of a frame. Called on any encoder thread.
+     */
+    public void onEncoded(long elapsedNs) {
+        encodeNs.addAndGet(elapsedNs);
+        encodeCount.incrementAndGet();
+    }
+
+    /**
+     * Report the write of a frame. Called on the writer thread only.
+     *
+     * @param bytes Size of the written frame
+     * @param elapsedNs Time the write took
+     * @param queueDepth Frames waiting to be encoded when the write finished
+     */
+    public void onWritten(int bytes, long elapsedNs, int queueDepth) {
+        writeNs += elapsedNs;
+        writeBytes += bytes;
+        queueDepthSum += queueDepth;
+        if (++writeCount >= WINDOW) {
+            evaluate();
+        }
+    }
+
+    /**
+     * Return the write throughput of the last window in bytes per second.
+     */
+    public long getWriteThroughput() {
+        return lastThroughput;
+    }
+
+    public int getLoweredCount() {
+        return loweredCount;
+    }
+
+    public int getRaisedCount() {
+        return raisedCount;
+    }
+
+    private void evaluate() {
+        int encoded = encodeCount.getAndSet(0);
+        long encodeTime = encodeNs.getAndSet(0);
+        // Each encoder thread handles one frame out of encoderCount
+        double encodeLoad = encoded == 0 ? 0 : (double) encodeTime / encoded / encoderCount / frameIntervalNs;
+        double writeLoad = (double) writeNs / writeCount / frameIntervalNs;
+        double queueDepth = (double) queueDepthSum / writeCount;
+        lastThroughput = writeNs == 0 ? 0 : (long) (writeBytes * NS_PER_SECOND / writeNs);
+        writeNs = 0;
+        writeBytes = 0;
+        queueDepthSum = 0;
+        writeCount = 0;
+
+        if (encodeLoad > BUSY_LOAD || writeLoad > BUSY_LOAD || queueDepth > queueCapacity / 2.0) {
+            calmWindows = 0;
+            if (level < levels.length - 1) {
+                ++level;
+                ++loweredCount;
+            }
+        } else if (encodeLoad < IDLE_LOAD && writeLoad < IDLE_LOAD && queueDepth < 1) {
+            if (++calmWindows >= CALM_WINDOWS && level > 0) {
+                calmWindows = 0;
+                --level;
+                ++raisedCount;
+            }
+        } else {
+            calmWindows = 0;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.getyourlocation.app.client.record;
+
+
+/**
+ * Per-frame state of a recording, one row per captured frame.
+ *
+ * Every column is a primitive array split in chunks of {@link #CHUNK_SIZE} rows. Growing
+ * allocates one more chunk per column and only copies the small table of chunk references,
+ * so appending is O(1) and rows never move.
+ *
+ * Rows are appended by one thread. Other threads may read any row below a {@link #size()}
+ * they have observed, or a row index handed over to them after it was appended.
+ */
+public class RecordingSession {
+    private static final String TAG = "RecordingSession";
+    public static final int CHUNK_SHIFT = 10;
+    public static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    public static final int SENSOR_VALUES = 9;
+    public static final int NO_FRAME = -1;
+
+    private static final int ORIENTATION = 0;
+    private static final int ACCELERATION = 3;
+    private static final int MAGNETISM = 6;
+    /** Bytes of one row over all columns. */
+    private static final int ROW_BYTES = 8 + 4 + SENSOR_VALUES * 4 + 8 + 4 + 4 + 4 + 1;
+
+    private long[][] timestamps = new long[1][];
+    private float[][] focalLengths = new float[1][];
+    private float[][] sensors = new float[1][];
+    private double[][] gyroAngles = new double[1][];
+    private int[][] frameNumbers = new int[1][];
+    private float[][] sharpness = new float[1][];
+    private int[][] flags = new int[1][];
+    private byte[][] jpegQualities = new byte[1][];
+    private int chunkCount = 0;
+    private volatile int size = 0;
+
+    /**
+     * Append the row of a captured frame. Its frame number is {@link #NO_FRAME} until
+     * {@link #setFrameNumber} is called.
+     *
+     * @param timestampNs Capture time of the frame in nanoseconds
+     * @param focalLength Focal length in millimeters
+     * @param orientation Orientation in degrees
+     * @param acceleration Acceleration
+     * @param magnetism Magnetic field
+     * @param gyroAngle Rotation integrated from the gyroscope
+     * @return Index of the new row
+     */
+    public int append(long timestampNs, float focalLength, float[] orientation, float[] acceleration,
+                      float[] magnetism, double gyroAngle) {
+        int row = size;
+        int chunk = row >>> CHUNK_SHIFT;
+        int i = row & CHUNK_MASK;
+        if (chunk == chunkCount) {
+            addChunk();
+        }
+        timestamps[chunk][i] = timestampNs;
+        focalLengths[chunk][i] = focalLength;
+        float[] s = sensors[chunk];
+        int base = i * SENSOR_VALUES;
+        for (int k = 0; k < 3; ++k) {
+            s[base + ORIENTATION + k] = orientation[k];
+            s[base + ACCELERATION + k] = acceleration[k];
+            s[base + MAGNETISM + k] = magnetism[k];
+        }
+        gyroAngles[chunk][i] = gyroAngle;
+        frameNumbers[chunk][i] = NO_FRAME;
+        sharpness[chunk][i] = 0;
+        flags[chunk][i] = 0;
+        jpegQualities[chunk][i] = 0;
+        // Publishes the row to readers
+        size = row + 1;
+        return row;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getTimestampNs(int row) {
+        checkRow(row);
+        return timestamps[row >>> CHUNK_SHIFT][row & CHUNK_MASK];
+    }
+
+    public float getFocalLength(int row) {
+        checkRow(row);
+        return focalLengths[row >>> CHUNK_SHIFT][row & CHUNK_MASK];
+    }
+
+    public double getGyroAngle(int row) {
+        checkRow(row);
+        return gyroAngles[row >>> CHUNK_SHIFT][row & CHUNK_MASK];
+    }
+
+    /**
+     * Copy the sensor values of a row into the given arrays of length 3.
+     */
+    public void getSensors(int row, float[] orientation, float[] acceleration, float[] magnetism) {
+        checkRow(row);
+        float[] s = sensors[row >>> CHUNK_SHIFT];
+        int base = (row & CHUNK_MASK) * SENSOR_VALUES;
+        for (int k = 0; k < 3; ++k) {
+            orientation[k] = s[base + ORIENTATION + k];
+            acceleration[k] = s[base + ACCELERATION + k];
+            magnetism[k] = s[base + MAGNETISM + k];
+        }
+    }
+
+    /**
+     * Return the number under which the frame was saved, or {@link #NO_FRAME} if it was
+     * dropped or is not saved yet.
+     */
+    public int getFrameNumber(int row) {
+        checkRow(row);
+        return frameNumbers[row >>> CHUNK_SHIFT][row & CHUNK_MASK];
+    }
+
+    public void setFrameNumber(int row, int frameNumber) {
+        checkRow(row);
+        frameNumbers[row >>> CHUNK_SHIFT][row & CHUNK_MASK] = frameNumber;
+    }
+
+    public float getSharpness(int row) {
+        checkRow(row);
+        return sharpness[row >>> CHUNK_SHIFT][row & CHUNK_MASK];
+    }
+
+    /**
+     * Return the {@link SensorLog} flags of a row.
+     */
+    public int getFlags(int row) {
+        checkRow(row);
+        return flags[row >>> CHUNK_SHIFT][row & CHUNK_MASK];
+    }
+
+    /**
+     * Record the quality scores of a frame, see {@link FrameQualityAnalyzer}.
+     */
+    public void setQuality(int row, float sharpness, int flags) {
+        checkRow(row);
+        this.sharpness[row >>> CHUNK_SHIFT][row & CHUNK_MASK] = sharpness;
+        this.flags[row >>> CHUNK_SHIFT][row & CHUNK_MASK] = flags;
+    }
+
+    /**
+     * Return the JPEG quality the frame was saved with, 0 if it was not saved as a JPEG.
+     */
+    public int getJpegQuality(int row) {
+        checkRow(row);
+        return jpegQualities[row >>> CHUNK_SHIFT][row & CHUNK_MASK];
+    }
+
+    public void setJpegQuality(int row, int quality) {
+        checkRow(row);
+        jpegQualities[row >>> CHUNK_SHIFT][row & CHUNK_MASK] = (byte) quality;
+    }
+
+    /**
+     * Return the number of bytes allocated for the rows, including unused rows of the last
+     * chunk.
+     */
+    public long getMemoryFootprint() {
+        long chunkTable = (long) timestamps.length * 8 * 4;
+        return (long) chunkCount * CHUNK_SIZE * ROW_BYTES + chunkTable;
+    }
+
+    private void addChunk() {
+        if (chunkCount == timestamps.length) {
+            int length = chunkCount * 2;
+            timestamps = copyOf(timestamps, new long[length][]);
+            focalLengths = copyOf(focalLengths, new float[length][]);
+            sensors = copyOf(sensors, new float[length][]);
+            gyroAngles = copyOf(gyroAngles, new double[length][]);
+            frameNumbers = copyOf(frameNumbers, new int[length][]);
+            sharpness = copyOf(sharpness, new float[length][]);
+            flags = copyOf(flags, new int[length][]);
+            jpegQualities = copyOf(jpegQualities, new byte[length][]);
+        }
+        timestamps[chunkCount] = new long[CHUNK_SIZE];
+        focalLengths[chunkCount] = new float[CHUNK_SIZE];
+        sensors[chunkCount] = new float[CHUNK_SIZE * SENSOR_VALUES];
+        gyroAngles[chunkCount] = new double[CHUNK_SIZE];
+        frameNumbers[chunkCount] = new int[CHUNK_SIZE];
+        sharpness[chunkCount] = new float[CHUNK_SIZE];
+        flags[chunkCount] = new int[CHUNK_SIZE];
+        jpegQualities[chunkCount] = new byte[CHUNK_SIZE];
+        ++chunkCount;
+    }
+
+    private static <T> T[] copyOf(T[] from, T[] to) {
+        System.arraycopy(from, 0, to, 0, from.length);
+        return to;
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+        }
+    }
+}
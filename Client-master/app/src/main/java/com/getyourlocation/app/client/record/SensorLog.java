@@ -0,0 +1,181 @@
+package com.getyourlocation.app.client.record;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+
+/**
+ * Binary sensor log recorded with each session, one fixed-width record per frame.
+ *
+ * File layout (big endian):
+ * <pre>
+ * int    magic "GYLS"
+ * int    version
+ * int    header length in bytes, records start right after
+ * int    record length in bytes
+ * int    column count
+ * column count times: UTF name, byte type
+ * records
+ * int    trailer magic "GYLE"     (since version 2)
+ * int    record count
+ * long   CRC32 of the record bytes
+ * </pre>
+ * Readers locate columns by name, so columns may be appended in later versions. The
+ * gyro_angle column holds a single definition, see {@link #COL_GYRO_ANGLE}; rows without a
+ * gyroscope measurement carry {@link #FLAG_NO_GYROSCOPE} in the flags column. The trailer
+ * is written when the recording ends; a log without it was interrupted and holds the records
+ * flushed up to that moment.
+ */
+public class SensorLog {
+    private static final String TAG = "SensorLog";
+    public static final int MAGIC = 0x47594C53;  // "GYLS"
+    public static final int VERSION = 4;
+    public static final int TRAILER_MAGIC = 0x47594C45;  // "GYLE"
+    public static final int TRAILER_LENGTH = 16;
+
+    public static final byte TYPE_INT32 = 1;
+    public static final byte TYPE_INT64 = 2;
+    public static final byte TYPE_FLOAT32 = 3;
+    public static final byte TYPE_FLOAT64 = 4;
+
+    public static final String COL_FRAME = "frame";
+    public static final String COL_TIMESTAMP_NS = "timestamp_ns";
+    public static final String COL_FOCAL_LENGTH = "focal_length";
+    public static final String COL_ORIENTATION_X = "orientation_x";
+    public static final String COL_ORIENTATION_Y = "orientation_y";
+    public static final String COL_ORIENTATION_Z = "orientation_z";
+    public static final String COL_ACCELERATION_X = "acceleration_x";
+    public static final String COL_ACCELERATION_Y = "acceleration_y";
+    public static final String COL_ACCELERATION_Z = "acceleration_z";
+    public static final String COL_MAGNETISM_X = "magnetism_x";
+    public static final String COL_MAGNETISM_Y = "magnetism_y";
+    public static final String COL_MAGNETISM_Z = "magnetism_z";
+    /**
+     * Rotation around the device z axis in degrees, integrated from the gyroscope since the
+     * recording started. 0 in rows flagged {@link #FLAG_NO_GYROSCOPE}.
+     */
+    public static final String COL_GYRO_ANGLE = "gyro_angle";
+    public static final String COL_SHARPNESS = "sharpness";  // Since version 3
+    public static final String COL_FLAGS = "flags";  // Since version 3
+    public static final String COL_JPEG_QUALITY = "jpeg_quality";  // Since version 4, 0 for video
+
+    /** Bits of the flags column. */
+    public static final int FLAG_BLURRY = 1;
+    public static final int FLAG_UNDEREXPOSED = 1 << 1;
+    public static final int FLAG_OVEREXPOSED = 1 << 2;
+    /** No gyroscope sample was received yet, the gyro angle is not measured. */
+    public static final int FLAG_NO_GYROSCOPE = 1 << 3;
+
+    /** Columns written by this version, in record order. */
+    static final String[] COLUMN_NAMES = {
+            COL_FRAME, COL_TIMESTAMP_NS, COL_FOCAL_LENGTH,
+            COL_ORIENTATION_X, COL_ORIENTATION_Y, COL_ORIENTATION_Z,
+            COL_ACCELERATION_X, COL_ACCELERATION_Y, COL_ACCELERATION_Z,
+            COL_MAGNETISM_X, COL_MAGNETISM_Y, COL_MAGNETISM_Z,
+            COL_GYRO_ANGLE, COL_SHARPNESS, COL_FLAGS, COL_JPEG_QUALITY,
+    };
+    static final byte[] COLUMN_TYPES = {
+            TYPE_INT32, TYPE_INT64, TYPE_FLOAT32,
+            TYPE_FLOAT32, TYPE_FLOAT32, TYPE_FLOAT32,
+            TYPE_FLOAT32, TYPE_FLOAT32, TYPE_FLOAT32,
+            TYPE_FLOAT32, TYPE_FLOAT32, TYPE_FLOAT32,
+            TYPE_FLOAT64, TYPE_FLOAT32, TYPE_INT32, TYPE_INT32,
+    };
+
+    /**
+     * Column layout of a log file.
+     */
+    public static class Schema {
+        private final String[] names;
+        private final byte[] types;
+        private final int[] offsets;
+        private final int recordLength;
+
+        Schema(String[] names, byte[] types) {
+            this.names = names;
+            this.types = types;
+            offsets = new int[names.length];
+            int offset = 0;
+            for (int i = 0; i < names.length; ++i) {
+                offsets[i] = offset;
+                offset += sizeOf(types[i]);
+            }
+            recordLength = offset;
+        }
+
+        public int getColumnCount() {
+            return names.length;
+        }
+
+        public String getName(int column) {
+            return names[column];
+        }
+
+        public byte getType(int column) {
+            return types[column];
+        }
+
+        /**
+         * Return the byte offset of a column inside a record.
+         */
+        public int getOffset(int column) {
+            return offsets[column];
+        }
+
+        public int getRecordLength() {
+            return recordLength;
+        }
+
+        /**
+         * Return the index of a column, or -1 if the log has no such column.
+         */
+        public int indexOf(String name) {
+            for (int i = 0; i < names.length; ++i) {
+                if (names[i].equals(name)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        void write(DataOutput out) throws IOException {
+            out.writeInt(names.length);
+            for (int i = 0; i < names.length; ++i) {
+                out.writeUTF(names[i]);
+                out.writeByte(types[i]);
+            }
+        }
+
+        static Schema read(DataInput in) throws IOException {
+            int count = in.readInt();
+            String[] names = new String[count];
+            byte[] types = new byte[count];
+            for (int i = 0; i < count; ++i) {
+                names[i] = in.readUTF();
+                types[i] = in.readByte();
+                if (types[i] < TYPE_INT32 || types[i] > TYPE_FLOAT64) {
+                    throw new IOException("Unknown column type " + types[i] + " of " + names[i]);
+                }
+            }
+            return new Schema(names, types);
+        }
+    }
+
+    static Schema currentSchema() {
+        return new Schema(COLUMN_NAMES, COLUMN_TYPES);
+    }
+
+    static int sizeOf(byte type) {
+        switch (type) {
+            case TYPE_INT32:
+            case TYPE_FLOAT32:
+                return 4;
+            case TYPE_INT64:
+            case TYPE_FLOAT64:
+                return 8;
+            default:
+                throw new IllegalArgumentException("Unknown column type " + type);
+        }
+    }
+}
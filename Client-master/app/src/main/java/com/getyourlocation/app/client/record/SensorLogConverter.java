@@ -0,0 +1,92 @@
+package com.getyourlocation.app.client.record;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+
+/**
+ * Convert a binary {@link SensorLog} back to the text layout of sensor.txt:
+ * <pre>
+ * frame,focal-length,orientationX, ...
+ * 1 : focal;oriX oriY oriZ; accX accY accZ; magX magY magZ.
+ * </pre>
+ * Can be run on a computer: {@code java SensorLogConverter sensor.bin sensor.txt}
+ */
+public class SensorLogConverter {
+    private static final String TAG = "SensorLogConverter";
+    public static final String DESCRIPTION = "orientationX, orientationY, orientationZ; "
+            + "accelerationX, accelerationY, accelerationZ; magnetismX, magnetismY, magnetismZ";
+
+    private static final String[][] GROUPS = {
+            {SensorLog.COL_ORIENTATION_X, SensorLog.COL_ORIENTATION_Y, SensorLog.COL_ORIENTATION_Z},
+            {SensorLog.COL_ACCELERATION_X, SensorLog.COL_ACCELERATION_Y, SensorLog.COL_ACCELERATION_Z},
+            {SensorLog.COL_MAGNETISM_X, SensorLog.COL_MAGNETISM_Y, SensorLog.COL_MAGNETISM_Z},
+    };
+
+    /**
+     * Write the text layout of a log.
+     */
+    public static void toText(SensorLogReader reader, Writer out) throws IOException {
+        SensorLog.Schema schema = reader.getSchema();
+        int frameCol = requireColumn(schema, SensorLog.COL_FRAME);
+        int focalCol = requireColumn(schema, SensorLog.COL_FOCAL_LENGTH);
+        int[][] groupCols = new int[GROUPS.length][3];
+        for (int g = 0; g < GROUPS.length; ++g) {
+            for (int i = 0; i < 3; ++i) {
+                groupCols[g][i] = requireColumn(schema, GROUPS[g][i]);
+            }
+        }
+        out.write("frame," + "focal-length," + DESCRIPTION + "\n");
+        StringBuilder line = new StringBuilder();
+        for (int r = 0; r < reader.getRecordCount(); ++r) {
+            line.setLength(0);
+            line.append(reader.getInt(r, frameCol)).append(" : ")
+                    .append(reader.getFloat(r, focalCol)).append(";");
+            for (int g = 0; g < GROUPS.length; ++g) {
+                if (g > 0) {
+                    line.append("; ");
+                }
+                for (int i = 0; i < 3; ++i) {
+                    if (i > 0) {
+                        line.append(" ");
+                    }
+                    line.append(reader.getFloat(r, groupCols[g][i]));
+                }
+            }
+            line.append(".\n");
+            out.write(line.toString());
+        }
+    }
+
+    /**
+     * Convert a log file to a text file.
+     */
+    public static void toText(File binFile, File textFile) throws IOException {
+        SensorLogReader reader = new SensorLogReader(binFile);
+        Writer out = new BufferedWriter(new FileWriter(textFile));
+        try {
+            toText(reader, out);
+        } finally {
+            out.close();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: SensorLogConverter <sensor.bin> <sensor.txt>");
+            System.exit(1);
+        }
+        toText(new File(args[0]), new File(args[1]));
+    }
+
+    private static int requireColumn(SensorLog.Schema schema, String name) throws IOException {
+        int col = schema.indexOf(name);
+        if (col < 0) {
+            throw new IOException("Sensor log has no column " + name);
+        }
+        return col;
+    }
+}
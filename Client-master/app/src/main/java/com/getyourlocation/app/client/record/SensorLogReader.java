@@ -0,0 +1,200 @@
+package com.getyourlocation.app.client.record;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+
+/**
+ * Random access to the records of a {@link SensorLog} file through a memory mapping.
+ *
+ * Logs cut short by a crash have no trailer; their complete records are still readable and
+ * {@link #isComplete()} returns false.
+ */
+public class SensorLogReader {
+    private static final String TAG = "SensorLogReader";
+
+    private final MappedByteBuffer buffer;
+    private final SensorLog.Schema schema;
+    private final int version;
+    private final int headerLength;
+    private final int recordLength;
+    private final int recordCount;
+    private final int frameColumn;
+    private final boolean complete;
+    private final long checksum;
+
+    /**
+     * Map a log file.
+     */
+    public SensorLogReader(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        } finally {
+            // The mapping stays valid after the channel is closed
+            raf.close();
+        }
+        if (buffer.remaining() < 20 || buffer.getInt(0) != SensorLog.MAGIC) {
+            throw new IOException("Not a sensor log: " + file);
+        }
+        version = buffer.getInt(4);
+        headerLength = buffer.getInt(8);
+        recordLength = buffer.getInt(12);
+        ByteBuffer schemaBytes = buffer.duplicate();
+        schemaBytes.position(16);
+        schemaBytes.limit(headerLength);
+        schema = SensorLog.Schema.read(new DataInputStream(new ByteBufferInputStream(schemaBytes)));
+        if (schema.getRecordLength() > recordLength) {
+            throw new IOException("Schema does not fit in a record of " + recordLength + " bytes");
+        }
+        int trailerCount = findTrailer();
+        complete = trailerCount >= 0;
+        if (complete) {
+            recordCount = trailerCount;
+            checksum = buffer.getLong(buffer.capacity() - 8);
+        } else {
+            recordCount = (buffer.capacity() - headerLength) / recordLength;
+            checksum = 0;
+        }
+        frameColumn = schema.indexOf(SensorLog.COL_FRAME);
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Return true if the log was closed properly and has a trailer.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Return true if the records match the checksum of the trailer. Logs without a trailer
+     * have nothing to check against and always pass.
+     */
+    public boolean verify() {
+        if (!complete) {
+            return true;
+        }
+        ByteBuffer records = buffer.duplicate();
+        records.position(headerLength);
+        records.limit(headerLength + recordCount * recordLength);
+        byte[] chunk = new byte[8192];
+        CRC32 crc = new CRC32();
+        while (records.hasRemaining()) {
+            int n = Math.min(chunk.length, records.remaining());
+            records.get(chunk, 0, n);
+            crc.update(chunk, 0, n);
+        }
+        return crc.getValue() == checksum;
+    }
+
+    public SensorLog.Schema getSchema() {
+        return schema;
+    }
+
+    public int getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Return the index of the record of a frame, or -1 if the frame is not in the log.
+     */
+    public int findFrame(int frame) {
+        if (frameColumn < 0) {
+            return -1;
+        }
+        int lo = 0;
+        int hi = recordCount - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int value = getInt(mid, frameColumn);
+            if (value < frame) {
+                lo = mid + 1;
+            } else if (value > frame) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    public int getInt(int record, int column) {
+        return buffer.getInt(position(record, column));
+    }
+
+    public long getLong(int record, int column) {
+        return buffer.getLong(position(record, column));
+    }
+
+    public float getFloat(int record, int column) {
+        return buffer.getFloat(position(record, column));
+    }
+
+    public double getDouble(int record, int column) {
+        return buffer.getDouble(position(record, column));
+    }
+
+    /**
+     * Return a column as a double whatever its type.
+     */
+    public double getValue(int record, int column) {
+        switch (schema.getType(column)) {
+            case SensorLog.TYPE_INT32:
+                return getInt(record, column);
+            case SensorLog.TYPE_INT64:
+                return getLong(record, column);
+            case SensorLog.TYPE_FLOAT32:
+                return getFloat(record, column);
+            default:
+                return getDouble(record, column);
+        }
+    }
+
+    /**
+     * Return the record count stored in the trailer, or -1 if there is no valid trailer.
+     */
+    private int findTrailer() {
+        if (version < 2 || buffer.capacity() - headerLength < SensorLog.TRAILER_LENGTH) {
+            return -1;
+        }
+        int start = buffer.capacity() - SensorLog.TRAILER_LENGTH;
+        if (buffer.getInt(start) != SensorLog.TRAILER_MAGIC) {
+            return -1;
+        }
+        int count = buffer.getInt(start + 4);
+        if (count < 0 || (long) headerLength + (long) count * recordLength != start) {
+            return -1;
+        }
+        return count;
+    }
+
+    private int position(int record, int column) {
+        if (record < 0 || record >= recordCount) {
+            throw new IndexOutOfBoundsException("Record " + record + " of " + recordCount);
+        }
+        return headerLength + record * recordLength + schema.getOffset(column);
+    }
+
+    private static class ByteBufferInputStream extends java.io.InputStream {
+        private final ByteBuffer buf;
+
+        ByteBufferInputStream(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        @Override
+        public int read() {
+            return buf.hasRemaining() ? buf.get() & 0xFF : -1;
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package com.getyourlocation.app.client.record;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+
+/**
+ * Append records to a {@link SensorLog} file as they are recorded.
+ *
+ * Records go into a fixed-size ring and are written by a background thread, which flushes
+ * them to the disk at least every {@link #FLUSH_INTERVAL_MS}. If the ring is full,
+ * {@link #write} waits for the writer, so memory stays bounded however long the session is.
+ * {@link #close()} writes the trailer; a log without one was interrupted but every record
+ * flushed before that can still be read.
+ */
+public class SensorLogWriter {
+    private static final String TAG = "SensorLogWriter";
+    public static final long FLUSH_INTERVAL_MS = 1000;
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final FileOutputStream out;
+    private final SensorLog.Schema schema = SensorLog.currentSchema();
+    private final int recordLength = schema.getRecordLength();
+    private final ByteBuffer record;
+    private final byte[] ring;
+    private final byte[] batch;
+    private final int capacity;
+    private final CRC32 crc = new CRC32();
+    private final Thread writerThread;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private int head = 0;
+    private int count = 0;
+    private boolean closing = false;
+    private boolean flushRequested = false;
+    private IOException writeError;
+
+    private int recordCount = 0;
+    private volatile int writtenCount = 0;
+
+    /**
+     * Create the file, write its header and start the writer thread.
+     */
+    public SensorLogWriter(File file) throws IOException {
+        this(file, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create the file, write its header and start the writer thread.
+     *
+     * @param file The log file
+     * @param capacity Number of records buffered before {@link #write} waits
+     */
+    public SensorLogWriter(File file, int capacity) throws IOException {
+        this.capacity = capacity;
+        record = ByteBuffer.allocate(recordLength);
+        ring = new byte[capacity * recordLength];
+        batch = new byte[capacity * recordLength];
+        out = new FileOutputStream(file);
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream headerOut = new DataOutputStream(header);
+        ByteArrayOutputStream schemaBytes = new ByteArrayOutputStream();
+        schema.write(new DataOutputStream(schemaBytes));
+        headerOut.writeInt(SensorLog.MAGIC);
+        headerOut.writeInt(SensorLog.VERSION);
+        headerOut.writeInt(16 + schemaBytes.size());
+        headerOut.writeInt(recordLength);
+        schemaBytes.writeTo(headerOut);
+        header.writeTo(out);
+        writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runWriter();
+            }
+        }, TAG);
+        writerThread.start();
+    }
+
+    /**
+     * Append the record of a frame. Must be called from one thread at a time.
+     *
+     * @param frame Frame number
+     * @param timestampNs Capture time in nanoseconds
+     * @param focalLength Focal length times the zoom ratio
+     * @param orientation Orientation in degrees, 3 values
+     * @param acceleration Acceleration, 3 values
+     * @param magnetism Magnetic field, 3 values
+     * @param gyroAngle See {@link SensorLog#COL_GYRO_ANGLE}
+     * @param sharpness Sharpness score of the frame
+     * @param flags {@link SensorLog} flags of the frame
+     * @param jpegQuality JPEG quality of the frame, 0 for video
+     */
+    public void write(int frame, long timestampNs, float focalLength, float[] orientation,
+                      float[] acceleration, float[] magnetism, double gyroAngle,
+                      float sharpness, int flags, int jpegQuality) throws IOException {
+        record.clear();
+        record.putInt(frame);
+        record.putLong(timestampNs);
+        record.putFloat(focalLength);
+        for (int i = 0; i < 3; ++i) {
+            record.putFloat(orientation[i]);
+        }
+        for (int i = 0; i < 3; ++i) {
+            record.putFloat(acceleration[i]);
+        }
+        for (int i = 0; i < 3; ++i) {
+            record.putFloat(magnetism[i]);
+        }
+        record.putDouble(gyroAngle);
+        record.putFloat(sharpness);
+        record.putInt(flags);
+        record.putInt(jpegQuality);
+        lock.lock();
+        try {
+            while (count == capacity && writeError == null) {
+                notFull.awaitUninterruptibly();
+            }
+            if (writeError != null) {
+                throw writeError;
+            }
+            if (closing) {
+                throw new IOException("Sensor log is closed");
+            }
+            int slot = (head + count) % capacity;
+            System.arraycopy(record.array(), 0, ring, slot * recordLength, recordLength);
+            ++count;
+            ++recordCount;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Return the number of records passed to {@link #write}, which is also the 0-based
+     * record index the next write gets in {@link SensorLogReader}.
+     */
+    public int getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Return the number of records written to the file so far.
+     */
+    public int getWrittenCount() {
+        return writtenCount;
+    }
+
+    /**
+     * Ask the writer thread to write and sync the buffered records now.
+     */
+    public void flush() {
+        lock.lock();
+        try {
+            flushRequested = true;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Write the remaining records and the trailer, then close the file.
+     */
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            closing = true;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while closing sensor log");
+        }
+        if (writeError != null) {
+            throw writeError;
+        }
+    }
+
+    private void runWriter() {
+        long lastSync = System.currentTimeMillis();
+        int unsynced = 0;
+        try {
+            while (true) {
+                int n;
+                boolean done;
+                boolean syncNow;
+                lock.lock();
+                try {
+                    long wait = FLUSH_INTERVAL_MS - (System.currentTimeMillis() - lastSync);
+                    while (count == 0 && !closing && !flushRequested && wait > 0) {
+                        notEmpty.await(wait, TimeUnit.MILLISECONDS);
+                        wait = FLUSH_INTERVAL_MS - (System.currentTimeMillis() - lastSync);
+                    }
+                    n = count;
+                    int first = Math.min(n, capacity - head);
+                    System.arraycopy(ring, head * recordLength, batch, 0, first * recordLength);
+                    System.arraycopy(ring, 0, batch, first * recordLength, (n - first) * recordLength);
+                    head = (head + n) % capacity;
+                    count = 0;
+                    done = closing;
+                    syncNow = flushRequested || wait <= 0;
+                    flushRequested = false;
+                    notFull.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                if (n > 0) {
+                    out.write(batch, 0, n * recordLength);
+                    crc.update(batch, 0, n * recordLength);
+                    writtenCount += n;
+                    unsynced += n;
+                }
+                if (done) {
+                    break;
+                }
+                if (syncNow) {
+                    if (unsynced > 0) {
+                        out.getFD().sync();
+                        unsynced = 0;
+                    }
+                    lastSync = System.currentTimeMillis();
+                }
+            }
+            writeTrailer();
+            out.getFD().sync();
+        } catch (IOException e) {
+            setError(e);
+        } catch (InterruptedException e) {
+            setError(new IOException("Sensor log writer interrupted"));
+        } finally {
+            try {
+                out.close();
+            } catch (IOException e) {
+                setError(e);
+            }
+        }
+    }
+
+    private void writeTrailer() throws IOException {
+        ByteBuffer trailer = ByteBuffer.allocate(SensorLog.TRAILER_LENGTH);
+        trailer.putInt(SensorLog.TRAILER_MAGIC);
+        trailer.putInt(writtenCount);
+        trailer.putLong(crc.getValue());
+        out.write(trailer.array());
+    }
+
+    private void setError(IOException e) {
+        lock.lock();
+        try {
+            if (writeError == null) {
+                writeError = e;
+            }
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
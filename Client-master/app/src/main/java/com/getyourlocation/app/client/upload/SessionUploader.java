@@ -0,0 +1,395 @@
+package com.getyourlocation.app.client.upload;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+
+/**
+ * Upload the files of a recorded session in chunks, several chunks at a time.
+ *
+ * Progress is kept in an {@link UploadProgress} file in the session directory, so an upload
+ * interrupted by a network error or a process restart resumes where it stopped. Before
+ * sending a file the server is asked which of its chunks it already has, these are skipped.
+ * A session marked with {@link #markPending(File)} is pending even before its upload starts.
+ *
+ * Protocol, relative to the base URL, for each file of the session:
+ * <pre>
+ * GET  /{session}/files/{file}/chunks           indices of the stored chunks, one per line
+ * PUT  /{session}/files/{file}/chunks/{index}   chunk bytes, header X-Chunk-CRC32
+ * POST /{session}/files/{file}/complete         headers X-File-Length and X-Chunk-Count
+ * </pre>
+ */
+public class SessionUploader {
+    private static final String TAG = "SessionUploader";
+    public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+    public static final int DEFAULT_PARALLELISM = 3;
+    private static final int TIMEOUT_MS = 10000;
+    private static final int DEFAULT_MAX_ATTEMPTS = 4;
+    private static final long DEFAULT_BACKOFF_MS = 1000;
+
+    /**
+     * Callbacks of an upload, called on the uploader threads.
+     */
+    public interface Listener {
+        void onProgress(File sessionDir, long uploadedBytes, long totalBytes);
+
+        void onFinished(File sessionDir);
+
+        void onFailed(File sessionDir, IOException e);
+    }
+
+    private final String baseUrl;
+    private final int chunkSize;
+    private final ExecutorService coordinator;
+    private final ExecutorService chunkPool;
+    private volatile Listener listener;
+    private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+    private long backoffMs = DEFAULT_BACKOFF_MS;
+
+    public SessionUploader(String baseUrl) {
+        this(baseUrl, DEFAULT_CHUNK_SIZE, DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * @param baseUrl URL of the sessions API
+     * @param chunkSize Bytes per chunk
+     * @param parallelism Number of chunks uploaded at the same time
+     */
+    public SessionUploader(String baseUrl, int chunkSize, int parallelism) {
+        if (chunkSize <= 0 || parallelism <= 0) {
+            throw new IllegalArgumentException("Invalid uploader settings");
+        }
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        this.chunkSize = chunkSize;
+        coordinator = Executors.newSingleThreadExecutor();
+        chunkPool = Executors.newFixedThreadPool(parallelism);
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public Listener getListener() {
+        return listener;
+    }
+
+    /**
+     * Set how often a chunk is sent before the upload fails, and the delay before the first
+     * retry, doubled on each further retry.
+     */
+    public void setRetry(int maxAttempts, long backoffMs) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.backoffMs = backoffMs;
+    }
+
+    /**
+     * Return true if the upload of a session was started and not finished.
+     */
+    public static boolean hasPendingUpload(File sessionDir) {
+        return UploadProgress.isPending(sessionDir);
+    }
+
+    /**
+     * Mark a session as pending, so that it is found by {@link #hasPendingUpload(File)} if the
+     * process dies before the upload starts.
+     */
+    public static void markPending(File sessionDir) throws IOException {
+        UploadProgress.markPending(sessionDir);
+    }
+
+    /**
+     * Upload a session in background. Sessions are uploaded one after another; the listener
+     * reports the outcome.
+     */
+    public Future<?> upload(final File sessionDir) {
+        return coordinator.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    uploadBlocking(sessionDir);
+                } catch (IOException e) {
+                    Listener l = listener;
+                    if (l != null) {
+                        l.onFailed(sessionDir, e);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Upload a session on the calling thread.
+     *
+     * @throws IOException If a chunk could not be sent after all attempts; the chunks sent
+     *                     so far are kept in the progress file
+     */
+    public void uploadBlocking(File sessionDir) throws IOException {
+        UploadProgress progress = new UploadProgress(sessionDir, chunkSize);
+        try {
+            if (!progress.isDone()) {
+                File[] files = listFiles(sessionDir);
+                long total = 0;
+                for (File file : files) {
+                    total += file.length();
+                }
+                AtomicLong uploaded = new AtomicLong();
+                for (File file : files) {
+                    if (progress.isFileDone(file.getName())) {
+                        uploaded.addAndGet(file.length());
+                        notifyProgress(sessionDir, uploaded.get(), total);
+                    } else {
+                        uploadFile(sessionDir, file, progress, uploaded, total);
+                    }
+                }
+                progress.setDone();
+            }
+        } finally {
+            progress.close();
+        }
+        Listener l = listener;
+        if (l != null) {
+            l.onFinished(sessionDir);
+        }
+    }
+
+    /**
+     * Stop the uploader. A running upload is interrupted and resumes on the next call.
+     */
+    public void shutdown() {
+        coordinator.shutdownNow();
+        chunkPool.shutdownNow();
+    }
+
+    private void uploadFile(final File sessionDir, final File file, final UploadProgress progress,
+                            final AtomicLong uploaded, final long total) throws IOException {
+        final String fileUrl = baseUrl + "/" + encode(sessionDir.getName()) + "/files/" + encode(file.getName());
+        final long length = file.length();
+        int chunkCount = (int) ((length + chunkSize - 1) / chunkSize);
+        Set<Integer> stored = getStoredChunks(fileUrl);
+        List<Future<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < chunkCount; ++i) {
+            final int index = i;
+            final int size = (int) Math.min(chunkSize, length - (long) i * chunkSize);
+            if (progress.isChunkDone(file.getName(), i) || stored.contains(i)) {
+                progress.setChunkDone(file.getName(), i);
+                notifyProgress(sessionDir, uploaded.addAndGet(size), total);
+                continue;
+            }
+            futures.add(chunkPool.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException, InterruptedException {
+                    byte[] chunk = readChunk(file, (long) index * chunkSize, size);
+                    sendChunk(fileUrl + "/chunks/" + index, chunk);
+                    progress.setChunkDone(file.getName(), index);
+                    notifyProgress(sessionDir, uploaded.addAndGet(size), total);
+                    return null;
+                }
+            }));
+        }
+        // Wait for every chunk so that all the successful ones are recorded
+        IOException failure = null;
+        for (Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof IOException
+                            ? (IOException) e.getCause() : new IOException(e.getCause());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Upload interrupted", e);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        HttpURLConnection conn = open(fileUrl + "/complete", "POST");
+        try {
+            conn.setRequestProperty("X-File-Length", String.valueOf(length));
+            conn.setRequestProperty("X-Chunk-Count", String.valueOf(chunkCount));
+            conn.setDoOutput(true);
+            conn.setFixedLengthStreamingMode(0);
+            conn.getOutputStream().close();
+            checkResponse(conn);
+        } finally {
+            conn.disconnect();
+        }
+        progress.setFileDone(file.getName());
+    }
+
+    /**
+     * Return the indices of the chunks of a file the server already has.
+     */
+    private Set<Integer> getStoredChunks(String fileUrl) throws IOException {
+        Set<Integer> stored = new HashSet<>();
+        HttpURLConnection conn = open(fileUrl + "/chunks", "GET");
+        try {
+            int code = conn.getResponseCode();
+            if (code == HttpURLConnection.HTTP_NOT_FOUND) {
+                drain(conn.getErrorStream());
+                return stored;
+            } else if (code / 100 != 2) {
+                throw new IOException(conn.getURL() + ": HTTP " + code);
+            }
+            BufferedReader in = new BufferedReader(new InputStreamReader(conn.getInputStream(), "UTF-8"));
+            try {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    line = line.trim();
+                    if (!line.isEmpty()) {
+                        stored.add(Integer.parseInt(line));
+                    }
+                }
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid chunk list", e);
+            } finally {
+                in.close();
+            }
+        } finally {
+            conn.disconnect();
+        }
+        return stored;
+    }
+
+    /**
+     * Send a chunk, retrying with exponential backoff on network and server errors.
+     */
+    private void sendChunk(String url, byte[] chunk) throws IOException, InterruptedException {
+        CRC32 crc = new CRC32();
+        crc.update(chunk, 0, chunk.length);
+        long delay = backoffMs;
+        for (int attempt = 1; ; ++attempt) {
+            try {
+                HttpURLConnection conn = open(url, "PUT");
+                try {
+                    conn.setRequestProperty("Content-Type", "application/octet-stream");
+                    conn.setRequestProperty("X-Chunk-CRC32", String.valueOf(crc.getValue()));
+                    conn.setDoOutput(true);
+                    conn.setFixedLengthStreamingMode(chunk.length);
+                    OutputStream out = conn.getOutputStream();
+                    out.write(chunk);
+                    out.close();
+                    int code = conn.getResponseCode();
+                    if (code >= 400 && code < 500) {
+                        // The server refuses the chunk, sending it again will not help
+                        throw new ClientErrorException(url + ": HTTP " + code);
+                    }
+                    checkResponse(conn);
+                    return;
+                } finally {
+                    conn.disconnect();
+                }
+            } catch (ClientErrorException e) {
+                throw e;
+            } catch (IOException e) {
+                if (attempt >= maxAttempts) {
+                    throw e;
+                }
+            }
+            Thread.sleep(delay);
+            delay *= 2;
+        }
+    }
+
+    private HttpURLConnection open(String url, String method) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+        conn.setRequestMethod(method);
+        conn.setConnectTimeout(TIMEOUT_MS);
+        conn.setReadTimeout(TIMEOUT_MS);
+        conn.setUseCaches(false);
+        return conn;
+    }
+
+    private void notifyProgress(File sessionDir, long uploadedBytes, long totalBytes) {
+        Listener l = listener;
+        if (l != null) {
+            l.onProgress(sessionDir, uploadedBytes, totalBytes);
+        }
+    }
+
+    private static void checkResponse(HttpURLConnection conn) throws IOException {
+        int code = conn.getResponseCode();
+        if (code / 100 != 2) {
+            throw new IOException(conn.getURL() + ": HTTP " + code);
+        }
+        drain(conn.getInputStream());
+    }
+
+    /**
+     * Read a response body to its end so the connection can be reused.
+     */
+    private static void drain(InputStream in) throws IOException {
+        if (in == null) {
+            return;
+        }
+        byte[] buffer = new byte[1024];
+        while (in.read(buffer) != -1) {
+            // Discard
+        }
+        in.close();
+    }
+
+    private static byte[] readChunk(File file, long offset, int size) throws IOException {
+        byte[] chunk = new byte[size];
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            in.seek(offset);
+            in.readFully(chunk);
+        } finally {
+            in.close();
+        }
+        return chunk;
+    }
+
+    /**
+     * Return the files of a session in a stable order, without the progress file.
+     */
+    private static File[] listFiles(File sessionDir) throws IOException {
+        File[] all = sessionDir.listFiles();
+        if (all == null) {
+            throw new IOException("Not a session directory: " + sessionDir);
+        }
+        List<File> files = new ArrayList<>();
+        for (File file : all) {
+            if (file.isFile() && !file.getName().equals(UploadProgress.FILENAME)) {
+                files.add(file);
+            }
+        }
+        File[] sorted = files.toArray(new File[files.size()]);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    private static String encode(String s) throws IOException {
+        return URLEncoder.encode(s, "UTF-8").replace("+", "%20");
+    }
+
+    private static class ClientErrorException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        ClientErrorException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.getyourlocation.app.client.upload;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+
+/**
+ * Upload progress of a session, kept in a text file inside the session directory so that an
+ * upload can resume after the process restarts.
+ *
+ * The file starts with the chunk size and then grows by one line per finished step:
+ * <pre>
+ * chunk-size 1048576
+ * c frames.gyc 0
+ * f frames.gyc
+ * done
+ * </pre>
+ * A last line without its newline was cut short by a crash; it is ignored and cut off, the
+ * chunk is then simply uploaded again.
+ */
+public class UploadProgress {
+    private static final String TAG = "UploadProgress";
+    public static final String FILENAME = "upload.progress";
+
+    private final File file;
+    private final Set<String> chunks = new HashSet<>();
+    private final Set<String> files = new HashSet<>();
+    private boolean done = false;
+    private Writer out;
+
+    /**
+     * Load the progress of a session. Progress recorded with another chunk size is discarded.
+     */
+    public UploadProgress(File sessionDir, int chunkSize) throws IOException {
+        file = new File(sessionDir, FILENAME);
+        boolean valid = false;
+        if (file.exists()) {
+            List<String> lines = new ArrayList<>();
+            long length = readLines(file, lines);
+            valid = !lines.isEmpty() && lines.get(0).equals("chunk-size " + chunkSize);
+            for (int i = 1; valid && i < lines.size(); ++i) {
+                String line = lines.get(i);
+                if (line.startsWith("c ")) {
+                    chunks.add(line.substring(2));
+                } else if (line.startsWith("f ")) {
+                    files.add(line.substring(2));
+                } else if (line.equals("done")) {
+                    done = true;
+                }
+            }
+            if (valid && length < file.length()) {
+                // New lines must not be appended to the cut one
+                RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                try {
+                    raf.setLength(length);
+                } finally {
+                    raf.close();
+                }
+            }
+        }
+        out = new OutputStreamWriter(new FileOutputStream(file, valid), "UTF-8");
+        if (!valid) {
+            chunks.clear();
+            files.clear();
+            append("chunk-size " + chunkSize);
+        }
+    }
+
+    /**
+     * Return true if a session has an upload that was started and not finished.
+     */
+    public static boolean isPending(File sessionDir) {
+        File progress = new File(sessionDir, FILENAME);
+        if (!progress.exists()) {
+            return false;
+        }
+        List<String> lines = new ArrayList<>();
+        try {
+            readLines(progress, lines);
+        } catch (IOException e) {
+            return true;
+        }
+        return !lines.contains("done");
+    }
+
+    /**
+     * Record that a session is to be uploaded, so that {@link #isPending(File)} returns true
+     * until its upload is done, even if the upload never starts in this process.
+     */
+    public static void markPending(File sessionDir) throws IOException {
+        File progress = new File(sessionDir, FILENAME);
+        if (!progress.exists() && !progress.createNewFile()) {
+            throw new IOException("Failed to create " + progress);
+        }
+    }
+
+    public synchronized boolean isChunkDone(String filename, int index) {
+        return chunks.contains(filename + " " + index);
+    }
+
+    public synchronized boolean isFileDone(String filename) {
+        return files.contains(filename);
+    }
+
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    public synchronized void setChunkDone(String filename, int index) throws IOException {
+        if (chunks.add(filename + " " + index)) {
+            append("c " + filename + " " + index);
+        }
+    }
+
+    public synchronized void setFileDone(String filename) throws IOException {
+        if (files.add(filename)) {
+            append("f " + filename);
+        }
+    }
+
+    public synchronized void setDone() throws IOException {
+        if (!done) {
+            done = true;
+            append("done");
+        }
+    }
+
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+
+    /**
+     * Read the complete lines of a progress file, those ending with a newline.
+     *
+     * @return The length of the file up to the end of the last complete line
+     */
+    private static long readLines(File file, List<String> lines) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            in.readFully(bytes);
+        } finally {
+            in.close();
+        }
+        int start = 0;
+        for (int i = 0; i < bytes.length; ++i) {
+            if (bytes[i] == '\n') {
+                lines.add(new String(bytes, start, i - start, "UTF-8"));
+                start = i + 1;
+            }
+        }
+        return start;
+    }
+
+    private void append(String line) throws IOException {
+        out.write(line + "\n");
+        out.flush();
+    }
+}
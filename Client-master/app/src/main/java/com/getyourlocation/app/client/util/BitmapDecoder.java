@@ -0,0 +1,106 @@
+package com.getyourlocation.app.client.util;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.util.Log;
+
+
+/**
+ * Decode JPEG pictures straight to a small fixed size.
+ *
+ * The JPEG is first decoded with the largest power of two subsampling that keeps it at least
+ * as large as the target, so the full resolution picture is never held in memory. The
+ * subsampled bitmap is decoded into the one of the previous call when it is large enough,
+ * then drawn once into the target bitmap.
+ */
+public class BitmapDecoder {
+    private static final String TAG = "BitmapDecoder";
+
+    private final int targetWidth;
+    private final int targetHeight;
+    private final BitmapFactory.Options options = new BitmapFactory.Options();
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Rect targetRect;
+    // Subsampled bitmap of the last decode, reused by the next one
+    private Bitmap pooled;
+
+    /**
+     * @param targetWidth Width of the decoded bitmaps
+     * @param targetHeight Height of the decoded bitmaps
+     */
+    public BitmapDecoder(int targetWidth, int targetHeight) {
+        this.targetWidth = targetWidth;
+        this.targetHeight = targetHeight;
+        targetRect = new Rect(0, 0, targetWidth, targetHeight);
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        options.inMutable = true;
+    }
+
+    /**
+     * Decode a JPEG and scale it to the target size, ignoring its aspect ratio.
+     *
+     * @return A new bitmap owned by the caller, or null if the data cannot be decoded
+     */
+    public synchronized Bitmap decode(byte[] data) {
+        options.inJustDecodeBounds = true;
+        options.inBitmap = null;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+        int sampleSize = calculateInSampleSize(options.outWidth, options.outHeight, targetWidth, targetHeight);
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        int width = (options.outWidth + sampleSize - 1) / sampleSize;
+        int height = (options.outHeight + sampleSize - 1) / sampleSize;
+        if (pooled != null && pooled.getAllocationByteCount() >= width * height * 4) {
+            options.inBitmap = pooled;
+        }
+        Bitmap decoded;
+        try {
+            decoded = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        } catch (IllegalArgumentException e) {
+            // The pooled bitmap cannot hold this picture after all
+            Log.d(TAG, "Cannot reuse bitmap: " + e.getMessage());
+            options.inBitmap = null;
+            decoded = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        }
+        options.inBitmap = null;
+        if (decoded == null) {
+            return null;
+        }
+        if (pooled != null && pooled != decoded) {
+            pooled.recycle();
+        }
+        pooled = decoded;
+
+        Bitmap result = Bitmap.createBitmap(targetWidth, targetHeight, Bitmap.Config.ARGB_8888);
+        new Canvas(result).drawBitmap(decoded, null, targetRect, paint);
+        return result;
+    }
+
+    /**
+     * Free the pooled bitmap.
+     */
+    public synchronized void release() {
+        if (pooled != null) {
+            pooled.recycle();
+            pooled = null;
+        }
+    }
+
+    /**
+     * Return the largest power of two by which a picture can be subsampled while staying at
+     * least as large as the requested size.
+     */
+    public static int calculateInSampleSize(int width, int height, int reqWidth, int reqHeight) {
+        int sampleSize = 1;
+        while (width / (sampleSize * 2) >= reqWidth && height / (sampleSize * 2) >= reqHeight) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+}
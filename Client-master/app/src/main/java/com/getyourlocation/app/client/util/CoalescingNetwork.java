@@ -0,0 +1,113 @@
+package com.getyourlocation.app.client.util;
+
+import com.android.volley.Network;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.error.AuthFailureError;
+import com.android.volley.error.VolleyError;
+
+import java.io.UnsupportedEncodingException;
+import java.util.HashMap;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Send identical GET requests that are in flight at the same time only once.
+ *
+ * A GET with the same URL, parameters and headers as one being performed waits for it and
+ * gets the same response or error, which its own request then parses and delivers as usual.
+ * Other requests are passed through.
+ */
+public class CoalescingNetwork implements Network {
+    private static final String TAG = "CoalescingNetwork";
+
+    private static class Call {
+        final CountDownLatch done = new CountDownLatch(1);
+        NetworkResponse response;
+        VolleyError error;
+    }
+
+    private final Network network;
+    // Calls being performed, by request key
+    private final HashMap<String, Call> calls = new HashMap<>();
+    private final AtomicInteger coalescedCount = new AtomicInteger();
+
+    public CoalescingNetwork(Network network) {
+        this.network = network;
+    }
+
+    @Override
+    public NetworkResponse performRequest(Request<?> request) throws VolleyError {
+        String key = getKey(request);
+        if (key == null) {
+            return network.performRequest(request);
+        }
+        Call call;
+        boolean leader;
+        synchronized (calls) {
+            call = calls.get(key);
+            leader = call == null;
+            if (leader) {
+                call = new Call();
+                calls.put(key, call);
+            }
+        }
+        if (!leader) {
+            coalescedCount.incrementAndGet();
+            try {
+                call.done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new VolleyError(e);
+            }
+            if (call.error != null) {
+                throw call.error;
+            }
+            return call.response;
+        }
+        try {
+            call.response = network.performRequest(request);
+            return call.response;
+        } catch (VolleyError e) {
+            call.error = e;
+            throw e;
+        } catch (RuntimeException e) {
+            call.error = new VolleyError(e);
+            throw e;
+        } finally {
+            synchronized (calls) {
+                calls.remove(key);
+            }
+            call.done.countDown();
+        }
+    }
+
+    /**
+     * Return the number of requests that were answered by another one.
+     */
+    public int getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    /**
+     * Return what identifies a GET request, or null if the request is not to be coalesced.
+     */
+    private static String getKey(Request<?> request) {
+        if (request.getMethod() != Request.Method.GET) {
+            return null;
+        }
+        try {
+            StringBuilder key = new StringBuilder(request.getUrl());
+            byte[] params = request.getBody();
+            if (params != null) {
+                key.append('\n').append(new String(params, "UTF-8"));
+            }
+            key.append('\n').append(new TreeMap<>(request.getHeaders()));
+            return key.toString();
+        } catch (AuthFailureError | UnsupportedEncodingException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.getyourlocation.app.client.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * Size-bounded directory of downloaded image files, shared by every image request of the app.
+ *
+ * Each entry is a file named after the SHA-1 of its key. Once the total size passes the
+ * limit, the least recently used files are deleted. A read touches its file, so the order is
+ * restored from the modification times after a restart. Thread safe.
+ */
+public class DiskImageCache {
+    private static final String TAG = "DiskImageCache";
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private final File dir;
+    private final long maxSize;
+    // Length of each file by name, in access order
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long size = 0;
+    private int hitCount = 0;
+    private int missCount = 0;
+    private int evictionCount = 0;
+
+    /**
+     * Open a cache directory, creating it if needed.
+     *
+     * @param maxSize Total bytes of the files kept
+     */
+    public DiskImageCache(File dir, long maxSize) throws IOException {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Invalid cache size " + maxSize);
+        }
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Failed to create " + dir);
+        }
+        this.dir = dir;
+        this.maxSize = maxSize;
+        load();
+    }
+
+    /**
+     * Return the bytes cached for a key, or null if there are none.
+     */
+    public synchronized byte[] get(String key) {
+        String name = getFileName(key);
+        if (entries.get(name) == null) {
+            ++missCount;
+            return null;
+        }
+        File file = new File(dir, name);
+        try {
+            byte[] data = readFile(file);
+            file.setLastModified(System.currentTimeMillis());
+            ++hitCount;
+            return data;
+        } catch (IOException e) {
+            // Deleted behind our back, or unreadable
+            remove(name);
+            ++missCount;
+            return null;
+        }
+    }
+
+    /**
+     * Cache the bytes of a key, replacing any previous ones and evicting the least recently
+     * used files beyond the size limit.
+     */
+    public void put(String key, byte[] data) throws IOException {
+        String name = getFileName(key);
+        // Written aside first, so that a read never sees half a file
+        File tmp = new File(dir, name + "." + Thread.currentThread().getId() + TMP_SUFFIX);
+        FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+        synchronized (this) {
+            if (!tmp.renameTo(new File(dir, name))) {
+                tmp.delete();
+                throw new IOException("Cannot replace " + name);
+            }
+            Long previous = entries.put(name, (long) data.length);
+            if (previous != null) {
+                size -= previous;
+            }
+            size += data.length;
+            trim();
+        }
+    }
+
+    /**
+     * Delete every cached file.
+     */
+    public synchronized void clear() {
+        for (String name : entries.keySet()) {
+            new File(dir, name).delete();
+        }
+        entries.clear();
+        size = 0;
+    }
+
+    /**
+     * Return the total bytes of the cached files.
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    public synchronized int getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return missCount;
+    }
+
+    public synchronized int getEvictionCount() {
+        return evictionCount;
+    }
+
+    private void trim() {
+        Iterator<Map.Entry<String, Long>> eldest = entries.entrySet().iterator();
+        while (size > maxSize && eldest.hasNext()) {
+            Map.Entry<String, Long> entry = eldest.next();
+            new File(dir, entry.getKey()).delete();
+            size -= entry.getValue();
+            eldest.remove();
+            ++evictionCount;
+        }
+    }
+
+    private void remove(String name) {
+        Long length = entries.remove(name);
+        if (length != null) {
+            size -= length;
+        }
+        new File(dir, name).delete();
+    }
+
+    /**
+     * List the files of the directory from the least to the most recently used.
+     */
+    private void load() {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long diff = a.lastModified() - b.lastModified();
+                return diff < 0 ? -1 : diff > 0 ? 1 : 0;
+            }
+        });
+        for (File file : files) {
+            if (file.getName().endsWith(TMP_SUFFIX)) {
+                // Left by an interrupted write
+                file.delete();
+            } else if (file.isFile()) {
+                entries.put(file.getName(), file.length());
+                size += file.length();
+            }
+        }
+        trim();
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            long length = file.length();
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("File too large: " + file);
+            }
+            byte[] data = new byte[(int) length];
+            int offset = 0;
+            while (offset < data.length) {
+                int read = in.read(data, offset, data.length - offset);
+                if (read < 0) {
+                    throw new IOException("Truncated file: " + file);
+                }
+                offset += read;
+            }
+            return data;
+        } finally {
+            in.close();
+        }
+    }
+
+    static String getFileName(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes("UTF-8"));
+            StringBuilder name = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                name.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return name.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            // Both are available on every platform
+            throw new IllegalStateException(e);
+        }
+    }
+}
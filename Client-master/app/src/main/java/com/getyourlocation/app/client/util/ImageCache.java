@@ -0,0 +1,293 @@
+package com.getyourlocation.app.client.util;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.android.volley.DefaultRetryPolicy;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.RequestQueue;
+import com.android.volley.Response;
+import com.android.volley.error.ParseError;
+import com.android.volley.error.VolleyError;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+
+/**
+ * The image cache of the app, owned by {@link NetworkUtil}.
+ *
+ * Decoded bitmaps are kept in a memory LRU keyed by URL and size, bounded to a fraction of
+ * the heap. The downloaded bytes are kept in a {@link DiskImageCache} keyed by URL, so every
+ * size of an image is decoded from one download. A request for an image already being loaded
+ * waits for that load instead of starting another.
+ *
+ * Must be used from the main thread, where listeners are called.
+ */
+public class ImageCache {
+    private static final String TAG = "ImageCache";
+    private static final String IMAGE_REQ_TAG = "image";
+    private static final String DISK_CACHE_DIRNAME = "images";
+    private static final long DISK_CACHE_SIZE = 20 * 1024 * 1024;
+    // The memory cache takes this fraction of the heap
+    private static final int MEMORY_CACHE_DIVIDER = 8;
+    private static final int REQ_TIMEOUT = 10000;
+    // Decoding several large images at once may run out of memory, as Volley's ImageRequest
+    private static final Object DECODE_LOCK = new Object();
+
+    /**
+     * Receive an image or the error that prevented loading it.
+     */
+    public interface Listener {
+        void onImage(Bitmap bitmap);
+
+        void onError(VolleyError error);
+    }
+
+    private final RequestQueue queue;
+    private final LruCache<String, Bitmap> memory;
+    // Null if the cache directory is not usable, images are downloaded every time then
+    private final DiskImageCache disk;
+    private final ExecutorService diskExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Listeners of the images being loaded, by memory key
+    private final HashMap<String, ArrayList<Listener>> inFlight = new HashMap<>();
+    private int downloadCount = 0;
+    private int coalescedCount = 0;
+
+    /**
+     * @param queue Queue of the image lane, not shared with localization calls
+     */
+    ImageCache(Context context, RequestQueue queue) {
+        this.queue = queue;
+        int maxKb = (int) (Runtime.getRuntime().maxMemory() / 1024 / MEMORY_CACHE_DIVIDER);
+        memory = new LruCache<String, Bitmap>(maxKb) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return Math.max(1, bitmap.getByteCount() / 1024);
+            }
+        };
+        DiskImageCache diskCache = null;
+        try {
+            diskCache = new DiskImageCache(new File(context.getCacheDir(), DISK_CACHE_DIRNAME), DISK_CACHE_SIZE);
+        } catch (IOException e) {
+            Log.e(TAG, "", e);
+        }
+        disk = diskCache;
+    }
+
+    /**
+     * Load an image, from memory if possible, then from disk, then from the network.
+     *
+     * @param url The URL of the image
+     * @param maxSize Maximum width and height of the bitmap, which keeps its aspect ratio;
+     *                0 for the size of the image
+     * @param listener Called at once if the bitmap is in memory, later otherwise
+     */
+    public void get(final String url, final int maxSize, Listener listener) {
+        final String key = getKey(url, maxSize);
+        Bitmap bitmap = memory.get(key);
+        if (bitmap != null) {
+            listener.onImage(bitmap);
+            return;
+        }
+        ArrayList<Listener> listeners = inFlight.get(key);
+        if (listeners != null) {
+            ++coalescedCount;
+            listeners.add(listener);
+            return;
+        }
+        listeners = new ArrayList<>();
+        listeners.add(listener);
+        inFlight.put(key, listeners);
+        diskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                byte[] data = disk == null ? null : disk.get(url);
+                final Bitmap bitmap = data == null ? null : decode(data, maxSize);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (bitmap != null) {
+                            deliver(key, bitmap);
+                        } else {
+                            download(url, maxSize, key);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Drop the images in memory and on disk.
+     */
+    public void clear() {
+        memory.evictAll();
+        if (disk != null) {
+            diskExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    disk.clear();
+                }
+            });
+        }
+    }
+
+    public int getMemoryHitCount() {
+        return memory.hitCount();
+    }
+
+    public int getMemoryMissCount() {
+        return memory.missCount();
+    }
+
+    public int getMemoryEvictionCount() {
+        return memory.evictionCount();
+    }
+
+    public int getDiskHitCount() {
+        return disk == null ? 0 : disk.getHitCount();
+    }
+
+    public int getDiskMissCount() {
+        return disk == null ? 0 : disk.getMissCount();
+    }
+
+    public int getDiskEvictionCount() {
+        return disk == null ? 0 : disk.getEvictionCount();
+    }
+
+    /**
+     * Return the number of images fetched from the network.
+     */
+    public int getDownloadCount() {
+        return downloadCount;
+    }
+
+    /**
+     * Return the number of requests that waited for a load already in progress.
+     */
+    public int getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    /**
+     * Return the statistics in one line, for the log.
+     */
+    public String getStats() {
+        return "memory " + getMemoryHitCount() + " hits, " + getMemoryMissCount() + " misses, "
+                + getMemoryEvictionCount() + " evictions; disk " + getDiskHitCount() + " hits, "
+                + getDiskMissCount() + " misses, " + getDiskEvictionCount() + " evictions; "
+                + downloadCount + " downloads, " + coalescedCount + " coalesced";
+    }
+
+    private void download(final String url, final int maxSize, final String key) {
+        ++downloadCount;
+        Request<Bitmap> request = new Request<Bitmap>(Request.Method.GET, url, new Response.ErrorListener() {
+            @Override
+            public void onErrorResponse(VolleyError error) {
+                fail(key, error);
+            }
+        }) {
+            @Override
+            protected Response<Bitmap> parseNetworkResponse(NetworkResponse response) {
+                // On a network thread
+                if (disk != null) {
+                    try {
+                        disk.put(url, response.data);
+                    } catch (IOException e) {
+                        Log.e(TAG, "", e);
+                    }
+                }
+                Bitmap bitmap = decode(response.data, maxSize);
+                if (bitmap == null) {
+                    return Response.error(new ParseError(response));
+                }
+                return Response.success(bitmap, null);
+            }
+
+            @Override
+            protected void deliverResponse(Bitmap bitmap) {
+                deliver(key, bitmap);
+            }
+        };
+        // Cached by the disk cache instead of the HTTP cache of the queue
+        request.setShouldCache(false);
+        request.setRetryPolicy(new DefaultRetryPolicy(REQ_TIMEOUT,
+                DefaultRetryPolicy.DEFAULT_MAX_RETRIES, DefaultRetryPolicy.DEFAULT_BACKOFF_MULT));
+        request.setTag(IMAGE_REQ_TAG);
+        queue.add(request);
+    }
+
+    private void deliver(String key, Bitmap bitmap) {
+        memory.put(key, bitmap);
+        ArrayList<Listener> listeners = inFlight.remove(key);
+        if (listeners == null) {
+            return;
+        }
+        for (Listener listener : listeners) {
+            listener.onImage(bitmap);
+        }
+    }
+
+    private void fail(String key, VolleyError error) {
+        ArrayList<Listener> listeners = inFlight.remove(key);
+        if (listeners == null) {
+            return;
+        }
+        for (Listener listener : listeners) {
+            listener.onError(error);
+        }
+    }
+
+    private static String getKey(String url, int maxSize) {
+        return maxSize + "#" + url;
+    }
+
+    /**
+     * Decode an image subsampled to about the maximum size, then scale it to fit.
+     *
+     * @return The bitmap, or null if the data is not an image
+     */
+    private static Bitmap decode(byte[] data, int maxSize) {
+        synchronized (DECODE_LOCK) {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeByteArray(data, 0, data.length, options);
+            int width = options.outWidth;
+            int height = options.outHeight;
+            if (width <= 0 || height <= 0) {
+                return null;
+            }
+            int targetWidth = width;
+            int targetHeight = height;
+            if (maxSize > 0 && (width > maxSize || height > maxSize)) {
+                float scale = Math.min((float) maxSize / width, (float) maxSize / height);
+                targetWidth = Math.max(1, Math.round(width * scale));
+                targetHeight = Math.max(1, Math.round(height * scale));
+            }
+            options.inJustDecodeBounds = false;
+            options.inSampleSize = BitmapDecoder.calculateInSampleSize(width, height, targetWidth, targetHeight);
+            Bitmap decoded = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+            if (decoded == null || (decoded.getWidth() <= targetWidth && decoded.getHeight() <= targetHeight)) {
+                return decoded;
+            }
+            Bitmap scaled = Bitmap.createScaledBitmap(decoded, targetWidth, targetHeight, true);
+            if (scaled != decoded) {
+                decoded.recycle();
+            }
+            return scaled;
+        }
+    }
+}
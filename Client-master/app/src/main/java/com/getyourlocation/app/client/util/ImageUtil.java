@@ -0,0 +1,58 @@
+package com.getyourlocation.app.client.util;
+
+import android.annotation.TargetApi;
+import android.graphics.Rect;
+import android.media.Image;
+import android.os.Build;
+
+import java.nio.ByteBuffer;
+
+
+/**
+ * Helpers for android.media.Image.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class ImageUtil {
+    private static final String TAG = "ImageUtil";
+
+    /**
+     * Copy the crop region of a YUV_420_888 image to NV21, whatever its row and pixel strides.
+     *
+     * @param image The image
+     * @param nv21 Receives width * height * 3 / 2 bytes
+     * @param width Width of the crop region to copy
+     * @param height Height of the crop region to copy
+     */
+    public static void copyToNv21(Image image, byte[] nv21, int width, int height) {
+        Image.Plane[] planes = image.getPlanes();
+        Rect crop = image.getCropRect();
+        int ySize = width * height;
+        for (int p = 0; p < 3; ++p) {
+            ByteBuffer buf = planes[p].getBuffer();
+            int rowStride = planes[p].getRowStride();
+            int pixelStride = planes[p].getPixelStride();
+            int shift = p == 0 ? 0 : 1;
+            int w = width >> shift;
+            int h = height >> shift;
+            int left = crop.left >> shift;
+            int top = crop.top >> shift;
+            for (int row = 0; row < h; ++row) {
+                int rowStart = (top + row) * rowStride + left * pixelStride;
+                if (p == 0 && pixelStride == 1) {
+                    buf.position(rowStart);
+                    buf.get(nv21, row * width, width);
+                    continue;
+                }
+                for (int col = 0; col < w; ++col) {
+                    byte value = buf.get(rowStart + col * pixelStride);
+                    if (p == 0) {
+                        nv21[row * width + col] = value;
+                    } else {
+                        // NV21 stores V before U
+                        nv21[ySize + (row * w + col) * 2 + (p == 2 ? 0 : 1)] = value;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -7,24 +7,57 @@ import android.net.NetworkInfo;
 import com.android.volley.DefaultRetryPolicy;
 import com.android.volley.Request;
 import com.android.volley.RequestQueue;
-import com.android.volley.cache.DiskLruBasedCache;
-import com.android.volley.cache.SimpleImageLoader;
-import com.android.volley.toolbox.ImageLoader;
-import com.android.volley.toolbox.Volley;
+import com.android.volley.cache.DiskBasedCache;
+import com.android.volley.cache.NoCache;
+import com.android.volley.toolbox.BasicNetwork;
+import com.android.volley.toolbox.HurlStack;
+
+import java.io.File;
 
 
 /**
  * Manage HTTp request and response.
+ *
+ * Requests are sent in lanes, each with its own queue and threads, so that a large upload
+ * never delays a localization call. Identical GET requests in flight at the same time are
+ * sent once.
  */
 public class NetworkUtil {
     private static final String TAG = "NetworkUtil";
     private static final String REQ_TAG = "req";
-    private static final int REQ_TIMEOUT = 10000;
+    private static final String CACHE_DIRNAME = "volley";
+    private static final int MAX_IMAGE_SIZE = 300;
+
+    /**
+     * Classes of requests, from the most to the least urgent.
+     */
+    public enum Lane {
+        /** Calls the user is waiting for, such as positioning. */
+        INTERACTIVE(4, 10000),
+        /** Image downloads of {@link ImageCache}, which never hold up the interactive lane. */
+        IMAGE(2, 10000),
+        /** Reference photos of PhotoActivity, a few at a time. */
+        REFERENCE_UPLOAD(2, 20000),
+        /** Large files, one at a time. */
+        BULK(1, 60000);
+
+        /** Requests of the lane sent at the same time. */
+        public final int concurrency;
+        /** Initial timeout of the requests of the lane, in ms. */
+        public final int timeoutMs;
+
+        Lane(int concurrency, int timeoutMs) {
+            this.concurrency = concurrency;
+            this.timeoutMs = timeoutMs;
+        }
+    }
 
     private static NetworkUtil instance = null;
 
-    private RequestQueue queue;
+    private RequestQueue[] queues = new RequestQueue[Lane.values().length];
+    private CoalescingNetwork interactiveNetwork;
     private Context context;
+    private ImageCache imageCache;
 
     /**
      * Return the only instance.
@@ -41,14 +74,40 @@ public class NetworkUtil {
      */
     private NetworkUtil(Context context) {
         this.context = context;
-        queue = Volley.newRequestQueue(context.getApplicationContext());
+        File cacheDir = new File(context.getApplicationContext().getCacheDir(), CACHE_DIRNAME);
+        interactiveNetwork = new CoalescingNetwork(new BasicNetwork(new HurlStack()));
+        for (Lane lane : Lane.values()) {
+            // Only the interactive lane has responses worth caching, images have their disk cache
+            RequestQueue queue = lane == Lane.INTERACTIVE
+                    ? new RequestQueue(new DiskBasedCache(cacheDir), interactiveNetwork, lane.concurrency)
+                    : new RequestQueue(new NoCache(), new BasicNetwork(new HurlStack()), lane.concurrency);
+            queue.start();
+            queues[lane.ordinal()] = queue;
+        }
+        imageCache = new ImageCache(context.getApplicationContext(), queues[Lane.IMAGE.ordinal()]);
     }
 
     /**
-     * Cancel all requests in the queue.
+     * Cancel all requests in every lane.
      */
     public void cancelAll() {
-        queue.cancelAll(REQ_TAG);
+        for (Lane lane : Lane.values()) {
+            cancelAll(lane);
+        }
+    }
+
+    /**
+     * Cancel the requests of one lane.
+     */
+    public void cancelAll(Lane lane) {
+        queues[lane.ordinal()].cancelAll(REQ_TAG);
+    }
+
+    /**
+     * Return the number of GET requests answered by an identical one in flight.
+     */
+    public int getCoalescedCount() {
+        return interactiveNetwork.getCoalescedCount();
     }
 
     /**
@@ -65,29 +124,44 @@ public class NetworkUtil {
     }
 
     /**
-     * Add a network request to the request queue.
+     * Add a network request to the interactive lane.
      *
      * @param request The request to service
      */
     public <T> void addReq(Request<T> request) {
-        request.setRetryPolicy(new DefaultRetryPolicy(REQ_TIMEOUT,
+        addReq(request, Lane.INTERACTIVE);
+    }
+
+    /**
+     * Add a network request to the queue of a lane.
+     *
+     * @param request The request to service
+     * @param lane The class of the request
+     */
+    public <T> void addReq(Request<T> request, Lane lane) {
+        request.setRetryPolicy(new DefaultRetryPolicy(lane.timeoutMs,
                 DefaultRetryPolicy.DEFAULT_MAX_RETRIES, DefaultRetryPolicy.DEFAULT_BACKOFF_MULT));
         request.setTag(REQ_TAG);
-        queue.add(request);
+        if (lane != Lane.INTERACTIVE) {
+            request.setShouldCache(false);
+        }
+        queues[lane.ordinal()].add(request);
     }
 
     /**
-     * Fetch an image from server.
+     * Fetch an image from server, or from the image cache.
      *
      * @param imageURI The URI of the image.
      * @param listener The listen called when the image is responded or error occurs.
      */
-    public void fetchImage(String imageURI, ImageLoader.ImageListener listener) {
-        DiskLruBasedCache.ImageCacheParams cacheParams =
-                new DiskLruBasedCache.ImageCacheParams(context.getApplicationContext(), "CacheDirectory");
-        cacheParams.setMemCacheSizePercent(0.5f);
-        SimpleImageLoader mImageFetcher = new SimpleImageLoader(context.getApplicationContext(), cacheParams);
-        mImageFetcher.setMaxImageSize(300);
-        mImageFetcher.get(imageURI, listener);
+    public void fetchImage(String imageURI, ImageCache.Listener listener) {
+        imageCache.get(imageURI, MAX_IMAGE_SIZE, listener);
+    }
+
+    /**
+     * Return the image cache shared by the whole app.
+     */
+    public ImageCache getImageCache() {
+        return imageCache;
     }
 }
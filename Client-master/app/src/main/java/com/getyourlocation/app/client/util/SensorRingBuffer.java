@@ -0,0 +1,180 @@
+package com.getyourlocation.app.client.util;
+
+
+/**
+ * Fixed-capacity history of timestamped samples of one sensor.
+ *
+ * Samples are kept in primitive arrays; once full, the oldest sample is overwritten. Besides
+ * the raw values, the buffer keeps the running integral of every axis since the last
+ * {@link #clear()}, so the rotation of a gyroscope between two instants is a lookup rather
+ * than a sum over the samples.
+ */
+public class SensorRingBuffer {
+    private static final String TAG = "SensorRingBuffer";
+    private static final double NS_PER_SECOND = 1e9;
+
+    private final int capacity;
+    private final int dimension;
+    private final long[] timestamps;
+    private final float[] values;
+    private final double[] integrals;
+    private int head = 0;  // Index of the oldest sample
+    private int size = 0;
+
+    /**
+     * @param capacity Number of samples kept
+     * @param dimension Number of values of each sample
+     */
+    public SensorRingBuffer(int capacity, int dimension) {
+        if (capacity < 2 || dimension < 1) {
+            throw new IllegalArgumentException("Invalid capacity " + capacity + " or dimension " + dimension);
+        }
+        this.capacity = capacity;
+        this.dimension = dimension;
+        timestamps = new long[capacity];
+        values = new float[capacity * dimension];
+        integrals = new double[capacity * dimension];
+    }
+
+    public int getDimension() {
+        return dimension;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized void clear() {
+        head = 0;
+        size = 0;
+    }
+
+    /**
+     * Append a sample. Samples not newer than the last one are ignored.
+     *
+     * @param timestampNs Time of the sample in nanoseconds
+     * @param sample The values, at least {@link #getDimension()} of them
+     */
+    public synchronized void add(long timestampNs, float[] sample) {
+        int last = (head + size - 1) % capacity;
+        if (size > 0 && timestampNs <= timestamps[last]) {
+            return;
+        }
+        int slot;
+        if (size == capacity) {
+            slot = head;
+            head = (head + 1) % capacity;
+        } else {
+            slot = (head + size) % capacity;
+            ++size;
+        }
+        timestamps[slot] = timestampNs;
+        int base = slot * dimension;
+        if (size == 1) {
+            for (int i = 0; i < dimension; ++i) {
+                values[base + i] = sample[i];
+                integrals[base + i] = 0;
+            }
+            return;
+        }
+        double dt = (timestampNs - timestamps[last]) / NS_PER_SECOND;
+        int lastBase = last * dimension;
+        for (int i = 0; i < dimension; ++i) {
+            values[base + i] = sample[i];
+            integrals[base + i] = integrals[lastBase + i] + (values[lastBase + i] + sample[i]) * 0.5 * dt;
+        }
+    }
+
+    public synchronized long getOldestTimestamp() {
+        return size == 0 ? Long.MIN_VALUE : timestamps[head];
+    }
+
+    public synchronized long getNewestTimestamp() {
+        return size == 0 ? Long.MIN_VALUE : timestamps[(head + size - 1) % capacity];
+    }
+
+    /**
+     * Linearly interpolate the values at a given time. Times after the newest sample get the
+     * newest values.
+     *
+     * @param timestampNs The time in nanoseconds
+     * @param out Receives {@link #getDimension()} values
+     * @return False if the buffer is empty or the time is older than every sample kept
+     */
+    public synchronized boolean valueAt(long timestampNs, float[] out) {
+        int i = search(timestampNs);
+        if (i < 0) {
+            return false;
+        }
+        int slot = (head + i) % capacity;
+        int base = slot * dimension;
+        if (i == size - 1) {
+            for (int k = 0; k < dimension; ++k) {
+                out[k] = values[base + k];
+            }
+            return true;
+        }
+        int next = (slot + 1) % capacity;
+        int nextBase = next * dimension;
+        double f = (double) (timestampNs - timestamps[slot]) / (timestamps[next] - timestamps[slot]);
+        for (int k = 0; k < dimension; ++k) {
+            out[k] = (float) (values[base + k] + (values[nextBase + k] - values[base + k]) * f);
+        }
+        return true;
+    }
+
+    /**
+     * Return the integral of every axis, in value-seconds, from the first sample after the
+     * last {@link #clear()} up to a given time. Values between samples are interpolated
+     * linearly and held after the newest sample.
+     *
+     * @param timestampNs The time in nanoseconds
+     * @param out Receives {@link #getDimension()} integrals
+     * @return False if the buffer is empty or the time is older than every sample kept
+     */
+    public synchronized boolean integralAt(long timestampNs, double[] out) {
+        int i = search(timestampNs);
+        if (i < 0) {
+            return false;
+        }
+        int slot = (head + i) % capacity;
+        int base = slot * dimension;
+        double dt = (timestampNs - timestamps[slot]) / NS_PER_SECOND;
+        if (i == size - 1) {
+            for (int k = 0; k < dimension; ++k) {
+                out[k] = integrals[base + k] + values[base + k] * dt;
+            }
+            return true;
+        }
+        int next = (slot + 1) % capacity;
+        int nextBase = next * dimension;
+        double f = (double) (timestampNs - timestamps[slot]) / (timestamps[next] - timestamps[slot]);
+        for (int k = 0; k < dimension; ++k) {
+            double v0 = values[base + k];
+            double v = v0 + (values[nextBase + k] - v0) * f;
+            out[k] = integrals[base + k] + (v0 + v) * 0.5 * dt;
+        }
+        return true;
+    }
+
+    /**
+     * Return the position, counted from the oldest sample, of the newest sample not after the
+     * given time, or -1 if there is none.
+     */
+    private int search(long timestampNs) {
+        if (size == 0 || timestampNs < timestamps[head]) {
+            return -1;
+        }
+        int lo = 0;
+        int hi = size - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (timestamps[(head + mid) % capacity] <= timestampNs) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+}
@@ -0,0 +1,75 @@
+package com.getyourlocation.app.client.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * Latest orientation, acceleration, magnetism and gyroscope angle, published together.
+ *
+ * Publishing uses a sequence lock: the sequence number is odd while an update is in progress,
+ * and readers retry until they have copied every value between two equal even sequence
+ * numbers. Readers never block the sensor thread and never allocate.
+ */
+public class SensorSnapshot {
+    private static final String TAG = "SensorSnapshot";
+    private static final int ORIENTATION = 0;
+    private static final int ACCELERATION = 3;
+    private static final int MAGNETISM = 6;
+    private static final int GYRO_ANGLE = 9;
+
+    // Values are stored as raw bits so that every slot is read and written atomically
+    private final AtomicLongArray values = new AtomicLongArray(10);
+    private volatile long sequence = 0;
+
+    /**
+     * Publish a new set of values. Concurrent calls are serialized.
+     *
+     * @param orientation Orientation in degrees
+     * @param acceleration Acceleration
+     * @param magnetism Magnetic field
+     * @param gyroAngle Rotation integrated from the gyroscope
+     */
+    public synchronized void publish(float[] orientation, float[] acceleration, float[] magnetism,
+                                     double gyroAngle) {
+        long seq = sequence;
+        sequence = seq + 1;
+        for (int i = 0; i < 3; ++i) {
+            values.set(ORIENTATION + i, Float.floatToRawIntBits(orientation[i]));
+            values.set(ACCELERATION + i, Float.floatToRawIntBits(acceleration[i]));
+            values.set(MAGNETISM + i, Float.floatToRawIntBits(magnetism[i]));
+        }
+        values.set(GYRO_ANGLE, Double.doubleToRawLongBits(gyroAngle));
+        sequence = seq + 2;
+    }
+
+    /**
+     * Copy the last published values into the given arrays of length 3.
+     *
+     * @return The gyroscope angle published with these values
+     */
+    public double read(float[] orientation, float[] acceleration, float[] magnetism) {
+        while (true) {
+            long seq = sequence;
+            if ((seq & 1) != 0) {
+                Thread.yield();
+                continue;
+            }
+            for (int i = 0; i < 3; ++i) {
+                orientation[i] = Float.intBitsToFloat((int) values.get(ORIENTATION + i));
+                acceleration[i] = Float.intBitsToFloat((int) values.get(ACCELERATION + i));
+                magnetism[i] = Float.intBitsToFloat((int) values.get(MAGNETISM + i));
+            }
+            double gyroAngle = Double.longBitsToDouble(values.get(GYRO_ANGLE));
+            if (sequence == seq) {
+                return gyroAngle;
+            }
+        }
+    }
+
+    /**
+     * Return the number of updates published so far.
+     */
+    public long getUpdateCount() {
+        return sequence >>> 1;
+    }
+}
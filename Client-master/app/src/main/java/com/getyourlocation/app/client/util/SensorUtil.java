@@ -15,6 +15,10 @@ import sysu.mobile.limk.sensorutils.SensorUtils;
 public class SensorUtil {
     private static final String TAG = "SensorUtil";
     private static SensorUtil instance;
+    /** Samples kept per sensor, a few seconds at the fastest rate. */
+    public static final int HISTORY_CAPACITY = 2048;
+    /** Frames later than this after the newest sample use the last values instead. */
+    private static final long MAX_HOLD_NS = 100000000L;
 
     private SensorUtils sensorUtils;
 
@@ -23,9 +27,22 @@ public class SensorUtil {
     private OnSensorUpdatedListener onSensorUpdatedListener;
 
     private float[] rotateMatrix = new float[9];
-    private volatile float[] lastAcceleration = new float[3];
-    private volatile float[] lastMagnetism = new float[3];
-    private volatile float[] lastOrientation = new float[3];
+    // Working values, only touched on the thread delivering sensor events
+    private float[] lastAcceleration = new float[3];
+    private float[] lastMagnetism = new float[3];
+    private float[] lastOrientation = new float[3];
+    private final SensorSnapshot snapshot = new SensorSnapshot();
+    // Rotation around the vertical, see getYawAngle()
+    private volatile double yawAngle = 0;
+    private long lastGyroscopeTimestampNs = 0;
+
+    private final SensorRingBuffer accelerationHistory = new SensorRingBuffer(HISTORY_CAPACITY, 3);
+    private final SensorRingBuffer magnetismHistory = new SensorRingBuffer(HISTORY_CAPACITY, 3);
+    private final SensorRingBuffer gyroscopeHistory = new SensorRingBuffer(HISTORY_CAPACITY, 3);
+    // Scratch space of sampleAt()
+    private final Object sampleLock = new Object();
+    private final float[] sampleMatrix = new float[9];
+    private final double[] sampleRotation = new double[3];
 
     /**
      * Return the only instance.
@@ -44,9 +61,13 @@ public class SensorUtil {
         sensorUtils.registerSensor();
         Sensor[] sensors = new Sensor[]{
             sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER),
-            sensorManager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD)
+            sensorManager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD),
+            sensorManager.getDefaultSensor(Sensor.TYPE_GYROSCOPE)
         };
         for (Sensor sensor : sensors) {
+            if (sensor == null) {
+                continue;
+            }
             sensorManager.registerListener(eventListener, sensor, SensorManager.SENSOR_DELAY_FASTEST);
         }
     }
@@ -69,26 +90,123 @@ public class SensorUtil {
             lastOrientation[i] = 0;
         }
         sensorUtils.reset();
+        yawAngle = 0;
+        lastGyroscopeTimestampNs = 0;
+        accelerationHistory.clear();
+        magnetismHistory.clear();
+        gyroscopeHistory.clear();
+        snapshot.publish(lastOrientation, lastAcceleration, lastMagnetism, 0);
     }
 
+    /**
+     * Return a copy of the last acceleration. Use {@link #copySensorData} to read several
+     * values of the same update.
+     */
     public float[] getLastAcceleration() {
-        return lastAcceleration;
+        float[] acceleration = new float[3];
+        snapshot.read(new float[3], acceleration, new float[3]);
+        return acceleration;
     }
 
+    /**
+     * Return a copy of the last magnetic field.
+     */
     public float[] getLastMagnetism() {
-        return lastMagnetism;
+        float[] magnetism = new float[3];
+        snapshot.read(new float[3], new float[3], magnetism);
+        return magnetism;
     }
 
+    /**
+     * Return a copy of the last orientation.
+     */
     public float[] getLastOrientation() {
-        return lastOrientation;
+        float[] orientation = new float[3];
+        snapshot.read(orientation, new float[3], new float[3]);
+        return orientation;
     }
 
     public double getLastGyroRotate() {
         return sensorUtils.getAngle();
     }
 
-    public String getSensorDataString() {
+    /**
+     * Return the rotation of the phone around the vertical in degrees since {@link #reset()},
+     * positive when it turns counterclockwise seen from above, however the phone is held.
+     *
+     * The gyroscope rates are positive counterclockwise around each device axis, seen from
+     * the positive end of the axis (see SensorEvent#values), and the accelerometer of a phone
+     * at rest points up, so their dot product is the counterclockwise rate around the
+     * vertical.
+     */
+    public double getYawAngle() {
+        return yawAngle;
+    }
+
+    /**
+     * Copy the values of the last sensor update into the given arrays of length 3. Safe to call
+     * from any thread; nothing is allocated.
+     *
+     * @return The gyroscope angle of the same update
+     */
+    public double copySensorData(float[] orientation, float[] acceleration, float[] magnetism) {
+        return snapshot.read(orientation, acceleration, magnetism);
+    }
+
+    /**
+     * Compute the sensor state at a given time from the recent samples. Acceleration and
+     * magnetism are interpolated between the two samples around the time, orientation is
+     * derived from them and the gyroscope angle is the rotation around the device z axis
+     * integrated since {@link #reset()}, 0 before any gyroscope sample arrived (see
+     * {@link #hasGyroscopeSamples()}). Times outside the history, e.g. from a clock other
+     * than the sensor one, get the last values like {@link #copySensorData}.
+     *
+     * @param timestampNs The time in the SensorEvent.timestamp base
+     * @return The gyroscope angle in degrees
+     */
+    public double sampleAt(long timestampNs, float[] orientation, float[] acceleration, float[] magnetism) {
+        synchronized (sampleLock) {
+            snapshot.read(orientation, acceleration, magnetism);
+            double gyroAngle = 0;
+            if (gyroscopeHistory.size() > 0) {
+                // Before the oldest sample kept, the oldest integral is the best estimate
+                long gyroTime = Math.max(gyroscopeHistory.getOldestTimestamp(),
+                        Math.min(timestampNs, gyroscopeHistory.getNewestTimestamp()));
+                if (gyroscopeHistory.integralAt(gyroTime, sampleRotation)) {
+                    gyroAngle = Math.toDegrees(sampleRotation[2]);
+                }
+            }
+            long newest = Math.min(accelerationHistory.getNewestTimestamp(), magnetismHistory.getNewestTimestamp());
+            if (timestampNs > newest + MAX_HOLD_NS) {
+                return gyroAngle;
+            }
+            if (!accelerationHistory.valueAt(timestampNs, acceleration)
+                    || !magnetismHistory.valueAt(timestampNs, magnetism)) {
+                snapshot.read(orientation, acceleration, magnetism);
+                return gyroAngle;
+            }
+            SensorManager.getRotationMatrix(sampleMatrix, null, acceleration, magnetism);
+            SensorManager.getOrientation(sampleMatrix, orientation);
+            for (int i = 0; i < 3; ++i) {
+                orientation[i] = (float) Math.toDegrees((double) orientation[i]);
+            }
+            return gyroAngle;
+        }
+    }
+
+    /**
+     * Return true once a gyroscope sample arrived since {@link #reset()}. Until then
+     * {@link #sampleAt} measures no rotation, e.g. on devices without a gyroscope.
+     */
+    public boolean hasGyroscopeSamples() {
+        return gyroscopeHistory.size() > 0;
+    }
 
+    public String getSensorDataString() {
+        float[] lastOrientation = new float[3];
+        float[] lastAcceleration = new float[3];
+        float[] lastMagnetism = new float[3];
+        snapshot.read(lastOrientation, lastAcceleration, lastMagnetism);
         return lastOrientation[0] + " " + lastOrientation[1] + " " + lastOrientation[2] + "; "
                 + lastAcceleration[0] + " " + lastAcceleration[1] + " " + lastAcceleration[2] + "; "
                 + + lastMagnetism[0] + " " + lastMagnetism[1] + " " + lastMagnetism[2] + ".";
@@ -111,6 +229,22 @@ public class SensorUtil {
         this.onSensorUpdatedListener = onSensorUpdatedListener;
     }
 
+    /**
+     * Add the rotation around the vertical since the last gyroscope sample to the yaw angle.
+     */
+    private void integrateYaw(SensorEvent event) {
+        long last = lastGyroscopeTimestampNs;
+        lastGyroscopeTimestampNs = event.timestamp;
+        double gravity = Math.sqrt(lastAcceleration[0] * lastAcceleration[0]
+                + lastAcceleration[1] * lastAcceleration[1] + lastAcceleration[2] * lastAcceleration[2]);
+        if (last == 0 || gravity == 0) {
+            return;
+        }
+        double rate = (event.values[0] * lastAcceleration[0] + event.values[1] * lastAcceleration[1]
+                + event.values[2] * lastAcceleration[2]) / gravity;
+        yawAngle += Math.toDegrees(rate * (event.timestamp - last) / 1e9);
+    }
+
     private SensorUtil(Context context) {
         sensorUtils = SensorUtils.getInstance(context);
         reset();
@@ -120,11 +254,18 @@ public class SensorUtil {
             public void onSensorChanged(SensorEvent event) {
                 switch (event.sensor.getType()) {
                     case Sensor.TYPE_ACCELEROMETER:
-                        lastAcceleration = event.values;
+                        System.arraycopy(event.values, 0, lastAcceleration, 0, 3);
+                        accelerationHistory.add(event.timestamp, event.values);
                         break;
                     case Sensor.TYPE_MAGNETIC_FIELD:
-                        lastMagnetism = event.values;
+                        System.arraycopy(event.values, 0, lastMagnetism, 0, 3);
+                        magnetismHistory.add(event.timestamp, event.values);
                         break;
+                    case Sensor.TYPE_GYROSCOPE:
+                        // Kept for sampleAt() and the yaw angle, not part of the snapshot
+                        gyroscopeHistory.add(event.timestamp, event.values);
+                        integrateYaw(event);
+                        return;
                     default:
                         break;
                 }
@@ -136,6 +277,7 @@ public class SensorUtil {
                         lastOrientation[i] = (float) Math.toDegrees((double) lastOrientation[i]);
                     }
                 }
+                snapshot.publish(lastOrientation, lastAcceleration, lastMagnetism, sensorUtils.getAngle());
                 if (onSensorUpdatedListener != null) {
                     onSensorUpdatedListener.onUpdated();
                 }
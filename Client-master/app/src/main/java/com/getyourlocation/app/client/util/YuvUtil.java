@@ -0,0 +1,69 @@
+package com.getyourlocation.app.client.util;
+
+
+/**
+ * Conversions between the YUV 4:2:0 layouts used by the camera and the video codecs.
+ *
+ * All layouts share the same full resolution Y plane followed by chroma samples for each
+ * 2x2 block: NV21 interleaves them as VU, NV12 as UV, and I420 stores a U plane then a V plane.
+ */
+public class YuvUtil {
+    private static final String TAG = "YuvUtil";
+
+    /**
+     * Return the number of bytes of a YUV 4:2:0 frame.
+     */
+    public static int getFrameSize(int width, int height) {
+        return width * height * 3 / 2;
+    }
+
+    /**
+     * Convert NV21 to NV12 by swapping the chroma samples.
+     */
+    public static void nv21ToNv12(byte[] src, byte[] dst, int width, int height) {
+        int ySize = width * height;
+        System.arraycopy(src, 0, dst, 0, ySize);
+        int end = getFrameSize(width, height);
+        for (int i = ySize; i < end; i += 2) {
+            dst[i] = src[i + 1];
+            dst[i + 1] = src[i];
+        }
+    }
+
+    /**
+     * Convert NV12 to NV21. Swapping the chroma samples is its own inverse.
+     */
+    public static void nv12ToNv21(byte[] src, byte[] dst, int width, int height) {
+        nv21ToNv12(src, dst, width, height);
+    }
+
+    /**
+     * Convert NV21 to I420 by splitting the interleaved chroma into a U and a V plane.
+     */
+    public static void nv21ToI420(byte[] src, byte[] dst, int width, int height) {
+        int ySize = width * height;
+        int chromaSize = ySize / 4;
+        System.arraycopy(src, 0, dst, 0, ySize);
+        int u = ySize;
+        int v = ySize + chromaSize;
+        for (int i = 0; i < chromaSize; ++i) {
+            dst[v + i] = src[ySize + 2 * i];
+            dst[u + i] = src[ySize + 2 * i + 1];
+        }
+    }
+
+    /**
+     * Convert I420 to NV21 by interleaving the U and V planes.
+     */
+    public static void i420ToNv21(byte[] src, byte[] dst, int width, int height) {
+        int ySize = width * height;
+        int chromaSize = ySize / 4;
+        System.arraycopy(src, 0, dst, 0, ySize);
+        int u = ySize;
+        int v = ySize + chromaSize;
+        for (int i = 0; i < chromaSize; ++i) {
+            dst[ySize + 2 * i] = src[v + i];
+            dst[ySize + 2 * i + 1] = src[u + i];
+        }
+    }
+}
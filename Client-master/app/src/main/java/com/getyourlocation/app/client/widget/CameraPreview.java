@@ -1,37 +1,35 @@
 package com.getyourlocation.app.client.widget;
 
 import android.content.Context;
-import android.hardware.Camera;
 import android.util.Log;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
 
-import java.io.IOException;
-import java.util.List;
+import com.getyourlocation.app.client.camera.CameraBackend;
 
 
 public class CameraPreview extends SurfaceView implements SurfaceHolder.Callback {
     private static final String TAG = "CameraPreview";
     public static final int JPEG_QUALITY = 100;
-    private Camera camera;
-    private Camera.Parameters cameraParams;
-    private Camera.Size previewSize;
-    private Camera.PreviewCallback previewCallback;
+    private CameraBackend camera;
 
     public CameraPreview(Context context) {
-        this(context, null, null);
+        this(context, null);
     }
 
-    public CameraPreview(Context context, Camera camera, Camera.PreviewCallback previewCallback) {
+    public CameraPreview(Context context, CameraBackend camera) {
         super(context);
         this.camera = camera;
-        this.previewCallback = previewCallback;
         getHolder().addCallback(this);
         getHolder().setType(SurfaceHolder.SURFACE_TYPE_PUSH_BUFFERS);
     }
 
-    public Camera.Size getPreviewSize() {
-        return previewSize;
+    public int getPreviewWidth() {
+        return camera.getPreviewWidth();
+    }
+
+    public int getPreviewHeight() {
+        return camera.getPreviewHeight();
     }
 
     @Override
@@ -40,99 +38,24 @@ public class CameraPreview extends SurfaceView implements SurfaceHolder.Callback
         final int width = resolveSize(getSuggestedMinimumWidth(), widthMeasureSpec);
         final int height = resolveSize(getSuggestedMinimumHeight(), heightMeasureSpec);
         setMeasuredDimension(width, height);
-        List<Camera.Size> supportedSizes = camera.getParameters().getSupportedPreviewSizes();
-        if (supportedSizes != null) {
-            previewSize = getOptimalPreviewSize(supportedSizes, width, height);
-        }
+        camera.choosePreviewSize(width, height);
     }
 
     @Override
     public void surfaceCreated(SurfaceHolder holder) {
         Log.d(TAG, "surfaceCreated() called");
-        try {
-            cameraParams = camera.getParameters();
-            cameraParams.setJpegQuality(JPEG_QUALITY);
-            cameraParams.setPreviewSize(previewSize.width, previewSize.height);
-            if (cameraParams.getSupportedFocusModes().contains(Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE)) {
-                cameraParams.setFocusMode(Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE);
-            } else {
-                cameraParams.setFocusMode(Camera.Parameters.FOCUS_MODE_AUTO);
-            }
-            camera.setParameters(cameraParams);
-            camera.setPreviewCallback(previewCallback);
-            camera.setPreviewDisplay(holder);
-            camera.startPreview();
-        } catch (IOException e) {
-            Log.e(TAG, "", e);
-        }
+        camera.onSurfaceCreated(holder);
     }
 
     @Override
     public void surfaceDestroyed(SurfaceHolder holder) {
         Log.d(TAG, "surfaceDestroyed() called");
+        camera.onSurfaceDestroyed(holder);
     }
 
     @Override
     public void surfaceChanged(SurfaceHolder holder, int format, int w, int h) {
         Log.d(TAG, "surfaceChanged() called");
-        // If your preview can change or rotate, take care of those events here.
-        // Make sure to stop the preview before resizing or reformatting it.
-
-        if (holder.getSurface() == null){
-            // preview surface does not exist
-            return;
-        }
-
-        // stop preview before making changes
-        try {
-            camera.stopPreview();
-        } catch (Exception e){
-            // ignore: tried to stop a non-existent preview
-        }
-
-        // set preview size and make any resize, rotate or
-        // reformatting changes here
-
-        // start preview with new settings
-        try {
-            camera.setParameters(cameraParams);
-            camera.setPreviewCallback(previewCallback);
-            camera.setPreviewDisplay(holder);
-            camera.startPreview();
-        } catch (Exception e){
-            Log.e(TAG, "", e);
-        }
-    }
-
-    private Camera.Size getOptimalPreviewSize(List<Camera.Size> sizes, int w, int h) {
-        final double ASPECT_TOLERANCE = 0.1;
-        double targetRatio=(double)h / w;
-
-        if (sizes == null) return null;
-
-        Camera.Size optimalSize = null;
-        double minDiff = Double.MAX_VALUE;
-
-        int targetHeight = h;
-
-        for (Camera.Size size : sizes) {
-            double ratio = (double) size.width / size.height;
-            if (Math.abs(ratio - targetRatio) > ASPECT_TOLERANCE) continue;
-            if (Math.abs(size.height - targetHeight) < minDiff) {
-                optimalSize = size;
-                minDiff = Math.abs(size.height - targetHeight);
-            }
-        }
-
-        if (optimalSize == null) {
-            minDiff = Double.MAX_VALUE;
-            for (Camera.Size size : sizes) {
-                if (Math.abs(size.height - targetHeight) < minDiff) {
-                    optimalSize = size;
-                    minDiff = Math.abs(size.height - targetHeight);
-                }
-            }
-        }
-        return optimalSize;
+        camera.onSurfaceChanged(holder, w, h);
     }
-}
\ No newline at end of file
+}
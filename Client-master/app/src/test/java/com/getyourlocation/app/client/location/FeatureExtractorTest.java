@@ -0,0 +1,129 @@
+package com.getyourlocation.app.client.location;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FeatureExtractorTest {
+    static final int WIDTH = 228;
+    static final int HEIGHT = 128;
+
+    @Test
+    public void extract_findsCornersOfShapes() throws Exception {
+        FeatureExtractor extractor = new FeatureExtractor(64);
+        long[] descriptors = new long[64 * FeatureExtractor.DESCRIPTOR_LONGS];
+        int count = extractor.extract(storefront(1), WIDTH, HEIGHT, descriptors);
+        assertTrue(count > 32);
+        assertTrue(count <= 64);
+        long[] again = new long[descriptors.length];
+        assertEquals(count, extractor.extract(storefront(1), WIDTH, HEIGHT, again));
+        assertArrayEquals(descriptors, again);
+    }
+
+    @Test
+    public void extract_ignoresFlatPictures() throws Exception {
+        FeatureExtractor extractor = new FeatureExtractor();
+        int[] flat = new int[WIDTH * HEIGHT];
+        Arrays.fill(flat, 0xFF808080);
+        long[] descriptors = new long[extractor.getMaxFeatures() * FeatureExtractor.DESCRIPTOR_LONGS];
+        assertEquals(0, extractor.extract(flat, WIDTH, HEIGHT, descriptors));
+        // Too small for a patch around any corner
+        assertEquals(0, extractor.extract(new int[20 * 20], 20, 20, descriptors));
+    }
+
+    @Test
+    public void extract_describesRetakesAlike() throws Exception {
+        FeatureExtractor extractor = new FeatureExtractor();
+        int size = extractor.getMaxFeatures() * FeatureExtractor.DESCRIPTOR_LONGS;
+        long[] original = new long[size];
+        long[] retake = new long[size];
+        long[] other = new long[size];
+        int originalCount = extractor.extract(storefront(1), WIDTH, HEIGHT, original);
+        int retakeCount = extractor.extract(retake(storefront(1), 3, 2, 7), WIDTH, HEIGHT, retake);
+        int otherCount = extractor.extract(storefront(2), WIDTH, HEIGHT, other);
+        int retakeDistance = meanNearestDistance(retake, retakeCount, original, originalCount);
+        assertTrue(retakeDistance < 24);
+        // Corners of other shapes look alike too, but less
+        assertTrue(meanNearestDistance(other, otherCount, original, originalCount) > 2 * retakeDistance);
+    }
+
+    @Test
+    public void extract_rejectsShortArrays() throws Exception {
+        FeatureExtractor extractor = new FeatureExtractor(16);
+        try {
+            extractor.extract(new int[10], WIDTH, HEIGHT, new long[16 * FeatureExtractor.DESCRIPTOR_LONGS]);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+        try {
+            extractor.extract(new int[WIDTH * HEIGHT], WIDTH, HEIGHT, new long[4]);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    /**
+     * Return the mean distance of the descriptors of a to the nearest one of b.
+     */
+    private static int meanNearestDistance(long[] a, int countA, long[] b, int countB) {
+        int sum = 0;
+        for (int i = 0; i < countA; ++i) {
+            int nearest = FeatureExtractor.DESCRIPTOR_BITS;
+            for (int j = 0; j < countB; ++j) {
+                nearest = Math.min(nearest, FeatureExtractor.distance(a, i * FeatureExtractor.DESCRIPTOR_LONGS,
+                        b, j * FeatureExtractor.DESCRIPTOR_LONGS));
+            }
+            sum += nearest;
+        }
+        return sum / countA;
+    }
+
+    /**
+     * Random gray rectangles on a random background with some grain, a different layout for
+     * each seed.
+     */
+    static int[] storefront(long seed) {
+        Random random = new Random(seed);
+        int[] gray = new int[WIDTH * HEIGHT];
+        Arrays.fill(gray, random.nextInt(256));
+        for (int r = 0; r < 60; ++r) {
+            int w = 6 + random.nextInt(30);
+            int h = 6 + random.nextInt(30);
+            int left = random.nextInt(WIDTH - w);
+            int top = random.nextInt(HEIGHT - h);
+            int level = random.nextInt(256);
+            for (int y = top; y < top + h; ++y) {
+                for (int x = left; x < left + w; ++x) {
+                    gray[y * WIDTH + x] = level;
+                }
+            }
+        }
+        int[] pixels = new int[gray.length];
+        for (int i = 0; i < gray.length; ++i) {
+            int level = Math.max(0, Math.min(255, gray[i] + random.nextInt(17) - 8));
+            pixels[i] = 0xFF000000 | level << 16 | level << 8 | level;
+        }
+        return pixels;
+    }
+
+    /**
+     * Shift a picture, make it brighter and add noise, as a retake of the same storefront.
+     */
+    static int[] retake(int[] picture, int dx, int dy, long seed) {
+        Random random = new Random(seed);
+        int[] pixels = new int[picture.length];
+        for (int y = 0; y < HEIGHT; ++y) {
+            for (int x = 0; x < WIDTH; ++x) {
+                int source = picture[Math.min(HEIGHT - 1, y + dy) * WIDTH + Math.min(WIDTH - 1, x + dx)];
+                int gray = Math.max(0, Math.min(255, (source & 0xFF) + 15 + random.nextInt(7) - 3));
+                pixels[y * WIDTH + x] = 0xFF000000 | gray << 16 | gray << 8 | gray;
+            }
+        }
+        return pixels;
+    }
+}
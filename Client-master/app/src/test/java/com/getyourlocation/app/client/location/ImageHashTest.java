@@ -0,0 +1,90 @@
+package com.getyourlocation.app.client.location;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ImageHashTest {
+    private static final int WIDTH = 228;
+    private static final int HEIGHT = 128;
+
+    @Test
+    public void compute_isStableForNearDuplicates() throws Exception {
+        int[] picture = storefront(1);
+        long hash = ImageHash.compute(picture, WIDTH, HEIGHT);
+        assertEquals(hash, ImageHash.compute(picture.clone(), WIDTH, HEIGHT));
+
+        // Brighter and noisy, as a retake a few seconds later
+        Random random = new Random(7);
+        int[] retake = new int[picture.length];
+        for (int i = 0; i < picture.length; ++i) {
+            int gray = clamp((picture[i] & 0xFF) + 20 + random.nextInt(11) - 5);
+            retake[i] = 0xFF000000 | gray << 16 | gray << 8 | gray;
+        }
+        assertTrue(ImageHash.distance(hash, ImageHash.compute(retake, WIDTH, HEIGHT)) <= 4);
+
+        // Shifted by a few pixels
+        int[] shifted = new int[picture.length];
+        for (int y = 0; y < HEIGHT; ++y) {
+            for (int x = 0; x < WIDTH; ++x) {
+                shifted[y * WIDTH + x] = picture[y * WIDTH + Math.min(WIDTH - 1, x + 3)];
+            }
+        }
+        assertTrue(ImageHash.distance(hash, ImageHash.compute(shifted, WIDTH, HEIGHT)) <= 8);
+    }
+
+    @Test
+    public void compute_separatesDifferentPictures() throws Exception {
+        long a = ImageHash.compute(storefront(1), WIDTH, HEIGHT);
+        long b = ImageHash.compute(storefront(2), WIDTH, HEIGHT);
+        assertTrue(ImageHash.distance(a, b) > 16);
+    }
+
+    @Test
+    public void compute_ignoresResolution() throws Exception {
+        int[] picture = storefront(3);
+        int[] half = new int[WIDTH / 2 * HEIGHT / 2];
+        for (int y = 0; y < HEIGHT / 2; ++y) {
+            for (int x = 0; x < WIDTH / 2; ++x) {
+                half[y * WIDTH / 2 + x] = picture[2 * y * WIDTH + 2 * x];
+            }
+        }
+        assertTrue(ImageHash.distance(ImageHash.compute(picture, WIDTH, HEIGHT),
+                ImageHash.compute(half, WIDTH / 2, HEIGHT / 2)) <= 4);
+    }
+
+    @Test
+    public void compute_rejectsShortArrays() throws Exception {
+        try {
+            ImageHash.compute(new int[10], WIDTH, HEIGHT);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    /**
+     * Random blocks of gray, a different layout for each seed.
+     */
+    private static int[] storefront(long seed) {
+        Random random = new Random(seed);
+        int[] pixels = new int[WIDTH * HEIGHT];
+        int[] blocks = new int[8 * 8];
+        for (int i = 0; i < blocks.length; ++i) {
+            blocks[i] = random.nextInt(256);
+        }
+        for (int y = 0; y < HEIGHT; ++y) {
+            for (int x = 0; x < WIDTH; ++x) {
+                int gray = blocks[y * 8 / HEIGHT * 8 + x * 8 / WIDTH];
+                pixels[y * WIDTH + x] = 0xFF000000 | gray << 16 | gray << 8 | gray;
+            }
+        }
+        return pixels;
+    }
+
+    private static int clamp(int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+}
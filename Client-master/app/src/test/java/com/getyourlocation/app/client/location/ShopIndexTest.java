@@ -0,0 +1,131 @@
+package com.getyourlocation.app.client.location;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static com.getyourlocation.app.client.location.FeatureExtractorTest.HEIGHT;
+import static com.getyourlocation.app.client.location.FeatureExtractorTest.WIDTH;
+import static com.getyourlocation.app.client.location.FeatureExtractorTest.retake;
+import static com.getyourlocation.app.client.location.FeatureExtractorTest.storefront;
+import static org.junit.Assert.*;
+
+public class ShopIndexTest {
+    private static final int SHOPS = 20;
+    private static final long BUDGET_NS = 1000000000L;
+
+    private final FeatureExtractor extractor = new FeatureExtractor();
+    private final long[] descriptors = new long[extractor.getMaxFeatures() * FeatureExtractor.DESCRIPTOR_LONGS];
+
+    @Test
+    public void query_recognizesRetakes() throws Exception {
+        File file = buildIndex();
+        ShopIndex index = new ShopIndex(file);
+        try {
+            assertEquals(SHOPS, index.getShopCount());
+            ShopIndex.Match match = new ShopIndex.Match();
+            for (int shop = 0; shop < SHOPS; ++shop) {
+                int count = extractor.extract(retake(storefront(shop), 2, 3, shop), WIDTH, HEIGHT, descriptors);
+                assertTrue(index.query(descriptors, count, BUDGET_NS, match));
+                assertEquals(shop, match.shop);
+                assertEquals(shop * 10, match.x, 0);
+                assertEquals(-shop, match.y, 0);
+                assertEquals(count, match.queried);
+            }
+        } finally {
+            index.close();
+            file.delete();
+        }
+    }
+
+    @Test
+    public void query_isNotConfidentForUnknownShops() throws Exception {
+        File file = buildIndex();
+        ShopIndex index = new ShopIndex(file);
+        try {
+            ShopIndex.Match match = new ShopIndex.Match();
+            for (int shop = SHOPS; shop < SHOPS + 10; ++shop) {
+                int count = extractor.extract(storefront(shop), WIDTH, HEIGHT, descriptors);
+                assertFalse(index.query(descriptors, count, BUDGET_NS, match));
+            }
+            assertFalse(index.query(descriptors, 0, BUDGET_NS, match));
+            assertEquals(-1, match.shop);
+        } finally {
+            index.close();
+            file.delete();
+        }
+    }
+
+    @Test
+    public void query_stopsAtTheBudget() throws Exception {
+        File file = buildIndex();
+        ShopIndex index = new ShopIndex(file);
+        try {
+            ShopIndex.Match match = new ShopIndex.Match();
+            int count = extractor.extract(storefront(0), WIDTH, HEIGHT, descriptors);
+            assertFalse(index.query(descriptors, count, -1, match));
+            assertEquals(0, match.queried);
+        } finally {
+            index.close();
+            file.delete();
+        }
+    }
+
+    @Test
+    public void open_rejectsDamagedFiles() throws Exception {
+        File file = buildIndex();
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.setLength(raf.length() - 4);
+            } finally {
+                raf.close();
+            }
+            try {
+                new ShopIndex(file);
+                fail("Expected IOException");
+            } catch (IOException e) {
+                // Expected
+            }
+        } finally {
+            file.delete();
+        }
+        ShopIndexBuilder builder = new ShopIndexBuilder();
+        int shop = builder.addShop(1, 2);
+        builder.addDescriptors(shop, new long[]{1, 2, 3, 4}, 1);
+        file = File.createTempFile("shops", ".gyi");
+        try {
+            builder.write(file);
+            // Point the only descriptor at a shop that does not exist
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.seek(ShopIndex.HEADER_LENGTH + ShopIndex.pad(ShopIndexBuilder.DEFAULT_TABLE_COUNT
+                        * ShopIndexBuilder.DEFAULT_KEY_BITS) + 8 + FeatureExtractor.DESCRIPTOR_LONGS * 8);
+                raf.writeInt(1);
+            } finally {
+                raf.close();
+            }
+            try {
+                new ShopIndex(file);
+                fail("Expected IOException");
+            } catch (IOException e) {
+                // Expected
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    private File buildIndex() throws Exception {
+        ShopIndexBuilder builder = new ShopIndexBuilder();
+        for (int i = 0; i < SHOPS; ++i) {
+            int shop = builder.addShop(i * 10, -i);
+            builder.addDescriptors(shop, descriptors, extractor.extract(storefront(i), WIDTH, HEIGHT, descriptors));
+        }
+        File file = File.createTempFile("shops", ".gyi");
+        builder.write(file);
+        return file;
+    }
+}
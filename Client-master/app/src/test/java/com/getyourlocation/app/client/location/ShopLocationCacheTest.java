@@ -0,0 +1,133 @@
+package com.getyourlocation.app.client.location;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.LinkedHashMap;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ShopLocationCacheTest {
+
+    @Test
+    public void lookup_matchesWithinThreshold() throws Exception {
+        ShopLocationCache cache = new ShopLocationCache(null, 16, 4);
+        long hash = 0x0123456789ABCDEFL;
+        cache.put(hash, 10, 20);
+        float[] out = new float[2];
+        assertTrue(cache.lookup(hash ^ 0x0F, out));
+        assertEquals(10, out[0], 0);
+        assertEquals(20, out[1], 0);
+        assertFalse(cache.lookup(hash ^ 0x1F, out));
+        cache.setThreshold(5);
+        assertTrue(cache.lookup(hash ^ 0x1F, out));
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(2f / 3, cache.getHitRate(), 1e-6);
+    }
+
+    @Test
+    public void lookup_returnsNearestEntry() throws Exception {
+        ShopLocationCache cache = new ShopLocationCache(null, 16, 8);
+        cache.put(0L, 1, 1);
+        cache.put(0xFFL, 2, 2);
+        float[] out = new float[2];
+        assertTrue(cache.lookup(0x7FL, out));
+        assertEquals(2, out[0], 0);
+        assertTrue(cache.lookup(0x07L, out));
+        assertEquals(1, out[0], 0);
+    }
+
+    @Test
+    public void put_evictsLeastRecentlyUsed() throws Exception {
+        ShopLocationCache cache = new ShopLocationCache(null, 2, 0);
+        float[] out = new float[2];
+        cache.put(1, 1, 1);
+        cache.put(2, 2, 2);
+        assertTrue(cache.lookup(1, out));
+        cache.put(3, 3, 3);
+        assertEquals(2, cache.size());
+        assertTrue(cache.lookup(1, out));
+        assertFalse(cache.lookup(2, out));
+        assertTrue(cache.lookup(3, out));
+        // Overwriting keeps one entry
+        cache.put(3, 4, 4);
+        assertEquals(2, cache.size());
+        assertTrue(cache.lookup(3, out));
+        assertEquals(4, out[0], 0);
+    }
+
+    @Test
+    public void lookup_agreesWithLinearScanAcrossEvictions() throws Exception {
+        int capacity = 50;
+        ShopLocationCache cache = new ShopLocationCache(null, capacity, 10);
+        // Index of each cached hash, in access order
+        LinkedHashMap<Integer, Long> live = new LinkedHashMap<>(16, 0.75f, true);
+        Random random = new Random(3);
+        long[] hashes = new long[500];
+        float[] out = new float[2];
+        for (int i = 0; i < hashes.length; ++i) {
+            hashes[i] = random.nextLong();
+            cache.put(hashes[i], i, 0);
+            live.put(i, hashes[i]);
+            if (live.size() > capacity) {
+                live.remove(live.keySet().iterator().next());
+            }
+            long query = hashes[i - random.nextInt(Math.min(i + 1, capacity))] ^ (1L << random.nextInt(64));
+            int bestDistance = 11;
+            for (long hash : live.values()) {
+                bestDistance = Math.min(bestDistance, ImageHash.distance(query, hash));
+            }
+            if (cache.lookup(query, out)) {
+                int found = (int) out[0];
+                assertTrue(live.containsKey(found));
+                assertEquals(bestDistance, ImageHash.distance(query, hashes[found]));
+                live.get(found);
+            } else {
+                assertEquals(11, bestDistance);
+            }
+        }
+        assertEquals(capacity, cache.size());
+    }
+
+    @Test
+    public void save_roundTripsEntriesAndOrder() throws Exception {
+        File file = File.createTempFile("shops", ".cache");
+        try {
+            ShopLocationCache cache = new ShopLocationCache(file, 2, 0);
+            cache.put(1, 1.5f, -2.5f);
+            cache.put(2, 3, 4);
+            float[] out = new float[2];
+            assertTrue(cache.lookup(1, out));
+            cache.save();
+
+            ShopLocationCache loaded = new ShopLocationCache(file, 2, 0);
+            assertEquals(2, loaded.size());
+            assertTrue(loaded.lookup(1, out));
+            assertEquals(1.5f, out[0], 0);
+            assertEquals(-2.5f, out[1], 0);
+            // Entry 2 was the least recently used when saved
+            loaded.put(5, 0, 0);
+            assertFalse(loaded.lookup(2, out));
+            assertTrue(loaded.lookup(1, out));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void constructor_ignoresDamagedFile() throws Exception {
+        File file = File.createTempFile("shops", ".cache");
+        try {
+            FileOutputStream out = new FileOutputStream(file);
+            out.write(new byte[]{1, 2, 3});
+            out.close();
+            ShopLocationCache cache = new ShopLocationCache(file, 2, 0);
+            assertEquals(0, cache.size());
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.getyourlocation.app.client.location;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TriangulationSolverTest {
+
+    @Test
+    public void solve_sampleOfPhotoActivityIsOnTheCircle() throws Exception {
+        // alpha = 45; beta = 45; x1 = -1; y1 = 0; x2 = 0; y2 = -1; x3 = 1; y3 = 0;
+        // Every point of the upper half of the unit circle sees the shops under these angles
+        double[] out = new double[2];
+        assertEquals(TriangulationSolver.DEGENERATE,
+                TriangulationSolver.solve(45, 45, -1, 0, 0, -1, 1, 0, out));
+    }
+
+    @Test
+    public void solve_sampleShopsFromOffTheCircle() throws Exception {
+        double[] out = new double[2];
+        // From (0, 2) shops 1 and 3 are atan(1/2) away from shop 2 on each side
+        assertEquals(TriangulationSolver.OK, TriangulationSolver.solve(26.56505117707799, 26.56505117707799,
+                -1, 0, 0, -1, 1, 0, out));
+        assertEquals(0, out[0], 1e-9);
+        assertEquals(2, out[1], 1e-9);
+        assertEquals(TriangulationSolver.OK, solveFrom(0.3, 0.2, -1, 0, 0, -1, 1, 0, out));
+        assertEquals(0.3, out[0], 1e-9);
+        assertEquals(0.2, out[1], 1e-9);
+    }
+
+    @Test
+    public void solve_findsRandomPositions() throws Exception {
+        Random random = new Random(42);
+        double[] out = new double[2];
+        int valid = 0;
+        int solved = 0;
+        for (int i = 0; i < 1000; ++i) {
+            double px = random.nextDouble() * 100 - 50;
+            double py = random.nextDouble() * 100 - 50;
+            double[] shops = new double[6];
+            for (int k = 0; k < 6; ++k) {
+                shops[k] = random.nextDouble() * 100 - 50;
+            }
+            int result = solveFrom(px, py, shops[0], shops[1], shops[2], shops[3], shops[4], shops[5], out);
+            if (result == TriangulationSolver.INVALID) {
+                // The shops are not met in this order within one counterclockwise turn
+                continue;
+            }
+            ++valid;
+            if (result == TriangulationSolver.OK) {
+                ++solved;
+                assertEquals(px, out[0], 1e-6);
+                assertEquals(py, out[1], 1e-6);
+            }
+        }
+        // Only positions near the circle through the shops are given up
+        assertTrue(valid > 400);
+        assertTrue(solved > valid * 9 / 10);
+    }
+
+    @Test
+    public void solve_handlesShopsOnALine() throws Exception {
+        double[] out = new double[2];
+        assertEquals(TriangulationSolver.OK, solveFrom(1, 5, -10, 0, 0, 0, 10, 0, out));
+        assertEquals(1, out[0], 1e-9);
+        assertEquals(5, out[1], 1e-9);
+    }
+
+    @Test
+    public void solve_handlesStraightAngles() throws Exception {
+        double[] out = new double[2];
+        // The user stands between shops 1 and 2
+        assertEquals(TriangulationSolver.OK, TriangulationSolver.solve(180, 90, -1, 0, 1, 0, 0, 1, out));
+        assertEquals(0, out[0], 1e-6);
+        assertEquals(0, out[1], 1e-6);
+    }
+
+    @Test
+    public void solve_rejectsInvalidInput() throws Exception {
+        double[] out = new double[2];
+        assertEquals(TriangulationSolver.INVALID, TriangulationSolver.solve(0, 45, -1, 0, 0, -1, 1, 0, out));
+        assertEquals(TriangulationSolver.INVALID, TriangulationSolver.solve(-10, 45, -1, 0, 0, -1, 1, 0, out));
+        assertEquals(TriangulationSolver.INVALID, TriangulationSolver.solve(200, 160, -1, 0, 0, -1, 1, 0, out));
+        assertEquals(TriangulationSolver.INVALID, TriangulationSolver.solve(Double.NaN, 45, -1, 0, 0, -1, 1, 0, out));
+        assertEquals(TriangulationSolver.INVALID, TriangulationSolver.solve(45, 45, 0, -1, 0, -1, 1, 0, out));
+        assertEquals(TriangulationSolver.INVALID, TriangulationSolver.solve(45, 45, 1, 0, 0, -1, 1, 0, out));
+    }
+
+    @Test
+    public void orderShots_ordersByHeadingWhateverTheSlotOrder() throws Exception {
+        int[] order = new int[3];
+        assertTrue(TriangulationSolver.orderShots(new float[]{30, -10, 12}, false, order));
+        assertArrayEquals(new int[]{1, 2, 0}, order);
+        // Mirrored in a frame whose y axis points down
+        assertTrue(TriangulationSolver.orderShots(new float[]{30, -10, 12}, true, order));
+        assertArrayEquals(new int[]{0, 2, 1}, order);
+    }
+
+    @Test
+    public void orderShots_rejectsEqualHeadings() throws Exception {
+        int[] order = new int[3];
+        assertFalse(TriangulationSolver.orderShots(new float[]{5, 5, 5}, false, order));
+        assertFalse(TriangulationSolver.orderShots(new float[]{5, 5, 20}, false, order));
+        assertFalse(TriangulationSolver.orderShots(new float[]{5, 20, 20}, true, order));
+    }
+
+    @Test
+    public void orderShots_solvesPositionFromTurnAngles() throws Exception {
+        // Seen from above with y up, the user at (0, -5) turns counterclockwise between shots
+        double px = 0;
+        double py = -5;
+        double[][] shops = {{4, 1}, {-3, 2}, {0, 3}};
+        float[] yaw = new float[3];
+        for (int i = 0; i < 3; ++i) {
+            yaw[i] = (float) Math.toDegrees(Math.atan2(shops[i][1] - py, shops[i][0] - px));
+        }
+        double[] out = new double[2];
+        assertEquals(TriangulationSolver.OK, solveOrdered(yaw, shops, false, out));
+        assertEquals(px, out[0], 1e-4);
+        assertEquals(py, out[1], 1e-4);
+
+        // The same turn on a map image of height 100, y pointing down
+        double[][] pixels = new double[3][];
+        for (int i = 0; i < 3; ++i) {
+            pixels[i] = new double[]{shops[i][0], 100 - shops[i][1]};
+        }
+        assertEquals(TriangulationSolver.OK, solveOrdered(yaw, pixels, true, out));
+        assertEquals(px, out[0], 1e-4);
+        assertEquals(100 - py, out[1], 1e-4);
+    }
+
+    /**
+     * Solve like PhotoActivity, from the yaw angle and the location of each shot.
+     */
+    private static int solveOrdered(float[] yaw, double[][] shops, boolean yDown, double[] out) {
+        int[] order = new int[3];
+        assertTrue(TriangulationSolver.orderShots(yaw, yDown, order));
+        double[] a = shops[order[0]];
+        double[] b = shops[order[1]];
+        double[] c = shops[order[2]];
+        return TriangulationSolver.solve(Math.abs(yaw[order[1]] - yaw[order[0]]),
+                Math.abs(yaw[order[2]] - yaw[order[1]]), a[0], a[1], b[0], b[1], c[0], c[1], out);
+    }
+
+    /**
+     * Solve with the angles seen from a position.
+     */
+    private static int solveFrom(double px, double py, double x1, double y1, double x2, double y2,
+                                 double x3, double y3, double[] out) {
+        double b1 = Math.toDegrees(Math.atan2(y1 - py, x1 - px));
+        double b2 = Math.toDegrees(Math.atan2(y2 - py, x2 - px));
+        double b3 = Math.toDegrees(Math.atan2(y3 - py, x3 - px));
+        return TriangulationSolver.solve(positive(b2 - b1), positive(b3 - b2), x1, y1, x2, y2, x3, y3, out);
+    }
+
+    private static double positive(double degrees) {
+        return degrees < 0 ? degrees + 360 : degrees;
+    }
+}
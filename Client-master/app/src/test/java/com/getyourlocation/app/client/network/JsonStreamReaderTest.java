@@ -0,0 +1,111 @@
+package com.getyourlocation.app.client.network;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class JsonStreamReaderTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Test
+    public void peek_walksNestedDocument() throws Exception {
+        JsonStreamReader reader = reader(" {\"a\": [1, -2.5e1, true, false, null], \"b\" : {\"c\":\"d\"}, \"e\": {}, \"f\": []}\n");
+        reader.beginObject();
+        assertEquals("a", reader.nextName());
+        reader.beginArray();
+        assertEquals(1, reader.nextInt());
+        assertEquals(-25, reader.nextDouble(), 0);
+        assertTrue(reader.nextBoolean());
+        assertFalse(reader.nextBoolean());
+        assertEquals(JsonStreamReader.Token.NULL, reader.peek());
+        reader.nextNull();
+        assertFalse(reader.hasNext());
+        reader.endArray();
+        assertEquals("b", reader.nextName());
+        reader.beginObject();
+        assertEquals("c", reader.nextName());
+        assertEquals("d", reader.nextString());
+        reader.endObject();
+        assertEquals("e", reader.nextName());
+        reader.beginObject();
+        reader.endObject();
+        assertEquals("f", reader.nextName());
+        reader.beginArray();
+        reader.endArray();
+        reader.endObject();
+        assertEquals(JsonStreamReader.Token.END_DOCUMENT, reader.peek());
+    }
+
+    @Test
+    public void skipValue_skipsNestedValues() throws Exception {
+        JsonStreamReader reader = reader("{\"skip\": {\"a\": [1, {\"b\": \"}]\\\"\"}], \"c\": null}, \"x\": 3}");
+        reader.beginObject();
+        assertEquals("skip", reader.nextName());
+        reader.skipValue();
+        assertEquals("x", reader.nextName());
+        assertEquals(3, reader.nextInt());
+        reader.endObject();
+    }
+
+    @Test
+    public void nextString_decodesEscapesAndUnicode() throws Exception {
+        JsonStreamReader reader = reader("[\"a\\\"b\\\\c\\/d\\n\\u4e0a\", \"上传\"]");
+        reader.beginArray();
+        assertEquals("a\"b\\c/d\n上", reader.nextString());
+        assertEquals("上传", reader.nextString());
+        reader.endArray();
+    }
+
+    @Test
+    public void nextDouble_matchesDoubleParseDouble() throws Exception {
+        String[] numbers = {"0", "-0", "12", "0.1", "123.456", "-7.25", "1e3", "2.5E-3", "1e22", "1e23",
+                "123456789012345678", "0.30000000000000004", "4.9e-324", "1.7976931348623157e308"};
+        for (String number : numbers) {
+            JsonStreamReader reader = reader(number);
+            assertEquals(number, Double.parseDouble(number), reader.nextDouble(), 0);
+        }
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; ++i) {
+            String number = String.valueOf((random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(12)));
+            assertEquals(number, Double.parseDouble(number), reader(number).nextDouble(), 0);
+            number = String.format("%.3f", random.nextDouble() * 1000);
+            assertEquals(number, Double.parseDouble(number), reader(number).nextDouble(), 0);
+        }
+    }
+
+    @Test
+    public void peek_rejectsMalformedDocuments() throws Exception {
+        String[] documents = {"{\"a\" 1}", "{\"a\": 1,}", "[1 2]", "{a: 1}", "[\"abc", "[1.]", "[-]", "[tru]",
+                "{\"a\": 1} x", ""};
+        for (String document : documents) {
+            try {
+                JsonStreamReader reader = reader(document);
+                reader.skipValue();
+                reader.peek();
+                fail("Expected IOException for " + document);
+            } catch (IOException e) {
+                // Expected
+            }
+        }
+        try {
+            reader("1.5").nextInt();
+            fail("Expected IOException");
+        } catch (IOException e) {
+            // Expected
+        }
+        try {
+            reader("\"x\"").nextDouble();
+            fail("Expected IOException");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    private static JsonStreamReader reader(String json) {
+        return new JsonStreamReader(json.getBytes(UTF_8));
+    }
+}
@@ -0,0 +1,60 @@
+package com.getyourlocation.app.client.network;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.*;
+
+public class ResponseParserTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Test
+    public void parse_readsShopLocation() throws Exception {
+        ShopLocation shop = ShopLocation.PARSER.parse(reader("{\"name\": \"KFC\", \"x\": 120.5, \"y\": 33, \"tags\": [1]}"));
+        assertEquals(120.5f, shop.x, 0);
+        assertEquals(33f, shop.y, 0);
+        try {
+            ShopLocation.PARSER.parse(reader("{\"x\": 1}"));
+            fail("Expected IOException");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void parse_readsPosition() throws Exception {
+        Position position = Position.PARSER.parse(reader("{\"y\": -1.25, \"x\": 0.1}"));
+        assertEquals(0.1, position.x, 0);
+        assertEquals(-1.25, position.y, 0);
+    }
+
+    @Test
+    public void parse_readsUploadResult() throws Exception {
+        UploadResult result = UploadResult.PARSER.parse(reader("{\"status\": \"ok\", \"files\": [\"/upload/a.jpg\", \"/upload/b.jpg\"]}"));
+        assertEquals(2, result.files.size());
+        assertEquals("/upload/a.jpg", result.files.get(0));
+        try {
+            UploadResult.PARSER.parse(reader("{\"files\": \"a.jpg\"}"));
+            fail("Expected IOException");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void parse_readsAnswer() throws Exception {
+        assertEquals(42, Answer.PARSER.parse(reader("{\"ans\": 42}")).ans);
+        try {
+            Answer.PARSER.parse(reader("{\"ans\": 4.2}"));
+            fail("Expected IOException");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    private static JsonStreamReader reader(String json) {
+        return new JsonStreamReader(json.getBytes(UTF_8));
+    }
+}
@@ -0,0 +1,106 @@
+package com.getyourlocation.app.client.record;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CaptureSchedulerTest {
+    private static final long MS = 1000000L;
+    // 2 to 10 fps: frames 100 ms apart at least, 500 ms apart at most
+    private static final float MIN_FPS = 2;
+    private static final float MAX_FPS = 10;
+
+    private final float[] orientation = new float[3];
+    private final float[] acceleration = {0, 9.8f, 0};
+
+    @Test
+    public void shouldKeep_keepsFirstFrameApart() {
+        CaptureScheduler scheduler = new CaptureScheduler(MIN_FPS, MAX_FPS);
+        assertTrue(scheduler.shouldKeep(1000 * MS, orientation, acceleration, 0));
+        assertEquals(1, scheduler.getKeptFirstCount());
+        assertEquals(0, scheduler.getKeptByMotionCount());
+        assertEquals(0, scheduler.getKeptByMinFpsCount());
+        assertEquals(1, scheduler.getKeptCount());
+    }
+
+    @Test
+    public void shouldKeep_keepsStillPhoneAtMinimumRate() {
+        CaptureScheduler scheduler = new CaptureScheduler(MIN_FPS, MAX_FPS);
+        int kept = 0;
+        // One second of 30 fps preview
+        for (int i = 0; i <= 30; ++i) {
+            if (scheduler.shouldKeep(i * 1000 * MS / 30, orientation, acceleration, 0)) {
+                ++kept;
+            }
+        }
+        assertEquals(3, kept);
+        assertEquals(2, scheduler.getKeptByMinFpsCount());
+        assertEquals(0, scheduler.getKeptByMotionCount());
+        assertEquals(28, scheduler.getSkippedCount());
+    }
+
+    @Test
+    public void shouldKeep_keepsMovingPhoneAtMaximumRate() {
+        CaptureScheduler scheduler = new CaptureScheduler(MIN_FPS, MAX_FPS);
+        assertTrue(scheduler.shouldKeep(0, orientation, acceleration, 0));
+        // Turning fast, but only every 100 ms at most
+        assertFalse(scheduler.shouldKeep(50 * MS, orientation, acceleration, 10));
+        assertTrue(scheduler.shouldKeep(100 * MS, orientation, acceleration, 10));
+        assertFalse(scheduler.shouldKeep(150 * MS, orientation, acceleration, 20));
+        assertTrue(scheduler.shouldKeep(200 * MS, orientation, acceleration, 20));
+        assertEquals(2, scheduler.getKeptByMotionCount());
+        assertEquals(2, scheduler.getSkippedCount());
+    }
+
+    @Test
+    public void shouldKeep_comparesWithLastKeptFrame() {
+        CaptureScheduler scheduler = new CaptureScheduler(MIN_FPS, MAX_FPS);
+        assertTrue(scheduler.shouldKeep(0, orientation, acceleration, 0));
+        // Under the 2 degree threshold since the last kept frame
+        assertFalse(scheduler.shouldKeep(100 * MS, orientation, acceleration, 1.5));
+        // Over it, though only 1 degree since the previous frame
+        assertTrue(scheduler.shouldKeep(200 * MS, orientation, acceleration, 2.5));
+        assertFalse(scheduler.shouldKeep(300 * MS, orientation, acceleration, 1));
+    }
+
+    @Test
+    public void shouldKeep_detectsOrientationAndAccelerationChanges() {
+        CaptureScheduler scheduler = new CaptureScheduler(MIN_FPS, MAX_FPS);
+        orientation[0] = 359;
+        assertTrue(scheduler.shouldKeep(0, orientation, acceleration, 0));
+        // 359 to 0.5 degrees is a 1.5 degree turn
+        orientation[0] = 0.5f;
+        assertFalse(scheduler.shouldKeep(100 * MS, orientation, acceleration, 0));
+        orientation[0] = 2;
+        assertTrue(scheduler.shouldKeep(200 * MS, orientation, acceleration, 0));
+        acceleration[2] = 0.4f;
+        assertFalse(scheduler.shouldKeep(300 * MS, orientation, acceleration, 0));
+        acceleration[2] = 0.6f;
+        assertTrue(scheduler.shouldKeep(400 * MS, orientation, acceleration, 0));
+        assertEquals(2, scheduler.getKeptByMotionCount());
+    }
+
+    @Test
+    public void shouldKeep_neverKeepsStillPhoneWithoutMinimumRate() {
+        CaptureScheduler scheduler = new CaptureScheduler(0, MAX_FPS);
+        assertTrue(scheduler.shouldKeep(0, orientation, acceleration, 0));
+        assertFalse(scheduler.shouldKeep(60000 * MS, orientation, acceleration, 0));
+        assertEquals(1, scheduler.getKeptCount());
+    }
+
+    @Test
+    public void constructor_rejectsInvalidRates() {
+        try {
+            new CaptureScheduler(20, 10);
+            fail("Minimum above maximum");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+        try {
+            new CaptureScheduler(0, 0);
+            fail("No maximum");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.getyourlocation.app.client.record;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FrameContainerTest {
+
+    @Test
+    public void read_returnsWrittenFrames() throws Exception {
+        File file = File.createTempFile("frames", ".gyc");
+        try {
+            byte[][] payloads = write(file, 3000);
+            FrameContainerReader reader = new FrameContainerReader(file);
+            try {
+                assertTrue(reader.isComplete());
+                assertEquals(payloads.length, reader.getFrameCount());
+                for (int i = 0; i < payloads.length; ++i) {
+                    assertEquals(i * 2, reader.getFrameNumber(i));
+                    assertEquals(i * 1000000L, reader.getTimestampNs(i));
+                    assertArrayEquals(payloads[i], reader.readPayload(i));
+                }
+                assertEquals(20, reader.indexOf(40));
+                assertEquals(-1, reader.indexOf(41));
+                assertEquals(0, reader.verifyAll());
+            } finally {
+                reader.close();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void open_recoversFramesBeforeTruncation() throws Exception {
+        File file = File.createTempFile("frames", ".gyc");
+        try {
+            byte[][] payloads = write(file, 10);
+            long indexOffset = file.length() - FrameContainer.FOOTER_LENGTH
+                    - payloads.length * FrameContainer.INDEX_ENTRY_LENGTH;
+
+            // Cut in the index: every record is complete
+            truncate(file, indexOffset + 5);
+            assertRecovered(file, payloads, payloads.length);
+
+            // Cut in the payload of the last record: it is dropped
+            truncate(file, indexOffset - payloads[payloads.length - 1].length / 2);
+            assertRecovered(file, payloads, payloads.length - 1);
+
+            // Cut in the header of a record
+            long lastOffset = indexOffset - payloads[payloads.length - 1].length - FrameContainer.RECORD_HEADER_LENGTH;
+            truncate(file, lastOffset - payloads[payloads.length - 2].length - 3);
+            assertRecovered(file, payloads, payloads.length - 2);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void verify_reportsCorruptedFrame() throws Exception {
+        File file = File.createTempFile("frames", ".gyc");
+        try {
+            write(file, 5);
+            long offset;
+            FrameContainerReader reader = new FrameContainerReader(file);
+            try {
+                offset = FrameContainer.HEADER_LENGTH;
+                for (int i = 0; i < 3; ++i) {
+                    offset += FrameContainer.RECORD_HEADER_LENGTH + reader.getPayloadLength(i);
+                }
+                offset += FrameContainer.RECORD_HEADER_LENGTH + reader.getPayloadLength(3) / 2;
+            } finally {
+                reader.close();
+            }
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.seek(offset);
+                int b = raf.read();
+                raf.seek(offset);
+                raf.write(b ^ 0x10);
+            } finally {
+                raf.close();
+            }
+            reader = new FrameContainerReader(file);
+            try {
+                assertTrue(reader.isComplete());
+                for (int i = 0; i < reader.getFrameCount(); ++i) {
+                    assertEquals(i != 3, reader.verify(i));
+                }
+                assertEquals(1, reader.verifyAll());
+            } finally {
+                reader.close();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Write frames 0, 2, 4... of random sizes, some larger than the write buffer.
+     */
+    private static byte[][] write(File file, int count) throws Exception {
+        Random random = new Random(count);
+        byte[][] payloads = new byte[count][];
+        FrameContainerWriter writer = new FrameContainerWriter(file);
+        for (int i = 0; i < count; ++i) {
+            payloads[i] = new byte[i % 100 == 7 ? 100000 + random.nextInt(1000) : 1 + random.nextInt(3000)];
+            random.nextBytes(payloads[i]);
+            writer.append(i * 2, i * 1000000L, payloads[i]);
+        }
+        assertEquals(count, writer.getFrameCount());
+        writer.close();
+        assertEquals(writer.getLength() + count * FrameContainer.INDEX_ENTRY_LENGTH + FrameContainer.FOOTER_LENGTH,
+                file.length());
+        return payloads;
+    }
+
+    private static void truncate(File file, long length) throws Exception {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(length);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static void assertRecovered(File file, byte[][] payloads, int count) throws Exception {
+        FrameContainerReader reader = new FrameContainerReader(file);
+        try {
+            assertFalse(reader.isComplete());
+            assertEquals(count, reader.getFrameCount());
+            for (int i = 0; i < count; ++i) {
+                assertEquals(i * 2, reader.getFrameNumber(i));
+                assertArrayEquals(payloads[i], reader.readPayload(i));
+            }
+            assertEquals(0, reader.verifyAll());
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.getyourlocation.app.client.record;
+
+import org.junit.Test;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class FrameIndexTest {
+    private static final float[] ZERO = new float[3];
+
+    @Test
+    public void load_returnsWrittenRecords() throws Exception {
+        File file = File.createTempFile("frames", ".idx");
+        try {
+            FrameIndex.Writer writer = new FrameIndex.Writer(file, 1280, 720);
+            for (int i = 0; i < 100; ++i) {
+                writer.add(2 * i + 1, i * 33333L, i);
+            }
+            writer.close();
+            assertEquals(FrameIndex.HEADER_SIZE + 100 * FrameIndex.RECORD_SIZE, file.length());
+
+            FrameIndex index = FrameIndex.load(file);
+            assertEquals(1280, index.getWidth());
+            assertEquals(720, index.getHeight());
+            assertEquals(100, index.size());
+            for (int i = 0; i < 100; ++i) {
+                assertEquals(2 * i + 1, index.getFrameNumber(i));
+                assertEquals(i * 33333L, index.getPresentationTimeUs(i));
+                assertEquals(i, index.getSensorRow(i));
+            }
+            assertEquals(50, index.indexOf(101));
+            assertEquals(-1, index.indexOf(100));
+            assertEquals(-1, index.indexOf(500));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void load_rejectsOtherFiles() throws Exception {
+        File file = File.createTempFile("frames", ".idx");
+        try {
+            writeHeader(file, SensorLog.MAGIC, FrameIndex.VERSION);
+            assertLoadFails(file);
+            writeHeader(file, FrameIndex.MAGIC, FrameIndex.VERSION + 1);
+            assertLoadFails(file);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void getSensorRow_pointsAtRecordOfSameFrame() throws Exception {
+        File logFile = File.createTempFile("sensors", ".bin");
+        File indexFile = File.createTempFile("frames", ".idx");
+        try {
+            SensorLogWriter log = new SensorLogWriter(logFile);
+            FrameIndex.Writer index = new FrameIndex.Writer(indexFile, 640, 480);
+            // Frame numbers start at 1 like the recording pipeline, records at 0
+            for (int frame = 1; frame <= 5; ++frame) {
+                int sensorRow = log.getRecordCount();
+                log.write(frame, frame * 1000L, 0, ZERO, ZERO, ZERO, 0, 0, 0, 0);
+                index.add(frame, frame * 100L, sensorRow);
+            }
+            log.close();
+            index.close();
+
+            SensorLogReader reader = new SensorLogReader(logFile);
+            FrameIndex loaded = FrameIndex.load(indexFile);
+            int frameColumn = reader.getSchema().indexOf(SensorLog.COL_FRAME);
+            assertEquals(5, loaded.size());
+            for (int i = 0; i < loaded.size(); ++i) {
+                int row = loaded.getSensorRow(i);
+                assertEquals(loaded.getFrameNumber(i), reader.getInt(row, frameColumn));
+                assertEquals(row, reader.findFrame(loaded.getFrameNumber(i)));
+            }
+        } finally {
+            logFile.delete();
+            indexFile.delete();
+        }
+    }
+
+    private static void writeHeader(File file, int magic, int version) throws IOException {
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        try {
+            out.writeInt(magic);
+            out.writeInt(version);
+            out.writeInt(640);
+            out.writeInt(480);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void assertLoadFails(File file) {
+        try {
+            FrameIndex.load(file);
+            fail("Loaded " + file);
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+}
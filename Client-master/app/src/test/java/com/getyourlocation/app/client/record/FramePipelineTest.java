@@ -0,0 +1,202 @@
+package com.getyourlocation.app.client.record;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class FramePipelineTest {
+    private static final long TIMEOUT_S = 10;
+
+    private final List<Integer> writtenRows = Collections.synchronizedList(new ArrayList<Integer>());
+    private final List<Integer> writtenNumbers = Collections.synchronizedList(new ArrayList<Integer>());
+    private final AtomicInteger recycled = new AtomicInteger(0);
+    private final CountDownLatch finished = new CountDownLatch(1);
+
+    @Test
+    public void finish_writesFramesInSubmissionOrder() throws Exception {
+        final Random random = new Random(1);
+        FramePipeline pipeline = new FramePipeline(8, 4, FramePipeline.OverflowPolicy.BLOCK, 1,
+                new FramePipeline.FrameEncoder() {
+                    @Override
+                    public byte[] encode(byte[] frame, int row) throws Exception {
+                        int delay;
+                        synchronized (random) {
+                            delay = random.nextInt(3);
+                        }
+                        Thread.sleep(delay);
+                        return frame;
+                    }
+                }, recordingWriter());
+        pipeline.setRecycler(countingRecycler());
+        for (int i = 0; i < 100; ++i) {
+            assertTrue(pipeline.submit(new byte[]{(byte) i}, i));
+        }
+        finish(pipeline);
+        assertEquals(100, pipeline.getWrittenCount());
+        for (int i = 0; i < 100; ++i) {
+            assertEquals(i, (int) writtenRows.get(i));
+            assertEquals(i + 1, (int) writtenNumbers.get(i));
+        }
+        assertEquals(100, recycled.get());
+        assertEquals(0, pipeline.getDroppedCount());
+    }
+
+    @Test
+    public void submit_dropsNewestFrameWhenFull() throws Exception {
+        BlockingEncoder encoder = new BlockingEncoder();
+        FramePipeline pipeline = new FramePipeline(2, 1, FramePipeline.OverflowPolicy.DROP_NEWEST, 1,
+                encoder, recordingWriter());
+        pipeline.setRecycler(countingRecycler());
+        fillQueue(pipeline, encoder);
+        assertFalse(pipeline.submit(new byte[1], 3));
+        assertEquals(1, recycled.get());
+        encoder.proceed.countDown();
+        finish(pipeline);
+        assertEquals(Arrays.asList(0, 1, 2), writtenRows);
+        assertEquals(1, pipeline.getDroppedNewestCount());
+        assertEquals(4, recycled.get());
+    }
+
+    @Test
+    public void submit_dropsOldestFrameWhenFull() throws Exception {
+        BlockingEncoder encoder = new BlockingEncoder();
+        FramePipeline pipeline = new FramePipeline(2, 1, FramePipeline.OverflowPolicy.DROP_OLDEST, 1,
+                encoder, recordingWriter());
+        pipeline.setRecycler(countingRecycler());
+        fillQueue(pipeline, encoder);
+        assertTrue(pipeline.submit(new byte[1], 3));
+        assertEquals(1, recycled.get());
+        encoder.proceed.countDown();
+        finish(pipeline);
+        // Frame numbers stay consecutive over the dropped frame
+        assertEquals(Arrays.asList(0, 2, 3), writtenRows);
+        assertEquals(Arrays.asList(1, 2, 3), writtenNumbers);
+        assertEquals(1, pipeline.getDroppedOldestCount());
+        assertEquals(4, recycled.get());
+    }
+
+    @Test
+    public void submit_blocksWhenFull() throws Exception {
+        BlockingEncoder encoder = new BlockingEncoder();
+        final FramePipeline pipeline = new FramePipeline(2, 1, FramePipeline.OverflowPolicy.BLOCK, 1,
+                encoder, recordingWriter());
+        fillQueue(pipeline, encoder);
+        Thread submitter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                pipeline.submit(new byte[1], 3);
+            }
+        });
+        submitter.start();
+        submitter.join(200);
+        assertTrue(submitter.isAlive());
+        encoder.proceed.countDown();
+        submitter.join(TIMEOUT_S * 1000);
+        assertFalse(submitter.isAlive());
+        finish(pipeline);
+        assertEquals(Arrays.asList(0, 1, 2, 3), writtenRows);
+        assertEquals(0, pipeline.getDroppedCount());
+    }
+
+    @Test
+    public void finish_completesAfterEncoderAndWriterFailures() throws Exception {
+        FramePipeline pipeline = new FramePipeline(8, 2, FramePipeline.OverflowPolicy.BLOCK, 1,
+                new FramePipeline.FrameEncoder() {
+                    @Override
+                    public byte[] encode(byte[] frame, int row) throws Exception {
+                        if (row == 1) {
+                            throw new IllegalStateException("Test failure");
+                        }
+                        if (row == 2) {
+                            throw new OutOfMemoryError("Test failure");
+                        }
+                        return frame;
+                    }
+                },
+                new FramePipeline.FrameWriter() {
+                    @Override
+                    public void write(int frameNumber, byte[] payload, int row) throws Exception {
+                        if (row == 3) {
+                            throw new java.io.IOException("Test failure");
+                        }
+                        writtenRows.add(row);
+                        writtenNumbers.add(frameNumber);
+                    }
+                });
+        pipeline.setRecycler(countingRecycler());
+        for (int i = 0; i < 6; ++i) {
+            assertTrue(pipeline.submit(new byte[1], i));
+        }
+        finish(pipeline);
+        assertEquals(Arrays.asList(0, 4, 5), writtenRows);
+        assertEquals(Arrays.asList(1, 2, 3), writtenNumbers);
+        assertEquals(3, pipeline.getFailedCount());
+        assertEquals(6, recycled.get());
+        assertFalse(pipeline.submit(new byte[1], 6));
+    }
+
+    /**
+     * Submit rows 0 to 2 so the encoder holds row 0 and the queue is full.
+     */
+    private static void fillQueue(FramePipeline pipeline, BlockingEncoder encoder) throws Exception {
+        assertTrue(pipeline.submit(new byte[1], 0));
+        assertTrue(encoder.started.await(TIMEOUT_S, TimeUnit.SECONDS));
+        assertTrue(pipeline.submit(new byte[1], 1));
+        assertTrue(pipeline.submit(new byte[1], 2));
+        assertEquals(2, pipeline.getQueueSize());
+    }
+
+    private void finish(FramePipeline pipeline) throws Exception {
+        pipeline.finish(new Runnable() {
+            @Override
+            public void run() {
+                finished.countDown();
+            }
+        });
+        assertTrue(finished.await(TIMEOUT_S, TimeUnit.SECONDS));
+        assertTrue(pipeline.awaitFinished(TIMEOUT_S, TimeUnit.SECONDS));
+    }
+
+    private FramePipeline.FrameWriter recordingWriter() {
+        return new FramePipeline.FrameWriter() {
+            @Override
+            public void write(int frameNumber, byte[] payload, int row) throws Exception {
+                writtenRows.add(row);
+                writtenNumbers.add(frameNumber);
+            }
+        };
+    }
+
+    private FramePipeline.FrameRecycler countingRecycler() {
+        return new FramePipeline.FrameRecycler() {
+            @Override
+            public void recycle(byte[] frame) {
+                recycled.incrementAndGet();
+            }
+        };
+    }
+
+    /**
+     * Encoder which holds the first frame until released.
+     */
+    private static class BlockingEncoder implements FramePipeline.FrameEncoder {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch proceed = new CountDownLatch(1);
+
+        @Override
+        public byte[] encode(byte[] frame, int row) throws Exception {
+            started.countDown();
+            assertTrue(proceed.await(TIMEOUT_S, TimeUnit.SECONDS));
+            return frame;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.getyourlocation.app.client.record;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FrameQualityAnalyzerTest {
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+
+    @Test
+    public void analyze_scoresSharpFrameAboveBlurredOne() {
+        byte[] sharp = texture();
+        byte[] blurred = blur(sharp);
+        FrameQualityAnalyzer analyzer = new FrameQualityAnalyzer(Long.MAX_VALUE,
+                FrameQualityAnalyzer.DEFAULT_MIN_SHARPNESS, FrameQualityAnalyzer.DEFAULT_MAX_CLIPPED_FRACTION);
+        FrameQualityAnalyzer.Result result = new FrameQualityAnalyzer.Result();
+        analyzer.analyze(sharp, WIDTH, HEIGHT, result);
+        assertTrue(result.complete);
+        float sharpScore = result.sharpness;
+        assertEquals(0, analyzer.getFlags(result));
+        analyzer.analyze(blurred, WIDTH, HEIGHT, result);
+        assertTrue(sharpScore > 10 * result.sharpness);
+        Arrays.fill(blurred, 0, WIDTH * HEIGHT, (byte) 128);
+        analyzer.analyze(blurred, WIDTH, HEIGHT, result);
+        assertEquals(0, result.sharpness, 0);
+        assertEquals(SensorLog.FLAG_BLURRY, analyzer.getFlags(result));
+    }
+
+    @Test
+    public void getFlags_reportsBadExposure() {
+        FrameQualityAnalyzer analyzer = new FrameQualityAnalyzer();
+        FrameQualityAnalyzer.Result result = new FrameQualityAnalyzer.Result();
+        byte[] frame = texture();
+        Arrays.fill(frame, 0, WIDTH * HEIGHT * 3 / 4, (byte) 5);
+        analyzer.analyze(frame, WIDTH, HEIGHT, result);
+        assertTrue((analyzer.getFlags(result) & SensorLog.FLAG_UNDEREXPOSED) != 0);
+        assertEquals(0, analyzer.getFlags(result) & SensorLog.FLAG_OVEREXPOSED);
+        Arrays.fill(frame, 0, WIDTH * HEIGHT * 3 / 4, (byte) 250);
+        analyzer.analyze(frame, WIDTH, HEIGHT, result);
+        assertTrue((analyzer.getFlags(result) & SensorLog.FLAG_OVEREXPOSED) != 0);
+        assertEquals(0, analyzer.getFlags(result) & SensorLog.FLAG_UNDEREXPOSED);
+    }
+
+    @Test
+    public void analyze_growsStepUpToMaximumWhenOverBudget() {
+        FrameQualityAnalyzer analyzer = new FrameQualityAnalyzer(1, 0, 1);
+        FrameQualityAnalyzer.Result result = new FrameQualityAnalyzer.Result();
+        byte[] frame = texture();
+        int previous = 0;
+        for (int i = 0; i < 10; ++i) {
+            analyzer.analyze(frame, WIDTH, HEIGHT, result);
+            assertTrue(result.step >= previous);
+            assertTrue(result.step <= 32);
+            previous = result.step;
+        }
+        assertEquals(32, result.step);
+        assertEquals(10, analyzer.getAnalyzedCount());
+    }
+
+    @Test
+    public void analyze_shrinksStepDownToMinimumWithinBudget() {
+        FrameQualityAnalyzer analyzer = new FrameQualityAnalyzer(Long.MAX_VALUE, 0, 1);
+        FrameQualityAnalyzer.Result result = new FrameQualityAnalyzer.Result();
+        byte[] frame = texture();
+        for (int i = 0; i < 5; ++i) {
+            analyzer.analyze(frame, WIDTH, HEIGHT, result);
+            assertTrue(result.step >= 2);
+        }
+        assertEquals(2, result.step);
+        assertEquals(0, analyzer.getOverBudgetCount());
+    }
+
+    /**
+     * NV21 frame whose luma is random mid-gray texture.
+     */
+    private static byte[] texture() {
+        Random random = new Random(1);
+        byte[] frame = new byte[WIDTH * HEIGHT * 3 / 2];
+        for (int i = 0; i < WIDTH * HEIGHT; ++i) {
+            frame[i] = (byte) (64 + random.nextInt(128));
+        }
+        Arrays.fill(frame, WIDTH * HEIGHT, frame.length, (byte) 128);
+        return frame;
+    }
+
+    /**
+     * Apply a 5x5 box blur to the luma.
+     */
+    private static byte[] blur(byte[] frame) {
+        byte[] blurred = frame.clone();
+        for (int y = 2; y < HEIGHT - 2; ++y) {
+            for (int x = 2; x < WIDTH - 2; ++x) {
+                int sum = 0;
+                for (int dy = -2; dy <= 2; ++dy) {
+                    for (int dx = -2; dx <= 2; ++dx) {
+                        sum += frame[(y + dy) * WIDTH + x + dx] & 0xFF;
+                    }
+                }
+                blurred[y * WIDTH + x] = (byte) (sum / 25);
+            }
+        }
+        return blurred;
+    }
+}
@@ -0,0 +1,99 @@
+package com.getyourlocation.app.client.record;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class JpegQualityGovernorTest {
+    private static final int[] LEVELS = {90, 80, 70};
+    private static final float FPS = 10;
+    private static final int ENCODERS = 2;
+    private static final int QUEUE_CAPACITY = 4;
+    // A tenth of the 100 ms frame interval
+    private static final long FAST_NS = 10000000L;
+
+    @Test
+    public void onWritten_lowersQualityWhenQueueBacksUp() {
+        JpegQualityGovernor governor = new JpegQualityGovernor(LEVELS, FPS, ENCODERS, QUEUE_CAPACITY);
+        assertEquals(90, governor.getQuality());
+        runWindow(governor, FAST_NS, FAST_NS, QUEUE_CAPACITY);
+        assertEquals(80, governor.getQuality());
+        assertEquals(1, governor.getLoweredCount());
+    }
+
+    @Test
+    public void onWritten_lowersQualityWhenWritesAreSlow() {
+        JpegQualityGovernor governor = new JpegQualityGovernor(LEVELS, FPS, ENCODERS, QUEUE_CAPACITY);
+        for (int i = 0; i < JpegQualityGovernor.WINDOW - 1; ++i) {
+            governor.onWritten(1000, 100000000L, 0);
+        }
+        assertEquals(90, governor.getQuality());
+        governor.onWritten(1000, 100000000L, 0);
+        assertEquals(80, governor.getQuality());
+    }
+
+    @Test
+    public void onWritten_raisesQualityAfterCalmWindows() {
+        JpegQualityGovernor governor = new JpegQualityGovernor(LEVELS, FPS, ENCODERS, QUEUE_CAPACITY);
+        runWindow(governor, FAST_NS, FAST_NS, QUEUE_CAPACITY);
+        assertEquals(80, governor.getQuality());
+        for (int i = 0; i < JpegQualityGovernor.CALM_WINDOWS - 1; ++i) {
+            runWindow(governor, FAST_NS, FAST_NS, 0);
+            assertEquals(80, governor.getQuality());
+        }
+        runWindow(governor, FAST_NS, FAST_NS, 0);
+        assertEquals(90, governor.getQuality());
+        assertEquals(1, governor.getRaisedCount());
+    }
+
+    @Test
+    public void onWritten_restartsCalmCountAfterBusyWindow() {
+        JpegQualityGovernor governor = new JpegQualityGovernor(LEVELS, FPS, ENCODERS, QUEUE_CAPACITY);
+        runWindow(governor, FAST_NS, FAST_NS, QUEUE_CAPACITY);
+        runWindow(governor, FAST_NS, FAST_NS, QUEUE_CAPACITY);
+        assertEquals(70, governor.getQuality());
+        for (int i = 0; i < JpegQualityGovernor.CALM_WINDOWS - 1; ++i) {
+            runWindow(governor, FAST_NS, FAST_NS, 0);
+        }
+        // Neither busy nor idle
+        runWindow(governor, FAST_NS * 14, FAST_NS, 0);
+        runWindow(governor, FAST_NS, FAST_NS, 0);
+        assertEquals(70, governor.getQuality());
+    }
+
+    @Test
+    public void getQuality_staysWithinLevels() {
+        JpegQualityGovernor governor = new JpegQualityGovernor(LEVELS, FPS, ENCODERS, QUEUE_CAPACITY);
+        for (int i = 0; i < 10; ++i) {
+            runWindow(governor, FAST_NS * 100, FAST_NS * 100, QUEUE_CAPACITY);
+            assertTrue(governor.getQuality() >= 70);
+        }
+        assertEquals(70, governor.getQuality());
+        assertEquals(LEVELS.length - 1, governor.getLoweredCount());
+        for (int i = 0; i < 10 * JpegQualityGovernor.CALM_WINDOWS; ++i) {
+            runWindow(governor, 0, 0, 0);
+            assertTrue(governor.getQuality() <= 90);
+        }
+        assertEquals(90, governor.getQuality());
+        assertEquals(LEVELS.length - 1, governor.getRaisedCount());
+    }
+
+    @Test
+    public void getWriteThroughput_measuresLastWindow() {
+        JpegQualityGovernor governor = new JpegQualityGovernor(LEVELS, FPS, ENCODERS, QUEUE_CAPACITY);
+        for (int i = 0; i < JpegQualityGovernor.WINDOW; ++i) {
+            governor.onWritten(100000, FAST_NS, 0);
+        }
+        assertEquals(10000000, governor.getWriteThroughput());
+    }
+
+    /**
+     * Report one window of frames, each taking the given encoding and writing times.
+     */
+    private static void runWindow(JpegQualityGovernor governor, long encodeNs, long writeNs, int queueDepth) {
+        for (int i = 0; i < JpegQualityGovernor.WINDOW; ++i) {
+            governor.onEncoded(encodeNs);
+            governor.onWritten(50000, writeNs, queueDepth);
+        }
+    }
+}
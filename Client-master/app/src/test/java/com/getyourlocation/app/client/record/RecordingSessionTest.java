@@ -0,0 +1,77 @@
+package com.getyourlocation.app.client.record;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RecordingSessionTest {
+    private final float[] orientation = new float[3];
+    private final float[] acceleration = new float[3];
+    private final float[] magnetism = new float[3];
+
+    @Test
+    public void append_keepsRowsAcrossChunks() throws Exception {
+        RecordingSession session = new RecordingSession();
+        // Enough chunks to grow the chunk table several times
+        int rows = RecordingSession.CHUNK_SIZE * 5 + 3;
+        for (int r = 0; r < rows; ++r) {
+            for (int k = 0; k < 3; ++k) {
+                orientation[k] = r + k;
+                acceleration[k] = -r - k;
+                magnetism[k] = r * 2 + k;
+            }
+            assertEquals(r, session.append(r * 10L, r * 0.5f, orientation, acceleration, magnetism, r * 0.25));
+            session.setQuality(r, r, r % 4);
+            session.setJpegQuality(r, 60 + r % 40);
+            if (r % 3 == 0) {
+                session.setFrameNumber(r, r / 3 + 1);
+            }
+        }
+        assertEquals(rows, session.size());
+        for (int r = 0; r < rows; ++r) {
+            assertEquals(r * 10L, session.getTimestampNs(r));
+            assertEquals(r * 0.5f, session.getFocalLength(r), 0);
+            assertEquals(r * 0.25, session.getGyroAngle(r), 0);
+            session.getSensors(r, orientation, acceleration, magnetism);
+            assertEquals(r + 2, orientation[2], 0);
+            assertEquals(-r - 1, acceleration[1], 0);
+            assertEquals(r * 2, magnetism[0], 0);
+            assertEquals(r, session.getSharpness(r), 0);
+            assertEquals(r % 4, session.getFlags(r));
+            assertEquals(60 + r % 40, session.getJpegQuality(r));
+            assertEquals(r % 3 == 0 ? r / 3 + 1 : RecordingSession.NO_FRAME, session.getFrameNumber(r));
+        }
+    }
+
+    @Test
+    public void getMemoryFootprint_growsByWholeChunks() throws Exception {
+        RecordingSession session = new RecordingSession();
+        assertEquals(0, session.size());
+        session.append(0, 0, orientation, acceleration, magnetism, 0);
+        long oneChunk = session.getMemoryFootprint();
+        for (int r = 1; r < RecordingSession.CHUNK_SIZE; ++r) {
+            session.append(r, 0, orientation, acceleration, magnetism, 0);
+        }
+        assertEquals(oneChunk, session.getMemoryFootprint());
+        session.append(RecordingSession.CHUNK_SIZE, 0, orientation, acceleration, magnetism, 0);
+        assertTrue(session.getMemoryFootprint() > oneChunk);
+    }
+
+    @Test
+    public void get_rejectsRowsNotAppended() throws Exception {
+        RecordingSession session = new RecordingSession();
+        session.append(0, 0, orientation, acceleration, magnetism, 0);
+        try {
+            session.getTimestampNs(1);
+            fail("Row 1 was not appended");
+        } catch (IndexOutOfBoundsException e) {
+            // Expected
+        }
+        try {
+            session.setFrameNumber(-1, 1);
+            fail("Negative row");
+        } catch (IndexOutOfBoundsException e) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.getyourlocation.app.client.record;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+
+public class SensorLogTest {
+    private static final int RECORD_LENGTH = SensorLog.currentSchema().getRecordLength();
+
+    @Test
+    public void read_returnsWrittenRecords() throws Exception {
+        File file = File.createTempFile("sensors", ".bin");
+        try {
+            // More records than the ring holds, so writing waits for the writer thread
+            write(file, 2500, 64);
+            SensorLogReader reader = new SensorLogReader(file);
+            assertEquals(SensorLog.VERSION, reader.getVersion());
+            assertTrue(reader.isComplete());
+            assertTrue(reader.verify());
+            assertEquals(2500, reader.getRecordCount());
+            SensorLog.Schema schema = reader.getSchema();
+            for (int r = 0; r < 2500; r += 7) {
+                assertRecord(reader, schema, r);
+            }
+            assertRecord(reader, schema, 2499);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void verify_detectsCorruptedRecord() throws Exception {
+        File file = File.createTempFile("sensors", ".bin");
+        try {
+            write(file, 100, SensorLogWriter.DEFAULT_CAPACITY);
+            long headerLength = file.length() - SensorLog.TRAILER_LENGTH - 100L * RECORD_LENGTH;
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                long position = headerLength + 42L * RECORD_LENGTH + 20;
+                raf.seek(position);
+                int b = raf.read();
+                raf.seek(position);
+                raf.write(b ^ 0x10);
+            } finally {
+                raf.close();
+            }
+            SensorLogReader reader = new SensorLogReader(file);
+            assertTrue(reader.isComplete());
+            assertFalse(reader.verify());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void open_recoversRecordsOfTruncatedLog() throws Exception {
+        File file = File.createTempFile("sensors", ".bin");
+        try {
+            write(file, 10, SensorLogWriter.DEFAULT_CAPACITY);
+            long headerLength = file.length() - SensorLog.TRAILER_LENGTH - 10L * RECORD_LENGTH;
+            // Cut in the middle of record 4, as by a crash before the trailer
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.setLength(headerLength + 4L * RECORD_LENGTH + RECORD_LENGTH / 2);
+            } finally {
+                raf.close();
+            }
+            SensorLogReader reader = new SensorLogReader(file);
+            assertFalse(reader.isComplete());
+            assertTrue(reader.verify());
+            assertEquals(4, reader.getRecordCount());
+            assertRecord(reader, reader.getSchema(), 3);
+            try {
+                reader.getInt(4, 0);
+                fail("Record 4 was cut");
+            } catch (IndexOutOfBoundsException e) {
+                // Expected
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void findFrame_searchesFrameColumn() throws Exception {
+        File file = File.createTempFile("sensors", ".bin");
+        try {
+            write(file, 50, SensorLogWriter.DEFAULT_CAPACITY);
+            SensorLogReader reader = new SensorLogReader(file);
+            // Record r holds frame 2 * r + 1
+            assertEquals(0, reader.findFrame(1));
+            assertEquals(20, reader.findFrame(41));
+            assertEquals(49, reader.findFrame(99));
+            assertEquals(-1, reader.findFrame(42));
+            assertEquals(-1, reader.findFrame(0));
+            assertEquals(-1, reader.findFrame(101));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void toText_writesSensorTxtLayout() throws Exception {
+        File file = File.createTempFile("sensors", ".bin");
+        try {
+            SensorLogWriter writer = new SensorLogWriter(file);
+            writer.write(7, 123L, 4.5f, new float[]{1, 2, 3}, new float[]{4, 5, 6}, new float[]{7, 8, 9},
+                    10, 0, 0, 0);
+            writer.close();
+            StringWriter out = new StringWriter();
+            SensorLogConverter.toText(new SensorLogReader(file), out);
+            assertEquals("frame,focal-length," + SensorLogConverter.DESCRIPTION + "\n"
+                    + "7 : 4.5;1.0 2.0 3.0; 4.0 5.0 6.0; 7.0 8.0 9.0.\n", out.toString());
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Write records whose values are derived from their index.
+     */
+    private static void write(File file, int count, int capacity) throws Exception {
+        SensorLogWriter writer = new SensorLogWriter(file, capacity);
+        float[] orientation = new float[3];
+        float[] acceleration = new float[3];
+        float[] magnetism = new float[3];
+        for (int r = 0; r < count; ++r) {
+            for (int k = 0; k < 3; ++k) {
+                orientation[k] = r + k;
+                acceleration[k] = r * 0.5f + k;
+                magnetism[k] = -r - k;
+            }
+            assertEquals(r, writer.getRecordCount());
+            writer.write(2 * r + 1, r * 1000000L, r * 0.25f, orientation, acceleration, magnetism,
+                    r * 1.5, r * 2f, r % 8, 70 + r % 20);
+        }
+        writer.close();
+        assertEquals(count, writer.getWrittenCount());
+    }
+
+    private static void assertRecord(SensorLogReader reader, SensorLog.Schema schema, int r) {
+        assertEquals(2 * r + 1, reader.getInt(r, schema.indexOf(SensorLog.COL_FRAME)));
+        assertEquals(r * 1000000L, reader.getLong(r, schema.indexOf(SensorLog.COL_TIMESTAMP_NS)));
+        assertEquals(r * 0.25f, reader.getFloat(r, schema.indexOf(SensorLog.COL_FOCAL_LENGTH)), 0);
+        assertEquals(r + 2, reader.getFloat(r, schema.indexOf(SensorLog.COL_ORIENTATION_Z)), 0);
+        assertEquals(r * 0.5f + 1, reader.getFloat(r, schema.indexOf(SensorLog.COL_ACCELERATION_Y)), 0);
+        assertEquals(-r, reader.getFloat(r, schema.indexOf(SensorLog.COL_MAGNETISM_X)), 0);
+        assertEquals(r * 1.5, reader.getDouble(r, schema.indexOf(SensorLog.COL_GYRO_ANGLE)), 0);
+        assertEquals(r * 2f, reader.getFloat(r, schema.indexOf(SensorLog.COL_SHARPNESS)), 0);
+        assertEquals(r % 8, reader.getInt(r, schema.indexOf(SensorLog.COL_FLAGS)));
+        assertEquals(70 + r % 20, (int) reader.getValue(r, schema.indexOf(SensorLog.COL_JPEG_QUALITY)));
+    }
+}
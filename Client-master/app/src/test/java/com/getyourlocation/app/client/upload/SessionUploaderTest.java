@@ -0,0 +1,203 @@
+package com.getyourlocation.app.client.upload;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SessionUploaderTest {
+    private static final int CHUNK_SIZE = 1000;
+
+    @Test
+    public void uploadBlocking_uploadsEveryFileInParallelChunks() throws Exception {
+        StandInUploadServer server = new StandInUploadServer();
+        File session = createSession("s1");
+        try {
+            byte[] frames = writeFile(session, "frames.gyc", 10500);
+            byte[] sensor = writeFile(session, "sensor.bin", 999);
+            writeFile(session, "empty.txt", 0);
+            server.holdPutsUntil(2, 5000);
+            SessionUploader uploader = new SessionUploader(server.getUrl(), CHUNK_SIZE, 3);
+            try {
+                uploader.uploadBlocking(session);
+            } finally {
+                uploader.shutdown();
+            }
+            assertArrayEquals(frames, server.getFile("s1", "frames.gyc"));
+            assertArrayEquals(sensor, server.getFile("s1", "sensor.bin"));
+            assertArrayEquals(new byte[0], server.getFile("s1", "empty.txt"));
+            assertEquals(12, server.getPutCount());
+            assertTrue(server.getMaxActivePuts() > 1);
+            assertTrue(server.getMaxActivePuts() <= 3);
+            assertFalse(SessionUploader.hasPendingUpload(session));
+        } finally {
+            server.stop();
+            delete(session);
+        }
+    }
+
+    @Test
+    public void uploadBlocking_resumesAfterFailure() throws Exception {
+        StandInUploadServer server = new StandInUploadServer();
+        File session = createSession("s2");
+        try {
+            byte[] frames = writeFile(session, "frames.gyc", 8000);
+            server.failChunk("s2", "frames.gyc", 5, 2);
+            SessionUploader uploader = new SessionUploader(server.getUrl(), CHUNK_SIZE, 2);
+            uploader.setRetry(2, 10);
+            try {
+                uploader.uploadBlocking(session);
+                fail("Chunk 5 should have failed");
+            } catch (IOException e) {
+                // Expected
+            } finally {
+                uploader.shutdown();
+            }
+            assertNull(server.getFile("s2", "frames.gyc"));
+            assertTrue(SessionUploader.hasPendingUpload(session));
+            int putsBefore = server.getPutCount();
+            assertEquals(9, putsBefore);
+
+            // A new uploader, as after a restart, only sends the missing chunk
+            uploader = new SessionUploader(server.getUrl(), CHUNK_SIZE, 2);
+            try {
+                uploader.uploadBlocking(session);
+            } finally {
+                uploader.shutdown();
+            }
+            assertEquals(putsBefore + 1, server.getPutCount());
+            assertArrayEquals(frames, server.getFile("s2", "frames.gyc"));
+            assertFalse(SessionUploader.hasPendingUpload(session));
+        } finally {
+            server.stop();
+            delete(session);
+        }
+    }
+
+    @Test
+    public void uploadBlocking_skipsChunksTheServerHas() throws Exception {
+        StandInUploadServer server = new StandInUploadServer();
+        File session = createSession("s3");
+        try {
+            byte[] frames = writeFile(session, "frames.gyc", 4500);
+            server.putChunk("s3", "frames.gyc", 0, Arrays.copyOfRange(frames, 0, 1000));
+            server.putChunk("s3", "frames.gyc", 3, Arrays.copyOfRange(frames, 3000, 4000));
+            final long[] progress = new long[2];
+            SessionUploader uploader = new SessionUploader(server.getUrl(), CHUNK_SIZE, 2);
+            uploader.setListener(new SessionUploader.Listener() {
+                @Override
+                public synchronized void onProgress(File sessionDir, long uploadedBytes, long totalBytes) {
+                    progress[0] = Math.max(progress[0], uploadedBytes);
+                    progress[1] = totalBytes;
+                }
+
+                @Override
+                public void onFinished(File sessionDir) {
+                }
+
+                @Override
+                public void onFailed(File sessionDir, IOException e) {
+                }
+            });
+            try {
+                uploader.uploadBlocking(session);
+            } finally {
+                uploader.shutdown();
+            }
+            assertEquals(3, server.getPutCount());
+            assertArrayEquals(frames, server.getFile("s3", "frames.gyc"));
+            assertEquals(4500, progress[0]);
+            assertEquals(4500, progress[1]);
+        } finally {
+            server.stop();
+            delete(session);
+        }
+    }
+
+    @Test
+    public void uploadProgress_resetsWhenChunkSizeChanges() throws Exception {
+        File session = createSession("s4");
+        try {
+            UploadProgress progress = new UploadProgress(session, 1000);
+            progress.setChunkDone("a", 0);
+            progress.setFileDone("a");
+            progress.close();
+
+            progress = new UploadProgress(session, 1000);
+            assertTrue(progress.isChunkDone("a", 0));
+            assertTrue(progress.isFileDone("a"));
+            progress.close();
+
+            progress = new UploadProgress(session, 2000);
+            assertFalse(progress.isChunkDone("a", 0));
+            assertFalse(progress.isFileDone("a"));
+            progress.close();
+        } finally {
+            delete(session);
+        }
+    }
+
+    @Test
+    public void markPending_makesSessionPendingUntilUploaded() throws Exception {
+        StandInUploadServer server = new StandInUploadServer();
+        File session = createSession("s5");
+        try {
+            writeFile(session, "sensor.bin", 10);
+            assertFalse(SessionUploader.hasPendingUpload(session));
+            SessionUploader.markPending(session);
+            SessionUploader.markPending(session);
+            assertTrue(SessionUploader.hasPendingUpload(session));
+            SessionUploader uploader = new SessionUploader(server.getUrl(), CHUNK_SIZE, 1);
+            try {
+                uploader.uploadBlocking(session);
+            } finally {
+                uploader.shutdown();
+            }
+            assertEquals(1, server.getPutCount());
+            assertFalse(SessionUploader.hasPendingUpload(session));
+            SessionUploader.markPending(session);
+            assertFalse(SessionUploader.hasPendingUpload(session));
+        } finally {
+            server.stop();
+            delete(session);
+        }
+    }
+
+    private static File createSession(String name) throws IOException {
+        File root = File.createTempFile("sessions", "");
+        if (!root.delete() || !root.mkdir()) {
+            throw new IOException("Cannot create " + root);
+        }
+        File session = new File(root, name);
+        if (!session.mkdir()) {
+            throw new IOException("Cannot create " + session);
+        }
+        return session;
+    }
+
+    private static byte[] writeFile(File dir, String name, int length) throws IOException {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        FileOutputStream out = new FileOutputStream(new File(dir, name));
+        out.write(data);
+        out.close();
+        return data;
+    }
+
+    private static void delete(File session) {
+        File root = session.getParentFile();
+        File[] files = session.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        session.delete();
+        root.delete();
+    }
+}
@@ -0,0 +1,228 @@
+package com.getyourlocation.app.client.upload;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * Local server speaking the protocol of {@link SessionUploader}, with failure injection.
+ */
+public class StandInUploadServer {
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    // Chunks by "session/file"
+    private final Map<String, TreeMap<Integer, byte[]>> chunks = new HashMap<>();
+    private final Map<String, byte[]> completed = new HashMap<>();
+    private final Map<String, Integer> failures = new HashMap<>();
+    private final AtomicInteger putCount = new AtomicInteger();
+    private final AtomicInteger activePuts = new AtomicInteger();
+    private final AtomicInteger maxActivePuts = new AtomicInteger();
+    private volatile CountDownLatch putBarrier = new CountDownLatch(0);
+    private volatile long putBarrierTimeoutMs = 0;
+
+    public StandInUploadServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    dispatch(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/api/sessions";
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Answer the next PUTs of a chunk with HTTP 500.
+     */
+    public synchronized void failChunk(String session, String file, int index, int times) {
+        failures.put(session + "/" + file + "/" + index, times);
+    }
+
+    /**
+     * Store a chunk as if it had been uploaded before.
+     */
+    public synchronized void putChunk(String session, String file, int index, byte[] data) {
+        chunksOf(session + "/" + file).put(index, data);
+    }
+
+    /**
+     * Hold the next PUTs until a number of them are in flight together, or until a timeout,
+     * then answer them all.
+     */
+    public void holdPutsUntil(int parallelPuts, long timeoutMs) {
+        putBarrierTimeoutMs = timeoutMs;
+        putBarrier = new CountDownLatch(parallelPuts);
+    }
+
+    /**
+     * Return the assembled content of a completed file, or null.
+     */
+    public synchronized byte[] getFile(String session, String file) {
+        return completed.get(session + "/" + file);
+    }
+
+    public int getPutCount() {
+        return putCount.get();
+    }
+
+    public int getMaxActivePuts() {
+        return maxActivePuts.get();
+    }
+
+    private void dispatch(HttpExchange exchange) throws IOException {
+        // /api/sessions/{session}/files/{file}/...
+        String[] parts = exchange.getRequestURI().getRawPath().split("/");
+        if (parts.length < 7 || !parts[4].equals("files")) {
+            respond(exchange, 404, "Not found");
+            return;
+        }
+        String key = URLDecoder.decode(parts[3], "UTF-8") + "/" + URLDecoder.decode(parts[5], "UTF-8");
+        String method = exchange.getRequestMethod();
+        if (parts.length == 7 && parts[6].equals("chunks") && method.equals("GET")) {
+            listChunks(exchange, key);
+        } else if (parts.length == 8 && parts[6].equals("chunks") && method.equals("PUT")) {
+            storeChunk(exchange, key, Integer.parseInt(parts[7]));
+        } else if (parts.length == 7 && parts[6].equals("complete") && method.equals("POST")) {
+            complete(exchange, key);
+        } else {
+            respond(exchange, 404, "Not found");
+        }
+    }
+
+    private void listChunks(HttpExchange exchange, String key) throws IOException {
+        StringBuilder body = new StringBuilder();
+        synchronized (this) {
+            if (!chunks.containsKey(key)) {
+                respond(exchange, 404, "Not found");
+                return;
+            }
+            for (int index : chunks.get(key).keySet()) {
+                body.append(index).append('\n');
+            }
+        }
+        respond(exchange, 200, body.toString());
+    }
+
+    private void storeChunk(HttpExchange exchange, String key, int index) throws IOException {
+        putCount.incrementAndGet();
+        int active = activePuts.incrementAndGet();
+        try {
+            int max;
+            while (active > (max = maxActivePuts.get()) && !maxActivePuts.compareAndSet(max, active)) {
+                // Retry
+            }
+            byte[] data = readBody(exchange.getRequestBody());
+            CountDownLatch barrier = putBarrier;
+            barrier.countDown();
+            barrier.await(putBarrierTimeoutMs, TimeUnit.MILLISECONDS);
+            synchronized (this) {
+                Integer remaining = failures.get(key + "/" + index);
+                if (remaining != null && remaining > 0) {
+                    failures.put(key + "/" + index, remaining - 1);
+                    respond(exchange, 500, "Injected failure");
+                    return;
+                }
+            }
+            CRC32 crc = new CRC32();
+            crc.update(data, 0, data.length);
+            String expected = exchange.getRequestHeaders().getFirst("X-Chunk-CRC32");
+            if (expected == null || Long.parseLong(expected) != crc.getValue()) {
+                respond(exchange, 400, "Bad checksum");
+                return;
+            }
+            synchronized (this) {
+                chunksOf(key).put(index, data);
+            }
+            respond(exchange, 204, null);
+        } catch (InterruptedException e) {
+            respond(exchange, 503, "Interrupted");
+        } finally {
+            activePuts.decrementAndGet();
+        }
+    }
+
+    private void complete(HttpExchange exchange, String key) throws IOException {
+        long length = Long.parseLong(exchange.getRequestHeaders().getFirst("X-File-Length"));
+        int count = Integer.parseInt(exchange.getRequestHeaders().getFirst("X-Chunk-Count"));
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        synchronized (this) {
+            TreeMap<Integer, byte[]> stored = chunksOf(key);
+            for (int i = 0; i < count; ++i) {
+                if (!stored.containsKey(i)) {
+                    respond(exchange, 409, "Missing chunk " + i);
+                    return;
+                }
+                file.write(stored.get(i));
+            }
+            if (file.size() != length) {
+                respond(exchange, 409, "Length mismatch");
+                return;
+            }
+            completed.put(key, file.toByteArray());
+        }
+        respond(exchange, 200, "OK");
+    }
+
+    private TreeMap<Integer, byte[]> chunksOf(String key) {
+        TreeMap<Integer, byte[]> stored = chunks.get(key);
+        if (stored == null) {
+            stored = new TreeMap<>();
+            chunks.put(key, stored);
+        }
+        return stored;
+    }
+
+    private static byte[] readBody(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private static void respond(HttpExchange exchange, int code, String body) throws IOException {
+        if (body == null) {
+            exchange.sendResponseHeaders(code, -1);
+            return;
+        }
+        byte[] bytes = body.getBytes("UTF-8");
+        exchange.sendResponseHeaders(code, bytes.length == 0 ? -1 : bytes.length);
+        if (bytes.length > 0) {
+            OutputStream out = exchange.getResponseBody();
+            out.write(bytes);
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.getyourlocation.app.client.upload;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class UploadProgressTest {
+    private static final int CHUNK_SIZE = 1000;
+
+    @Test
+    public void load_ignoresLineCutShort() throws Exception {
+        File session = createSession();
+        try {
+            // "c frames.gyc 12" cut by a crash
+            writeProgress(session, "chunk-size 1000\nc frames.gyc 0\nc frames.gyc 1");
+            UploadProgress progress = new UploadProgress(session, CHUNK_SIZE);
+            assertTrue(progress.isChunkDone("frames.gyc", 0));
+            assertFalse(progress.isChunkDone("frames.gyc", 1));
+            progress.setChunkDone("frames.gyc", 12);
+            progress.close();
+
+            // The new line is not appended to the cut one
+            progress = new UploadProgress(session, CHUNK_SIZE);
+            assertTrue(progress.isChunkDone("frames.gyc", 0));
+            assertFalse(progress.isChunkDone("frames.gyc", 1));
+            assertTrue(progress.isChunkDone("frames.gyc", 12));
+            progress.close();
+        } finally {
+            delete(session);
+        }
+    }
+
+    @Test
+    public void isPending_ignoresDoneCutShort() throws Exception {
+        File session = createSession();
+        try {
+            assertFalse(UploadProgress.isPending(session));
+            writeProgress(session, "chunk-size 1000\nf frames.gyc\ndone");
+            assertTrue(UploadProgress.isPending(session));
+            writeProgress(session, "chunk-size 1000\nf frames.gyc\ndone\n");
+            assertFalse(UploadProgress.isPending(session));
+        } finally {
+            delete(session);
+        }
+    }
+
+    private static File createSession() throws IOException {
+        File session = File.createTempFile("session", "");
+        if (!session.delete() || !session.mkdir()) {
+            throw new IOException("Failed to create " + session);
+        }
+        return session;
+    }
+
+    private static void writeProgress(File session, String content) throws IOException {
+        FileOutputStream out = new FileOutputStream(new File(session, UploadProgress.FILENAME));
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void delete(File session) {
+        File[] files = session.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        session.delete();
+    }
+}
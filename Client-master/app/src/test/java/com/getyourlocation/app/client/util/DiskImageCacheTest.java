@@ -0,0 +1,106 @@
+package com.getyourlocation.app.client.util;
+
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+public class DiskImageCacheTest {
+
+    @Test
+    public void get_returnsWhatWasPut() throws Exception {
+        File dir = createDir();
+        try {
+            DiskImageCache cache = new DiskImageCache(dir, 1000);
+            assertNull(cache.get("http://a/1.jpg"));
+            cache.put("http://a/1.jpg", new byte[]{1, 2, 3});
+            assertArrayEquals(new byte[]{1, 2, 3}, cache.get("http://a/1.jpg"));
+            cache.put("http://a/1.jpg", new byte[]{4, 5});
+            assertArrayEquals(new byte[]{4, 5}, cache.get("http://a/1.jpg"));
+            assertEquals(2, cache.getSize());
+            assertEquals(1, cache.getEntryCount());
+            assertEquals(2, cache.getHitCount());
+            assertEquals(1, cache.getMissCount());
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void put_evictsLeastRecentlyUsed() throws Exception {
+        File dir = createDir();
+        try {
+            DiskImageCache cache = new DiskImageCache(dir, 300);
+            cache.put("a", new byte[100]);
+            cache.put("b", new byte[100]);
+            cache.put("c", new byte[100]);
+            assertNotNull(cache.get("a"));
+            cache.put("d", new byte[100]);
+            assertNull(cache.get("b"));
+            assertNotNull(cache.get("a"));
+            assertNotNull(cache.get("c"));
+            assertNotNull(cache.get("d"));
+            assertEquals(1, cache.getEvictionCount());
+            assertEquals(300, cache.getSize());
+            assertEquals(3, dir.listFiles().length);
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void open_keepsFilesOfPreviousRuns() throws Exception {
+        File dir = createDir();
+        try {
+            DiskImageCache cache = new DiskImageCache(dir, 1000);
+            cache.put("a", new byte[]{7});
+            cache.put("b", new byte[100]);
+            // Left by an interrupted write
+            assertTrue(new File(dir, "x.1.tmp").createNewFile());
+            cache = new DiskImageCache(dir, 1000);
+            assertEquals(2, cache.getEntryCount());
+            assertEquals(101, cache.getSize());
+            assertArrayEquals(new byte[]{7}, cache.get("a"));
+            assertFalse(new File(dir, "x.1.tmp").exists());
+            cache.clear();
+            assertEquals(0, cache.getSize());
+            assertNull(cache.get("a"));
+            assertEquals(0, dir.listFiles().length);
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void get_missesDeletedFiles() throws Exception {
+        File dir = createDir();
+        try {
+            DiskImageCache cache = new DiskImageCache(dir, 1000);
+            cache.put("a", new byte[10]);
+            for (File file : dir.listFiles()) {
+                assertTrue(file.delete());
+            }
+            assertNull(cache.get("a"));
+            assertEquals(0, cache.getSize());
+        } finally {
+            delete(dir);
+        }
+    }
+
+    private static File createDir() throws Exception {
+        File dir = File.createTempFile("images", "");
+        assertTrue(dir.delete());
+        return dir;
+    }
+
+    private static void delete(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+}
@@ -0,0 +1,71 @@
+package com.getyourlocation.app.client.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SensorRingBufferTest {
+    private static final long MS = 1000000L;
+
+    @Test
+    public void valueAt_interpolatesBetweenSamples() throws Exception {
+        SensorRingBuffer buffer = new SensorRingBuffer(4, 2);
+        buffer.add(10 * MS, new float[]{0, 10});
+        buffer.add(20 * MS, new float[]{1, 20});
+        float[] out = new float[2];
+        assertTrue(buffer.valueAt(15 * MS, out));
+        assertEquals(0.5, out[0], 1e-6);
+        assertEquals(15, out[1], 1e-6);
+        assertTrue(buffer.valueAt(30 * MS, out));
+        assertEquals(1, out[0], 1e-6);
+        assertFalse(buffer.valueAt(5 * MS, out));
+    }
+
+    @Test
+    public void add_overwritesOldestAndIgnoresOlderSamples() throws Exception {
+        SensorRingBuffer buffer = new SensorRingBuffer(3, 1);
+        for (int i = 1; i <= 5; ++i) {
+            buffer.add(i * MS, new float[]{i});
+        }
+        buffer.add(4 * MS, new float[]{100});
+        assertEquals(3, buffer.size());
+        assertEquals(3 * MS, buffer.getOldestTimestamp());
+        assertEquals(5 * MS, buffer.getNewestTimestamp());
+        float[] out = new float[1];
+        assertFalse(buffer.valueAt(2 * MS, out));
+        assertTrue(buffer.valueAt(4 * MS + MS / 2, out));
+        assertEquals(4.5, out[0], 1e-6);
+    }
+
+    @Test
+    public void integralAt_integratesConstantRateAcrossWrap() throws Exception {
+        SensorRingBuffer buffer = new SensorRingBuffer(8, 3);
+        // 2 units per second around z for one second, sampled every 5 ms
+        for (int i = 0; i <= 200; ++i) {
+            buffer.add(i * 5 * MS, new float[]{0, 0, 2});
+        }
+        double[] out = new double[3];
+        assertTrue(buffer.integralAt(1000 * MS, out));
+        assertEquals(2, out[2], 1e-9);
+        assertTrue(buffer.integralAt(997 * MS, out));
+        assertEquals(1.994, out[2], 1e-9);
+        assertTrue(buffer.integralAt(1100 * MS, out));
+        assertEquals(2.2, out[2], 1e-9);
+        assertFalse(buffer.integralAt(500 * MS, out));
+    }
+
+    @Test
+    public void integralAt_usesTrapezoidsForChangingRate() throws Exception {
+        SensorRingBuffer buffer = new SensorRingBuffer(4, 1);
+        buffer.add(0, new float[]{0});
+        buffer.add(1000 * MS, new float[]{2});
+        double[] out = new double[1];
+        assertTrue(buffer.integralAt(1000 * MS, out));
+        assertEquals(1, out[0], 1e-9);
+        assertTrue(buffer.integralAt(500 * MS, out));
+        assertEquals(0.25, out[0], 1e-9);
+        buffer.clear();
+        assertEquals(0, buffer.size());
+        assertFalse(buffer.integralAt(500 * MS, out));
+    }
+}
@@ -0,0 +1,91 @@
+package com.getyourlocation.app.client.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Stress test of {@link SensorSnapshot}: every tuple a reader copies must come from a single
+ * update.
+ */
+public class SensorSnapshotTest {
+    private static final int READER_COUNT = 4;
+    private static final int UPDATE_COUNT = 2000000;
+
+    @Test
+    public void read_returnsLastPublished() throws Exception {
+        SensorSnapshot snapshot = new SensorSnapshot();
+        snapshot.publish(new float[]{1, 2, 3}, new float[]{4, 5, 6}, new float[]{7, 8, 9}, 10);
+        float[] orientation = new float[3];
+        float[] acceleration = new float[3];
+        float[] magnetism = new float[3];
+        assertEquals(10, snapshot.read(orientation, acceleration, magnetism), 0);
+        assertArrayEquals(new float[]{1, 2, 3}, orientation, 0);
+        assertArrayEquals(new float[]{4, 5, 6}, acceleration, 0);
+        assertArrayEquals(new float[]{7, 8, 9}, magnetism, 0);
+        assertEquals(1, snapshot.getUpdateCount());
+    }
+
+    @Test
+    public void read_neverTearsUnderConcurrentUpdates() throws Exception {
+        final SensorSnapshot snapshot = new SensorSnapshot();
+        snapshot.publish(new float[]{0, 1, 2}, new float[]{3, 4, 5}, new float[]{6, 7, 8}, 9);
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicReference<String> failure = new AtomicReference<>();
+        final long[] readCounts = new long[READER_COUNT];
+        Thread[] readers = new Thread[READER_COUNT];
+        for (int r = 0; r < READER_COUNT; ++r) {
+            final int id = r;
+            readers[r] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    float[] orientation = new float[3];
+                    float[] acceleration = new float[3];
+                    float[] magnetism = new float[3];
+                    float last = 0;
+                    while (running.get() && failure.get() == null) {
+                        double gyro = snapshot.read(orientation, acceleration, magnetism);
+                        float k = orientation[0];
+                        for (int i = 0; i < 3; ++i) {
+                            if (orientation[i] != k + i || acceleration[i] != k + 3 + i
+                                    || magnetism[i] != k + 6 + i) {
+                                failure.set("Torn tuple at update " + k);
+                            }
+                        }
+                        if (gyro != k + 9) {
+                            failure.set("Torn gyro angle at update " + k);
+                        }
+                        if (k < last) {
+                            failure.set("Update " + k + " read after " + last);
+                        }
+                        last = k;
+                        ++readCounts[id];
+                    }
+                }
+            });
+            readers[r].start();
+        }
+        float[] orientation = new float[3];
+        float[] acceleration = new float[3];
+        float[] magnetism = new float[3];
+        for (int k = 1; k < UPDATE_COUNT && failure.get() == null; ++k) {
+            for (int i = 0; i < 3; ++i) {
+                orientation[i] = k + i;
+                acceleration[i] = k + 3 + i;
+                magnetism[i] = k + 6 + i;
+            }
+            snapshot.publish(orientation, acceleration, magnetism, k + 9);
+        }
+        running.set(false);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertNull(failure.get(), failure.get());
+        for (long count : readCounts) {
+            assertTrue(count > 0);
+        }
+    }
+}
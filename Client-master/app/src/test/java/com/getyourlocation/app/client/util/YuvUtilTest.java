@@ -0,0 +1,59 @@
+package com.getyourlocation.app.client.util;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class YuvUtilTest {
+    private static final int WIDTH = 8;
+    private static final int HEIGHT = 4;
+
+    @Test
+    public void nv21ToNv12_swapsChromaSamples() throws Exception {
+        byte[] nv21 = frame();
+        byte[] nv12 = new byte[nv21.length];
+        YuvUtil.nv21ToNv12(nv21, nv12, WIDTH, HEIGHT);
+        int ySize = WIDTH * HEIGHT;
+        for (int i = 0; i < ySize; ++i) {
+            assertEquals(nv21[i], nv12[i]);
+        }
+        for (int i = ySize; i < nv21.length; i += 2) {
+            // V then U in NV21, U then V in NV12
+            assertEquals(nv21[i], nv12[i + 1]);
+            assertEquals(nv21[i + 1], nv12[i]);
+        }
+        byte[] back = new byte[nv21.length];
+        YuvUtil.nv12ToNv21(nv12, back, WIDTH, HEIGHT);
+        assertArrayEquals(nv21, back);
+    }
+
+    @Test
+    public void nv21ToI420_splitsChromaPlanes() throws Exception {
+        byte[] nv21 = frame();
+        byte[] i420 = new byte[nv21.length];
+        YuvUtil.nv21ToI420(nv21, i420, WIDTH, HEIGHT);
+        int ySize = WIDTH * HEIGHT;
+        int chromaSize = ySize / 4;
+        for (int i = 0; i < chromaSize; ++i) {
+            assertEquals(nv21[ySize + 2 * i + 1], i420[ySize + i]);
+            assertEquals(nv21[ySize + 2 * i], i420[ySize + chromaSize + i]);
+        }
+        byte[] back = new byte[nv21.length];
+        YuvUtil.i420ToNv21(i420, back, WIDTH, HEIGHT);
+        assertArrayEquals(nv21, back);
+    }
+
+    @Test
+    public void getFrameSize_isOneAndAHalfBytesPerPixel() throws Exception {
+        assertEquals(WIDTH * HEIGHT * 3 / 2, YuvUtil.getFrameSize(WIDTH, HEIGHT));
+        assertEquals(1920 * 1080 * 3 / 2, YuvUtil.getFrameSize(1920, 1080));
+    }
+
+    private static byte[] frame() {
+        byte[] frame = new byte[YuvUtil.getFrameSize(WIDTH, HEIGHT)];
+        new Random(1).nextBytes(frame);
+        return frame;
+    }
+}
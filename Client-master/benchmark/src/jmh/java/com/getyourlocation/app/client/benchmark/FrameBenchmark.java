@@ -0,0 +1,78 @@
+package com.getyourlocation.app.client.benchmark;
+
+import com.getyourlocation.app.client.util.YuvUtil;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+
+/**
+ * Work done on every recorded preview frame: NV21 layout conversions for the video encoder
+ * and the color conversion plus JPEG compression of the JPEG record mode.
+ */
+@State(Scope.Thread)
+public class FrameBenchmark {
+    @Param({"640x480", "1280x720", "1920x1080"})
+    public String size;
+
+    private int width;
+    private int height;
+    private byte[] nv21;
+    private byte[] converted;
+    private int[] argb;
+    private BufferedImage image;
+    private ByteArrayOutputStream jpegStream;
+
+    @Setup
+    public void setUp() {
+        String[] dims = size.split("x");
+        width = Integer.parseInt(dims[0]);
+        height = Integer.parseInt(dims[1]);
+        nv21 = new byte[YuvUtil.getFrameSize(width, height)];
+        new Random(42).nextBytes(nv21);
+        converted = new byte[nv21.length];
+        argb = new int[width * height];
+        image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        jpegStream = new ByteArrayOutputStream(width * height);
+    }
+
+    @Benchmark
+    public byte[] nv21ToNv12() {
+        YuvUtil.nv21ToNv12(nv21, converted, width, height);
+        return converted;
+    }
+
+    @Benchmark
+    public byte[] nv21ToI420() {
+        YuvUtil.nv21ToI420(nv21, converted, width, height);
+        return converted;
+    }
+
+    @Benchmark
+    public int[] nv21ToArgb() {
+        Pixels.nv21ToArgb(nv21, width, height, argb);
+        return argb;
+    }
+
+    /**
+     * The saveFrameToFile path minus the disk: color conversion and JPEG compression.
+     */
+    @Benchmark
+    public int compressJpeg() throws IOException {
+        Pixels.nv21ToArgb(nv21, width, height, argb);
+        image.setRGB(0, 0, width, height, argb, 0, width);
+        jpegStream.reset();
+        ImageIO.write(image, "jpg", jpegStream);
+        return jpegStream.size();
+    }
+}
@@ -0,0 +1,66 @@
+package com.getyourlocation.app.client.benchmark;
+
+import com.getyourlocation.app.client.camera.PreviewSizeSelector;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+
+/**
+ * Preview size selection and the scaling of reference photos in PhotoActivity.
+ */
+@State(Scope.Thread)
+public class GeometryBenchmark {
+    // Preview sizes reported by a typical phone
+    private static final int[] WIDTHS = {
+            1920, 1440, 1280, 1280, 1056, 1024, 960, 800, 800, 720, 720, 640, 640, 480, 352, 320, 176};
+    private static final int[] HEIGHTS = {
+            1080, 1080, 960, 720, 864, 768, 720, 600, 480, 540, 480, 480, 360, 320, 288, 240, 144};
+    private static final int PHOTO_WIDTH = 1920;
+    private static final int PHOTO_HEIGHT = 1080;
+    // resizeWidth and resizeHeight of PhotoActivity
+    private static final int THUMB_WIDTH = 228;
+    private static final int THUMB_HEIGHT = 128;
+
+    private int[] photo;
+    private int[] thumbnail;
+
+    @Setup
+    public void setUp() {
+        photo = new int[PHOTO_WIDTH * PHOTO_HEIGHT];
+        Random random = new Random(42);
+        for (int i = 0; i < photo.length; ++i) {
+            photo[i] = random.nextInt() | 0xFF000000;
+        }
+        thumbnail = new int[THUMB_WIDTH * THUMB_HEIGHT];
+    }
+
+    @Benchmark
+    public int choosePreviewSize() {
+        return PreviewSizeSelector.chooseOptimal(WIDTHS, HEIGHTS, 1080, 1794);
+    }
+
+    @Benchmark
+    public int choosePreviewSizeWithoutAspectMatch() {
+        return PreviewSizeSelector.chooseOptimal(WIDTHS, HEIGHTS, 1000, 1000);
+    }
+
+    /**
+     * resizeImg() scales with a matrix and filtering on.
+     */
+    @Benchmark
+    public int[] resizeBilinear() {
+        Pixels.scaleBilinear(photo, PHOTO_WIDTH, PHOTO_HEIGHT, thumbnail, THUMB_WIDTH, THUMB_HEIGHT);
+        return thumbnail;
+    }
+
+    @Benchmark
+    public int[] resizeNearest() {
+        Pixels.scaleNearest(photo, PHOTO_WIDTH, PHOTO_HEIGHT, thumbnail, THUMB_WIDTH, THUMB_HEIGHT);
+        return thumbnail;
+    }
+}
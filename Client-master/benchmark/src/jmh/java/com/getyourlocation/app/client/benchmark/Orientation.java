@@ -0,0 +1,64 @@
+package com.getyourlocation.app.client.benchmark;
+
+
+/**
+ * The math of SensorManager.getRotationMatrix and SensorManager.getOrientation, which
+ * SensorUtil runs on every accelerometer and magnetometer event.
+ */
+public class Orientation {
+
+    /**
+     * Compute the rotation matrix from gravity and the geomagnetic field.
+     *
+     * @param r Receives the 3x3 matrix, row major
+     * @return False if the device is in free fall or the field is too close to gravity
+     */
+    public static boolean getRotationMatrix(float[] r, float[] gravity, float[] geomagnetic) {
+        float ax = gravity[0], ay = gravity[1], az = gravity[2];
+        float normsqA = ax * ax + ay * ay + az * az;
+        final float g = 9.81f;
+        final float freeFallGravitySquared = 0.01f * g * g;
+        if (normsqA < freeFallGravitySquared) {
+            return false;
+        }
+        float ex = geomagnetic[0], ey = geomagnetic[1], ez = geomagnetic[2];
+        float hx = ey * az - ez * ay;
+        float hy = ez * ax - ex * az;
+        float hz = ex * ay - ey * ax;
+        float normH = (float) Math.sqrt(hx * hx + hy * hy + hz * hz);
+        if (normH < 0.1f) {
+            return false;
+        }
+        float invH = 1.0f / normH;
+        hx *= invH;
+        hy *= invH;
+        hz *= invH;
+        float invA = 1.0f / (float) Math.sqrt(normsqA);
+        ax *= invA;
+        ay *= invA;
+        az *= invA;
+        float mx = ay * hz - az * hy;
+        float my = az * hx - ax * hz;
+        float mz = ax * hy - ay * hx;
+        r[0] = hx;
+        r[1] = hy;
+        r[2] = hz;
+        r[3] = mx;
+        r[4] = my;
+        r[5] = mz;
+        r[6] = ax;
+        r[7] = ay;
+        r[8] = az;
+        return true;
+    }
+
+    /**
+     * Compute azimuth, pitch and roll in radians from a rotation matrix.
+     */
+    public static float[] getOrientation(float[] r, float[] values) {
+        values[0] = (float) Math.atan2(r[1], r[4]);
+        values[1] = (float) Math.asin(-r[7]);
+        values[2] = (float) Math.atan2(-r[6], r[8]);
+        return values;
+    }
+}
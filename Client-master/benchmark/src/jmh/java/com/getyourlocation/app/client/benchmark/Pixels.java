@@ -0,0 +1,85 @@
+package com.getyourlocation.app.client.benchmark;
+
+
+/**
+ * Plain Java stand-ins for the Android image calls used by the app, so that the same amount
+ * of pixel work can be measured on the JVM.
+ */
+public class Pixels {
+
+    /**
+     * Convert an NV21 frame to ARGB pixels, as YuvImage does before JPEG compression.
+     */
+    public static void nv21ToArgb(byte[] nv21, int width, int height, int[] argb) {
+        int frameSize = width * height;
+        for (int y = 0; y < height; ++y) {
+            int uvRow = frameSize + (y >> 1) * width;
+            for (int x = 0; x < width; ++x) {
+                int lum = (nv21[y * width + x] & 0xFF) - 16;
+                if (lum < 0) {
+                    lum = 0;
+                }
+                int uv = uvRow + (x & ~1);
+                int v = (nv21[uv] & 0xFF) - 128;
+                int u = (nv21[uv + 1] & 0xFF) - 128;
+                int y1192 = 1192 * lum;
+                int r = clamp((y1192 + 1634 * v) >> 10);
+                int g = clamp((y1192 - 833 * v - 400 * u) >> 10);
+                int b = clamp((y1192 + 2066 * u) >> 10);
+                argb[y * width + x] = 0xFF000000 | (r << 16) | (g << 8) | b;
+            }
+        }
+    }
+
+    /**
+     * Scale ARGB pixels by picking the nearest source pixel.
+     */
+    public static void scaleNearest(int[] src, int srcWidth, int srcHeight,
+                                    int[] dst, int dstWidth, int dstHeight) {
+        for (int y = 0; y < dstHeight; ++y) {
+            int sy = y * srcHeight / dstHeight;
+            for (int x = 0; x < dstWidth; ++x) {
+                dst[y * dstWidth + x] = src[sy * srcWidth + x * srcWidth / dstWidth];
+            }
+        }
+    }
+
+    /**
+     * Scale ARGB pixels with bilinear filtering, like Bitmap.createBitmap with a scale
+     * matrix and filtering on.
+     */
+    public static void scaleBilinear(int[] src, int srcWidth, int srcHeight,
+                                     int[] dst, int dstWidth, int dstHeight) {
+        // 16.16 fixed point steps between source pixels
+        int stepX = (int) (((long) (srcWidth - 1) << 16) / Math.max(1, dstWidth - 1));
+        int stepY = (int) (((long) (srcHeight - 1) << 16) / Math.max(1, dstHeight - 1));
+        for (int y = 0, fy = 0; y < dstHeight; ++y, fy += stepY) {
+            int sy = fy >>> 16;
+            int wy = (fy >>> 8) & 0xFF;
+            int row0 = sy * srcWidth;
+            int row1 = Math.min(sy + 1, srcHeight - 1) * srcWidth;
+            for (int x = 0, fx = 0; x < dstWidth; ++x, fx += stepX) {
+                int sx = fx >>> 16;
+                int wx = (fx >>> 8) & 0xFF;
+                int sx1 = Math.min(sx + 1, srcWidth - 1);
+                dst[y * dstWidth + x] = blend(
+                        blend(src[row0 + sx], src[row0 + sx1], wx),
+                        blend(src[row1 + sx], src[row1 + sx1], wx), wy);
+            }
+        }
+    }
+
+    /**
+     * Mix two ARGB pixels, weight out of 256 given to the second.
+     */
+    private static int blend(int a, int b, int weight) {
+        int inv = 256 - weight;
+        int rb = (((a & 0xFF00FF) * inv + (b & 0xFF00FF) * weight) >>> 8) & 0xFF00FF;
+        int ag = (((a >>> 8) & 0xFF00FF) * inv + ((b >>> 8) & 0xFF00FF) * weight) & 0xFF00FF00;
+        return ag | rb;
+    }
+
+    private static int clamp(int c) {
+        return c < 0 ? 0 : (c > 255 ? 255 : c);
+    }
+}
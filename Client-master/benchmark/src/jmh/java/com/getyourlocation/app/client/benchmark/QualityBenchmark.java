@@ -0,0 +1,50 @@
+package com.getyourlocation.app.client.benchmark;
+
+import com.getyourlocation.app.client.record.FrameQualityAnalyzer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+
+/**
+ * Sharpness and exposure scoring of a preview frame. With the default budget the sampling
+ * step settles where the analysis fits the budget; without a budget it shrinks to the
+ * smallest step, the most work the analyzer ever does.
+ */
+@State(Scope.Thread)
+public class QualityBenchmark {
+    @Param({"640x480", "1280x720", "1920x1080"})
+    public String size;
+
+    @Param({"default", "unlimited"})
+    public String budget;
+
+    private int width;
+    private int height;
+    private byte[] nv21;
+    private FrameQualityAnalyzer analyzer;
+    private final FrameQualityAnalyzer.Result result = new FrameQualityAnalyzer.Result();
+
+    @Setup
+    public void setUp() {
+        String[] dims = size.split("x");
+        width = Integer.parseInt(dims[0]);
+        height = Integer.parseInt(dims[1]);
+        nv21 = new byte[width * height * 3 / 2];
+        new Random(42).nextBytes(nv21);
+        long budgetNs = budget.equals("default") ? FrameQualityAnalyzer.DEFAULT_BUDGET_NS : Long.MAX_VALUE;
+        analyzer = new FrameQualityAnalyzer(budgetNs, FrameQualityAnalyzer.DEFAULT_MIN_SHARPNESS,
+                FrameQualityAnalyzer.DEFAULT_MAX_CLIPPED_FRACTION);
+    }
+
+    @Benchmark
+    public float analyze() {
+        analyzer.analyze(nv21, width, height, result);
+        return result.sharpness;
+    }
+}
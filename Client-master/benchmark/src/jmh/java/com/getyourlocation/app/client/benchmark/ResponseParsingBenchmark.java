@@ -0,0 +1,57 @@
+package com.getyourlocation.app.client.benchmark;
+
+import com.getyourlocation.app.client.network.JsonStreamReader;
+import com.getyourlocation.app.client.network.ShopLocation;
+import com.getyourlocation.app.client.network.UploadResult;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+
+/**
+ * Parsing response bodies into typed results on the network thread, against the String and
+ * JSONObject of the former response handlers. Allocation is reported by the gc profiler.
+ *
+ * The JVM org.json is the reference implementation rather than the one of Android, but both
+ * build the same map of boxed values.
+ */
+@State(Scope.Thread)
+public class ResponseParsingBenchmark {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final byte[] shopLocation = "{\"x\": 152.375, \"y\": 87.5}".getBytes(UTF_8);
+    private final byte[] uploadResult = "{\"files\": [\"/upload/20170601/3f2a9c.jpg\"]}".getBytes(UTF_8);
+
+    @Benchmark
+    public double shopLocationJsonObject() throws JSONException {
+        JSONObject jsonObj = new JSONObject(new String(shopLocation, UTF_8));
+        double x = ((Number) jsonObj.get("x")).doubleValue();
+        double y = ((Number) jsonObj.get("y")).doubleValue();
+        return x + y;
+    }
+
+    @Benchmark
+    public float shopLocationStreaming() throws IOException {
+        ShopLocation shop = ShopLocation.PARSER.parse(new JsonStreamReader(shopLocation));
+        return shop.x + shop.y;
+    }
+
+    @Benchmark
+    public int uploadResultJsonObject() throws JSONException {
+        JSONObject jsonObj = new JSONObject(new String(uploadResult, UTF_8));
+        JSONArray jsonArr = jsonObj.getJSONArray("files");
+        return ((String) jsonArr.get(0)).length();
+    }
+
+    @Benchmark
+    public int uploadResultStreaming() throws IOException {
+        return UploadResult.PARSER.parse(new JsonStreamReader(uploadResult)).files.get(0).length();
+    }
+}
@@ -0,0 +1,139 @@
+package com.getyourlocation.app.client.benchmark;
+
+import com.getyourlocation.app.client.record.SensorLogWriter;
+import com.getyourlocation.app.client.util.SensorRingBuffer;
+import com.getyourlocation.app.client.util.SensorSnapshot;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+
+
+/**
+ * Per-frame and per-event sensor work: formatting a row of the old sensor.txt, appending the
+ * record of sensor.bin with {@link SensorLogWriter}, reading the snapshot, sampling the history at a frame time and
+ * the orientation math of each sensor event.
+ */
+@State(Scope.Thread)
+public class SensorBenchmark {
+    private static final long PERIOD_NS = 5000000L;
+    private static final int HISTORY = 2048;
+
+    private final float[] orientation = {-123.25f, 4.5f, -0.75f};
+    private final float[] acceleration = {0.125f, 9.75f, 0.5f};
+    private final float[] magnetism = {30.5f, -20.25f, -40.125f};
+    private final float focalLength = 4.5f;
+    private final double gyroAngle = 12.5;
+    private final float sharpness = 310.5f;
+    private final int jpegQuality = 85;
+    private int frame = 1;
+
+    private final StringBuilder row = new StringBuilder(128);
+    private File logFile;
+    private SensorLogWriter sensorLog;
+    private final SensorSnapshot snapshot = new SensorSnapshot();
+    private final SensorRingBuffer accelerationHistory = new SensorRingBuffer(HISTORY, 3);
+    private final SensorRingBuffer gyroscopeHistory = new SensorRingBuffer(HISTORY, 3);
+    private final float[] rotation = new float[9];
+    private final float[] outOrientation = new float[3];
+    private final float[] outAcceleration = new float[3];
+    private final float[] outMagnetism = new float[3];
+    private final double[] outIntegral = new double[3];
+    private long queryTime;
+
+    @Setup
+    public void setUp() throws IOException {
+        logFile = File.createTempFile("sensor", ".bin");
+        sensorLog = new SensorLogWriter(logFile);
+        snapshot.publish(orientation, acceleration, magnetism, gyroAngle);
+        float[] sample = new float[3];
+        for (int i = 0; i < HISTORY; ++i) {
+            sample[0] = (float) Math.sin(i * 0.01);
+            sample[1] = 9.8f;
+            sample[2] = (float) Math.cos(i * 0.01);
+            accelerationHistory.add(i * PERIOD_NS, sample);
+            gyroscopeHistory.add(i * PERIOD_NS, sample);
+        }
+        queryTime = HISTORY / 2 * PERIOD_NS + PERIOD_NS / 3;
+    }
+
+    /**
+     * A row as CollectDataActivity used to build it with getSensorDataString().
+     */
+    @Benchmark
+    public String formatLegacyRow() {
+        return frame + " : " + focalLength + ";"
+                + orientation[0] + " " + orientation[1] + " " + orientation[2] + "; "
+                + acceleration[0] + " " + acceleration[1] + " " + acceleration[2] + "; "
+                + magnetism[0] + " " + magnetism[1] + " " + magnetism[2] + ".";
+    }
+
+    /**
+     * The same row appended to a reused builder, as SensorLogConverter does.
+     */
+    @Benchmark
+    public int formatRowWithBuilder() {
+        row.setLength(0);
+        row.append(frame).append(" : ").append(focalLength).append(';');
+        appendTriple(orientation).append("; ");
+        appendTriple(acceleration).append("; ");
+        appendTriple(magnetism).append('.');
+        return row.length();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        sensorLog.close();
+        logFile.delete();
+    }
+
+    /**
+     * A record as CollectDataActivity writes it, including the wait for the writer thread
+     * when its ring is full.
+     */
+    @Benchmark
+    public int writeBinaryRecord() throws IOException {
+        sensorLog.write(frame, queryTime, focalLength, orientation, acceleration, magnetism,
+                gyroAngle, sharpness, 0, jpegQuality);
+        return sensorLog.getRecordCount();
+    }
+
+    @Benchmark
+    public double readSnapshot() {
+        return snapshot.read(outOrientation, outAcceleration, outMagnetism);
+    }
+
+    @Benchmark
+    public float[] interpolateAtFrameTime() {
+        accelerationHistory.valueAt(queryTime, outAcceleration);
+        return outAcceleration;
+    }
+
+    @Benchmark
+    public double[] integrateGyroscope() {
+        gyroscopeHistory.integralAt(queryTime, outIntegral);
+        return outIntegral;
+    }
+
+    /**
+     * What SensorUtil computes on each accelerometer or magnetometer event.
+     */
+    @Benchmark
+    public float[] computeOrientation() {
+        Orientation.getRotationMatrix(rotation, acceleration, magnetism);
+        Orientation.getOrientation(rotation, outOrientation);
+        for (int i = 0; i < 3; ++i) {
+            outOrientation[i] = (float) Math.toDegrees((double) outOrientation[i]);
+        }
+        return outOrientation;
+    }
+
+    private StringBuilder appendTriple(float[] v) {
+        return row.append(v[0]).append(' ').append(v[1]).append(' ').append(v[2]);
+    }
+}
@@ -0,0 +1,72 @@
+package com.getyourlocation.app.client.benchmark;
+
+import com.getyourlocation.app.client.location.TriangulationSolver;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+
+/**
+ * Solving the position of PhotoActivity on the phone, which replaces a request to the
+ * positioning API.
+ */
+@State(Scope.Thread)
+public class TriangulationBenchmark {
+    private static final int CASES = 1024;
+
+    // angle12, angle23, x1, y1, x2, y2, x3, y3 of each case
+    private final double[] cases = new double[CASES * 8];
+    private final double[] out = new double[2];
+    private int next = 0;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        int count = 0;
+        while (count < CASES) {
+            double px = random.nextDouble() * 100;
+            double py = random.nextDouble() * 100;
+            int base = count * 8;
+            for (int k = 2; k < 8; ++k) {
+                cases[base + k] = random.nextDouble() * 100;
+            }
+            double b1 = bearing(px, py, cases[base + 2], cases[base + 3]);
+            double b2 = bearing(px, py, cases[base + 4], cases[base + 5]);
+            double b3 = bearing(px, py, cases[base + 6], cases[base + 7]);
+            cases[base] = positive(b2 - b1);
+            cases[base + 1] = positive(b3 - b2);
+            if (cases[base] + cases[base + 1] < 360) {
+                ++count;
+            }
+        }
+    }
+
+    @Benchmark
+    public double solve() {
+        int base = next * 8;
+        next = (next + 1) & (CASES - 1);
+        int result = TriangulationSolver.solve(cases[base], cases[base + 1], cases[base + 2], cases[base + 3],
+                cases[base + 4], cases[base + 5], cases[base + 6], cases[base + 7], out);
+        return result + out[0] + out[1];
+    }
+
+    /**
+     * The sample of PhotoActivity, which is rejected as degenerate.
+     */
+    @Benchmark
+    public int solveDegenerate() {
+        return TriangulationSolver.solve(45, 45, -1, 0, 0, -1, 1, 0, out);
+    }
+
+    private static double bearing(double px, double py, double x, double y) {
+        return Math.toDegrees(Math.atan2(y - py, x - px));
+    }
+
+    private static double positive(double degrees) {
+        return degrees < 0 ? degrees + 360 : degrees;
+    }
+}